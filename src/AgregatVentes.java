@@ -0,0 +1,328 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Agregat en memoire des ventes payees, par colonnes, pour les rapports (consulterRapportVentes)
+ *
+ * Chaque facture payee est ajoutee a l'heure de sa facturation (heure locale du serveur, comme le chiffre d'affaires
+ * journalier) dans trois tables : par reference, par famille et par facture. Une ligne de table cumule, pour une heure,
+ * une cle (reference ou famille) et un mode de paiement : montant en centimes, unites vendues et factures concernees.
+ * Les lignes des HEURES_OUVERTES dernieres heures sont completees en place ; une facture plus ancienne ajoute une ligne.
+ *
+ * Les colonnes sont des tableaux de types primitifs par blocs de TAILLE_BLOC lignes. Chaque bloc garde ses heures
+ * minimale et maximale : un rapport saute les blocs hors de la periode et ne filtre que ceux qui la chevauchent.
+ * Les references, familles et modes de paiement sont codes par dictionnaire : un rapport cumule dans des tableaux
+ * indexes par le code, sans table de hachage.
+ */
+public class AgregatVentes {
+
+    private static final int TAILLE_BLOC = 4096;
+    private static final int HEURES_OUVERTES = 48;
+    private static final long HEURE_MS = 3_600_000L;
+    private static final String FAMILLE_INCONNUE = "inconnue";
+    private static final byte FORMAT = 1;
+
+    private final ZoneId fuseau = ZoneId.systemDefault();
+    private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+
+    private final Dictionnaire references = new Dictionnaire();
+    private final Dictionnaire familles = new Dictionnaire();
+    private final Dictionnaire modes = new Dictionnaire();
+    private final Table parReference = new Table();
+    private final Table parFamille = new Table();
+    private final Table parFacture = new Table();
+    private long nbFactures;
+
+    /**
+     * Codes des valeurs d'une dimension, dans l'ordre d'apparition
+     */
+    private static final class Dictionnaire {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> valeurs = new ArrayList<>();
+
+        int code(String valeur) {
+            Integer code = codes.get(valeur);
+            if (code == null) {
+                code = valeurs.size();
+                codes.put(valeur, code);
+                valeurs.add(valeur);
+            }
+            return code;
+        }
+
+        String valeur(int code) { return valeurs.get(code); }
+        int taille() { return valeurs.size(); }
+    }
+
+    private static final class Bloc {
+        final int[] heure = new int[TAILLE_BLOC];
+        final int[] cle = new int[TAILLE_BLOC];
+        final int[] mode = new int[TAILLE_BLOC];
+        final long[] centimes = new long[TAILLE_BLOC];
+        final long[] quantite = new long[TAILLE_BLOC];
+        final int[] factures = new int[TAILLE_BLOC];
+        int taille;
+        int heureMin = Integer.MAX_VALUE;
+        int heureMax = Integer.MIN_VALUE;
+    }
+
+    private record Cellule(int heure, int cle, int mode) {
+    }
+
+    /**
+     * Lignes d'un grain (reference, famille ou facture), par blocs
+     */
+    private static final class Table {
+        final List<Bloc> blocs = new ArrayList<>();
+        // Lignes des heures ouvertes, completees en place (valeur : numero de ligne)
+        final Map<Cellule, Integer> ouvertes = new HashMap<>();
+        int heureMax = Integer.MIN_VALUE;
+        // Derniere heure a laquelle les cellules fermees ont ete retirees de ouvertes
+        int heurePurge = Integer.MIN_VALUE;
+        int nbLignes;
+
+        void cumuler(int heure, int cle, int mode, long centimes, long quantite, int factures) {
+            if (heure > heureMax) {
+                heureMax = heure;
+                if (heureMax - heurePurge >= HEURES_OUVERTES) {
+                    heurePurge = heureMax;
+                    ouvertes.keySet().removeIf(cellule -> cellule.heure() <= heurePurge - HEURES_OUVERTES);
+                }
+            }
+            boolean ouverte = heure > heureMax - HEURES_OUVERTES;
+            Cellule cellule = ouverte ? new Cellule(heure, cle, mode) : null;
+            Integer ligne = ouverte ? ouvertes.get(cellule) : null;
+            if (ligne == null) {
+                ligne = ajouterLigne(heure, cle, mode);
+                if (ouverte) {
+                    ouvertes.put(cellule, ligne);
+                }
+            }
+            Bloc bloc = blocs.get(ligne / TAILLE_BLOC);
+            int i = ligne % TAILLE_BLOC;
+            bloc.centimes[i] += centimes;
+            bloc.quantite[i] += quantite;
+            bloc.factures[i] += factures;
+        }
+
+        private int ajouterLigne(int heure, int cle, int mode) {
+            if (nbLignes % TAILLE_BLOC == 0) {
+                blocs.add(new Bloc());
+            }
+            Bloc bloc = blocs.get(blocs.size() - 1);
+            int i = bloc.taille++;
+            bloc.heure[i] = heure;
+            bloc.cle[i] = cle;
+            bloc.mode[i] = mode;
+            bloc.heureMin = Math.min(bloc.heureMin, heure);
+            bloc.heureMax = Math.max(bloc.heureMax, heure);
+            return nbLignes++;
+        }
+    }
+
+    // Alimentation
+
+    /**
+     * Ajoute une facture payee
+     * @param familleDe Famille de chaque reference (null : inconnue)
+     */
+    public void ajouterFacture(long dateFacturation, String modePaiement, List<LigneFacture> lignes, Function<String, String> familleDe) {
+        // Cumul par reference et par famille avant de prendre le verrou : une facture compte une fois par groupe
+        Map<String, long[]> cumulReferences = new LinkedHashMap<>();
+        Map<String, long[]> cumulFamilles = new LinkedHashMap<>();
+        long centimesFacture = 0;
+        long quantiteFacture = 0;
+        for (LigneFacture ligne : lignes) {
+            long centimes = Math.round(ligne.getQuantite() * ligne.getPrixUnitaire() * 100);
+            String famille = familleDe.apply(ligne.getReferenceArticle());
+            cumuler(cumulReferences, ligne.getReferenceArticle(), centimes, ligne.getQuantite());
+            cumuler(cumulFamilles, famille == null ? FAMILLE_INCONNUE : famille, centimes, ligne.getQuantite());
+            centimesFacture += centimes;
+            quantiteFacture += ligne.getQuantite();
+        }
+        int heure = heureDebut(dateFacturation);
+
+        verrou.writeLock().lock();
+        try {
+            int mode = modes.code(modePaiement == null ? "" : modePaiement);
+            for (Map.Entry<String, long[]> cumul : cumulReferences.entrySet()) {
+                parReference.cumuler(heure, references.code(cumul.getKey()), mode, cumul.getValue()[0], cumul.getValue()[1], 1);
+            }
+            for (Map.Entry<String, long[]> cumul : cumulFamilles.entrySet()) {
+                parFamille.cumuler(heure, familles.code(cumul.getKey()), mode, cumul.getValue()[0], cumul.getValue()[1], 1);
+            }
+            parFacture.cumuler(heure, 0, mode, centimesFacture, quantiteFacture, 1);
+            nbFactures++;
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    private static void cumuler(Map<String, long[]> cumuls, String cle, long centimes, long quantite) {
+        long[] cumul = cumuls.computeIfAbsent(cle, c -> new long[2]);
+        cumul[0] += centimes;
+        cumul[1] += quantite;
+    }
+
+    // Rapports
+
+    /**
+     * Ventes des heures qui chevauchent [debut, fin[, regroupees selon la dimension
+     * @return Par heure : les 24 heures dans l'ordre ; sinon les groupes ayant des ventes, par montant decroissant
+     */
+    public List<LigneRapport> rapport(long debut, long fin, DimensionRapport dimension) {
+        int heureDebut = heureDebut(debut);
+        int heureFin = heureFin(fin);
+        Table table = dimension == DimensionRapport.FAMILLE ? parFamille
+                : dimension == DimensionRapport.REFERENCE ? parReference : parFacture;
+
+        List<LigneRapport> lignes = new ArrayList<>();
+        verrou.readLock().lock();
+        try {
+            Dictionnaire groupes = dimension == DimensionRapport.FAMILLE ? familles
+                    : dimension == DimensionRapport.REFERENCE ? references
+                    : dimension == DimensionRapport.MODE_PAIEMENT ? modes : null;
+            int nbGroupes = groupes == null ? 24 : groupes.taille();
+            long[] centimes = new long[nbGroupes];
+            long[] quantites = new long[nbGroupes];
+            long[] factures = new long[nbGroupes];
+
+            for (Bloc bloc : table.blocs) {
+                if (bloc.heureMax < heureDebut || bloc.heureMin >= heureFin) {
+                    continue;
+                }
+                boolean complet = bloc.heureMin >= heureDebut && bloc.heureMax < heureFin;
+                int[] codes = dimension == DimensionRapport.MODE_PAIEMENT ? bloc.mode : bloc.cle;
+                for (int i = 0; i < bloc.taille; i++) {
+                    int heure = bloc.heure[i];
+                    if (!complet && (heure < heureDebut || heure >= heureFin)) {
+                        continue;
+                    }
+                    int groupe = groupes == null ? Math.floorMod(heure, 24) : codes[i];
+                    centimes[groupe] += bloc.centimes[i];
+                    quantites[groupe] += bloc.quantite[i];
+                    factures[groupe] += bloc.factures[i];
+                }
+            }
+
+            for (int groupe = 0; groupe < nbGroupes; groupe++) {
+                if (groupes == null) {
+                    lignes.add(new LigneRapport(String.format("%02dh", groupe), centimes[groupe] / 100.0, quantites[groupe], factures[groupe]));
+                } else if (factures[groupe] > 0) {
+                    lignes.add(new LigneRapport(groupes.valeur(groupe), centimes[groupe] / 100.0, quantites[groupe], factures[groupe]));
+                }
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+        if (dimension != DimensionRapport.HEURE) {
+            lignes.sort(Comparator.comparingDouble(LigneRapport::getMontant).reversed());
+        }
+        return lignes;
+    }
+
+    /**
+     * Heure locale (heures depuis 1970) qui contient l'instant
+     */
+    private int heureDebut(long temps) {
+        return (int) Math.floorDiv(heureLocaleMs(temps), HEURE_MS);
+    }
+
+    /**
+     * Premiere heure locale qui commence a partir de l'instant
+     */
+    private int heureFin(long temps) {
+        return (int) Math.floorDiv(heureLocaleMs(temps) + HEURE_MS - 1, HEURE_MS);
+    }
+
+    private long heureLocaleMs(long temps) {
+        return temps + fuseau.getRules().getOffset(Instant.ofEpochMilli(temps)).getTotalSeconds() * 1000L;
+    }
+
+    // Instantane
+
+    /**
+     * Ecrit tout l'agregat (instantane de StockageMemoire)
+     */
+    void ecrire(DataOutput sortie) throws IOException {
+        verrou.readLock().lock();
+        try {
+            sortie.writeByte(FORMAT);
+            sortie.writeLong(nbFactures);
+            for (Dictionnaire dictionnaire : List.of(references, familles, modes)) {
+                CodecBinaire.ecrireVarInt(sortie, dictionnaire.taille());
+                for (String valeur : dictionnaire.valeurs) {
+                    sortie.writeUTF(valeur);
+                }
+            }
+            for (Table table : List.of(parReference, parFamille, parFacture)) {
+                CodecBinaire.ecrireVarInt(sortie, table.nbLignes);
+                for (Bloc bloc : table.blocs) {
+                    for (int i = 0; i < bloc.taille; i++) {
+                        sortie.writeInt(bloc.heure[i]);
+                        CodecBinaire.ecrireVarInt(sortie, bloc.cle[i]);
+                        CodecBinaire.ecrireVarInt(sortie, bloc.mode[i]);
+                        sortie.writeLong(bloc.centimes[i]);
+                        sortie.writeLong(bloc.quantite[i]);
+                        CodecBinaire.ecrireVarInt(sortie, bloc.factures[i]);
+                    }
+                }
+            }
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ajoute le contenu d'un agregat ecrit par ecrire() (au chargement, avant toute facture)
+     */
+    void lire(DataInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format != FORMAT) {
+            throw new IOException("Format d'agregat des ventes inconnu: " + format);
+        }
+        verrou.writeLock().lock();
+        try {
+            nbFactures = entree.readLong();
+            for (Dictionnaire dictionnaire : List.of(references, familles, modes)) {
+                int nb = CodecBinaire.lireVarInt(entree);
+                for (int i = 0; i < nb; i++) {
+                    dictionnaire.code(entree.readUTF());
+                }
+            }
+            for (Table table : List.of(parReference, parFamille, parFacture)) {
+                int nb = CodecBinaire.lireVarInt(entree);
+                for (int i = 0; i < nb; i++) {
+                    table.cumuler(entree.readInt(), CodecBinaire.lireVarInt(entree), CodecBinaire.lireVarInt(entree),
+                            entree.readLong(), entree.readLong(), CodecBinaire.lireVarInt(entree));
+                }
+            }
+        } finally {
+            verrou.writeLock().unlock();
+        }
+    }
+
+    // Statistiques
+
+    public String statistiques() {
+        verrou.readLock().lock();
+        try {
+            return String.format("AgregatVentes{factures=%d, lignes reference/famille/facture=%d/%d/%d, references=%d, familles=%d, modes=%d}",
+                    nbFactures, parReference.nbLignes, parFamille.nbLignes, parFacture.nbLignes,
+                    references.taille(), familles.taille(), modes.taille());
+        } finally {
+            verrou.readLock().unlock();
+        }
+    }
+}
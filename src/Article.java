@@ -1,8 +1,26 @@
-public class Article implements java.io.Serializable {
-    private final String reference;
-    private final String famille;
-    private final double prixUnitaire;
-    private final int stockDisponible;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class Article implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    // Version de l'encodage : une version plus recente ajoute ses champs a la fin, les anciennes restent lisibles
+    private static final byte FORMAT = 1;
+
+    private String reference;
+    private String famille;
+    private double prixUnitaire;
+    private int stockDisponible;
+
+    /**
+     * Reserve a la deserialisation
+     */
+    public Article() {
+    }
 
     public Article(String reference, String famille, double prixUnitaire, int stockDisponible) {
         this.reference = reference;
@@ -17,6 +35,43 @@ public class Article implements java.io.Serializable {
     public double getPrixUnitaire() { return prixUnitaire; }
     public int getStockDisponible() { return stockDisponible; }
 
+    // Encodage
+
+    @Override
+    public void writeExternal(ObjectOutput sortie) throws IOException {
+        ecrire(sortie);
+    }
+
+    @Override
+    public void readExternal(ObjectInput entree) throws IOException {
+        lireChamps(entree);
+    }
+
+    void ecrire(DataOutput sortie) throws IOException {
+        sortie.writeByte(FORMAT);
+        sortie.writeUTF(reference);
+        CodecBinaire.ecrireChaine(sortie, famille);
+        sortie.writeDouble(prixUnitaire);
+        CodecBinaire.ecrireVarInt(sortie, stockDisponible);
+    }
+
+    static Article lire(DataInput entree) throws IOException {
+        Article article = new Article();
+        article.lireChamps(entree);
+        return article;
+    }
+
+    private void lireChamps(DataInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format < 1 || format > FORMAT) {
+            throw new InvalidClassException(Article.class.getName(), "format inconnu " + format);
+        }
+        reference = entree.readUTF();
+        famille = CodecBinaire.lireChaine(entree);
+        prixUnitaire = entree.readDouble();
+        stockDisponible = CodecBinaire.lireVarInt(entree);
+    }
+
     @Override
     public String toString() {
         return String.format("Article{ref='%s', famille='%s', prix=%.2fe, stock=%d}", reference, famille, prixUnitaire, stockDisponible);
@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Banc de mesure de l'index de recherche du catalogue (IndexRecherche), hors RMI et hors stockage
+ * Construit l'index sur un catalogue synthetique (un million de references par defaut), puis mesure
+ * la latence de recherches types, comparee a un parcours complet du catalogue, et le debit des mises a jour de stock.
+ *
+ * Usage : java BenchmarkRecherche [--articles N] [--iterations N] [--limite K]
+ */
+public class BenchmarkRecherche {
+
+    private static final String[][] FAMILLES = {
+            {"ELE", "Électricité"}, {"ECL", "Éclairage"}, {"PLO", "Plomberie"}, {"OUT", "Outillage"},
+            {"VIS", "Visserie"}, {"PEI", "Peinture"}, {"JAR", "Jardin"}, {"SDB", "Salle de bain"},
+            {"QUI", "Quincaillerie"}, {"BOI", "Bois et panneaux"}, {"CHA", "Chauffage"}, {"SOL", "Sols et murs"}
+    };
+
+    private final IndexRecherche index;
+    private final List<Article> catalogue;
+    private final int iterations;
+
+    public BenchmarkRecherche(List<Article> catalogue, int iterations) {
+        this.catalogue = catalogue;
+        this.iterations = iterations;
+        this.index = new IndexRecherche();
+    }
+
+    // Mesure
+
+    private void construire() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long memoireAvant = runtime.totalMemory() - runtime.freeMemory();
+        long debut = System.nanoTime();
+        for (Article article : catalogue) {
+            index.indexer(article);
+        }
+        long duree = System.nanoTime() - debut;
+        System.gc();
+        long memoireApres = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("Construction: %d articles en %d ms (%.0f articles/s), ~%d Mo de tas%n", catalogue.size(),
+                duree / 1_000_000, catalogue.size() * 1e9 / duree, (memoireApres - memoireAvant) / (1024 * 1024));
+    }
+
+    /**
+     * @return {resultats, us par recherche avec l'index, us par recherche en parcours complet}
+     */
+    private double[] mesurer(CritereRecherche critere) {
+        int limite = critere.getLimite();
+        // Echauffement
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            index.rechercher(critere, limite);
+        }
+
+        int resultats = 0;
+        long debut = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            resultats = index.rechercher(critere, limite).size();
+        }
+        double avecIndex = (System.nanoTime() - debut) / 1000.0 / iterations;
+
+        // Reference : parcours complet du catalogue (quelques passes seulement, c'est long)
+        int passes = Math.max(1, Math.min(iterations, 5));
+        debut = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            parcoursComplet(critere, limite);
+        }
+        double sansIndex = (System.nanoTime() - debut) / 1000.0 / passes;
+        return new double[]{resultats, avecIndex, sansIndex};
+    }
+
+    private List<Article> parcoursComplet(CritereRecherche critere, int limite) {
+        String[] termes = IndexRecherche.normaliser(critere.getTexte()).split("[^\\p{L}\\p{N}]+");
+        List<Article> resultats = new ArrayList<>();
+        for (Article article : catalogue) {
+            String texte = IndexRecherche.normaliser(article.getReference() + " " + article.getFamille());
+            boolean retenu = (!critere.isEnStockSeulement() || article.getStockDisponible() > 0)
+                    && (critere.getPrixMin() == null || article.getPrixUnitaire() >= critere.getPrixMin())
+                    && (critere.getPrixMax() == null || article.getPrixUnitaire() <= critere.getPrixMax());
+            for (int i = 0; retenu && i < termes.length; i++) {
+                retenu = texte.startsWith(termes[i]) || texte.contains(" " + termes[i]);
+            }
+            if (retenu && resultats.add(article) && resultats.size() == limite) {
+                break;
+            }
+        }
+        return resultats;
+    }
+
+    private void afficher(String nom, CritereRecherche critere) {
+        double[] mesure = mesurer(critere);
+        System.out.printf("%-36s %9.0f %14.1f %14.1f %9.0fx%n", nom, mesure[0], mesure[1], mesure[2], mesure[2] / mesure[1]);
+    }
+
+    private void mesurerMisesAJour(int nombre) {
+        Random aleatoire = new Random(7);
+        long debut = System.nanoTime();
+        for (int i = 0; i < nombre; i++) {
+            Article article = catalogue.get(aleatoire.nextInt(catalogue.size()));
+            index.ajusterStock(article.getReference(), aleatoire.nextBoolean() ? 1 : -1);
+        }
+        long duree = System.nanoTime() - debut;
+        System.out.printf("Mises a jour de stock: %d en %d ms (%.0f/s)%n", nombre, duree / 1_000_000, nombre * 1e9 / duree);
+    }
+
+    // Catalogue de test
+
+    private static List<Article> catalogue(int nbArticles) {
+        Random aleatoire = new Random(42);
+        List<Article> articles = new ArrayList<>(nbArticles);
+        for (int i = 0; i < nbArticles; i++) {
+            String[] famille = FAMILLES[i % FAMILLES.length];
+            // Un article sur cinq en rupture, prix de 0,10 a 500 euros
+            int stock = aleatoire.nextInt(5) == 0 ? 0 : 1 + aleatoire.nextInt(500);
+            double prix = Math.round((0.10 + aleatoire.nextDouble() * 500) * 100) / 100.0;
+            articles.add(new Article(String.format("%s%07d", famille[0], i), famille[1], prix, stock));
+        }
+        return articles;
+    }
+
+    // Main
+
+    public static void main(String[] args) {
+        int nbArticles = 1_000_000;
+        int iterations = 2000;
+        int limite = 50;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--articles": nbArticles = Integer.parseInt(args[++i]); break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--limite": limite = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Option inconnue: " + args[i]);
+            }
+        }
+
+        BenchmarkRecherche banc = new BenchmarkRecherche(catalogue(nbArticles), iterations);
+        banc.construire();
+        System.out.println(banc.index.statistiques());
+
+        System.out.printf("%-36s %9s %14s %14s %10s%n", "Recherche (top " + limite + ")", "resultats", "us (index)", "us (parcours)", "gain");
+        banc.afficher("reference exacte", new CritereRecherche("PLO0499994", null, null, false, limite));
+        banc.afficher("debut de reference", new CritereRecherche("ELE00012", null, null, false, limite));
+        banc.afficher("famille sans accent", new CritereRecherche("electricite", null, null, false, limite));
+        banc.afficher("mot de famille + prix 10-20", new CritereRecherche("bain", 10.0, 20.0, false, limite));
+        banc.afficher("deux mots + en stock", new CritereRecherche("sols mur", null, null, true, limite));
+        banc.afficher("prefixe court + prix etroit", new CritereRecherche("ch", 99.0, 99.5, true, limite));
+        banc.afficher("aucun resultat", new CritereRecherche("zzz", null, null, false, limite));
+
+        banc.mesurerMisesAJour(1_000_000);
+        System.out.println(banc.index.statistiques());
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Banc de mesure de la serialisation des reponses RMI : taille et temps d'encodage/decodage par message
+ * Compare l'encodage explicite (Externalizable) de Facture et Article a la serialisation par defaut
+ * des versions precedentes de ces classes (recopiees ci-dessous), avec un ObjectOutputStream neuf par message
+ * comme pour chaque appel RMI.
+ *
+ * Usage : java BenchmarkSerialisation [--iterations N] [nombre de lignes...]
+ */
+public class BenchmarkSerialisation {
+
+    // Formes des versions precedentes (serialisation par defaut)
+
+    static class LigneFactureStandard implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String referenceArticle;
+        private final int quantite;
+        private final double prixUnitaire;
+
+        LigneFactureStandard(String referenceArticle, int quantite, double prixUnitaire) {
+            this.referenceArticle = referenceArticle;
+            this.quantite = quantite;
+            this.prixUnitaire = prixUnitaire;
+        }
+    }
+
+    static class FactureStandard implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String clientId;
+        private final double montantTotal;
+        private final List<LigneFactureStandard> lignesFacture;
+        private final String modePaiement;
+        private final Date dateFacturation;
+        private final Date datePaiement;
+        private final boolean payee;
+
+        FactureStandard(String clientId, double montantTotal, List<LigneFactureStandard> lignesFacture, Date dateFacturation) {
+            this.clientId = clientId;
+            this.montantTotal = montantTotal;
+            this.lignesFacture = lignesFacture;
+            this.dateFacturation = dateFacturation;
+            this.datePaiement = null;
+            this.payee = false;
+            this.modePaiement = null;
+        }
+    }
+
+    static class ArticleStandard implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String reference;
+        private final String famille;
+        private final double prixUnitaire;
+        private final int stockDisponible;
+
+        ArticleStandard(String reference, String famille, double prixUnitaire, int stockDisponible) {
+            this.reference = reference;
+            this.famille = famille;
+            this.prixUnitaire = prixUnitaire;
+            this.stockDisponible = stockDisponible;
+        }
+    }
+
+    // Mesure
+
+    private final int iterations;
+
+    public BenchmarkSerialisation(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return {octets par message, ns d'encodage, ns de decodage}
+     */
+    public double[] mesurer(Object message) throws IOException, ClassNotFoundException {
+        byte[] octets = encoder(message);
+        // Echauffement
+        for (int i = 0; i < iterations / 10; i++) {
+            decoder(encoder(message));
+        }
+
+        long debut = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            octets = encoder(message);
+        }
+        long encodage = System.nanoTime() - debut;
+
+        debut = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decoder(octets);
+        }
+        long decodage = System.nanoTime() - debut;
+
+        return new double[]{octets.length, (double) encodage / iterations, (double) decodage / iterations};
+    }
+
+    private static byte[] encoder(Object message) throws IOException {
+        ByteArrayOutputStream tampon = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream sortie = new ObjectOutputStream(tampon)) {
+            sortie.writeObject(message);
+        }
+        return tampon.toByteArray();
+    }
+
+    private static Object decoder(byte[] octets) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream entree = new ObjectInputStream(new ByteArrayInputStream(octets))) {
+            return entree.readObject();
+        }
+    }
+
+    private void afficher(String message, Object standard, Object compact) throws IOException, ClassNotFoundException {
+        double[] avant = mesurer(standard);
+        double[] apres = mesurer(compact);
+        System.out.printf("%-24s %10.0f %10.0f %7.1f%% %12.0f %12.0f %12.0f %12.0f%n", message,
+                avant[0], apres[0], 100.0 * apres[0] / avant[0], avant[1], apres[1], avant[2], apres[2]);
+    }
+
+    // Messages de test
+
+    private static Facture facture(int nbLignes) {
+        List<LigneFacture> lignes = new ArrayList<>(nbLignes);
+        for (int i = 0; i < nbLignes; i++) {
+            // Quelques dizaines de references distinctes, comme un panier reel
+            lignes.add(new LigneFacture(String.format("REF%03d", i % 40), 1 + i % 5, 1.5 + i % 40));
+        }
+        return new Facture("client-0001", 1234.56, lignes, new Date());
+    }
+
+    private static FactureStandard factureStandard(Facture facture) {
+        List<LigneFactureStandard> lignes = new ArrayList<>();
+        for (LigneFacture ligne : facture.getLignesFacture()) {
+            lignes.add(new LigneFactureStandard(ligne.getReferenceArticle(), ligne.getQuantite(), ligne.getPrixUnitaire()));
+        }
+        return new FactureStandard(facture.getClientId(), facture.getMontantTotal(), lignes, facture.getDateFacturation());
+    }
+
+    // Main
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 20000;
+        List<Integer> tailles = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--iterations")) {
+                iterations = Integer.parseInt(args[++i]);
+            } else {
+                tailles.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (tailles.isEmpty()) {
+            tailles = List.of(1, 10, 100, 1000);
+        }
+
+        BenchmarkSerialisation banc = new BenchmarkSerialisation(iterations);
+        System.out.printf("%-24s %10s %10s %8s %12s %12s %12s %12s%n", "Message", "octets", "octets",
+                "ratio", "encodage", "encodage", "decodage", "decodage");
+        System.out.printf("%-24s %10s %10s %8s %12s %12s %12s %12s%n", "", "(avant)", "(apres)",
+                "", "ns (avant)", "ns (apres)", "ns (avant)", "ns (apres)");
+
+        banc.afficher("Article", new ArticleStandard("VIS001", "Visserie", 0.15, 1000), new Article("VIS001", "Visserie", 0.15, 1000));
+        for (int taille : tailles) {
+            Facture facture = facture(taille);
+            banc.afficher("Facture " + taille + " ligne(s)", factureStandard(facture), facture);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Banc de mesure de chaque operation de BricoMerlinService
+ * Mesure le debit, les percentiles de latence (p50/p99/p999) et les octets alloues par operation,
+ * soit en appel direct sur BricoMerlinServer (--mode local), soit a travers un registre RMI en boucle locale (--mode rmi),
+ * soit a travers le transport binaire en boucle locale (--mode binaire, une connexion partagee par les threads).
+ * consulterStocks envoie un lot de LOT_PIPELINE consultations sans attendre les reponses : sur le transport binaire
+ * elles partent d'affilee sur la connexion, en rmi/local elles occupent LOT_PIPELINE threads (ServiceAsynchrone).
+ *
+ * Usage : java BricoMerlinBenchmark [--mode local|rmi|binaire] [--threads N] [--articles N]
+ *                                   [--echauffement s] [--duree s] [--pertes P] [--historique annees] [operation...]
+ * Les options du serveur (-Dbricomerlin.stockage=memoire, -Dbricomerlin.cache.actif, -Dbricomerlin.moteurStock.actif, ...)
+ * s'appliquent en mode local comme en mode rmi : lancer deux fois pour comparer deux configurations.
+ * Avec le stockage memoire journalise (-Dbricomerlin.stockage.repertoire), chaque operation qui ecrit est suivie
+ * du nombre de fsync par seconde du journal face au nombre d'ecritures par seconde. Le banc journalise alors dans
+ * un repertoire temporaire, supprime a la fin, jamais dans le repertoire configure : le catalogue BENCH, les achats
+ * et l'historique fictif n'entrent pas dans les donnees du magasin.
+ *
+ * Les operations ...Idempotent envoient un identifiant de requete (cout de la deduplication face a l'operation simple).
+ * Avec --pertes P, chaque appel perd sa requete ou sa reponse avec la probabilite P (PannesReseau) ; les operations
+ * idempotentes renvoient alors l'appel avec le meme identifiant, et acheterArticleIdempotent verifie a la fin que
+ * le stock retire et les lignes facturees correspondent exactement aux achats confirmes.
+ * Avec --historique N, l'agregat des ventes recoit N annees de factures payees avant les mesures : consulterRapportVentes
+ * (un an par famille) et consulterRapportVentesHeure (un mois par heure) mesurent alors les rapports sur cet historique.
+ */
+public class BricoMerlinBenchmark {
+
+    private static final String PREFIXE_REFERENCE = "BENCH";
+    private static final int NB_FAMILLES = 20;
+    private static final int STOCK_INITIAL = 1_000_000;
+    private static final int PORT_RMI = 1199;
+    private static final int PORT_BINAIRE = 1198;
+    private static final int LOT_PIPELINE = 32;
+    // Envois d'une operation idempotente avant de compter une erreur
+    private static final int REPRISES_MAX = 20;
+    // Historique des rapports de ventes (--historique)
+    private static final int FACTURES_PAR_JOUR = 500;
+    private static final long JOUR_MS = 86_400_000L;
+
+    private final BricoMerlinService service;
+    private final BricoMerlinServiceAsync asynchrone;
+    private final int nbThreads;
+    private final int nbArticles;
+    private final long echauffementMs;
+    private final long dureeMs;
+    // Achats confirmes par acheterArticle et acheterArticleIdempotent (aucun : catalogue inconnu du serveur)
+    private final AtomicLong achatsConfirmes = new AtomicLong();
+
+    public BricoMerlinBenchmark(BricoMerlinService service, BricoMerlinServiceAsync asynchrone,
+                                int nbThreads, int nbArticles, long echauffementMs, long dureeMs) {
+        this.service = service;
+        this.asynchrone = asynchrone;
+        this.nbThreads = nbThreads;
+        this.nbArticles = nbArticles;
+        this.echauffementMs = echauffementMs;
+        this.dureeMs = dureeMs;
+    }
+
+    /**
+     * Un appel mesure ; le thread recoit son numero pour avoir son propre client
+     */
+    @FunctionalInterface
+    interface Operation {
+        void executer(int thread) throws Exception;
+    }
+
+    /**
+     * Appel renvoye avec le meme identifiant de requete apres une erreur
+     */
+    @FunctionalInterface
+    interface Appel<T> {
+        T envoyer() throws RemoteException;
+    }
+
+    // Operations
+
+    private Map<String, Operation> operations() {
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("consulterStock", thread -> service.consulterStock(referenceAleatoire()));
+        operations.put("consulterStocks", thread -> asynchrone.consulterStocks(referencesAleatoires(LOT_PIPELINE)).join());
+        operations.put("rechercherArticles", thread -> service.rechercherArticles(familleAleatoire()));
+        operations.put("acheterArticle", thread -> {
+            if (service.acheterArticle(referenceAleatoire(), 1, client(thread))) {
+                achatsConfirmes.incrementAndGet();
+            }
+        });
+        operations.put("acheterArticleIdempotent", thread -> {
+            String reference = referenceAleatoire();
+            String idRequete = UUID.randomUUID().toString();
+            if (reprendre(() -> service.acheterArticle(reference, 1, client(thread), idRequete))) {
+                achatsConfirmes.incrementAndGet();
+            }
+        });
+        operations.put("ajouterStock", thread -> service.ajouterStock(referenceAleatoire(), 1));
+        operations.put("consulterFacture", thread -> service.consulterFacture(client(thread)));
+        operations.put("payerFacture", thread -> service.payerFacture(client(thread), "Carte bancaire"));
+        operations.put("payerFactureIdempotent", thread -> {
+            String idRequete = UUID.randomUUID().toString();
+            reprendre(() -> service.payerFacture(client(thread), "Carte bancaire", idRequete));
+        });
+        operations.put("calculerChiffreAffaires", thread -> service.calculerChiffreAffaires(new Date()));
+        operations.put("consulterRapportVentes", thread -> service.consulterRapportVentes(
+                new Date(System.currentTimeMillis() - 365 * JOUR_MS), new Date(), DimensionRapport.FAMILLE));
+        operations.put("consulterRapportVentesHeure", thread -> {
+            long debut = System.currentTimeMillis() - ThreadLocalRandom.current().nextLong(1, 365) * JOUR_MS;
+            service.consulterRapportVentes(new Date(debut), new Date(debut + 30 * JOUR_MS), DimensionRapport.HEURE);
+        });
+        return operations;
+    }
+
+    /**
+     * Preparation non mesuree de chaque thread : une facture ouverte de quelques lignes a consulter
+     */
+    private void initialiser(String operation, int thread) throws Exception {
+        if (operation.equals("consulterFacture")) {
+            for (int i = 0; i < 10; i++) {
+                service.acheterArticle(referenceAleatoire(), 1, client(thread));
+            }
+        }
+    }
+
+    /**
+     * Preparation non mesuree avant chaque appel (payerFacture a besoin d'une facture ouverte)
+     */
+    private void preparer(String operation, int thread) throws Exception {
+        if (operation.startsWith("payerFacture")) {
+            String reference = referenceAleatoire();
+            String idRequete = UUID.randomUUID().toString();
+            reprendre(() -> service.acheterArticle(reference, 1, client(thread), idRequete));
+        }
+    }
+
+    /**
+     * Envoie l'appel jusqu'a obtenir une reponse (meme identifiant de requete a chaque envoi)
+     */
+    private static <T> T reprendre(Appel<T> appel) throws RemoteException {
+        for (int envoi = 1; ; envoi++) {
+            try {
+                return appel.envoyer();
+            } catch (RemoteException e) {
+                if (envoi >= REPRISES_MAX) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private String referenceAleatoire() {
+        return String.format("%s%06d", PREFIXE_REFERENCE, ThreadLocalRandom.current().nextInt(nbArticles));
+    }
+
+    private List<String> referencesAleatoires(int nombre) {
+        List<String> references = new ArrayList<>(nombre);
+        for (int i = 0; i < nombre; i++) {
+            references.add(referenceAleatoire());
+        }
+        return references;
+    }
+
+    private static String familleAleatoire() {
+        return String.format("%s-F%02d", PREFIXE_REFERENCE, ThreadLocalRandom.current().nextInt(NB_FAMILLES));
+    }
+
+    private static String client(int thread) {
+        return "bench-" + thread;
+    }
+
+    // Mesure
+
+    public Resultat mesurer(String nom, Operation operation) throws InterruptedException {
+        boolean avecPreparation = nom.startsWith("payerFacture");
+        HistogrammeLatence histogramme = new HistogrammeLatence();
+        AtomicLong erreurs = new AtomicLong();
+        AtomicLong octetsAlloues = new AtomicLong();
+        CountDownLatch depart = new CountDownLatch(1);
+        long[] bornes = new long[2];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nbThreads; t++) {
+            int numero = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    initialiser(nom, numero);
+                    depart.await();
+                    long finEchauffement = bornes[0];
+                    long fin = bornes[1];
+                    long allocationDebut = -1;
+                    long maintenant;
+                    while ((maintenant = System.nanoTime()) < fin) {
+                        boolean mesure = maintenant >= finEchauffement;
+                        if (mesure && allocationDebut < 0) {
+                            allocationDebut = octetsAllouesThread();
+                        }
+                        try {
+                            if (avecPreparation) {
+                                preparer(nom, numero);
+                            }
+                            long debut = System.nanoTime();
+                            operation.executer(numero);
+                            if (mesure) {
+                                histogramme.enregistrer(System.nanoTime() - debut);
+                            }
+                        } catch (Exception e) {
+                            if (mesure) {
+                                erreurs.incrementAndGet();
+                            }
+                        }
+                    }
+                    if (allocationDebut >= 0) {
+                        octetsAlloues.addAndGet(octetsAllouesThread() - allocationDebut);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    erreurs.incrementAndGet();
+                }
+            }, "bench-" + nom + "-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+
+        bornes[0] = System.nanoTime() + echauffementMs * 1_000_000;
+        bornes[1] = bornes[0] + dureeMs * 1_000_000;
+        depart.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return new Resultat(nom, histogramme, erreurs.get(), octetsAlloues.get(), dureeMs);
+    }
+
+    private static long octetsAllouesThread() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static final class Resultat {
+        private final String operation;
+        private final HistogrammeLatence histogramme;
+        private final long erreurs;
+        private final long octetsAlloues;
+        private final long dureeMs;
+
+        private Resultat(String operation, HistogrammeLatence histogramme, long erreurs, long octetsAlloues, long dureeMs) {
+            this.operation = operation;
+            this.histogramme = histogramme;
+            this.erreurs = erreurs;
+            this.octetsAlloues = octetsAlloues;
+            this.dureeMs = dureeMs;
+        }
+
+        static String entete() {
+            return String.format("%-24s %12s %10s %10s %10s %10s %12s %8s",
+                    "Operation", "ops/s", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)", "octets/op", "erreurs");
+        }
+
+        @Override
+        public String toString() {
+            long n = histogramme.getNombre();
+            return String.format("%-24s %12.0f %10.1f %10.1f %10.1f %10.1f %12.0f %8d",
+                    operation, n * 1000.0 / dureeMs,
+                    histogramme.percentileNs(50) / 1000.0, histogramme.percentileNs(99) / 1000.0,
+                    histogramme.percentileNs(99.9) / 1000.0, histogramme.getMaxNs() / 1000.0,
+                    n == 0 ? 0.0 : (double) octetsAlloues / n, erreurs);
+        }
+    }
+
+    // Pannes reseau
+
+    /**
+     * Enveloppe du service qui perd des appels : la requete (rien n'est execute) ou la reponse (l'appel a eu lieu)
+     * Chaque perte leve une RemoteException, comme un delai de reponse depasse.
+     */
+    static final class PannesReseau {
+        private final AtomicLong requetesPerdues = new AtomicLong();
+        private final AtomicLong reponsesPerdues = new AtomicLong();
+
+        BricoMerlinService injecter(BricoMerlinService cible, double probabilitePerte) {
+            InvocationHandler pannes = (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    return method.invoke(cible, args);
+                }
+                ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+                if (aleatoire.nextDouble() < probabilitePerte / 2) {
+                    requetesPerdues.incrementAndGet();
+                    throw new RemoteException("Requete perdue (panne injectee)");
+                }
+                Object resultat;
+                try {
+                    resultat = method.invoke(cible, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (aleatoire.nextDouble() < probabilitePerte / 2) {
+                    reponsesPerdues.incrementAndGet();
+                    throw new RemoteException("Reponse perdue (panne injectee)");
+                }
+                return resultat;
+            };
+            return (BricoMerlinService) Proxy.newProxyInstance(
+                    BricoMerlinService.class.getClassLoader(), new Class<?>[]{BricoMerlinService.class}, pannes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requetes perdues=%d, reponses perdues=%d", requetesPerdues.get(), reponsesPerdues.get());
+        }
+    }
+
+    /**
+     * Stock retire et lignes facturees aux clients du banc, lus sur le serveur sans passer par les pannes
+     */
+    private long[] etatAchats(BricoMerlinServer serveur) throws RemoteException {
+        long stockRetire = 0;
+        for (int i = 0; i < nbArticles; i++) {
+            stockRetire += STOCK_INITIAL - serveur.consulterStock(String.format("%s%06d", PREFIXE_REFERENCE, i)).getStockDisponible();
+        }
+        long lignes = 0;
+        for (int t = 0; t < nbThreads; t++) {
+            EnteteFacture entete = serveur.consulterEnteteFacture(client(t));
+            lignes += entete == null ? 0 : entete.getNbLignes();
+        }
+        return new long[]{stockRetire, lignes};
+    }
+
+    // Catalogue de test
+
+    /**
+     * Cree (ou remet a niveau) le catalogue BENCH000000..BENCHnnnnnn directement dans le stockage
+     */
+    private static void preparerCatalogue(StockageBricoMerlin stockage, int nbArticles) throws Exception {
+        List<Article> articles = new ArrayList<>(nbArticles);
+        for (int i = 0; i < nbArticles; i++) {
+            articles.add(new Article(String.format("%s%06d", PREFIXE_REFERENCE, i),
+                    String.format("%s-F%02d", PREFIXE_REFERENCE, i % NB_FAMILLES), 1 + (i % 100) / 10.0, STOCK_INITIAL));
+        }
+        stockage.enregistrerArticles(articles);
+    }
+
+    /**
+     * Ajoute a l'agregat des ventes FACTURES_PAR_JOUR factures payees par jour sur les annees precedentes
+     * (rapports sur un historique de plusieurs annees, sans les ecrire dans le stockage)
+     */
+    private static void preparerHistorique(StockageBricoMerlin stockage, int nbArticles, int annees) {
+        long debut = System.nanoTime();
+        ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+        String[] modes = {"Carte bancaire", "Especes", "Cheque"};
+        long premierJour = System.currentTimeMillis() - annees * 365L * JOUR_MS;
+        long nbFactures = 0;
+        for (long jour = premierJour; jour < System.currentTimeMillis(); jour += JOUR_MS) {
+            for (int i = 0; i < FACTURES_PAR_JOUR; i++) {
+                List<LigneFacture> lignes = new ArrayList<>();
+                for (int j = aleatoire.nextInt(1, 6); j > 0; j--) {
+                    int article = aleatoire.nextInt(nbArticles);
+                    lignes.add(new LigneFacture(String.format("%s%06d", PREFIXE_REFERENCE, article), aleatoire.nextInt(1, 4), 1 + (article % 100) / 10.0));
+                }
+                stockage.ventes().ajouterFacture(jour + aleatoire.nextLong(JOUR_MS), modes[aleatoire.nextInt(modes.length)], lignes,
+                        reference -> String.format("%s-F%02d", PREFIXE_REFERENCE, Integer.parseInt(reference.substring(PREFIXE_REFERENCE.length())) % NB_FAMILLES));
+                nbFactures++;
+            }
+        }
+        System.out.printf("Historique : %d factures sur %d an(s) en %d ms, %s%n", nbFactures, annees,
+                (System.nanoTime() - debut) / 1_000_000, stockage.ventes().statistiques());
+    }
+
+    // Main
+
+    public static void main(String[] args) throws Exception {
+        String mode = "local";
+        int nbThreads = 4;
+        int nbArticles = 1000;
+        long echauffement = 3;
+        long duree = 10;
+        double pertes = 0;
+        int historique = 0;
+        List<String> choisies = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mode": mode = args[++i]; break;
+                case "--threads": nbThreads = Integer.parseInt(args[++i]); break;
+                case "--articles": nbArticles = Integer.parseInt(args[++i]); break;
+                case "--echauffement": echauffement = Long.parseLong(args[++i]); break;
+                case "--duree": duree = Long.parseLong(args[++i]); break;
+                case "--pertes": pertes = Double.parseDouble(args[++i]); break;
+                case "--historique": historique = Integer.parseInt(args[++i]); break;
+                default: choisies.add(args[i]);
+            }
+        }
+
+        // Stockage memoire journalise : repertoire jetable a la place de celui configure
+        Path repertoire = System.getProperty("bricomerlin.stockage.repertoire", "").isEmpty()
+                ? null
+                : Files.createTempDirectory("bricomerlin-benchmark");
+        // Catalogue ecrit avant la creation du serveur : le moteur de stock et l'index le chargent au demarrage
+        StockageBricoMerlin stockage = BricoMerlinServer.creerStockage(repertoire);
+        preparerCatalogue(stockage, nbArticles);
+        BricoMerlinServer serveur = new BricoMerlinServer(stockage);
+        if (historique > 0) {
+            preparerHistorique(serveur.getStockage(), nbArticles, historique);
+        }
+
+        BricoMerlinService service;
+        BricoMerlinServiceAsync asynchrone;
+        if (mode.equals("rmi")) {
+            LocateRegistry.createRegistry(PORT_RMI);
+            Naming.rebind("//localhost:" + PORT_RMI + "/BricoMerlinService", serveur);
+            service = (BricoMerlinService) Naming.lookup("//localhost:" + PORT_RMI + "/BricoMerlinService");
+            asynchrone = new ServiceAsynchrone(service, LOT_PIPELINE * nbThreads, LOT_PIPELINE * nbThreads);
+        } else if (mode.equals("binaire")) {
+            new ServeurBinaire(serveur, PORT_BINAIRE, Math.max(16, nbThreads), LOT_PIPELINE * nbThreads);
+            ClientBinaire client = new ClientBinaire("localhost", PORT_BINAIRE, 30000);
+            service = client;
+            asynchrone = client.asynchrone();
+        } else {
+            service = serveur;
+            asynchrone = new ServiceAsynchrone(service, LOT_PIPELINE * nbThreads, LOT_PIPELINE * nbThreads);
+        }
+
+        PannesReseau pannes = new PannesReseau();
+        if (pertes > 0) {
+            service = pannes.injecter(service, pertes);
+        }
+
+        BricoMerlinBenchmark benchmark = new BricoMerlinBenchmark(service, asynchrone, nbThreads, nbArticles, echauffement * 1000, duree * 1000);
+        System.out.printf("Mode %s, %d thread(s), %d articles, echauffement %ds, mesure %ds%n", mode, nbThreads, nbArticles, echauffement, duree);
+        if (pertes > 0) {
+            System.out.printf("Pertes injectees : %.1f%% des appels (requete ou reponse)%n", pertes * 100);
+        }
+        System.out.println(Resultat.entete());
+        // Stockage memoire journalise : fsync par seconde face aux ecritures par seconde (validation groupee)
+        JournalEcriture journal = serveur.getStockage() instanceof StockageMemoire
+                ? ((StockageMemoire) serveur.getStockage()).getJournal()
+                : null;
+        for (Map.Entry<String, Operation> operation : benchmark.operations().entrySet()) {
+            if (choisies.isEmpty() || choisies.contains(operation.getKey())) {
+                long enregistrements = journal == null ? 0 : journal.getNbEnregistrements();
+                long syncs = journal == null ? 0 : journal.getNbSyncs();
+                long debut = System.nanoTime();
+                long[] avant = operation.getKey().equals("acheterArticleIdempotent") ? benchmark.etatAchats(serveur) : null;
+                benchmark.achatsConfirmes.set(0);
+                System.out.println(benchmark.mesurer(operation.getKey(), operation.getValue()));
+                if (operation.getKey().startsWith("acheterArticle") && benchmark.achatsConfirmes.get() == 0) {
+                    System.err.println("Aucun achat accepte par le serveur pendant " + operation.getKey()
+                            + " : mesure d'appels sans effet (catalogue BENCH inconnu du serveur ?)");
+                    System.exit(1);
+                }
+                if (avant != null) {
+                    long[] apres = benchmark.etatAchats(serveur);
+                    long confirmes = benchmark.achatsConfirmes.get();
+                    boolean exact = apres[0] - avant[0] == confirmes && apres[1] - avant[1] == confirmes;
+                    System.out.printf("%-24s achats confirmes=%d, stock retire=%d, lignes facturees=%d : %s (%s)%n", "",
+                            confirmes, apres[0] - avant[0], apres[1] - avant[1], exact ? "aucun doublon" : "ECART", pannes);
+                }
+                if (journal != null && journal.getNbEnregistrements() > enregistrements) {
+                    double secondes = (System.nanoTime() - debut) / 1e9;
+                    long nbEnregistrements = journal.getNbEnregistrements() - enregistrements;
+                    long nbSyncs = journal.getNbSyncs() - syncs;
+                    System.out.printf("%-24s %12.0f ecritures/s journalisees, %.0f fsync/s (%.1f ecritures par fsync)%n", "",
+                            nbEnregistrements / secondes, nbSyncs / secondes, nbSyncs == 0 ? 0.0 : (double) nbEnregistrements / nbSyncs);
+                }
+            }
+        }
+        if (repertoire != null) {
+            stockage.close();
+            supprimer(repertoire);
+        }
+        System.exit(0);
+    }
+
+    private static void supprimer(Path repertoire) throws IOException {
+        try (Stream<Path> chemins = Files.walk(repertoire)) {
+            for (Path chemin : chemins.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(chemin);
+            }
+        }
+    }
+}
@@ -1,18 +1,64 @@
+import java.io.UncheckedIOException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 public class BricoMerlinClient {
 
+    // Lignes de facture demandees par appel au serveur
+    private static final int FACTURE_TAILLE_PAGE = Integer.getInteger("bricomerlin.client.taillePageFacture", 200);
+    // Articles affiches par recherche dans le catalogue
+    private static final int RECHERCHE_LIMITE = Integer.getInteger("bricomerlin.client.limiteRecherche", 20);
+
+    // Cache local des articles et en-tetes de facture (voir ServiceClientCache)
+    private static final boolean CACHE_ACTIF = Boolean.parseBoolean(System.getProperty("bricomerlin.client.cache.actif", "true"));
+    private static final long CACHE_TTL_MS = Long.getLong("bricomerlin.client.cache.ttlMs", 2000);
+    // Verification des modifications des autres postes (0 : desactivee, seul le TTL borne le retard)
+    private static final long CACHE_VERIFICATION_MS = Long.getLong("bricomerlin.client.cache.verificationMs", 0);
+    private static final int CACHE_CAPACITE = Integer.getInteger("bricomerlin.client.cache.capacite", 10000);
+
+    // Transport : rmi (par defaut) ou binaire (ServeurBinaire, une connexion multiplexee)
+    private static final String TRANSPORT = System.getProperty("bricomerlin.transport", "rmi");
+    private static final String BINAIRE_HOTE = System.getProperty("bricomerlin.binaire.hote", "localhost");
+    private static final int BINAIRE_PORT = Integer.getInteger("bricomerlin.binaire.port", 1100);
+    private static final long BINAIRE_DELAI_REPONSE_MS = Long.getLong("bricomerlin.binaire.delaiReponseMs", 30000);
+
+    // Plusieurs noeuds : URL RMI de chacun, separees par des virgules, dans l'ordre de leur index (voir ServiceRoute)
+    private static final String NOEUDS = System.getProperty("bricomerlin.client.noeuds", "");
+
+    // Envois d'une ecriture apres une erreur de communication (meme identifiant de requete : jamais executee deux fois)
+    private static final int ECRITURE_TENTATIVES = Integer.getInteger("bricomerlin.client.tentatives", 3);
+    private static final long ECRITURE_ATTENTE_MS = Long.getLong("bricomerlin.client.attenteMs", 200);
+
+    // Appels asynchrones simultanes (apercu du panier)
+    private static final int ASYNC_THREADS = Integer.getInteger("bricomerlin.client.async.threads", 8);
+
     private BricoMerlinService service;
+    private ServiceAsynchrone asynchrone;
+    private ClientBinaire binaire;
+    private ServiceRoute route;
     private final Scanner scanner;
     private String clientId;
     private final SimpleDateFormat dateFormat;
 
+    /**
+     * Ecriture sur le serveur, avec l'identifiant de requete de toutes ses tentatives
+     */
+    @FunctionalInterface
+    private interface Ecriture<T> {
+        T envoyer(String idRequete) throws RemoteException;
+    }
+
     public BricoMerlinClient() {
         this.scanner = new Scanner(System.in);
         this.dateFormat = new SimpleDateFormat("dd/MM/yyyy");
@@ -20,7 +66,19 @@ public class BricoMerlinClient {
 
     public boolean connecterAuServeur(String serverUrl) {
         try {
-            service = (BricoMerlinService) Naming.lookup(serverUrl);
+            if (TRANSPORT.equals("binaire")) {
+                binaire = new ClientBinaire(BINAIRE_HOTE, BINAIRE_PORT, BINAIRE_DELAI_REPONSE_MS);
+                service = binaire;
+            } else if (!NOEUDS.isEmpty()) {
+                route = ServiceRoute.connecter(List.of(NOEUDS.split(",")));
+                service = route;
+            } else {
+                service = (BricoMerlinService) Naming.lookup(serverUrl);
+            }
+            if (CACHE_ACTIF) {
+                service = new ServiceClientCache(service, CACHE_TTL_MS, CACHE_VERIFICATION_MS, CACHE_CAPACITE);
+            }
+            asynchrone = new ServiceAsynchrone(service, ASYNC_THREADS, 100);
             System.out.println("Connexion au serveur etablie avec succes");
             return true;
         } catch (Exception e) {
@@ -43,6 +101,16 @@ public class BricoMerlinClient {
             continuer = traiterChoix(choix);
         }
 
+        asynchrone.close();
+        if (binaire != null) {
+            binaire.close();
+        }
+        if (route != null) {
+            route.close();
+        }
+        if (service instanceof ServiceClientCache) {
+            System.out.println(((ServiceClientCache) service).statistiques());
+        }
         System.out.println("Au revoir !");
         scanner.close();
     }
@@ -56,6 +124,10 @@ public class BricoMerlinClient {
         System.out.println("5. Consulter ma facture");
         System.out.println("6. Payer ma facture");
         System.out.println("7. Calculer le chiffre d'affaires (manager)");
+        System.out.println("8. Acheter plusieurs articles (panier)");
+        System.out.println("9. Chiffre d'affaires sur une periode (manager)");
+        System.out.println("10. Rechercher dans le catalogue");
+        System.out.println("11. Rapport des ventes sur une periode (manager)");
         System.out.println("0. Quitter");
         System.out.print("Votre choix: ");
     }
@@ -92,6 +164,18 @@ public class BricoMerlinClient {
                 case 7:
                     calculerChiffreAffaires();
                     break;
+                case 8:
+                    acheterPanier();
+                    break;
+                case 9:
+                    calculerChiffreAffairesPeriode();
+                    break;
+                case 10:
+                    rechercherCatalogue();
+                    break;
+                case 11:
+                    consulterRapportVentes();
+                    break;
                 case 0:
                     return false;
                 default:
@@ -103,6 +187,33 @@ public class BricoMerlinClient {
         return true;
     }
 
+    /**
+     * Envoie une ecriture, puis la renvoie avec le meme identifiant si la reponse n'arrive pas
+     * Le serveur rend alors le resultat de la premiere execution si elle a eu lieu : pas d'achat ni de paiement en double.
+     */
+    private <T> T ecrire(Ecriture<T> ecriture) throws RemoteException {
+        String idRequete = UUID.randomUUID().toString();
+        for (int tentative = 1; ; tentative++) {
+            try {
+                return ecriture.envoyer(idRequete);
+            } catch (RemoteException e) {
+                if (tentative >= ECRITURE_TENTATIVES) {
+                    throw e;
+                }
+                long attenteMs = e instanceof ServiceSatureException
+                        ? ((ServiceSatureException) e).getDelaiConseilleMs()
+                        : ECRITURE_ATTENTE_MS * tentative;
+                System.err.println("Pas de reponse du serveur (" + e.getMessage() + "), nouvel essai...");
+                try {
+                    Thread.sleep(attenteMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
     // Actions
 
     private void consulterStock() throws RemoteException {
@@ -136,6 +247,44 @@ public class BricoMerlinClient {
         }
     }
 
+    /**
+     * Recherche par debut de reference ou de famille, avec filtres de prix et de stock
+     */
+    private void rechercherCatalogue() throws RemoteException {
+        System.out.print("Mots recherches (reference ou famille, debut de mot): ");
+        String texte = scanner.nextLine();
+        System.out.print("Prix minimum (vide: aucun): ");
+        Double prixMin = lirePrixOptionnel();
+        System.out.print("Prix maximum (vide: aucun): ");
+        Double prixMax = lirePrixOptionnel();
+        System.out.print("Seulement les articles en stock ? (o/n): ");
+        boolean enStock = scanner.nextLine().trim().equalsIgnoreCase("o");
+
+        List<Article> articles = service.rechercherCatalogue(new CritereRecherche(texte, prixMin, prixMax, enStock, RECHERCHE_LIMITE));
+        if (articles.isEmpty()) {
+            System.out.println("Aucun article ne correspond a la recherche.");
+            return;
+        }
+        System.out.println("\n=== RESULTATS (" + articles.size() + ") ===");
+        for (Article article : articles) {
+            System.out.printf("%-15s | %-15s | Prix: %8.2fe | Stock: %d%n",
+                    article.getReference(), article.getFamille(), article.getPrixUnitaire(), article.getStockDisponible());
+        }
+    }
+
+    private Double lirePrixOptionnel() {
+        String saisie = scanner.nextLine().trim().replace(',', '.');
+        if (saisie.isEmpty()) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(saisie);
+        } catch (NumberFormatException e) {
+            System.out.println("Prix invalide, ignore.");
+            return null;
+        }
+    }
+
     /**
      * Ajoute un article a la facture a régler
     */
@@ -168,20 +317,118 @@ public class BricoMerlinClient {
                 return;
             }
 
-            boolean succes = service.acheterArticle(reference, quantite, clientId);
+            // Le stock est retenu pendant que l'achat est confirme
+            Reservation reservation = ecrire(id -> service.reserverArticle(reference, quantite, clientId, id));
+            if (reservation == null) {
+                Article actuel = service.consulterStock(reference);
+                System.out.println("Stock insuffisant. Quantite disponible: "
+                        + (actuel == null ? 0 : actuel.getStockDisponible()));
+                return;
+            }
+
+            double sousTotal = quantite * reservation.getPrixUnitaire();
+            System.out.println("Article reserve jusqu'a " + new SimpleDateFormat("HH:mm:ss").format(reservation.getExpiration()));
+            System.out.println("Sous-total: " + String.format("%.2fe", sousTotal));
+            System.out.print("Confirmer l'achat ? (o/n): ");
+            if (!scanner.nextLine().equalsIgnoreCase("o")) {
+                ecrire(id -> service.libererReservation(reservation.getId(), clientId, id));
+                System.out.println("Achat annule, reservation liberee.");
+                return;
+            }
+
+            boolean succes = ecrire(id -> service.confirmerReservation(reservation.getId(), clientId, id));
             if (succes) {
-                double sousTotal = quantite * article.getPrixUnitaire();
                 System.out.println("Achat effectue avec succes!");
-                System.out.println("Sous-total: " + String.format("%.2fe", sousTotal));
                 System.out.println("L'article a ete ajoute a votre facture.");
             } else {
-                System.out.println("Erreur lors de l'achat. Veuillez reessayer.");
+                System.out.println("La reservation a expire. Veuillez reessayer.");
             }
         } catch (NumberFormatException e) {
             System.out.println("Quantite invalide.");
         }
     }
 
+    /**
+     * Ajoute plusieurs articles a la facture en un seul appel
+     */
+    private void acheterPanier() throws RemoteException {
+        List<LignePanier> lignes = new ArrayList<>();
+        System.out.println("Saisissez les articles du panier (reference vide pour terminer)");
+        while (true) {
+            System.out.print("Reference: ");
+            String reference = scanner.nextLine().trim();
+            if (reference.isEmpty()) {
+                break;
+            }
+            System.out.print("Quantite: ");
+            try {
+                int quantite = Integer.parseInt(scanner.nextLine());
+                if (quantite <= 0) {
+                    System.out.println("Quantite invalide, ligne ignoree.");
+                    continue;
+                }
+                lignes.add(new LignePanier(reference, quantite));
+            } catch (NumberFormatException e) {
+                System.out.println("Quantite invalide, ligne ignoree.");
+            }
+        }
+
+        if (lignes.isEmpty()) {
+            System.out.println("Panier vide.");
+            return;
+        }
+
+        afficherApercuPanier(lignes);
+
+        System.out.print("Annuler tout le panier si un article manque? (o/n): ");
+        boolean toutOuRien = scanner.nextLine().equalsIgnoreCase("o");
+
+        ResultatPanier resultat = ecrire(id -> service.acheterPanier(lignes, clientId, toutOuRien, id));
+        System.out.println("\n=== RESULTAT DU PANIER ===");
+        for (int i = 0; i < lignes.size(); i++) {
+            LignePanier ligne = lignes.get(i);
+            System.out.printf("%-15s | Qte: %3d | %s%n", ligne.getReference(), ligne.getQuantite(), resultat.getStatut(i));
+        }
+        System.out.println("----------------------------------------");
+        System.out.println("Lignes achetees: " + resultat.getNbLignesAcceptees() + "/" + lignes.size());
+        System.out.printf("Montant ajoute a votre facture: %.2fe%n", resultat.getMontantAjoute());
+    }
+
+    /**
+     * Prix et stock de chaque ligne, consultes en parallele (un aller-retour au lieu d'un par article)
+     */
+    private void afficherApercuPanier(List<LignePanier> lignes) throws RemoteException {
+        List<String> references = new ArrayList<>();
+        for (LignePanier ligne : lignes) {
+            references.add(ligne.getReference());
+        }
+        List<Article> articles;
+        try {
+            articles = asynchrone.consulterStocks(references).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw e;
+        }
+
+        System.out.println("\n=== APERCU DU PANIER ===");
+        double total = 0;
+        for (int i = 0; i < lignes.size(); i++) {
+            LignePanier ligne = lignes.get(i);
+            Article article = articles.get(i);
+            if (article == null) {
+                System.out.printf("%-15s | Qte: %3d | article inconnu%n", ligne.getReference(), ligne.getQuantite());
+                continue;
+            }
+            System.out.printf("%-15s | Qte: %3d | Prix: %6.2fe | Stock: %d%s%n", ligne.getReference(), ligne.getQuantite(),
+                    article.getPrixUnitaire(), article.getStockDisponible(),
+                    article.getStockDisponible() < ligne.getQuantite() ? " (insuffisant)" : "");
+            total += article.getPrixUnitaire() * ligne.getQuantite();
+        }
+        System.out.printf("Total estime: %.2fe%n", total);
+    }
+
     /**
      * Ajouter du stock sur un produit existant (pas de création de produit)
      */
@@ -195,7 +442,7 @@ public class BricoMerlinClient {
                 System.out.println("Quantite invalide.");
                 return;
             }
-            boolean succes = service.ajouterStock(reference, quantite);
+            boolean succes = ecrire(id -> service.ajouterStock(reference, quantite, id));
             if (succes) {
                 System.out.println("Stock ajoute avec succes!");
                 System.out.println(quantite + " unites ajoutees pour le produit " + reference);
@@ -211,32 +458,35 @@ public class BricoMerlinClient {
      * Consulter sa facture non payee
      */
     private void consulterFacture() throws RemoteException {
-        Facture facture = service.consulterFacture(clientId);
-        if (facture != null) {
+        // En-tete puis lignes par pages : une facture de milliers de lignes ne passe pas en un seul message
+        EnteteFacture entete = service.consulterEnteteFacture(clientId);
+        if (entete != null) {
             System.out.println("\n=== VOTRE FACTURE ===");
-            System.out.println("Client: " + facture.getClientId());
-            System.out.println("Date: " + dateFormat.format(facture.getDateFacturation()));
-            System.out.println("Statut: " + (facture.isPayee() ? "PAYEE" : "EN ATTENTE"));
-
-            if (facture.getModePaiement() != null) {
-                System.out.println("Mode de paiement: " + facture.getModePaiement());
-            }
-
-            System.out.println("\n--- DETAIL DES ACHATS ---");
-            for (LigneFacture ligne : facture.getLignesFacture()) {
-                System.out.printf("%-15s | Qte: %3d | Prix: %6.2fe | Sous-total: %8.2fe%n",
-                        ligne.getReferenceArticle(),
-                        ligne.getQuantite(),
-                        ligne.getPrixUnitaire(),
-                        ligne.getSousTotal());
+            System.out.println("Client: " + entete.getClientId());
+            System.out.println("Numero: " + entete.getNumero());
+            System.out.println("Date: " + dateFormat.format(entete.getDateFacturation()));
+            System.out.println("Statut: EN ATTENTE");
+
+            System.out.println("\n--- DETAIL DES ACHATS (" + entete.getNbLignes() + " ligne(s)) ---");
+            try {
+                for (LigneFacture ligne : new LignesFactureDistantes(service, entete, FACTURE_TAILLE_PAGE)) {
+                    System.out.printf("%-15s | Qte: %3d | Prix: %6.2fe | Sous-total: %8.2fe%n",
+                            ligne.getReferenceArticle(),
+                            ligne.getQuantite(),
+                            ligne.getPrixUnitaire(),
+                            ligne.getSousTotal());
+                }
+            } catch (UncheckedIOException e) {
+                throw (RemoteException) e.getCause();
+            } catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
+                return;
             }
 
             System.out.println("----------------------------------------");
-            System.out.printf("TOTAL: %.2fe%n", facture.getMontantTotal());
+            System.out.printf("TOTAL: %.2fe%n", entete.getMontantTotal());
 
-            if (!facture.isPayee()) {
-                System.out.println("\n⚠Cette facture n'est pas encore payee.");
-            }
+            System.out.println("\n⚠Cette facture n'est pas encore payee.");
         } else {
             System.out.println("Aucune facture en cours pour ce client.");
         }
@@ -246,18 +496,14 @@ public class BricoMerlinClient {
      * Payer sa facture
     */
     private void payerFacture() throws RemoteException {
-        Facture facture = service.consulterFacture(clientId);
-        if (facture == null) {
+        // Seul le montant est utile : pas besoin des lignes
+        EnteteFacture entete = service.consulterEnteteFacture(clientId);
+        if (entete == null) {
             System.out.println("Aucune facture en attente de paiement.");
             return;
         }
 
-        if (facture.isPayee()) {
-            System.out.println("Votre facture est deja payee.");
-            return;
-        }
-
-        System.out.printf("Montant a payer: %.2fe%n", facture.getMontantTotal());
+        System.out.printf("Montant a payer: %.2fe%n", entete.getMontantTotal());
         System.out.println("\nModes de paiement disponibles:");
         System.out.println("1. Carte bancaire");
         System.out.println("2. Especes");
@@ -286,11 +532,12 @@ public class BricoMerlinClient {
         String confirmation = scanner.nextLine();
 
         if (confirmation.equalsIgnoreCase("o") || confirmation.equalsIgnoreCase("O")) {
-            boolean succes = service.payerFacture(clientId, modePaiement);
+            String mode = modePaiement;
+            boolean succes = ecrire(id -> service.payerFacture(clientId, mode, id));
             if (succes) {
                 System.out.println("Paiement effectue avec succes!");
                 System.out.println("Mode de paiement: " + modePaiement);
-                System.out.printf("Montant paye: %.2fe%n", facture.getMontantTotal());
+                System.out.printf("Montant paye: %.2fe%n", entete.getMontantTotal());
                 System.out.println("Merci pour votre achat!");
             } else {
                 System.out.println("Erreur lors du paiement. Veuillez reessayer.");
@@ -323,12 +570,78 @@ public class BricoMerlinClient {
         }
     }
 
+    /**
+     * Calculer le chiffre d'affaires jour par jour sur une periode
+     */
+    private void calculerChiffreAffairesPeriode() throws RemoteException {
+        try {
+            System.out.print("Date de debut (format DD/MM/YYYY): ");
+            Date debut = dateFormat.parse(scanner.nextLine());
+            System.out.print("Date de fin (format DD/MM/YYYY): ");
+            Date fin = dateFormat.parse(scanner.nextLine());
+            System.out.print("Mode de paiement (vide pour tous): ");
+            String modePaiement = scanner.nextLine().trim();
+
+            SortedMap<Date, Double> chiffreAffaires = service.calculerChiffreAffairesPeriode(debut, fin, modePaiement.isEmpty() ? null : modePaiement);
+
+            System.out.println("\n=== CHIFFRE D'AFFAIRES PAR JOUR ===");
+            double total = 0;
+            for (Map.Entry<Date, Double> jour : chiffreAffaires.entrySet()) {
+                System.out.printf("%s | %10.2f€%n", dateFormat.format(jour.getKey()), jour.getValue());
+                total += jour.getValue();
+            }
+            System.out.println("----------------------------------------");
+            System.out.printf("Total de la periode: %.2f€%n", total);
+        } catch (ParseException e) {
+            System.out.println("Format de date invalide. Utilisez le format DD/MM/YYYY.");
+        }
+    }
+
+    /**
+     * Rapport des ventes payees sur une periode, par famille, reference, mode de paiement ou heure
+     */
+    private void consulterRapportVentes() throws RemoteException {
+        try {
+            System.out.print("Date de debut (format DD/MM/YYYY): ");
+            Date debut = dateFormat.parse(scanner.nextLine());
+            System.out.print("Date de fin (format DD/MM/YYYY): ");
+            Calendar fin = Calendar.getInstance();
+            fin.setTime(dateFormat.parse(scanner.nextLine()));
+            // Le dernier jour est inclus : le rapport s'arrete a minuit le lendemain
+            fin.add(Calendar.DAY_OF_MONTH, 1);
+            System.out.print("Regrouper par (1. famille, 2. reference, 3. mode de paiement, 4. heure): ");
+            int choix = lireChoix();
+            if (choix < 1 || choix > DimensionRapport.values().length) {
+                System.out.println("Regroupement invalide.");
+                return;
+            }
+            DimensionRapport dimension = DimensionRapport.values()[choix - 1];
+
+            List<LigneRapport> lignes = service.consulterRapportVentes(debut, fin.getTime(), dimension);
+
+            System.out.println("\n=== VENTES PAR " + dimension.name().replace('_', ' ') + " ===");
+            System.out.printf("%-20s | %12s | %8s | %8s | %12s%n", "", "Montant", "Unites", "Factures", "Panier moyen");
+            double total = 0;
+            for (LigneRapport ligne : lignes) {
+                System.out.printf("%-20s | %11.2f€ | %8d | %8d | %11.2f€%n", ligne.getCle().isEmpty() ? "(aucun)" : ligne.getCle(),
+                        ligne.getMontant(), ligne.getQuantite(), ligne.getNbFactures(), ligne.getPanierMoyen());
+                total += ligne.getMontant();
+            }
+            System.out.println("----------------------------------------");
+            System.out.printf("Total de la periode: %.2f€%n", total);
+        } catch (ParseException e) {
+            System.out.println("Format de date invalide. Utilisez le format DD/MM/YYYY.");
+        }
+    }
+
     // Main
 
     public static void main(String[] args) {
         BricoMerlinClient client = new BricoMerlinClient();
         String serverUrl = "//localhost/BricoMerlinService";
-        System.out.println("Tentative de connexion au serveur: " + serverUrl);
+        System.out.println("Tentative de connexion au serveur: "
+                + (TRANSPORT.equals("binaire") ? BINAIRE_HOTE + ":" + BINAIRE_PORT + " (transport binaire)"
+                        : !NOEUDS.isEmpty() ? NOEUDS : serverUrl));
         if (client.connecterAuServeur(serverUrl)) {
             client.demarrer();
         } else {
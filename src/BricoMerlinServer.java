@@ -1,360 +1,1031 @@
+import java.io.IOException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
-import java.sql.*;
+import java.sql.SQLException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.Date;
 
 /**
- * Gere les donnees en base MySQL et traite les requêtes des clients
+ * Traite les requêtes des clients au-dessus d'un StockageBricoMerlin (MySQL par defaut, ou en memoire)
  * Initialise le service RMI (plutot que de devoir lancer le service + serveur)
+ * Peut etre un noeud parmi plusieurs (voir ServiceRoute) : il ne recoit alors que ses articles et ses clients.
 */
-public class BricoMerlinServer extends UnicastRemoteObject implements BricoMerlinService {
+public class BricoMerlinServer extends UnicastRemoteObject implements BricoMerlinService, NoeudBricoMerlin {
+    private static final long serialVersionUID = 1L;
 
-    // Configuration de la base de donnees
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/";
-    private static final String DB_NAME = "bricomerlin";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "";
-    private final Connection connection;
+    // Registre RMI et nom du service (le service interne du noeud est publie sous ce nom suivi de "Noeud")
+    private static final int RMI_PORT = Integer.getInteger("bricomerlin.rmi.port", 1099);
+    private static final String RMI_NOM = System.getProperty("bricomerlin.rmi.nom", "BricoMerlinService");
+
+    // Position de ce serveur parmi les noeuds (meme ordre que la liste des noeuds du client, voir ServiceRoute)
+    private static final int NOEUD_INDEX = Integer.getInteger("bricomerlin.noeud.index", 0);
+    private static final int NOEUD_NOMBRE = Integer.getInteger("bricomerlin.noeud.nombre", 1);
+
+    // Stockage : mysql (par defaut) ou memoire (-Dbricomerlin.stockage=memoire)
+    private static final String STOCKAGE = System.getProperty("bricomerlin.stockage", "mysql");
+    // Repertoire de l'instantane et du journal du stockage memoire (vide : rien n'est ecrit sur disque)
+    private static final String STOCKAGE_MEMOIRE_REPERTOIRE = System.getProperty("bricomerlin.stockage.repertoire", "");
+    private static final long STOCKAGE_MEMOIRE_INSTANTANE_SEC = Long.getLong("bricomerlin.stockage.instantaneSec", 300);
+    // Journal du stockage memoire : attente du disque, fenetre de regroupement des fsync, taille des segments
+    private static final boolean STOCKAGE_MEMOIRE_SYNC = Boolean.parseBoolean(System.getProperty("bricomerlin.stockage.sync", "true"));
+    private static final long STOCKAGE_MEMOIRE_FENETRE_US = Long.getLong("bricomerlin.stockage.fenetreUs", 200);
+    private static final long STOCKAGE_MEMOIRE_SEGMENT_MO = Long.getLong("bricomerlin.stockage.segmentMo", 64);
+
+    // Configuration du cache d'articles (inutile devant le stockage memoire)
+    private static final boolean CACHE_ACTIF = Boolean.parseBoolean(System.getProperty("bricomerlin.cache.actif", "true"));
+    private static final int CACHE_TAILLE = Integer.getInteger("bricomerlin.cache.taille", 10000);
+
+    // Configuration du moteur de stock en memoire (desactive par defaut : la base fait foi)
+    private static final boolean MOTEUR_STOCK_ACTIF = Boolean.parseBoolean(System.getProperty("bricomerlin.moteurStock.actif", "false"));
+    private static final String MOTEUR_STOCK_JOURNAL = System.getProperty("bricomerlin.moteurStock.journal", "journal-stock");
+    private static final long MOTEUR_STOCK_INTERVALLE_MS = Long.getLong("bricomerlin.moteurStock.intervalleMs", 200);
+    private static final int MOTEUR_STOCK_CAPACITE = Integer.getInteger("bricomerlin.moteurStock.capacite", 100000);
+    private static final boolean MOTEUR_STOCK_SYNC = Boolean.parseBoolean(System.getProperty("bricomerlin.moteurStock.sync", "true"));
+
+    // Controle d'admission : operations simultanees, appels en attente et attente maximale avant refus
+    private static final boolean ADMISSION_ACTIF = Boolean.parseBoolean(System.getProperty("bricomerlin.admission.actif", "true"));
+    private static final int ADMISSION_CONCURRENCE = Integer.getInteger("bricomerlin.admission.concurrence", 20);
+    private static final int ADMISSION_FILE = Integer.getInteger("bricomerlin.admission.file", 200);
+    private static final long ADMISSION_ATTENTE_MS = Long.getLong("bricomerlin.admission.attenteMs", 500);
+
+    // Transport binaire (ServeurBinaire), publie a cote de RMI : port, requetes executees simultanement et en attente
+    private static final boolean BINAIRE_ACTIF = Boolean.parseBoolean(System.getProperty("bricomerlin.binaire.actif", "true"));
+    private static final int BINAIRE_PORT = Integer.getInteger("bricomerlin.binaire.port", 1100);
+    private static final int BINAIRE_THREADS = Integer.getInteger("bricomerlin.binaire.threads", 16);
+    private static final int BINAIRE_FILE = Integer.getInteger("bricomerlin.binaire.file", 1000);
+
+    // Duree de vie d'une reservation non confirmee (reserverArticle)
+    private static final long RESERVATION_DUREE_MS = Long.getLong("bricomerlin.reservation.dureeMs", 120000);
+    // Delai avant un nouvel essai quand le stock d'une reservation liberee ou echue n'a pas pu etre rendu
+    private static final long RESERVATION_REESSAI_MS = Long.getLong("bricomerlin.reservation.reessaiMs", 5000);
+
+    // Requetes idempotentes (idRequete) : nombre maximal suivi et duree pendant laquelle un identifiant est reconnu
+    private static final int IDEMPOTENCE_TAILLE = Integer.getInteger("bricomerlin.idempotence.taille", 100000);
+    private static final long IDEMPOTENCE_FENETRE_MS = Long.getLong("bricomerlin.idempotence.fenetreMs", 600000);
+
+    // Nombre maximal d'articles rendus par rechercherCatalogue
+    private static final int RECHERCHE_LIMITE_MAX = Integer.getInteger("bricomerlin.recherche.limiteMax", 1000);
+
+    // Lignes de livraison appliquees par transaction (ajouterStockMasse)
+    private static final int REAPPRO_TAILLE_LOT = Integer.getInteger("bricomerlin.reappro.tailleLot", 1000);
+
+    // Dernieres modifications de stock conservees pour la verification des caches clients
+    private static final int MODIFICATIONS_CAPACITE = Integer.getInteger("bricomerlin.modifications.capacite", 65536);
+
+    // Taille maximale d'une page de lignes de facture (consulterLignesFacture)
+    private static final int FACTURE_TAILLE_PAGE_MAX = Integer.getInteger("bricomerlin.facture.taillePageMax", 1000);
+
+    // Intervalle de l'instantane des metriques dans le Log (0 : desactive, metriques toujours disponibles par JMX)
+    private static final long METRIQUES_INTERVALLE_SEC = Long.getLong("bricomerlin.metriques.intervalleSec", 0);
+
+    // Donnees de test inserees dans un stockage vide
+    private static final List<Article> DONNEES_TEST = List.of(
+            new Article("VIS001", "Visserie", 0.15, 1000),
+            new Article("VIS002", "Visserie", 0.25, 500),
+            new Article("OUT001", "Outillage", 25.90, 20),
+            new Article("OUT002", "Outillage", 45.50, 15),
+            new Article("PEI001", "Peinture", 12.99, 50),
+            new Article("PEI002", "Peinture", 18.75, 30)
+    );
+
+    private final StockageBricoMerlin stockage;
+    private final CacheArticles cache;
+    private final MoteurStock moteur;
+    private final IndexRecherche index = new IndexRecherche();
+    private final JournalModifications modifications = new JournalModifications(MODIFICATIONS_CAPACITE);
+    private final MetriquesServeur metriques = new MetriquesServeur();
+    private final ControleAdmission admission = new ControleAdmission(ADMISSION_CONCURRENCE, ADMISSION_FILE, ADMISSION_ATTENTE_MS);
+    private final ReservationsStock reservations = new ReservationsStock(RESERVATION_DUREE_MS, NOEUD_INDEX, NOEUD_NOMBRE, this::rendreReservation);
+    private final RequetesTraitees requetes;
 
     public BricoMerlinServer() throws RemoteException {
+        this(creerStockage());
+    }
+
+    public BricoMerlinServer(StockageBricoMerlin stockage) throws RemoteException {
         super();
+        this.stockage = stockage;
+        this.cache = new CacheArticles(CACHE_ACTIF && !(stockage instanceof StockageMemoire), CACHE_TAILLE);
+        this.requetes = new RequetesTraitees(IDEMPOTENCE_TAILLE, IDEMPOTENCE_FENETRE_MS, stockage::lireRequete, this::purgerRequetes);
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            creerBaseDeDonnees();
-            connection = DriverManager.getConnection(DB_URL + DB_NAME, DB_USER, DB_PASSWORD);
-            initialiserBaseDeDonnees();
-            System.out.println("Connexion a la base de donnees etablie");
-        } catch (Exception e) {
-            System.err.println("Erreur lors de la connexion a la base de donnees: " + e.getMessage());
+            insertionDonneesTest();
+            stockage.chargerRequetes(System.currentTimeMillis() - IDEMPOTENCE_FENETRE_MS, requetes::charger);
+            moteur = MOTEUR_STOCK_ACTIF
+                    ? new MoteurStock(stockage.persistanceStock(), Paths.get(MOTEUR_STOCK_JOURNAL),
+                            MOTEUR_STOCK_INTERVALLE_MS, MOTEUR_STOCK_CAPACITE, MOTEUR_STOCK_SYNC)
+                    : null;
+            indexerCatalogue();
+            // Apres le moteur : le stock des reservations deja echues est rendu des leur rechargement
+            stockage.chargerReservations(reservations::ajouter);
+        } catch (SQLException | IOException e) {
+            Log.erreur("Erreur lors de l'initialisation du stockage: ", e.getMessage());
+            throw new RemoteException("Impossible d'initialiser le stockage", e);
+        }
+
+        if (stockage instanceof StockageMySQL) {
+            ((StockageMySQL) stockage).getPool().setObservateurSql(metriques);
+        }
+        metriques.ajouterSource(stockage::statistiques);
+        metriques.ajouterSource(cache::statistiques);
+        metriques.ajouterSource(index::statistiques);
+        metriques.ajouterSource(reservations::statistiques);
+        metriques.ajouterSource(requetes::statistiques);
+        metriques.ajouterSource(stockage.ventes()::statistiques);
+        if (ADMISSION_ACTIF) {
+            metriques.ajouterSource(admission::statistiques);
+        }
+        if (moteur != null) {
+            metriques.ajouterSource(moteur::statistiques);
+        }
+        metriques.enregistrerJmx();
+        metriques.demarrerInstantanes(METRIQUES_INTERVALLE_SEC);
+    }
+
+    /**
+     * Ouvre le stockage choisi par -Dbricomerlin.stockage
+     */
+    static StockageBricoMerlin creerStockage() throws RemoteException {
+        return creerStockage(STOCKAGE_MEMOIRE_REPERTOIRE.isEmpty() ? null : Paths.get(STOCKAGE_MEMOIRE_REPERTOIRE));
+    }
+
+    /**
+     * @param repertoireMemoire Repertoire du stockage memoire, a la place de -Dbricomerlin.stockage.repertoire (null : aucun fichier)
+     */
+    static StockageBricoMerlin creerStockage(Path repertoireMemoire) throws RemoteException {
+        try {
+            switch (STOCKAGE) {
+                case "mysql":
+                    return new StockageMySQL();
+                case "memoire":
+                    return repertoireMemoire == null
+                            ? new StockageMemoire()
+                            : new StockageMemoire(repertoireMemoire, STOCKAGE_MEMOIRE_INSTANTANE_SEC,
+                                    STOCKAGE_MEMOIRE_SYNC, STOCKAGE_MEMOIRE_FENETRE_US, STOCKAGE_MEMOIRE_SEGMENT_MO * 1024 * 1024);
+                default:
+                    throw new RemoteException("Stockage inconnu: " + STOCKAGE + " (mysql ou memoire)");
+            }
+        } catch (SQLException | ClassNotFoundException e) {
+            Log.erreur("Erreur lors de la connexion a la base de donnees: ", e.getMessage());
             throw new RemoteException("Impossible de se connecter a la base de donnees", e);
         }
     }
 
+    StockageBricoMerlin getStockage() { return stockage; }
+
     // Service
 
     @Override
     public Article consulterStock(String reference) throws RemoteException {
-        String query = "SELECT * FROM articles WHERE reference = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, reference);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                return new Article(
-                        rs.getString("reference"),
-                        rs.getString("famille"),
-                        rs.getDouble("prix_unitaire"),
-                        rs.getInt("stock_disponible")
-                );
+        try {
+            // Le cache ne se charge que depuis la base principale (une replique en retard le rendrait faux) ;
+            // sans cache, la lecture peut aller a une replique
+            if (!cache.estActif() && moteur == null) {
+                return stockage.lecture(null).lireArticle(reference);
             }
-            return null;
+            return obtenirArticle(reference);
         } catch (SQLException e) {
-            System.err.println("Erreur lors de la consultation du stock: " + e.getMessage());
+            Log.erreur("Erreur lors de la consultation du stock: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
     @Override
     public List<String> rechercherArticles(String famille) throws RemoteException {
-        List<String> references = new ArrayList<>();
-        String query = "SELECT reference FROM articles WHERE famille = ? AND stock_disponible > 0";
-
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, famille);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                references.add(rs.getString("reference"));
+        try {
+            // Avec le moteur de stock, le stock du stockage est en retard : filtrer en memoire
+            if (cache.estActif() || moteur != null) {
+                return rechercherArticlesEnCache(famille);
             }
+            return stockage.lecture(null).rechercherArticles(famille);
         } catch (SQLException e) {
-            System.err.println("Erreur lors de la recherche d'articles: " + e.getMessage());
+            Log.erreur("Erreur lors de la recherche d'articles: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
         }
+    }
 
-        return references;
+    @Override
+    public List<Article> rechercherCatalogue(CritereRecherche critere) throws RemoteException {
+        if (critere == null) {
+            throw new RemoteException("Critere de recherche obligatoire");
+        }
+        // Un seul appel rend les articles complets : pas de consulterStock par reference trouvee
+        return index.rechercher(critere, Math.min(critere.getLimite(), RECHERCHE_LIMITE_MAX));
     }
 
     @Override
-    public boolean acheterArticle(String reference, int quantite, String clientId) throws RemoteException {
-        try {
-            connection.setAutoCommit(false);
+    public boolean acheterArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        return requetes.executer("acheterArticle", idRequete, cle -> effectuerAchat(reference, quantite, clientId, cle));
+    }
+
+    private boolean effectuerAchat(String reference, int quantite, String clientId, String cle) throws RemoteException {
+        if (quantite <= 0) {
+            return false;
+        }
+        if (moteur != null) {
+            return acheterArticleMoteur(reference, quantite, clientId, cle);
+        }
 
-            // Verifier le stock disponible
-            Article article = consulterStock(reference);
-            if (article == null || article.getStockDisponible() < quantite) {
-                connection.rollback();
+        int delta = 0;
+        cache.debutEcriture(reference);
+        try {
+            // Le prix n'est jamais modifie par le service : celui du cache fait foi
+            Article article = obtenirArticle(reference);
+            if (article == null || !stockage.acheterArticle(reference, quantite, clientId, article.getPrixUnitaire(), cle)) {
                 return false;
             }
+            delta = -quantite;
+            Log.info("Achat effectue: ", quantite, " x ", reference, " pour client ", clientId);
+            return true;
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de l'achat: ", e.getMessage());
+            throw new RemoteException("Erreur lors de l'achat", e);
+        } finally {
+            cache.finEcriture(reference, delta);
+            stockModifie(reference, delta);
+        }
+    }
+
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) throws RemoteException {
+        return requetes.executer("acheterPanier", idRequete, cle -> effectuerAchatPanier(lignes, clientId, toutOuRien, cle));
+    }
+
+    private ResultatPanier effectuerAchatPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String cle) throws RemoteException {
+        if (moteur != null) {
+            return acheterPanierMoteur(lignes, clientId, toutOuRien, cle);
+        }
+
+        SortedSet<String> references = new TreeSet<>();
+        for (LignePanier ligne : lignes) {
+            if (ligne.getReference() != null && ligne.getQuantite() > 0) {
+                references.add(ligne.getReference());
+            }
+        }
 
-            // Mettre a jour le stock
-            String updateStock = "UPDATE articles SET stock_disponible = stock_disponible - ? WHERE reference = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
-                stmt.setInt(1, quantite);
-                stmt.setString(2, reference);
-                stmt.executeUpdate();
+        Map<String, Integer> deltas = new HashMap<>();
+        for (String reference : references) {
+            cache.debutEcriture(reference);
+        }
+        try {
+            ResultatPanier resultat = stockage.acheterPanier(lignes, clientId, toutOuRien, cle);
+            for (int i = 0; i < lignes.size(); i++) {
+                if (resultat.getStatut(i) == ResultatPanier.Statut.ACCEPTEE) {
+                    deltas.merge(lignes.get(i).getReference(), -lignes.get(i).getQuantite(), Integer::sum);
+                }
+            }
+            if (!deltas.isEmpty()) {
+                Log.info("Panier achete: ", resultat.getNbLignesAcceptees(), "/", lignes.size(), " lignes pour client ", clientId);
             }
+            return resultat;
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de l'achat du panier: ", e.getMessage());
+            throw new RemoteException("Erreur lors de l'achat du panier", e);
+        } finally {
+            for (String reference : references) {
+                cache.finEcriture(reference, deltas.getOrDefault(reference, 0));
+                stockModifie(reference, deltas.getOrDefault(reference, 0));
+            }
+        }
+    }
 
-            // Ajouter a la facture du client
-            ajouterLigneFacture(clientId, reference, quantite, article.getPrixUnitaire());
+    // Reservations
 
-            connection.commit();
-            System.out.println("Achat effectue: " + quantite + " x " + reference + " pour client " + clientId);
-            return true;
+    @Override
+    public Reservation reserverArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        return requetes.executer("reserverArticle", idRequete, cle -> effectuerReservation(reference, quantite, clientId, cle));
+    }
 
+    private Reservation effectuerReservation(String reference, int quantite, String clientId, String cle) throws RemoteException {
+        if (clientId == null || quantite <= 0) {
+            return null;
+        }
+        Reservation reservation;
+        try {
+            Article article = obtenirArticle(reference);
+            if (article == null) {
+                return null;
+            }
+            reservation = reservations.preparer(reference, quantite, clientId, article.getPrixUnitaire());
         } catch (SQLException e) {
+            Log.erreur("Erreur lors de la reservation: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        }
+
+        // La reservation est enregistree avec le retrait de stock (rechargee au demarrage)
+        if (moteur != null) {
             try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                System.err.println("Erreur lors du rollback: " + ex.getMessage());
+                if (!moteur.reserver(reference, quantite)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                Log.erreur("Erreur lors de la reservation: ", e.getMessage());
+                throw new RemoteException("Erreur du moteur de stock", e);
             }
-            System.err.println("Erreur lors de l'achat: " + e.getMessage());
-            throw new RemoteException("Erreur lors de l'achat", e);
-        } finally {
+            stockModifie(reference, -quantite);
             try {
-                connection.setAutoCommit(true);
+                stockage.enregistrerReservation(reservation, false, cle);
             } catch (SQLException e) {
-                System.err.println("Erreur lors de la restauration de l'autocommit: " + e.getMessage());
+                rendreStockMoteur(reference, quantite);
+                Log.erreur("Erreur lors de la reservation: ", e.getMessage());
+                throw new RemoteException("Erreur de base de donnees", e);
+            }
+        } else {
+            int delta = 0;
+            cache.debutEcriture(reference);
+            try {
+                if (!stockage.enregistrerReservation(reservation, true, cle)) {
+                    return null;
+                }
+                delta = -quantite;
+            } catch (SQLException e) {
+                Log.erreur("Erreur lors de la reservation: ", e.getMessage());
+                throw new RemoteException("Erreur de base de donnees", e);
+            } finally {
+                cache.finEcriture(reference, delta);
+                stockModifie(reference, delta);
+            }
+        }
+        reservations.ajouter(reservation);
+        Log.info("Reservation ", reservation.getId(), ": ", quantite, " x ", reference, " pour client ", clientId);
+        return reservation;
+    }
+
+    @Override
+    public boolean confirmerReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return requetes.executer("confirmerReservation", idRequete, cle -> effectuerConfirmation(idReservation, clientId, cle));
+    }
+
+    private boolean effectuerConfirmation(long idReservation, String clientId, String cle) throws RemoteException {
+        Reservation reservation = reservations.confirmer(idReservation, clientId);
+        if (reservation == null) {
+            return false;
+        }
+        // Le stock est deja retire : la reservation devient une ligne de facture dans la meme transaction
+        try {
+            if (!stockage.confirmerReservation(reservation, cle)) {
+                return false;
             }
+            Log.info("Reservation ", idReservation, " confirmee pour client ", clientId);
+            return true;
+        } catch (SQLException e) {
+            reservations.remettre(reservation);
+            Log.erreur("Erreur lors de la confirmation de la reservation: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
     @Override
-    public boolean ajouterStock(String reference, int quantite) throws RemoteException {
-        String query = "UPDATE articles SET stock_disponible = stock_disponible + ? WHERE reference = ?";
+    public boolean libererReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return requetes.executer("libererReservation", idRequete, cle -> effectuerLiberation(idReservation, clientId, cle));
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, quantite);
-            stmt.setString(2, reference);
-            int rowsAffected = stmt.executeUpdate();
+    private boolean effectuerLiberation(long idReservation, String clientId, String cle) {
+        Reservation reservation = reservations.liberer(idReservation, clientId);
+        if (reservation == null) {
+            return false;
+        }
+        rendreReservation(reservation, cle);
+        return true;
+    }
 
-            if (rowsAffected > 0) {
-                System.out.println("Stock ajoute: " + quantite + " unites pour " + reference);
+    /**
+     * Rend au stock la quantite d'une reservation expiree (file d'expiration de ReservationsStock)
+     */
+    private void rendreReservation(Reservation reservation) {
+        rendreReservation(reservation, null);
+    }
+
+    /**
+     * Rend au stock la quantite d'une reservation liberee ou expiree, et la supprime du stockage
+     * En cas d'echec, la reservation repasse dans la file d'expiration pour un nouvel essai.
+     * @param cle Requete idempotente enregistree (resultat true) avec la suppression, null si aucune
+     */
+    private void rendreReservation(Reservation reservation, String cle) {
+        String reference = reservation.getReference();
+        int quantite = reservation.getQuantite();
+        try {
+            if (moteur != null) {
+                if (stockage.terminerReservation(reservation, false, cle, true)) {
+                    rendreStockMoteur(reference, quantite);
+                }
+                return;
+            }
+            int delta = 0;
+            cache.debutEcriture(reference);
+            try {
+                if (stockage.terminerReservation(reservation, true, cle, true)) {
+                    delta = quantite;
+                }
+            } finally {
+                cache.finEcriture(reference, delta);
+                stockModifie(reference, delta);
+            }
+        } catch (SQLException e) {
+            Log.erreur("Impossible de rendre la reservation ", reservation, ", nouvel essai dans ", RESERVATION_REESSAI_MS, " ms: ",
+                    e.getMessage());
+            reservations.reessayer(reservation, RESERVATION_REESSAI_MS);
+        }
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String idRequete) throws RemoteException {
+        return requetes.executer("ajouterStock", idRequete, cle -> effectuerAjoutStock(reference, quantite, cle));
+    }
+
+    private boolean effectuerAjoutStock(String reference, int quantite, String cle) throws RemoteException {
+        if (moteur != null) {
+            try {
+                if (moteur.ajouter(reference, quantite)) {
+                    stockModifie(reference, quantite);
+                    enregistrerRequeteMoteur(cle, true);
+                    Log.info("Stock ajoute: ", quantite, " unites pour ", reference);
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                Log.erreur("Erreur lors de l'ajout de stock: ", e.getMessage());
+                throw new RemoteException("Erreur du moteur de stock", e);
+            }
+        }
+
+        int delta = 0;
+        cache.debutEcriture(reference);
+        try {
+            if (stockage.ajouterStock(reference, quantite, cle)) {
+                delta = quantite;
+                Log.info("Stock ajoute: ", quantite, " unites pour ", reference);
                 return true;
             }
             return false;
         } catch (SQLException e) {
-            System.err.println("Erreur lors de l'ajout de stock: " + e.getMessage());
+            Log.erreur("Erreur lors de l'ajout de stock: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
+        } finally {
+            cache.finEcriture(reference, delta);
+            stockModifie(reference, delta);
         }
     }
 
     @Override
-    public Facture consulterFacture(String clientId) throws RemoteException {
-        String queryFacture = "SELECT * FROM factures WHERE client_id = ? AND payee = false";
-        String queryLignes = "SELECT * FROM lignes_facture WHERE facture_id = ?";
-
-        try (PreparedStatement stmtFacture = connection.prepareStatement(queryFacture)) {
-            stmtFacture.setString(1, clientId);
-            ResultSet rsFacture = stmtFacture.executeQuery();
-
-            if (rsFacture.next()) {
-                int factureId = rsFacture.getInt("id");
-                double montantTotal = rsFacture.getDouble("montant_total");
-                Date dateFacturation = rsFacture.getTimestamp("date_facturation");
-
-                // Recuperer les lignes de facture
-                List<LigneFacture> lignes = new ArrayList<>();
-                try (PreparedStatement stmtLignes = connection.prepareStatement(queryLignes)) {
-                    stmtLignes.setInt(1, factureId);
-                    ResultSet rsLignes = stmtLignes.executeQuery();
-
-                    while (rsLignes.next()) {
-                        lignes.add(new LigneFacture(
-                                rsLignes.getString("reference_article"),
-                                rsLignes.getInt("quantite"),
-                                rsLignes.getDouble("prix_unitaire")
-                        ));
-                    }
+    public RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) throws RemoteException {
+        return requetes.executer("ajouterStockMasse", idRequete, cle -> effectuerReapprovisionnement(lignes, creerArticles, cle));
+    }
+
+    /**
+     * @param cle Requete idempotente : chaque lot est enregistre avec sa transaction sous cle#position de sa premiere ligne,
+     *            un lot deja enregistre (requete rejouee apres une erreur ou un redemarrage) n'est pas applique a nouveau
+     */
+    private RapportImport effectuerReapprovisionnement(List<LigneLivraison> lignes, boolean creerArticles, String cle) throws RemoteException {
+        // Une transaction par lot : une erreur laisse appliques les lots precedents
+        RapportImport rapport = new RapportImport();
+        try {
+            for (int debut = 0; debut < lignes.size(); debut += REAPPRO_TAILLE_LOT) {
+                int decalage = debut;
+                List<LigneLivraison> lot = lignes.subList(debut, Math.min(debut + REAPPRO_TAILLE_LOT, lignes.size()));
+                String cleLot = cle == null ? null : cle + '#' + debut;
+                RapportImport rapportLot = cleLot == null ? null : lireRapportLot(cleLot);
+                if (rapportLot == null) {
+                    rapportLot = moteur != null ? reapprovisionnerMoteur(lot, creerArticles, cleLot) : reapprovisionner(lot, creerArticles, cleLot);
                 }
+                rapport.fusionner(rapportLot, position -> position + decalage);
+            }
+        } catch (SQLException | IOException e) {
+            Log.erreur("Erreur lors du reapprovisionnement apres ", rapport.getNbLignes(), " lignes: ", e.getMessage());
+            throw new RemoteException("Erreur lors du reapprovisionnement (" + rapport.getNbAppliquees() + " lignes deja appliquees)", e);
+        }
+        Log.info("Livraison receptionnee: ", rapport);
+        return rapport;
+    }
 
-                return new Facture(clientId, montantTotal, lignes, dateFacturation);
+    /**
+     * @return Le bilan enregistre du lot, null s'il n'a pas encore ete applique
+     */
+    private RapportImport lireRapportLot(String cleLot) throws SQLException {
+        RapportImport[] rapport = new RapportImport[1];
+        stockage.lireRequete(cleLot, (cle, resultat, horodatage) -> rapport[0] = (RapportImport) RequetesTraitees.decoder(resultat));
+        return rapport[0];
+    }
+
+    private RapportImport reapprovisionner(List<LigneLivraison> lot, boolean creerArticles, String cleLot) throws SQLException {
+        SortedSet<String> references = new TreeSet<>();
+        for (LigneLivraison ligne : lot) {
+            if (ligne.getReference() != null) {
+                references.add(ligne.getReference());
             }
-            return null;
+        }
+
+        RapportImport rapport = null;
+        for (String reference : references) {
+            cache.debutEcriture(reference);
+        }
+        try {
+            rapport = stockage.reapprovisionner(lot, creerArticles, cleLot);
+            return rapport;
+        } finally {
+            Map<String, Integer> deltas = rapport == null ? Map.of() : quantitesAppliquees(lot, rapport);
+            for (String reference : references) {
+                cache.finEcriture(reference, deltas.getOrDefault(reference, 0));
+            }
+            if (rapport != null) {
+                indexerReapprovisionnement(lot, rapport, deltas);
+            }
+        }
+    }
+
+    /**
+     * Avec le moteur de stock : les references qu'il connait y sont ajoutees, seules les creations passent par le stockage
+     */
+    private RapportImport reapprovisionnerMoteur(List<LigneLivraison> lot, boolean creerArticles, String cleLot) throws SQLException, IOException {
+        RapportImport rapport = new RapportImport();
+        Map<String, Integer> ajouts = new TreeMap<>();
+        List<LigneLivraison> inconnues = new ArrayList<>();
+        List<Integer> positionsInconnues = new ArrayList<>();
+        for (int i = 0; i < lot.size(); i++) {
+            LigneLivraison ligne = lot.get(i);
+            if (ligne.getReference() == null || moteur.stock(ligne.getReference()) < 0) {
+                inconnues.add(ligne);
+                positionsInconnues.add(i);
+                continue;
+            }
+            String motif = ligne.motifRejet(true, creerArticles);
+            if (motif != null) {
+                rapport.rejeter(i, ligne.getReference(), motif);
+            } else {
+                ajouts.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                rapport.ligneAppliquee();
+            }
+        }
+        for (Map.Entry<String, Integer> ajout : ajouts.entrySet()) {
+            moteur.ajouter(ajout.getKey(), ajout.getValue());
+            stockModifie(ajout.getKey(), ajout.getValue());
+        }
+
+        if (!inconnues.isEmpty()) {
+            RapportImport creations = stockage.reapprovisionner(inconnues, creerArticles, null);
+            Map<String, Integer> quantites = quantitesAppliquees(inconnues, creations);
+            for (String reference : creations.getReferencesCreees()) {
+                moteur.declarer(reference, quantites.get(reference));
+            }
+            indexerReapprovisionnement(inconnues, creations, quantites);
+            rapport.fusionner(creations, positionsInconnues::get);
+        }
+        enregistrerRequeteMoteur(cleLot, rapport);
+        return rapport;
+    }
+
+    /**
+     * @return La quantite ajoutee par reference, lignes rejetees exclues
+     */
+    private static Map<String, Integer> quantitesAppliquees(List<LigneLivraison> lot, RapportImport rapport) {
+        boolean[] rejetees = new boolean[lot.size()];
+        for (RapportImport.Rejet rejet : rapport.getRejets()) {
+            rejetees[rejet.getPosition()] = true;
+        }
+        Map<String, Integer> quantites = new HashMap<>();
+        for (int i = 0; i < lot.size(); i++) {
+            if (!rejetees[i]) {
+                quantites.merge(lot.get(i).getReference(), lot.get(i).getQuantite(), Integer::sum);
+            }
+        }
+        return quantites;
+    }
+
+    private void indexerReapprovisionnement(List<LigneLivraison> lot, RapportImport rapport, Map<String, Integer> quantites) {
+        Set<String> creees = new HashSet<>(rapport.getReferencesCreees());
+        Set<String> indexees = new HashSet<>();
+        for (LigneLivraison ligne : lot) {
+            // Famille et prix de la premiere ligne de la reference, comme dans le stockage
+            if (creees.contains(ligne.getReference()) && indexees.add(ligne.getReference())) {
+                index.indexer(new Article(ligne.getReference(), ligne.getFamille(), ligne.getPrixUnitaire(), quantites.get(ligne.getReference())));
+                cache.oublierFamille(ligne.getFamille());
+            }
+        }
+        if (moteur == null) {
+            for (Map.Entry<String, Integer> quantite : quantites.entrySet()) {
+                if (!creees.contains(quantite.getKey())) {
+                    stockModifie(quantite.getKey(), quantite.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public ModificationsStock consulterModifications(long depuisVersion) {
+        return modifications.depuis(depuisVersion);
+    }
+
+    @Override
+    public Facture consulterFacture(String clientId) throws RemoteException {
+        try {
+            // Replique autorisee, sauf si le client vient d'acheter ou de payer (lecture de ses propres ecritures)
+            return stockage.lecture(clientId).consulterFacture(clientId);
         } catch (SQLException e) {
-            System.err.println("Erreur lors de la consultation de facture: " + e.getMessage());
+            Log.erreur("Erreur lors de la consultation de facture: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
     @Override
-    public boolean payerFacture(String clientId, String modePaiement) throws RemoteException {
-        String query = "UPDATE factures SET payee = true, mode_paiement = ?, date_paiement = NOW() WHERE client_id = ? AND payee = false";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, modePaiement);
-            stmt.setString(2, clientId);
-            int rowsAffected = stmt.executeUpdate();
-
-            if (rowsAffected > 0) {
-                System.out.println("Facture payee pour client " + clientId + " (mode: " + modePaiement + ")");
+    public EnteteFacture consulterEnteteFacture(String clientId) throws RemoteException {
+        try {
+            return stockage.lecture(clientId).lireEnteteFacture(clientId);
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la consultation de facture: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        }
+    }
+
+    @Override
+    public PageLignesFacture consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws RemoteException {
+        if (taille <= 0) {
+            throw new RemoteException("Taille de page invalide: " + taille);
+        }
+        try {
+            // Borne la memoire d'une reponse, quel que soit le client
+            return stockage.lecture(clientId).lireLignesFacture(clientId, numeroFacture, apresLigne, Math.min(taille, FACTURE_TAILLE_PAGE_MAX));
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la lecture des lignes de facture: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        }
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String idRequete) throws RemoteException {
+        return requetes.executer("payerFacture", idRequete, cle -> effectuerPaiement(clientId, modePaiement, cle));
+    }
+
+    private boolean effectuerPaiement(String clientId, String modePaiement, String cle) throws RemoteException {
+        try {
+            if (stockage.payerFacture(clientId, modePaiement, cle)) {
+                Log.info("Facture payee pour client ", clientId, " (mode: ", modePaiement, ")");
                 return true;
             }
             return false;
         } catch (SQLException e) {
-            System.err.println("Erreur lors du paiement: " + e.getMessage());
+            Log.erreur("Erreur lors du paiement: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
     @Override
     public double calculerChiffreAffaires(Date date) throws RemoteException {
-        String query = "SELECT SUM(montant_total) as chiffre_affaires FROM factures WHERE DATE(date_facturation) = DATE(?) AND payee = true";
+        try {
+            return stockage.lecture(null).chiffreAffaires(date);
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors du calcul du chiffre d'affaires: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        }
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setTimestamp(1, new Timestamp(date.getTime()));
-            ResultSet rs = stmt.executeQuery();
+    @Override
+    public SortedMap<Date, Double> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) throws RemoteException {
+        // Tous les jours de la periode, a zero par defaut
+        SortedMap<Date, Double> chiffreAffaires = new TreeMap<>();
+        Calendar jour = Calendar.getInstance();
+        jour.setTime(debut);
+        jour.set(Calendar.HOUR_OF_DAY, 0);
+        jour.set(Calendar.MINUTE, 0);
+        jour.set(Calendar.SECOND, 0);
+        jour.set(Calendar.MILLISECOND, 0);
+        while (!jour.getTime().after(fin)) {
+            chiffreAffaires.put(jour.getTime(), 0.0);
+            jour.add(Calendar.DAY_OF_MONTH, 1);
+        }
 
-            if (rs.next()) {
-                return rs.getDouble("chiffre_affaires");
-            }
-            return 0.0;
+        try {
+            chiffreAffaires.putAll(stockage.lecture(null).chiffreAffairesParJour(debut, fin, modePaiement));
+            return chiffreAffaires;
         } catch (SQLException e) {
-            System.err.println("Erreur lors du calcul du chiffre d'affaires: " + e.getMessage());
+            Log.erreur("Erreur lors du calcul du chiffre d'affaires: ", e.getMessage());
             throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
-    // Utilitaire
+    // Rapports
 
-    private void ajouterLigneFacture(String clientId, String reference, int quantite, double prixUnitaire) throws SQLException {
-        // Recuperer ou creer la facture du client
-        int factureId = obtenirOuCreerFacture(clientId);
+    @Override
+    public List<LigneRapport> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) throws RemoteException {
+        if (debut == null || fin == null || dimension == null) {
+            throw new RemoteException("Periode et dimension du rapport obligatoires");
+        }
+        return stockage.ventes().rapport(debut.getTime(), fin.getTime(), dimension);
+    }
 
-        // Ajouter la ligne de facture
-        String insertLigne = "INSERT INTO lignes_facture (facture_id, reference_article, quantite, prix_unitaire) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(insertLigne)) {
-            stmt.setInt(1, factureId);
-            stmt.setString(2, reference);
-            stmt.setInt(3, quantite);
-            stmt.setDouble(4, prixUnitaire);
-            stmt.executeUpdate();
+    // Noeud
+
+    @Override
+    public Article retirerStock(String reference, int quantite, String idRequete) throws RemoteException {
+        return requetes.executer("retirerStock", idRequete, cle -> effectuerRetrait(reference, quantite, cle));
+    }
+
+    private Article effectuerRetrait(String reference, int quantite, String cle) throws RemoteException {
+        if (quantite <= 0) {
+            return null;
+        }
+        if (moteur != null) {
+            try {
+                if (!moteur.reserver(reference, quantite)) {
+                    return null;
+                }
+                stockModifie(reference, -quantite);
+                Article article = obtenirArticle(reference);
+                enregistrerRequeteMoteur(cle, article);
+                return article;
+            } catch (IOException | SQLException e) {
+                Log.erreur("Erreur lors du retrait de stock: ", e.getMessage());
+                throw new RemoteException("Erreur du moteur de stock", e);
+            }
+        }
+
+        int delta = 0;
+        cache.debutEcriture(reference);
+        try {
+            Article article = obtenirArticle(reference);
+            if (article == null || !stockage.retirerStock(reference, quantite, cle, article)) {
+                return null;
+            }
+            delta = -quantite;
+            Log.info("Stock retire: ", quantite, " x ", reference, " (facture par un autre noeud)");
+            return article;
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors du retrait de stock: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        } finally {
+            cache.finEcriture(reference, delta);
+            stockModifie(reference, delta);
+        }
+    }
+
+    @Override
+    public void facturer(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference, String idRequete) throws RemoteException {
+        if (clientId == null || lignes == null || lignes.isEmpty() || prixParReference == null) {
+            throw new RemoteException("Facturation invalide: client et lignes obligatoires");
         }
+        for (LignePanier ligne : lignes) {
+            Double prix = prixParReference.get(ligne.getReference());
+            if (ligne.getQuantite() <= 0 || prix == null || prix < 0 || prix.isNaN() || prix.isInfinite()) {
+                throw new RemoteException("Facturation invalide: ligne " + ligne.getReference() + " (quantite ou prix)");
+            }
+        }
+        requetes.executer("facturer", idRequete, cle -> {
+            facturer(clientId, lignes, prixParReference, cle, true);
+            return true;
+        });
+    }
 
-        // Mettre a jour le montant total de la facture
-        String updateMontant = "UPDATE factures SET montant_total = (SELECT SUM(quantite * prix_unitaire) FROM lignes_facture WHERE facture_id = ?) WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(updateMontant)) {
-            stmt.setInt(1, factureId);
-            stmt.setInt(2, factureId);
-            stmt.executeUpdate();
+    /**
+     * Ajoute a la facture du client des lignes dont le stock est deja retire
+     * @param cle Requete idempotente enregistree avec les lignes (null si aucune)
+     */
+    private void facturer(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference,
+                          String cle, Object resultat) throws RemoteException {
+        try {
+            stockage.ajouterLignesFacture(clientId, lignes, prixParReference, cle, resultat);
+            Log.info("Lignes facturees: ", lignes.size(), " ligne(s) pour client ", clientId);
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la facturation: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
         }
     }
 
-    private int obtenirOuCreerFacture(String clientId) throws SQLException {
-        String queryExistante = "SELECT id FROM factures WHERE client_id = ? AND payee = false";
-        try (PreparedStatement stmt = connection.prepareStatement(queryExistante)) {
-            stmt.setString(1, clientId);
-            ResultSet rs = stmt.executeQuery();
+    @Override
+    public Reservation retirerReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return requetes.executer("retirerReservation", idRequete, cle -> effectuerRetraitReservation(idReservation, clientId, cle));
+    }
 
-            if (rs.next()) {
-                return rs.getInt("id");
+    private Reservation effectuerRetraitReservation(long idReservation, String clientId, String cle) throws RemoteException {
+        Reservation reservation = reservations.confirmer(idReservation, clientId);
+        if (reservation == null) {
+            return null;
+        }
+        // Le stock reste retire : la ligne est facturee par le noeud du client
+        try {
+            if (!stockage.terminerReservation(reservation, false, cle, reservation)) {
+                return null;
             }
+            return reservation;
+        } catch (SQLException e) {
+            reservations.remettre(reservation);
+            Log.erreur("Erreur lors du retrait de la reservation: ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
         }
+    }
 
-        // Creer une nouvelle facture
-        String insertFacture = "INSERT INTO factures (client_id, montant_total, date_facturation, payee) VALUES (?, 0, NOW(), false)";
-        try (PreparedStatement stmt = connection.prepareStatement(insertFacture, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, clientId);
-            stmt.executeUpdate();
+    // Moteur de stock
 
-            ResultSet rs = stmt.getGeneratedKeys();
-            if (rs.next()) {
-                return rs.getInt(1);
+    private boolean acheterArticleMoteur(String reference, int quantite, String clientId, String cle) throws RemoteException {
+        try {
+            if (!moteur.reserver(reference, quantite)) {
+                return false;
             }
+            stockModifie(reference, -quantite);
+        } catch (IOException e) {
+            Log.erreur("Erreur lors de l'achat: ", e.getMessage());
+            throw new RemoteException("Erreur du moteur de stock", e);
         }
 
-        throw new SQLException("Impossible de creer une nouvelle facture");
+        // Le stock est deja reserve en memoire : seule la facture passe par le stockage
+        try {
+            LignePanier ligne = new LignePanier(reference, quantite);
+            stockage.ajouterLignesFacture(clientId, List.of(ligne), Map.of(reference, lirePrixArticle(reference)), cle, true);
+            Log.info("Achat effectue: ", quantite, " x ", reference, " pour client ", clientId);
+            return true;
+        } catch (SQLException e) {
+            rendreStockMoteur(reference, quantite);
+            Log.erreur("Erreur lors de l'achat: ", e.getMessage());
+            throw new RemoteException("Erreur lors de l'achat", e);
+        }
     }
 
-    // BDD
-
-    private void creerBaseDeDonnees() throws SQLException {
-        try (Connection tempConnection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement stmt = tempConnection.createStatement()) {
+    private ResultatPanier acheterPanierMoteur(List<LignePanier> lignes, String clientId, boolean toutOuRien, String cle) throws RemoteException {
+        List<ResultatPanier.Statut> statuts = new ArrayList<>(lignes.size());
+        List<LignePanier> acceptees = new ArrayList<>();
+        try {
+            for (LignePanier ligne : lignes) {
+                if (ligne.getQuantite() <= 0) {
+                    statuts.add(ResultatPanier.Statut.QUANTITE_INVALIDE);
+                } else if (ligne.getReference() == null || moteur.stock(ligne.getReference()) < 0) {
+                    statuts.add(ResultatPanier.Statut.ARTICLE_INCONNU);
+                } else if (moteur.reserver(ligne.getReference(), ligne.getQuantite())) {
+                    stockModifie(ligne.getReference(), -ligne.getQuantite());
+                    statuts.add(ResultatPanier.Statut.ACCEPTEE);
+                    acceptees.add(ligne);
+                } else {
+                    statuts.add(ResultatPanier.Statut.STOCK_INSUFFISANT);
+                }
+            }
+        } catch (IOException e) {
+            acceptees.forEach(ligne -> rendreStockMoteur(ligne.getReference(), ligne.getQuantite()));
+            Log.erreur("Erreur lors de l'achat du panier: ", e.getMessage());
+            throw new RemoteException("Erreur du moteur de stock", e);
+        }
 
-            // Créer la base de données si elle n'existe pas
-            String createDatabase = "CREATE DATABASE IF NOT EXISTS " + DB_NAME +
-                    " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci";
-            stmt.execute(createDatabase);
+        if (acceptees.isEmpty() || (toutOuRien && acceptees.size() < lignes.size())) {
+            acceptees.forEach(ligne -> rendreStockMoteur(ligne.getReference(), ligne.getQuantite()));
+            statuts.replaceAll(statut -> statut == ResultatPanier.Statut.ACCEPTEE ? ResultatPanier.Statut.ANNULEE : statut);
+            return new ResultatPanier(statuts, 0);
+        }
 
-            System.out.println("Base de donnees '" + DB_NAME + "' verifiee/creee avec succes");
+        try {
+            Map<String, Double> prix = new HashMap<>();
+            double montant = 0;
+            for (LignePanier ligne : acceptees) {
+                double prixUnitaire = prix.containsKey(ligne.getReference())
+                        ? prix.get(ligne.getReference())
+                        : lirePrixArticle(ligne.getReference());
+                prix.put(ligne.getReference(), prixUnitaire);
+                montant += ligne.getQuantite() * prixUnitaire;
+            }
+            ResultatPanier resultat = new ResultatPanier(statuts, montant);
+            stockage.ajouterLignesFacture(clientId, acceptees, prix, cle, resultat);
+            Log.info("Panier achete: ", acceptees.size(), "/", lignes.size(), " lignes pour client ", clientId);
+            return resultat;
+        } catch (SQLException e) {
+            acceptees.forEach(ligne -> rendreStockMoteur(ligne.getReference(), ligne.getQuantite()));
+            Log.erreur("Erreur lors de l'achat du panier: ", e.getMessage());
+            throw new RemoteException("Erreur lors de l'achat du panier", e);
         }
     }
 
-    private void initialiserBaseDeDonnees() {
+    /**
+     * Enregistre la requete d'une ecriture faite par le moteur de stock (son journal ne porte pas la cle)
+     * L'ecriture est deja appliquee : un echec est seulement journalise, comme un arret entre les deux, et un rejeu
+     * de la requete l'appliquerait alors une seconde fois.
+     */
+    private void enregistrerRequeteMoteur(String cle, Object resultat) {
+        if (cle == null) {
+            return;
+        }
         try {
-            Statement stmt = connection.createStatement();
-
-            // Création de la table articles
-            String createArticlesTable = """
-                CREATE TABLE IF NOT EXISTS articles (
-                    reference VARCHAR(50) PRIMARY KEY,
-                    famille VARCHAR(100) NOT NULL,
-                    prix_unitaire DECIMAL(10,2) NOT NULL,
-                    stock_disponible INT NOT NULL DEFAULT 0
-                )
-            """;
-
-            // Création de la table factures
-            String createFacturesTable = """
-                CREATE TABLE IF NOT EXISTS factures (
-                    id INT AUTO_INCREMENT PRIMARY KEY,
-                    client_id VARCHAR(100) NOT NULL,
-                    montant_total DECIMAL(10,2) NOT NULL,
-                    mode_paiement VARCHAR(50),
-                    date_facturation DATETIME NOT NULL,
-                    date_paiement DATETIME DEFAULT NULL,
-                    payee BOOLEAN DEFAULT FALSE
-                )
-            """;
-
-            // Création de la table lignes_facture
-            String createLignesFactureTable = """
-                CREATE TABLE IF NOT EXISTS lignes_facture (
-                    id INT AUTO_INCREMENT PRIMARY KEY,
-                    facture_id INT,
-                    reference_article VARCHAR(50),
-                    quantite INT NOT NULL,
-                    prix_unitaire DECIMAL(10,2) NOT NULL,
-                    FOREIGN KEY (facture_id) REFERENCES factures(id),
-                    FOREIGN KEY (reference_article) REFERENCES articles(reference)
-                )
-            """;
-
-            // Exécuter les créations de tables
-            stmt.execute(createArticlesTable);
-            stmt.execute(createFacturesTable);
-            stmt.execute(createLignesFactureTable);
-
-            System.out.println("Tables creees avec succes !");
-
-            insertionDonneesTest(stmt);
+            stockage.enregistrerRequete(cle, resultat);
+        } catch (SQLException e) {
+            Log.erreur("Impossible d'enregistrer la requete ", cle, ": ", e.getMessage());
+        }
+    }
 
+    /**
+     * Oublie les requetes idempotentes persistees hors de la fenetre (thread de purge de RequetesTraitees)
+     */
+    private void purgerRequetes(long avant) {
+        try {
+            stockage.purgerRequetes(avant);
         } catch (SQLException e) {
-            System.err.println("Erreur lors de l'initialisation : " + e.getMessage());
+            Log.erreur("Erreur lors de la purge des requetes traitees: ", e.getMessage());
         }
     }
 
-    private void insertionDonneesTest(Statement stmt) throws SQLException {
-        // Vérifier si des données existent déjà
-        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM articles");
-        rs.next();
-        int count = rs.getInt(1);
-        if (count == 0) {
-            System.out.println("Insertion de donnees de test...");
-            String[] insertArticles = {
-                    "INSERT INTO articles VALUES ('VIS001', 'Visserie', 0.15, 1000)",
-                    "INSERT INTO articles VALUES ('VIS002', 'Visserie', 0.25, 500)",
-                    "INSERT INTO articles VALUES ('OUT001', 'Outillage', 25.90, 20)",
-                    "INSERT INTO articles VALUES ('OUT002', 'Outillage', 45.50, 15)",
-                    "INSERT INTO articles VALUES ('PEI001', 'Peinture', 12.99, 50)",
-                    "INSERT INTO articles VALUES ('PEI002', 'Peinture', 18.75, 30)"
-            };
-            for (String sql : insertArticles) {
-                stmt.execute(sql);
+    /**
+     * Annule une reservation du moteur de stock apres l'echec de la transaction de facturation
+     */
+    private void rendreStockMoteur(String reference, int quantite) {
+        try {
+            moteur.ajouter(reference, quantite);
+            stockModifie(reference, quantite);
+        } catch (IOException e) {
+            Log.erreur("Impossible de rendre ", quantite, " x ", reference, " au moteur de stock: ", e.getMessage());
+        }
+    }
+
+    private int stockCourant(Article article) {
+        return moteur != null ? moteur.stock(article.getReference()) : article.getStockDisponible();
+    }
+
+    // Utilitaire
+
+    /**
+     * Lecture d'un article via le cache, chargement depuis le stockage en cas d'absence
+     */
+    private Article obtenirArticle(String reference) throws SQLException {
+        Article article = cache.obtenir(reference);
+        if (article == null) {
+            long jeton = cache.jetonChargement();
+            article = stockage.lireArticle(reference);
+            if (article == null) {
+                return null;
             }
-            System.out.println("Donnees de test inserees !");
+            cache.mettre(article, jeton);
+        }
+
+        if (moteur != null) {
+            return new Article(reference, article.getFamille(), article.getPrixUnitaire(), moteur.stock(reference));
+        }
+        return article;
+    }
+
+    private List<String> rechercherArticlesEnCache(String famille) throws SQLException {
+        List<String> references = new ArrayList<>();
+        List<String> referencesFamille = cache.obtenirFamille(famille);
+
+        if (referencesFamille == null) {
+            // Charger toute la famille (y compris les articles en rupture) pour l'index
+            long jeton = cache.jetonChargement();
+            List<Article> articlesFamille = stockage.lireFamille(famille);
+            cache.mettreFamille(famille, articlesFamille, jeton);
+
+            for (Article article : articlesFamille) {
+                if (stockCourant(article) > 0) {
+                    references.add(article.getReference());
+                }
+            }
+            return references;
+        }
+
+        for (String reference : referencesFamille) {
+            Article article = obtenirArticle(reference);
+            if (article != null && article.getStockDisponible() > 0) {
+                references.add(reference);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Prix unitaire d'un article (le prix n'est jamais modifie par le service : le cache fait foi)
+     */
+    private double lirePrixArticle(String reference) throws SQLException {
+        Article article = obtenirArticle(reference);
+        if (article == null) {
+            throw new SQLException("Article introuvable: " + reference);
+        }
+        return article.getPrixUnitaire();
+    }
+
+    /**
+     * Reporte une variation de stock dans l'index de recherche et le journal des modifications
+     */
+    private void stockModifie(String reference, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        index.ajusterStock(reference, delta);
+        modifications.enregistrer(reference);
+    }
+
+    /**
+     * Construit l'index de recherche depuis le stockage (stock du moteur s'il est actif)
+     */
+    private void indexerCatalogue() throws SQLException {
+        long debut = System.nanoTime();
+        stockage.parcourirArticles(article -> index.indexer(moteur == null ? article
+                : new Article(article.getReference(), article.getFamille(), article.getPrixUnitaire(), moteur.stock(article.getReference()))));
+        Log.info("Index de recherche construit: ", index.taille(), " articles en ", (System.nanoTime() - debut) / 1_000_000, " ms");
+    }
+
+    private void insertionDonneesTest() throws SQLException {
+        if (stockage.nbArticles() == 0) {
+            Log.info("Insertion de donnees de test...");
+            List<Article> articles = new ArrayList<>();
+            for (Article article : DONNEES_TEST) {
+                if (ServiceRoute.noeud(article.getReference(), NOEUD_NOMBRE) == NOEUD_INDEX) {
+                    articles.add(article);
+                }
+            }
+            stockage.enregistrerArticles(articles);
+            Log.info("Donnees de test inserees !");
         }
     }
 
@@ -363,19 +1034,50 @@ public class BricoMerlinServer extends UnicastRemoteObject implements BricoMerli
     public static void main(String[] args) {
         try {
             // Demarrer le registre RMI
-            LocateRegistry.createRegistry(1099);
-            System.out.println("Registre RMI demarre sur le port 1099");
+            LocateRegistry.createRegistry(RMI_PORT);
+            Log.info("Registre RMI demarre sur le port ", RMI_PORT);
 
             // Creer et enregistrer le serveur
             BricoMerlinServer server = new BricoMerlinServer();
-            Naming.rebind("//localhost/BricoMerlinService", server);
+            // Le stub publie passe par l'enveloppe de mesure (appels, erreurs, latence par operation)
+            // puis par le controle d'admission (les refus sont comptes comme erreurs)
+            BricoMerlinService publie = server.metriques.instrumenter(ADMISSION_ACTIF ? server.admission.proteger(server) : server);
+            String url = "//localhost:" + RMI_PORT + "/" + RMI_NOM;
+            Naming.rebind(url, UnicastRemoteObject.exportObject(publie, 0));
+            // Operations internes des noeuds : seulement l'interface NoeudBricoMerlin, avec les memes enveloppes
+            NoeudBricoMerlin noeud = server.metriques.instrumenter(
+                    ADMISSION_ACTIF ? server.admission.proteger(server, NoeudBricoMerlin.class) : server, NoeudBricoMerlin.class);
+            Naming.rebind(url + "Noeud", UnicastRemoteObject.exportObject(noeud, 0));
+            // Meme service (mesures et admission comprises) sur le transport binaire
+            ServeurBinaire binaire = BINAIRE_ACTIF ? new ServeurBinaire(publie, BINAIRE_PORT, BINAIRE_THREADS, BINAIRE_FILE) : null;
+            if (binaire != null) {
+                server.metriques.ajouterSource(binaire::statistiques);
+                Log.info("Transport binaire demarre sur le port ", binaire.getPort());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (binaire != null) {
+                    binaire.close();
+                }
+                // Les reservations restent enregistrees par le stockage : seule leur expiration s'arrete
+                server.reservations.close();
+                server.requetes.close();
+                server.metriques.arreter();
+                if (server.moteur != null) {
+                    server.moteur.close();
+                }
+                Log.info(server.metriques.getInstantane());
+                server.stockage.close();
+                Log.vider();
+            }));
 
-            System.out.println("Serveur Brico-Merlin demarre et prêt a recevoir des connexions");
-            System.out.println("URL du service: //localhost/BricoMerlinService");
+            Log.info("Serveur Brico-Merlin demarre et prêt a recevoir des connexions");
+            Log.info("URL du service: ", url);
+            if (NOEUD_NOMBRE > 1) {
+                Log.info("Noeud ", NOEUD_INDEX + 1, " sur ", NOEUD_NOMBRE);
+            }
 
         } catch (Exception e) {
-            System.err.println("Erreur lors du demarrage du serveur: " + e.getMessage());
-            e.printStackTrace();
+            Log.erreur("Erreur lors du demarrage du serveur: ", e.getMessage(), e);
         }
     }
 }
\ No newline at end of file
@@ -2,10 +2,17 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
 import java.util.Date;
+import java.util.SortedMap;
 
 /**
  * Interface RMI
  * Définit toutes les opérations disponibles entre client et serveur
+ *
+ * Chaque opération qui modifie le stock ou les factures existe aussi avec un identifiant de requête (idRequete),
+ * choisi par le client et unique (UUID par exemple). Le serveur exécute une seule fois chaque identifiant :
+ * après une erreur réseau ou un délai dépassé, le client renvoie la même requête avec le même identifiant et reçoit
+ * le résultat de la première exécution, sans achat ni paiement en double. Le serveur oublie un identifiant
+ * après une fenêtre de quelques minutes (bricomerlin.idempotence.fenetreMs).
  */
 public interface BricoMerlinService extends Remote {
     /**
@@ -22,6 +29,13 @@ public interface BricoMerlinService extends Remote {
      */
     List<String> rechercherArticles(String famille) throws RemoteException;
 
+    /**
+     * Rechercher dans le catalogue par début de référence ou de famille (sans casse ni accents)
+     * @param critere Mots recherchés, filtres de prix et de stock, nombre maximal de résultats
+     * @return Les articles complets (stock et prix), au plus critere.getLimite()
+     */
+    List<Article> rechercherCatalogue(CritereRecherche critere) throws RemoteException;
+
     /**
      * Acheter un article
      * @param reference Référence de l'article
@@ -29,7 +43,82 @@ public interface BricoMerlinService extends Remote {
      * @param clientId Identifiant du client
      * @return true si l'achat est possible, false sinon
      */
-    boolean acheterArticle(String reference, int quantite, String clientId) throws RemoteException;
+    default boolean acheterArticle(String reference, int quantite, String clientId) throws RemoteException {
+        return acheterArticle(reference, quantite, clientId, null);
+    }
+
+    /**
+     * Comme acheterArticle, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    boolean acheterArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException;
+
+    /**
+     * Acheter plusieurs articles en un seul appel et une seule transaction
+     * @param lignes Lignes du panier (référence et quantité)
+     * @param clientId Identifiant du client
+     * @param toutOuRien true pour n'acheter aucune ligne si l'une d'elles ne peut être servie
+     * @return Le statut de chaque ligne et le montant ajouté à la facture
+     */
+    default ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien) throws RemoteException {
+        return acheterPanier(lignes, clientId, toutOuRien, null);
+    }
+
+    /**
+     * Comme acheterPanier, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) throws RemoteException;
+
+    /**
+     * Réserver une quantité d'un article pendant une durée limitée, avant de confirmer l'achat
+     * Le stock est retenu tout de suite ; sans confirmation, il est rendu à l'expiration.
+     * @param reference Référence de l'article
+     * @param quantite Quantité à réserver
+     * @param clientId Identifiant du client
+     * @return La réservation et son expiration (null si l'article est inconnu ou le stock insuffisant)
+     */
+    default Reservation reserverArticle(String reference, int quantite, String clientId) throws RemoteException {
+        return reserverArticle(reference, quantite, clientId, null);
+    }
+
+    /**
+     * Comme reserverArticle, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    Reservation reserverArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException;
+
+    /**
+     * Confirmer une réservation : la quantité réservée est ajoutée à la facture, au prix de la réservation
+     * @param idReservation Identifiant donné par reserverArticle
+     * @param clientId Identifiant du client
+     * @return false si la réservation est inconnue ou a expiré
+     */
+    default boolean confirmerReservation(long idReservation, String clientId) throws RemoteException {
+        return confirmerReservation(idReservation, clientId, null);
+    }
+
+    /**
+     * Comme confirmerReservation, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    boolean confirmerReservation(long idReservation, String clientId, String idRequete) throws RemoteException;
+
+    /**
+     * Annuler une réservation et rendre son stock sans attendre l'expiration
+     * @param idReservation Identifiant donné par reserverArticle
+     * @param clientId Identifiant du client
+     * @return false si la réservation est inconnue ou a expiré
+     */
+    default boolean libererReservation(long idReservation, String clientId) throws RemoteException {
+        return libererReservation(idReservation, clientId, null);
+    }
+
+    /**
+     * Comme libererReservation, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    boolean libererReservation(long idReservation, String clientId, String idRequete) throws RemoteException;
 
     /**
      * Ajouter du stock pour un produit existant
@@ -37,7 +126,38 @@ public interface BricoMerlinService extends Remote {
      * @param quantite Quantité à ajouter
      * @return true si l'ajout est réussi
      */
-    boolean ajouterStock(String reference, int quantite) throws RemoteException;
+    default boolean ajouterStock(String reference, int quantite) throws RemoteException {
+        return ajouterStock(reference, quantite, null);
+    }
+
+    /**
+     * Comme ajouterStock, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    boolean ajouterStock(String reference, int quantite, String idRequete) throws RemoteException;
+
+    /**
+     * Réceptionner une livraison : ajouter du stock pour de nombreuses références en un seul appel
+     * @param lignes Lignes du bon de livraison (une même référence peut apparaître plusieurs fois)
+     * @param creerArticles true pour créer les références inconnues dont la ligne donne la famille et le prix
+     * @return Le bilan : lignes appliquées, articles créés et lignes rejetées avec leur motif
+     */
+    default RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles) throws RemoteException {
+        return ajouterStockMasse(lignes, creerArticles, null);
+    }
+
+    /**
+     * Comme ajouterStockMasse, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) throws RemoteException;
+
+    /**
+     * Vérifier un cache client : références dont le stock a changé depuis une version
+     * @param depuisVersion Version rendue par la vérification précédente (0 la première fois)
+     * @return Les références modifiées et la nouvelle version (non complet : tout le cache est à vider)
+     */
+    ModificationsStock consulterModifications(long depuisVersion) throws RemoteException;
 
     // ========== GESTION DES FACTURES ==========
 
@@ -48,13 +168,38 @@ public interface BricoMerlinService extends Remote {
      */
     Facture consulterFacture(String clientId) throws RemoteException;
 
+    /**
+     * Consulter l'en-tête de sa facture non payée, sans les lignes
+     * @param clientId Identifiant du client
+     * @return Numéro, montant total et nombre de lignes de la facture (null si inexistante)
+     */
+    EnteteFacture consulterEnteteFacture(String clientId) throws RemoteException;
+
+    /**
+     * Lire une page de lignes de la facture non payée, dans l'ordre d'ajout
+     * @param clientId Identifiant du client
+     * @param numeroFacture Numéro donné par l'en-tête
+     * @param apresLigne Curseur de la page précédente (0 pour la première page)
+     * @param taille Nombre de lignes souhaité, positif (borné par le serveur)
+     * @return La page (null si la facture a été payée entre-temps)
+     */
+    PageLignesFacture consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws RemoteException;
+
     /**
      * Payer une facture
      * @param clientId Identifiant du client
      * @param modePaiement Mode de paiement utilisé
      * @return true si le paiement est effectué
      */
-    boolean payerFacture(String clientId, String modePaiement) throws RemoteException;
+    default boolean payerFacture(String clientId, String modePaiement) throws RemoteException {
+        return payerFacture(clientId, modePaiement, null);
+    }
+
+    /**
+     * Comme payerFacture, exécuté une seule fois par identifiant de requête
+     * @param idRequete Identifiant unique de la requête (null : sans déduplication)
+     */
+    boolean payerFacture(String clientId, String modePaiement, String idRequete) throws RemoteException;
 
     /**
      * Calculer le chiffre d'affaires à une date donnée
@@ -62,4 +207,24 @@ public interface BricoMerlinService extends Remote {
      * @return Le montant du chiffre d'affaires
      */
     double calculerChiffreAffaires(Date date) throws RemoteException;
+
+    /**
+     * Calculer le chiffre d'affaires jour par jour sur une période
+     * @param debut Premier jour de la période
+     * @param fin Dernier jour de la période (inclus)
+     * @param modePaiement Mode de paiement à retenir (null pour tous)
+     * @return Le chiffre d'affaires de chaque jour de la période, dans l'ordre chronologique
+     */
+    SortedMap<Date, Double> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) throws RemoteException;
+
+    /**
+     * Consulter les ventes payées d'une période, regroupées par famille, référence, mode de paiement ou heure
+     * Calculé sur un agrégat en mémoire tenu à jour à chaque paiement, à l'heure près (date de facturation).
+     * @param debut Début de la période
+     * @param fin Fin de la période (exclue)
+     * @param dimension Regroupement des ventes
+     * @return Montant, unités vendues et nombre de factures de chaque groupe : par heure les 24 heures dans l'ordre,
+     *         sinon les groupes ayant des ventes par montant décroissant
+     */
+    List<LigneRapport> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) throws RemoteException;
 }
@@ -0,0 +1,85 @@
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Variante asynchrone de BricoMerlinService : chaque operation rend aussitot un CompletableFuture
+ * Plusieurs appels peuvent etre en cours en meme temps (pipeline) sans attendre chaque reponse.
+ * Une erreur distante termine le futur en exception (RemoteException, ou ServiceSatureException si refuse).
+ * Les operations d'ecriture acceptent un identifiant de requete, comme dans BricoMerlinService.
+ */
+public interface BricoMerlinServiceAsync {
+
+    CompletableFuture<Article> consulterStock(String reference);
+
+    /**
+     * Consulte plusieurs articles en parallele
+     * @return Les articles dans l'ordre des references (null pour une reference inconnue)
+     */
+    CompletableFuture<List<Article>> consulterStocks(List<String> references);
+
+    CompletableFuture<List<String>> rechercherArticles(String famille);
+
+    CompletableFuture<List<Article>> rechercherCatalogue(CritereRecherche critere);
+
+    default CompletableFuture<Boolean> acheterArticle(String reference, int quantite, String clientId) {
+        return acheterArticle(reference, quantite, clientId, null);
+    }
+
+    CompletableFuture<Boolean> acheterArticle(String reference, int quantite, String clientId, String idRequete);
+
+    default CompletableFuture<ResultatPanier> acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien) {
+        return acheterPanier(lignes, clientId, toutOuRien, null);
+    }
+
+    CompletableFuture<ResultatPanier> acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete);
+
+    default CompletableFuture<Reservation> reserverArticle(String reference, int quantite, String clientId) {
+        return reserverArticle(reference, quantite, clientId, null);
+    }
+
+    CompletableFuture<Reservation> reserverArticle(String reference, int quantite, String clientId, String idRequete);
+
+    default CompletableFuture<Boolean> confirmerReservation(long idReservation, String clientId) {
+        return confirmerReservation(idReservation, clientId, null);
+    }
+
+    CompletableFuture<Boolean> confirmerReservation(long idReservation, String clientId, String idRequete);
+
+    default CompletableFuture<Boolean> libererReservation(long idReservation, String clientId) {
+        return libererReservation(idReservation, clientId, null);
+    }
+
+    CompletableFuture<Boolean> libererReservation(long idReservation, String clientId, String idRequete);
+
+    default CompletableFuture<Boolean> ajouterStock(String reference, int quantite) {
+        return ajouterStock(reference, quantite, null);
+    }
+
+    CompletableFuture<Boolean> ajouterStock(String reference, int quantite, String idRequete);
+
+    default CompletableFuture<RapportImport> ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles) {
+        return ajouterStockMasse(lignes, creerArticles, null);
+    }
+
+    CompletableFuture<RapportImport> ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete);
+
+    CompletableFuture<Facture> consulterFacture(String clientId);
+
+    CompletableFuture<EnteteFacture> consulterEnteteFacture(String clientId);
+
+    CompletableFuture<PageLignesFacture> consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille);
+
+    default CompletableFuture<Boolean> payerFacture(String clientId, String modePaiement) {
+        return payerFacture(clientId, modePaiement, null);
+    }
+
+    CompletableFuture<Boolean> payerFacture(String clientId, String modePaiement, String idRequete);
+
+    CompletableFuture<Double> calculerChiffreAffaires(Date date);
+
+    CompletableFuture<SortedMap<Date, Double>> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement);
+
+    CompletableFuture<List<LigneRapport>> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension);
+}
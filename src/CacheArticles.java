@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache serveur des articles (par reference) et de l'index famille -> references
+ * Borne en taille avec eviction LRU (par segment), mis a jour en ecriture directe par les achats et reapprovisionnements
+ *
+ * Protocole d'ecriture : debutEcriture() avant de modifier la base, finEcriture() apres le commit.
+ * Un chargement depuis la base n'est conserve que si aucune ecriture de la meme reference n'a eu lieu
+ * (ou n'est en cours) depuis son jeton, pour ne jamais remettre en cache une valeur perimee.
+ *
+ * Les references sont reparties en segments, chacun avec son verrou et sa LRU : une lecture ne bloque que
+ * son segment, et une ecriture n'invalide que les chargements de sa reference.
+ */
+public class CacheArticles {
+
+    private static final int NB_SEGMENTS_MAX = 16;
+
+    /**
+     * Articles (ou listes de references d'une famille) d'un segment, avec l'horodatage de leur derniere ecriture
+     * Tous les champs sont proteges par le moniteur du segment.
+     */
+    private static final class Segment<V> {
+        private final Map<String, V> valeurs;
+        // Derniere ecriture (debut ou fin) par cle, sur l'horloge du cache
+        // Une entree par cle ecrite depuis le demarrage : borne par la taille du catalogue
+        private final Map<String, Long> versions = new HashMap<>();
+        private final Map<String, Integer> ecrituresEnCours = new HashMap<>();
+        private long vidage = 0;
+
+        private Segment(int capacite) {
+            this.valeurs = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                    return size() > capacite;
+                }
+            };
+        }
+
+        private boolean peutCharger(String cle, long jeton) {
+            return vidage <= jeton && versions.getOrDefault(cle, 0L) <= jeton && !ecrituresEnCours.containsKey(cle);
+        }
+    }
+
+    private final boolean actif;
+    private final List<Segment<Article>> articles;
+    private final List<Segment<List<String>>> familles;
+    private final AtomicLong horloge = new AtomicLong();
+
+    private final AtomicLong succes = new AtomicLong();
+    private final AtomicLong echecs = new AtomicLong();
+
+    public CacheArticles(boolean actif, int capacite) {
+        this.actif = actif;
+        int nbSegments = Math.max(1, Math.min(NB_SEGMENTS_MAX, capacite));
+        int capaciteSegment = Math.max(1, capacite / nbSegments);
+        this.articles = new ArrayList<>(nbSegments);
+        this.familles = new ArrayList<>(nbSegments);
+        for (int i = 0; i < nbSegments; i++) {
+            articles.add(new Segment<>(capaciteSegment));
+            familles.add(new Segment<>(capaciteSegment));
+        }
+    }
+
+    public boolean estActif() { return actif; }
+
+    private static <V> Segment<V> segment(List<Segment<V>> segments, String cle) {
+        return segments.get(Math.floorMod(cle.hashCode(), segments.size()));
+    }
+
+    // Lecture
+
+    /**
+     * @return L'article en cache, null si absent (ou cache desactive)
+     */
+    public Article obtenir(String reference) {
+        if (!actif) {
+            return null;
+        }
+        Segment<Article> segment = segment(articles, reference);
+        Article article;
+        synchronized (segment) {
+            article = segment.valeurs.get(reference);
+        }
+        (article != null ? succes : echecs).incrementAndGet();
+        return article;
+    }
+
+    /**
+     * @return Toutes les references de la famille (en stock ou non), null si absente du cache
+     */
+    public List<String> obtenirFamille(String famille) {
+        if (!actif) {
+            return null;
+        }
+        Segment<List<String>> segment = segment(familles, famille);
+        List<String> references;
+        synchronized (segment) {
+            references = segment.valeurs.get(famille);
+        }
+        (references != null ? succes : echecs).incrementAndGet();
+        return references;
+    }
+
+    /**
+     * Jeton a prendre avant une lecture en base dont le resultat sera mis en cache
+     */
+    public long jetonChargement() {
+        return horloge.get();
+    }
+
+    public void mettre(Article article, long jeton) {
+        if (!actif) {
+            return;
+        }
+        Segment<Article> segment = segment(articles, article.getReference());
+        synchronized (segment) {
+            if (segment.peutCharger(article.getReference(), jeton)) {
+                segment.valeurs.put(article.getReference(), article);
+            }
+        }
+    }
+
+    public void mettreFamille(String famille, List<Article> articlesFamille, long jeton) {
+        if (!actif) {
+            return;
+        }
+        List<String> references = new ArrayList<>(articlesFamille.size());
+        for (Article article : articlesFamille) {
+            references.add(article.getReference());
+            mettre(article, jeton);
+        }
+        Segment<List<String>> segment = segment(familles, famille);
+        synchronized (segment) {
+            if (segment.peutCharger(famille, jeton)) {
+                segment.valeurs.put(famille, List.copyOf(references));
+            }
+        }
+    }
+
+    // Ecriture
+
+    public void debutEcriture(String reference) {
+        Segment<Article> segment = segment(articles, reference);
+        synchronized (segment) {
+            segment.versions.put(reference, horloge.incrementAndGet());
+            segment.ecrituresEnCours.merge(reference, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @param delta Variation de stock committee (0 si la transaction a echoue)
+     */
+    public void finEcriture(String reference, int delta) {
+        Segment<Article> segment = segment(articles, reference);
+        synchronized (segment) {
+            segment.versions.put(reference, horloge.incrementAndGet());
+            segment.ecrituresEnCours.computeIfPresent(reference, (ref, n) -> n > 1 ? n - 1 : null);
+            Article article = segment.valeurs.get(reference);
+            if (article != null && delta != 0) {
+                segment.valeurs.put(reference, new Article(reference, article.getFamille(),
+                        article.getPrixUnitaire(), article.getStockDisponible() + delta));
+            }
+        }
+    }
+
+    /**
+     * Retire la liste de references d'une famille (article ajoute au catalogue)
+     */
+    public void oublierFamille(String famille) {
+        Segment<List<String>> segment = segment(familles, famille);
+        synchronized (segment) {
+            segment.versions.put(famille, horloge.incrementAndGet());
+            segment.valeurs.remove(famille);
+        }
+    }
+
+    public void vider() {
+        vider(articles);
+        vider(familles);
+    }
+
+    private void vider(List<? extends Segment<?>> segments) {
+        for (Segment<?> segment : segments) {
+            synchronized (segment) {
+                segment.vidage = horloge.incrementAndGet();
+                segment.valeurs.clear();
+            }
+        }
+    }
+
+    // Statistiques
+
+    public long getNbSucces() { return succes.get(); }
+    public long getNbEchecs() { return echecs.get(); }
+
+    public int getTaille() {
+        int taille = 0;
+        for (Segment<Article> segment : articles) {
+            synchronized (segment) {
+                taille += segment.valeurs.size();
+            }
+        }
+        return taille;
+    }
+
+    public double getTauxSucces() {
+        long total = succes.get() + echecs.get();
+        return total == 0 ? 0.0 : (double) succes.get() / total;
+    }
+
+    public String statistiques() {
+        return String.format("Cache{actif=%s, articles=%d, succes=%d, echecs=%d, taux=%.1f%%}",
+                actif, getTaille(), getNbSucces(), getNbEchecs(), getTauxSucces() * 100);
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BricoMerlinService sur le transport binaire (ServeurBinaire), a la place du stub RMI
+ *
+ * Une seule connexion TCP, partagee par tous les threads : chaque requete porte un identifiant et sa reponse
+ * complete le futur correspondant, quel que soit l'ordre d'arrivee. asynchrone() donne les memes operations
+ * sans bloquer : N appels lances d'affilee partent sans attendre les reponses (pipelining).
+ * Si la connexion est perdue, les appels en cours et les suivants echouent en RemoteException.
+ */
+public class ClientBinaire implements BricoMerlinService, AutoCloseable {
+
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    private final SocketChannel canal;
+    private final long delaiReponseMs;
+    private final Thread lecteur;
+    private final AtomicLong prochainId = new AtomicLong();
+    private final Map<Long, Appel<?>> enCours = new ConcurrentHashMap<>();
+    private final Asynchrone asynchrone = new Asynchrone();
+    private volatile boolean ferme = false;
+
+    // Envoi, protege par verrouEnvoi
+    private final Object verrouEnvoi = new Object();
+    private ByteBuffer envoi = ByteBuffer.allocateDirect(TAILLE_TAMPON);
+
+    @FunctionalInterface
+    private interface Parametres {
+        void ecrire(DataOutputStream sortie) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Decodeur<T> {
+        T lire(DataInputStream entree) throws IOException;
+    }
+
+    private static final class Appel<T> {
+        final CompletableFuture<T> futur = new CompletableFuture<>();
+        final Decodeur<T> decodeur;
+
+        Appel(Decodeur<T> decodeur) {
+            this.decodeur = decodeur;
+        }
+
+        void terminer(DataInputStream entree) {
+            try {
+                futur.complete(decodeur.lire(entree));
+            } catch (IOException e) {
+                futur.completeExceptionally(new RemoteException("Reponse illisible", e));
+            }
+        }
+    }
+
+    /**
+     * @param delaiReponseMs Attente maximale d'une reponse, au-dela l'appel echoue en RemoteException
+     */
+    public ClientBinaire(String hote, int port, long delaiReponseMs) throws IOException {
+        this.delaiReponseMs = delaiReponseMs;
+        this.canal = SocketChannel.open(new InetSocketAddress(hote, port));
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ByteBuffer poignee = ByteBuffer.allocate(Integer.BYTES + 1).putInt(ProtocoleBinaire.MAGIQUE).put(ProtocoleBinaire.VERSION).flip();
+        while (poignee.hasRemaining()) {
+            canal.write(poignee);
+        }
+        this.lecteur = new Thread(this::lire, "client-binaire-lecture");
+        lecteur.setDaemon(true);
+        lecteur.start();
+    }
+
+    /**
+     * @return Les memes operations, sans attendre les reponses
+     */
+    public BricoMerlinServiceAsync asynchrone() {
+        return asynchrone;
+    }
+
+    // Envoi
+
+    private <T> CompletableFuture<T> envoyer(byte operation, Parametres parametres, Decodeur<T> decodeur) {
+        long idRequete = prochainId.incrementAndGet();
+        Appel<T> appel = new Appel<>(decodeur);
+        try {
+            ByteArrayOutputStream tampon = new ByteArrayOutputStream(64);
+            DataOutputStream sortie = new DataOutputStream(tampon);
+            sortie.writeInt(0);
+            sortie.writeLong(idRequete);
+            sortie.writeByte(operation);
+            parametres.ecrire(sortie);
+            byte[] trame = tampon.toByteArray();
+            ByteBuffer.wrap(trame).putInt(trame.length - Integer.BYTES);
+
+            enCours.put(idRequete, appel);
+            if (ferme) {
+                throw new IOException("connexion fermee");
+            }
+            synchronized (verrouEnvoi) {
+                if (envoi.capacity() < trame.length) {
+                    envoi = ByteBuffer.allocateDirect(trame.length);
+                }
+                envoi.clear();
+                envoi.put(trame).flip();
+                while (envoi.hasRemaining()) {
+                    canal.write(envoi);
+                }
+            }
+        } catch (IOException e) {
+            enCours.remove(idRequete);
+            appel.futur.completeExceptionally(new RemoteException("Envoi au serveur binaire impossible", e));
+            return appel.futur;
+        }
+        appel.futur.orTimeout(delaiReponseMs, TimeUnit.MILLISECONDS).whenComplete((resultat, erreur) -> enCours.remove(idRequete));
+        return appel.futur;
+    }
+
+    /**
+     * Attend la reponse et rend l'erreur du serveur telle que l'aurait levee le stub RMI
+     */
+    private <T> T attendre(CompletableFuture<T> futur) throws RemoteException {
+        try {
+            return futur.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new RemoteException("Pas de reponse du serveur binaire en " + delaiReponseMs + " ms");
+            }
+            throw new RemoteException("Erreur du transport binaire", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Attente de la reponse interrompue");
+        }
+    }
+
+    // Reception
+
+    private void lire() {
+        ByteBuffer tampon = ByteBuffer.allocateDirect(TAILLE_TAMPON);
+        try {
+            while (canal.read(tampon) >= 0) {
+                tampon.flip();
+                while (tampon.remaining() >= Integer.BYTES) {
+                    int longueur = tampon.getInt(tampon.position());
+                    if (longueur <= ProtocoleBinaire.ENTETE_TRAME || longueur > ProtocoleBinaire.TAILLE_MAX_TRAME) {
+                        throw new IOException("trame invalide (" + longueur + " octets)");
+                    }
+                    if (tampon.remaining() < Integer.BYTES + longueur) {
+                        if (tampon.capacity() < Integer.BYTES + longueur) {
+                            ByteBuffer agrandi = ByteBuffer.allocateDirect(Integer.BYTES + longueur);
+                            agrandi.put(tampon).flip();
+                            tampon = agrandi;
+                        }
+                        break;
+                    }
+                    tampon.getInt();
+                    byte[] trame = new byte[longueur];
+                    tampon.get(trame);
+                    recevoir(trame);
+                }
+                tampon.compact();
+            }
+            terminer(new RemoteException("Connexion fermee par le serveur binaire"));
+        } catch (IOException e) {
+            terminer(new RemoteException("Connexion au serveur binaire perdue", e));
+        }
+    }
+
+    private void recevoir(byte[] trame) throws IOException {
+        DataInputStream entree = new DataInputStream(new ByteArrayInputStream(trame));
+        long idRequete = entree.readLong();
+        Appel<?> appel = enCours.remove(idRequete);
+        if (appel == null) {
+            // Appel deja abandonne (delai depasse)
+            return;
+        }
+        if (entree.readByte() == ProtocoleBinaire.OK) {
+            appel.terminer(entree);
+            return;
+        }
+        byte type = entree.readByte();
+        String message = entree.readUTF();
+        long delaiConseilleMs = entree.readLong();
+        appel.futur.completeExceptionally(type == ProtocoleBinaire.ERREUR_SATURE
+                ? new ServiceSatureException(message, delaiConseilleMs)
+                : new RemoteException(message));
+    }
+
+    private void terminer(RemoteException cause) {
+        ferme = true;
+        for (Long idRequete : new ArrayList<>(enCours.keySet())) {
+            Appel<?> appel = enCours.remove(idRequete);
+            if (appel != null) {
+                appel.futur.completeExceptionally(cause);
+            }
+        }
+    }
+
+    // Service
+
+    @Override
+    public Article consulterStock(String reference) throws RemoteException {
+        return attendre(asynchrone.consulterStock(reference));
+    }
+
+    @Override
+    public List<String> rechercherArticles(String famille) throws RemoteException {
+        return attendre(asynchrone.rechercherArticles(famille));
+    }
+
+    @Override
+    public List<Article> rechercherCatalogue(CritereRecherche critere) throws RemoteException {
+        return attendre(asynchrone.rechercherCatalogue(critere));
+    }
+
+    @Override
+    public boolean acheterArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        return attendre(asynchrone.acheterArticle(reference, quantite, clientId, idRequete));
+    }
+
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) throws RemoteException {
+        return attendre(asynchrone.acheterPanier(lignes, clientId, toutOuRien, idRequete));
+    }
+
+    @Override
+    public Reservation reserverArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        return attendre(asynchrone.reserverArticle(reference, quantite, clientId, idRequete));
+    }
+
+    @Override
+    public boolean confirmerReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return attendre(asynchrone.confirmerReservation(idReservation, clientId, idRequete));
+    }
+
+    @Override
+    public boolean libererReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return attendre(asynchrone.libererReservation(idReservation, clientId, idRequete));
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String idRequete) throws RemoteException {
+        return attendre(asynchrone.ajouterStock(reference, quantite, idRequete));
+    }
+
+    @Override
+    public RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) throws RemoteException {
+        return attendre(asynchrone.ajouterStockMasse(lignes, creerArticles, idRequete));
+    }
+
+    @Override
+    public ModificationsStock consulterModifications(long depuisVersion) throws RemoteException {
+        return attendre(envoyer(ProtocoleBinaire.CONSULTER_MODIFICATIONS,
+                sortie -> sortie.writeLong(depuisVersion), ProtocoleBinaire::lireModifications));
+    }
+
+    @Override
+    public Facture consulterFacture(String clientId) throws RemoteException {
+        return attendre(asynchrone.consulterFacture(clientId));
+    }
+
+    @Override
+    public EnteteFacture consulterEnteteFacture(String clientId) throws RemoteException {
+        return attendre(asynchrone.consulterEnteteFacture(clientId));
+    }
+
+    @Override
+    public PageLignesFacture consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws RemoteException {
+        return attendre(asynchrone.consulterLignesFacture(clientId, numeroFacture, apresLigne, taille));
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String idRequete) throws RemoteException {
+        return attendre(asynchrone.payerFacture(clientId, modePaiement, idRequete));
+    }
+
+    @Override
+    public double calculerChiffreAffaires(Date date) throws RemoteException {
+        return attendre(asynchrone.calculerChiffreAffaires(date));
+    }
+
+    @Override
+    public SortedMap<Date, Double> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) throws RemoteException {
+        return attendre(asynchrone.calculerChiffreAffairesPeriode(debut, fin, modePaiement));
+    }
+
+    @Override
+    public List<LigneRapport> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) throws RemoteException {
+        return attendre(asynchrone.consulterRapportVentes(debut, fin, dimension));
+    }
+
+    // Service asynchrone
+
+    private final class Asynchrone implements BricoMerlinServiceAsync {
+
+        @Override
+        public CompletableFuture<Article> consulterStock(String reference) {
+            return envoyer(ProtocoleBinaire.CONSULTER_STOCK,
+                    sortie -> CodecBinaire.ecrireChaine(sortie, reference), ProtocoleBinaire::lireArticle);
+        }
+
+        @Override
+        public CompletableFuture<List<Article>> consulterStocks(List<String> references) {
+            List<CompletableFuture<Article>> futurs = new ArrayList<>(references.size());
+            for (String reference : references) {
+                futurs.add(consulterStock(reference));
+            }
+            return CompletableFuture.allOf(futurs.toArray(new CompletableFuture<?>[0])).thenApply(fini -> {
+                List<Article> articles = new ArrayList<>(futurs.size());
+                for (CompletableFuture<Article> futur : futurs) {
+                    articles.add(futur.join());
+                }
+                return articles;
+            });
+        }
+
+        @Override
+        public CompletableFuture<List<String>> rechercherArticles(String famille) {
+            return envoyer(ProtocoleBinaire.RECHERCHER_ARTICLES,
+                    sortie -> CodecBinaire.ecrireChaine(sortie, famille), ProtocoleBinaire::lireChaines);
+        }
+
+        @Override
+        public CompletableFuture<List<Article>> rechercherCatalogue(CritereRecherche critere) {
+            return envoyer(ProtocoleBinaire.RECHERCHER_CATALOGUE,
+                    sortie -> ProtocoleBinaire.ecrireCritere(sortie, critere), ProtocoleBinaire::lireArticles);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> acheterArticle(String reference, int quantite, String clientId, String idRequete) {
+            return envoyer(ProtocoleBinaire.ACHETER_ARTICLE, sortie -> {
+                CodecBinaire.ecrireChaine(sortie, reference);
+                sortie.writeInt(quantite);
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public CompletableFuture<ResultatPanier> acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) {
+            return envoyer(ProtocoleBinaire.ACHETER_PANIER, sortie -> {
+                ProtocoleBinaire.ecrireLignesPanier(sortie, lignes);
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                sortie.writeBoolean(toutOuRien);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, ProtocoleBinaire::lireResultatPanier);
+        }
+
+        @Override
+        public CompletableFuture<Reservation> reserverArticle(String reference, int quantite, String clientId, String idRequete) {
+            return envoyer(ProtocoleBinaire.RESERVER_ARTICLE, sortie -> {
+                CodecBinaire.ecrireChaine(sortie, reference);
+                sortie.writeInt(quantite);
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, ProtocoleBinaire::lireReservation);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> confirmerReservation(long idReservation, String clientId, String idRequete) {
+            return envoyer(ProtocoleBinaire.CONFIRMER_RESERVATION, sortie -> {
+                sortie.writeLong(idReservation);
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> libererReservation(long idReservation, String clientId, String idRequete) {
+            return envoyer(ProtocoleBinaire.LIBERER_RESERVATION, sortie -> {
+                sortie.writeLong(idReservation);
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> ajouterStock(String reference, int quantite, String idRequete) {
+            return envoyer(ProtocoleBinaire.AJOUTER_STOCK, sortie -> {
+                CodecBinaire.ecrireChaine(sortie, reference);
+                sortie.writeInt(quantite);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public CompletableFuture<RapportImport> ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) {
+            return envoyer(ProtocoleBinaire.AJOUTER_STOCK_MASSE, sortie -> {
+                ProtocoleBinaire.ecrireLignesLivraison(sortie, lignes);
+                sortie.writeBoolean(creerArticles);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, ProtocoleBinaire::lireRapport);
+        }
+
+        @Override
+        public CompletableFuture<Facture> consulterFacture(String clientId) {
+            return envoyer(ProtocoleBinaire.CONSULTER_FACTURE,
+                    sortie -> CodecBinaire.ecrireChaine(sortie, clientId), ProtocoleBinaire::lireFacture);
+        }
+
+        @Override
+        public CompletableFuture<EnteteFacture> consulterEnteteFacture(String clientId) {
+            return envoyer(ProtocoleBinaire.CONSULTER_ENTETE_FACTURE,
+                    sortie -> CodecBinaire.ecrireChaine(sortie, clientId), ProtocoleBinaire::lireEntete);
+        }
+
+        @Override
+        public CompletableFuture<PageLignesFacture> consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) {
+            return envoyer(ProtocoleBinaire.CONSULTER_LIGNES_FACTURE, sortie -> {
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                sortie.writeLong(numeroFacture);
+                sortie.writeLong(apresLigne);
+                sortie.writeInt(taille);
+            }, ProtocoleBinaire::lirePage);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> payerFacture(String clientId, String modePaiement, String idRequete) {
+            return envoyer(ProtocoleBinaire.PAYER_FACTURE, sortie -> {
+                CodecBinaire.ecrireChaine(sortie, clientId);
+                CodecBinaire.ecrireChaine(sortie, modePaiement);
+                CodecBinaire.ecrireChaine(sortie, idRequete);
+            }, DataInputStream::readBoolean);
+        }
+
+        @Override
+        public CompletableFuture<Double> calculerChiffreAffaires(Date date) {
+            return envoyer(ProtocoleBinaire.CHIFFRE_AFFAIRES,
+                    sortie -> ProtocoleBinaire.ecrireDate(sortie, date), DataInputStream::readDouble);
+        }
+
+        @Override
+        public CompletableFuture<SortedMap<Date, Double>> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) {
+            return envoyer(ProtocoleBinaire.CHIFFRE_AFFAIRES_PERIODE, sortie -> {
+                ProtocoleBinaire.ecrireDate(sortie, debut);
+                ProtocoleBinaire.ecrireDate(sortie, fin);
+                CodecBinaire.ecrireChaine(sortie, modePaiement);
+            }, ProtocoleBinaire::lireChiffreAffairesParJour);
+        }
+
+        @Override
+        public CompletableFuture<List<LigneRapport>> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) {
+            return envoyer(ProtocoleBinaire.RAPPORT_VENTES, sortie -> {
+                ProtocoleBinaire.ecrireDate(sortie, debut);
+                ProtocoleBinaire.ecrireDate(sortie, fin);
+                sortie.writeByte(dimension.ordinal());
+            }, ProtocoleBinaire::lireLignesRapport);
+        }
+    }
+
+    @Override
+    public void close() {
+        ferme = true;
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // Deja fermee
+        }
+    }
+}
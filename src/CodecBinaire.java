@@ -0,0 +1,91 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Primitives d'encodage binaire compact partagees par les objets echanges avec les clients
+ * Entiers en longueur variable (7 bits par octet), chaines nullables, dictionnaire de chaines par message.
+ */
+final class CodecBinaire {
+
+    private CodecBinaire() {
+    }
+
+    // Entiers
+
+    static void ecrireVarInt(DataOutput sortie, int valeur) throws IOException {
+        while ((valeur & ~0x7F) != 0) {
+            sortie.writeByte((valeur & 0x7F) | 0x80);
+            valeur >>>= 7;
+        }
+        sortie.writeByte(valeur);
+    }
+
+    static int lireVarInt(DataInput entree) throws IOException {
+        int valeur = 0;
+        for (int decalage = 0; decalage < 32; decalage += 7) {
+            int octet = entree.readUnsignedByte();
+            valeur |= (octet & 0x7F) << decalage;
+            if ((octet & 0x80) == 0) {
+                return valeur;
+            }
+        }
+        throw new IOException("Entier compact invalide");
+    }
+
+    // Chaines
+
+    static void ecrireChaine(DataOutput sortie, String chaine) throws IOException {
+        sortie.writeBoolean(chaine != null);
+        if (chaine != null) {
+            sortie.writeUTF(chaine);
+        }
+    }
+
+    static String lireChaine(DataInput entree) throws IOException {
+        return entree.readBoolean() ? entree.readUTF() : null;
+    }
+
+    /**
+     * Dictionnaire d'ecriture : une chaine deja ecrite dans le message n'est plus envoyee que par son numero
+     */
+    static final class DictionnaireEcriture {
+        private final Map<String, Integer> numeros = new HashMap<>();
+
+        void ecrire(DataOutput sortie, String chaine) throws IOException {
+            Integer numero = numeros.get(chaine);
+            if (numero != null) {
+                ecrireVarInt(sortie, numero + 1);
+            } else {
+                // 0 : nouvelle chaine, numerotee dans l'ordre d'apparition
+                ecrireVarInt(sortie, 0);
+                sortie.writeUTF(chaine);
+                numeros.put(chaine, numeros.size());
+            }
+        }
+    }
+
+    /**
+     * Dictionnaire de lecture : les occurrences d'une meme chaine partagent la meme instance
+     */
+    static final class DictionnaireLecture {
+        private final List<String> chaines = new ArrayList<>();
+
+        String lire(DataInput entree) throws IOException {
+            int numero = lireVarInt(entree);
+            if (numero == 0) {
+                String chaine = entree.readUTF();
+                chaines.add(chaine);
+                return chaine;
+            }
+            if (numero > chaines.size()) {
+                throw new IOException("Numero de chaine inconnu: " + (numero - 1));
+            }
+            return chaines.get(numero - 1);
+        }
+    }
+}
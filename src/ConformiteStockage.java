@@ -0,0 +1,427 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Suite de conformite des implementations de StockageBricoMerlin
+ * Les memes verifications (achat, panier tout ou rien, paiement et chiffre d'affaires, lecture paginee,
+ * reapprovisionnement, reservations, requetes idempotentes) sont passees a chaque stockage : StockageMemoire sans fichier,
+ * StockageMemoire sur un repertoire temporaire (avec rechargement), et StockageMySQL si la base est joignable.
+ * Les articles et clients crees sont prefixes CONF- et propres a chaque execution ; la derniere verification
+ * purge toutes les requetes idempotentes du stockage (a lancer sur une base de test).
+ *
+ * Usage : java ConformiteStockage [--sans-mysql]
+ */
+public class ConformiteStockage {
+
+    private static final String MODE_PAIEMENT = "CONF";
+
+    private final String nom;
+    private final String prefixe;
+    private int nbVerifications;
+    private int nbEchecs;
+
+    public ConformiteStockage(String nom) {
+        this.nom = nom;
+        this.prefixe = "CONF-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    }
+
+    // Verifications
+
+    private void verifier(boolean condition, String description) {
+        nbVerifications++;
+        if (!condition) {
+            nbEchecs++;
+            System.out.println("  ECHEC " + description);
+        }
+    }
+
+    private static boolean egal(double a, double b) {
+        return Math.abs(a - b) < 0.005;
+    }
+
+    /**
+     * Ecriture avec une cle de requete idempotente
+     */
+    @FunctionalInterface
+    private interface Ecriture {
+        void executer() throws SQLException;
+    }
+
+    /**
+     * @return true si l'ecriture est refusee comme une cle deja enregistree (SQLState 23000)
+     */
+    private static boolean cleRefusee(Ecriture ecriture) {
+        try {
+            ecriture.executer();
+            return false;
+        } catch (SQLException e) {
+            return "23000".equals(e.getSQLState());
+        }
+    }
+
+    private static Object requete(StockageBricoMerlin stockage, String cle) throws SQLException {
+        Object[] resultat = new Object[1];
+        stockage.lireRequete(cle, (c, contenu, horodatage) -> resultat[0] = RequetesTraitees.decoder(contenu));
+        return resultat[0];
+    }
+
+    private static int stock(StockageBricoMerlin stockage, String reference) throws SQLException {
+        Article article = stockage.lireArticle(reference);
+        return article == null ? -1 : article.getStockDisponible();
+    }
+
+    private void achat(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "A";
+        String client = prefixe + "achat";
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 2.5, 10)));
+
+        verifier(stockage.acheterArticle(a, 3, client, 2.5, null), "achat : stock suffisant accepte");
+        verifier(stock(stockage, a) == 7, "achat : stock decremente");
+        verifier(!stockage.acheterArticle(a, 8, client, 2.5, null), "achat : stock insuffisant refuse");
+        verifier(stock(stockage, a) == 7, "achat : stock inchange apres refus");
+        verifier(!stockage.acheterArticle(prefixe + "INCONNU", 1, client, 2.5, null), "achat : reference inconnue refusee");
+
+        Facture facture = stockage.consulterFacture(client);
+        verifier(facture != null && facture.getLignesFacture().size() == 1 && egal(facture.getMontantTotal(), 7.5),
+                "achat : une ligne de 7.50 sur la facture ouverte");
+    }
+
+    private void panier(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "PA";
+        String b = prefixe + "PB";
+        String client = prefixe + "panier";
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 1.0, 10), new Article(b, prefixe + "FAM", 4.0, 5)));
+        List<LignePanier> lignes = List.of(new LignePanier(a, 2), new LignePanier(b, 10), new LignePanier(prefixe + "INCONNU", 1));
+
+        ResultatPanier resultat = stockage.acheterPanier(lignes, client, true, null);
+        verifier(resultat.getStatut(0) == ResultatPanier.Statut.ANNULEE, "panier tout ou rien : ligne servable annulee");
+        verifier(resultat.getStatut(1) == ResultatPanier.Statut.STOCK_INSUFFISANT, "panier tout ou rien : stock insuffisant");
+        verifier(resultat.getStatut(2) == ResultatPanier.Statut.ARTICLE_INCONNU, "panier tout ou rien : article inconnu");
+        verifier(resultat.getNbLignesAcceptees() == 0 && egal(resultat.getMontantAjoute(), 0), "panier tout ou rien : rien d'ajoute");
+        verifier(stock(stockage, a) == 10 && stock(stockage, b) == 5, "panier tout ou rien : stocks inchanges");
+        verifier(stockage.consulterFacture(client) == null, "panier tout ou rien : pas de facture ouverte");
+
+        resultat = stockage.acheterPanier(lignes, client, false, null);
+        verifier(resultat.getStatut(0) == ResultatPanier.Statut.ACCEPTEE && resultat.getNbLignesAcceptees() == 1,
+                "panier partiel : seule la ligne servable acceptee");
+        verifier(egal(resultat.getMontantAjoute(), 2.0), "panier partiel : montant de la ligne acceptee");
+        verifier(stock(stockage, a) == 8 && stock(stockage, b) == 5, "panier partiel : seul le stock servi decremente");
+    }
+
+    private void paiementEtPagination(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "FA";
+        String client = prefixe + "paiement";
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 1.25, 100)));
+        for (int i = 0; i < 7; i++) {
+            stockage.acheterArticle(a, 1, client, 1.25, null);
+        }
+
+        EnteteFacture entete = stockage.lireEnteteFacture(client);
+        verifier(entete != null && entete.getNbLignes() == 7 && egal(entete.getMontantTotal(), 8.75),
+                "pagination : en-tete de 7 lignes pour 8.75");
+        List<Integer> tailles = new ArrayList<>();
+        long curseur = 0;
+        boolean derniere = false;
+        while (entete != null && !derniere && tailles.size() < 5) {
+            PageLignesFacture page = stockage.lireLignesFacture(client, entete.getNumero(), curseur, 3);
+            if (page == null) {
+                break;
+            }
+            tailles.add(page.getLignes().size());
+            curseur = page.getCurseur();
+            derniere = page.isDerniere();
+        }
+        verifier(tailles.equals(List.of(3, 3, 1)) && derniere, "pagination : pages de 3, 3 et 1 lignes " + tailles);
+
+        Date aujourdhui = new Date();
+        double avant = stockage.chiffreAffaires(aujourdhui);
+        verifier(stockage.payerFacture(client, MODE_PAIEMENT, null), "paiement : facture ouverte payee");
+        verifier(!stockage.payerFacture(client, MODE_PAIEMENT, null), "paiement : plus de facture ouverte");
+        verifier(stockage.consulterFacture(client) == null, "paiement : facture fermee");
+        verifier(entete == null || stockage.lireLignesFacture(client, entete.getNumero(), 0, 3) == null,
+                "pagination : facture payee plus lisible");
+        verifier(egal(stockage.chiffreAffaires(aujourdhui) - avant, 8.75), "chiffre d'affaires : jour augmente de 8.75");
+
+        Map<Date, Double> parJour = stockage.chiffreAffairesParJour(aujourdhui, aujourdhui, MODE_PAIEMENT);
+        Double jour = parJour.get(minuit(aujourdhui));
+        verifier(jour != null && jour >= 8.75 - 0.005, "chiffre d'affaires : jour present pour le mode " + parJour);
+
+        double ventes = 0;
+        long debut = minuit(aujourdhui).getTime();
+        for (LigneRapport ligne : stockage.ventes().rapport(debut, debut + 24 * 3600 * 1000L, DimensionRapport.REFERENCE)) {
+            if (ligne.getCle().equals(a)) {
+                ventes = ligne.getMontant();
+            }
+        }
+        verifier(egal(ventes, 8.75), "ventes : agregat de la reference a 8.75");
+    }
+
+    private void reapprovisionnement(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "RA";
+        String creee = prefixe + "RC";
+        String sansPrix = prefixe + "RD";
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 3.0, 1)));
+
+        verifier(stockage.ajouterStock(a, 4, null), "reapprovisionnement : ajout de stock");
+        verifier(stock(stockage, a) == 5, "reapprovisionnement : stock augmente");
+        verifier(!stockage.ajouterStock(prefixe + "INCONNU", 4, null), "reapprovisionnement : reference inconnue refusee");
+
+        RapportImport rapport = stockage.reapprovisionner(List.of(new LigneLivraison(a, 2), new LigneLivraison(a, 3),
+                new LigneLivraison(creee, 4, prefixe + "FAM", 6.0), new LigneLivraison(sansPrix, 1)), true, null);
+        verifier(rapport.getNbLignes() == 4 && rapport.getRejets().size() == 1 && rapport.getRejets().get(0).getPosition() == 3,
+                "reapprovisionnement : seule la ligne sans famille ni prix rejetee");
+        verifier(rapport.getReferencesCreees().equals(List.of(creee)), "reapprovisionnement : reference creee");
+        verifier(stock(stockage, a) == 10, "reapprovisionnement : lignes d'une reference cumulees");
+        verifier(stock(stockage, creee) == 4, "reapprovisionnement : stock de la reference creee");
+        verifier(stock(stockage, sansPrix) == -1, "reapprovisionnement : reference rejetee absente");
+
+        rapport = stockage.reapprovisionner(List.of(new LigneLivraison(prefixe + "RE", 1, prefixe + "FAM", 1.0)), false, null);
+        verifier(rapport.getRejets().size() == 1 && stock(stockage, prefixe + "RE") == -1,
+                "reapprovisionnement : pas de creation sans creerArticles");
+
+        rapport = stockage.reapprovisionner(List.of(new LigneLivraison(creee, 2, prefixe + "FAM", 6.0)), true, null);
+        verifier(rapport.getReferencesCreees().isEmpty() && stock(stockage, creee) == 6,
+                "reapprovisionnement : ligne de creation d'une reference existante ajoutee au stock");
+
+        // Livraisons simultanees d'une meme reference inconnue : une seule creation, toutes les quantites ajoutees
+        // (plusieurs references : la course n'est pas gagnee a chaque fois)
+        int nbReferences = 20;
+        int nbLivraisons = 8;
+        int cumulees = 0;
+        int creeesUneFois = 0;
+        for (int r = 0; r < nbReferences; r++) {
+            String concurrente = prefixe + "RF" + r;
+            List<RapportImport> rapports = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch depart = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < nbLivraisons; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        depart.await();
+                        rapports.add(stockage.reapprovisionner(List.of(new LigneLivraison(concurrente, 1, prefixe + "FAM", 2.0)), true, null));
+                    } catch (SQLException e) {
+                        System.out.println("  livraison simultanee: " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            depart.countDown();
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            cumulees += rapports.size() == nbLivraisons && stock(stockage, concurrente) == nbLivraisons ? 1 : 0;
+            creeesUneFois += rapports.stream().filter(livre -> livre.getReferencesCreees().contains(concurrente)).count() == 1 ? 1 : 0;
+        }
+        verifier(cumulees == nbReferences, "reapprovisionnement : livraisons simultanees cumulees ("
+                + cumulees + "/" + nbReferences + " references)");
+        verifier(creeesUneFois == nbReferences, "reapprovisionnement : reference creee une seule fois ("
+                + creeesUneFois + "/" + nbReferences + " references)");
+    }
+
+    private void reservations(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "VA";
+        String client = prefixe + "reservation";
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 5.0, 10)));
+        Date echeance = new Date(System.currentTimeMillis() + 60000);
+        long base = System.currentTimeMillis() * 1000;
+        Reservation liberee = new Reservation(base + 1, a, 4, client, 5.0, echeance);
+        Reservation confirmee = new Reservation(base + 2, a, 3, client, 5.0, echeance);
+        Reservation enCours = new Reservation(base + 3, a, 2, client, 5.0, echeance);
+
+        verifier(stockage.enregistrerReservation(liberee, true, null) && stockage.enregistrerReservation(confirmee, true, null)
+                && stockage.enregistrerReservation(enCours, true, null), "reservations : enregistrees avec le retrait de stock");
+        verifier(stock(stockage, a) == 1, "reservations : stock retire");
+        verifier(!stockage.enregistrerReservation(new Reservation(base + 4, a, 2, client, 5.0, echeance), true, null),
+                "reservations : stock insuffisant refuse");
+        verifier(stockage.enregistrerReservation(new Reservation(base + 5, a, 50, client, 5.0, echeance), false, null)
+                && stock(stockage, a) == 1, "reservations : enregistree sans retrait (moteur de stock)");
+
+        verifier(stockage.terminerReservation(liberee, true, null, true) && stock(stockage, a) == 5, "reservations : liberee, stock rendu");
+        verifier(!stockage.terminerReservation(liberee, true, null, true) && stock(stockage, a) == 5, "reservations : liberee une seule fois");
+        verifier(stockage.confirmerReservation(confirmee, null), "reservations : confirmee");
+        verifier(!stockage.confirmerReservation(confirmee, null), "reservations : confirmee une seule fois");
+        Facture facture = stockage.consulterFacture(client);
+        verifier(facture != null && facture.getLignesFacture().size() == 1 && egal(facture.getMontantTotal(), 15.0),
+                "reservations : ligne de la reservation confirmee facturee");
+        verifier(stock(stockage, a) == 5, "reservations : confirmation sans mouvement de stock");
+
+        List<Long> enregistrees = new ArrayList<>();
+        stockage.chargerReservations(reservation -> enregistrees.add(reservation.getId()));
+        verifier(enregistrees.contains(enCours.getId()) && !enregistrees.contains(liberee.getId())
+                && !enregistrees.contains(confirmee.getId()), "reservations : seules celles en cours rechargees");
+    }
+
+    private void requetesIdempotentes(StockageBricoMerlin stockage) throws SQLException {
+        String a = prefixe + "IA";
+        String client = prefixe + "idempotent";
+        String cleAchat = prefixe + "achat";
+        String clePanier = prefixe + "panier";
+        String clePaiement = prefixe + "paiement";
+        long debut = System.currentTimeMillis();
+        stockage.enregistrerArticles(List.of(new Article(a, prefixe + "FAM", 2.0, 10)));
+
+        verifier(stockage.acheterArticle(a, 1, client, 2.0, cleAchat), "idempotence : achat avec cle");
+        verifier(cleRefusee(() -> stockage.acheterArticle(a, 1, client, 2.0, cleAchat)),
+                "idempotence : cle deja enregistree refusee (SQLState 23000)");
+        verifier(stock(stockage, a) == 9, "idempotence : achat applique une seule fois");
+        ResultatPanier panier = stockage.acheterPanier(List.of(new LignePanier(a, 2)), client, true, clePanier);
+        verifier(stockage.payerFacture(client, MODE_PAIEMENT, clePaiement), "idempotence : paiement avec cle");
+        verifier(Boolean.TRUE.equals(requete(stockage, cleAchat)), "idempotence : achat relu par sa cle");
+        verifier(requete(stockage, prefixe + "inconnue") == null, "idempotence : cle inconnue absente");
+
+        // Ecritures de stock et de reservation : la cle est enregistree avec l'ecriture
+        String cleAjout = prefixe + "ajout";
+        verifier(stockage.ajouterStock(a, 5, cleAjout) && cleRefusee(() -> stockage.ajouterStock(a, 5, cleAjout))
+                && stock(stockage, a) == 12 && Boolean.TRUE.equals(requete(stockage, cleAjout)), "idempotence : ajout de stock une seule fois");
+        String cleRetrait = prefixe + "retrait";
+        verifier(stockage.retirerStock(a, 1, cleRetrait, a) && cleRefusee(() -> stockage.retirerStock(a, 1, cleRetrait, a))
+                && stock(stockage, a) == 11 && a.equals(requete(stockage, cleRetrait)), "idempotence : retrait de stock une seule fois");
+        String cleLivraison = prefixe + "livraison";
+        List<LigneLivraison> livraison = List.of(new LigneLivraison(a, 2), new LigneLivraison(prefixe + "IB", 3, prefixe + "FAM", 1.0));
+        RapportImport rapport = stockage.reapprovisionner(livraison, true, cleLivraison);
+        Object rapportRelu = requete(stockage, cleLivraison);
+        verifier(cleRefusee(() -> stockage.reapprovisionner(livraison, true, cleLivraison)) && stock(stockage, a) == 13
+                && stock(stockage, prefixe + "IB") == 3 && rapportRelu instanceof RapportImport
+                && ((RapportImport) rapportRelu).getReferencesCreees().equals(rapport.getReferencesCreees()),
+                "idempotence : livraison appliquee une seule fois, bilan enregistre");
+        Reservation reservation = new Reservation(System.currentTimeMillis() * 1000 + 7, a, 4, client, 2.0,
+                new Date(System.currentTimeMillis() + 60000));
+        String cleReservation = prefixe + "reservation";
+        String cleLiberation = prefixe + "liberation";
+        verifier(stockage.enregistrerReservation(reservation, true, cleReservation)
+                && cleRefusee(() -> stockage.enregistrerReservation(reservation, true, cleReservation)) && stock(stockage, a) == 9
+                && requete(stockage, cleReservation) instanceof Reservation, "idempotence : reservation une seule fois");
+        verifier(stockage.terminerReservation(reservation, true, cleLiberation, true)
+                && cleRefusee(() -> stockage.terminerReservation(reservation, true, cleLiberation, true)) && stock(stockage, a) == 13
+                && Boolean.TRUE.equals(requete(stockage, cleLiberation)), "idempotence : liberation une seule fois");
+        String cleSeule = prefixe + "seule";
+        stockage.enregistrerRequete(cleSeule, true);
+        verifier(cleRefusee(() -> stockage.enregistrerRequete(cleSeule, true)) && Boolean.TRUE.equals(requete(stockage, cleSeule)),
+                "idempotence : requete enregistree seule (moteur de stock)");
+
+        Map<String, byte[]> enregistrees = new HashMap<>();
+        stockage.chargerRequetes(debut, (cle, resultat, horodatage) -> enregistrees.put(cle, resultat));
+        verifier(enregistrees.containsKey(cleAchat) && Boolean.TRUE.equals(RequetesTraitees.decoder(enregistrees.get(cleAchat))),
+                "idempotence : achat recharge (true)");
+        verifier(enregistrees.containsKey(clePanier) && enregistrees.containsKey(clePaiement), "idempotence : panier et paiement recharges");
+        Object panierRecharge = enregistrees.containsKey(clePanier) ? RequetesTraitees.decoder(enregistrees.get(clePanier)) : null;
+        verifier(panierRecharge instanceof ResultatPanier && ((ResultatPanier) panierRecharge).getStatut(0) == panier.getStatut(0),
+                "idempotence : resultat du panier recharge a l'identique");
+
+        stockage.purgerRequetes(debut);
+        enregistrees.clear();
+        stockage.chargerRequetes(debut, (cle, resultat, horodatage) -> enregistrees.put(cle, resultat));
+        verifier(enregistrees.containsKey(cleAchat), "idempotence : purge anterieure sans effet sur les requetes recentes");
+        stockage.purgerRequetes(System.currentTimeMillis() + 1);
+        enregistrees.clear();
+        stockage.chargerRequetes(debut, (cle, resultat, horodatage) -> enregistrees.put(cle, resultat));
+        verifier(!enregistrees.containsKey(cleAchat) && !enregistrees.containsKey(clePaiement), "idempotence : requetes purgees");
+    }
+
+    /**
+     * Rechargement d'un stockage a fichiers : les ecritures de la premiere ouverture doivent etre retrouvees
+     */
+    private void rechargement(StockageBricoMerlin stockage) throws SQLException {
+        verifier(stock(stockage, prefixe + "A") == 7, "rechargement : stock de l'achat");
+        verifier(stock(stockage, prefixe + "RC") == 6, "rechargement : reference creee par reapprovisionnement");
+        verifier(stock(stockage, prefixe + "RF0") == 8, "rechargement : livraisons simultanees d'une reference creee");
+        Facture facture = stockage.consulterFacture(prefixe + "achat");
+        verifier(facture != null && egal(facture.getMontantTotal(), 7.5), "rechargement : facture ouverte");
+        verifier(stockage.consulterFacture(prefixe + "paiement") == null, "rechargement : facture payee fermee");
+        List<Reservation> reservations = new ArrayList<>();
+        stockage.chargerReservations(reservations::add);
+        verifier(reservations.size() == 2 && stock(stockage, prefixe + "VA") == 5, "rechargement : reservations en cours et leur stock");
+    }
+
+    private static Date minuit(Date date) {
+        Calendar calendrier = Calendar.getInstance();
+        calendrier.setTime(date);
+        calendrier.set(Calendar.HOUR_OF_DAY, 0);
+        calendrier.set(Calendar.MINUTE, 0);
+        calendrier.set(Calendar.SECOND, 0);
+        calendrier.set(Calendar.MILLISECOND, 0);
+        return calendrier.getTime();
+    }
+
+    // Execution
+
+    /**
+     * Passe toute la suite au stockage
+     * @return true si toutes les verifications ont reussi
+     */
+    public boolean executer(StockageBricoMerlin stockage) {
+        System.out.println(nom + " :");
+        try {
+            achat(stockage);
+            panier(stockage);
+            paiementEtPagination(stockage);
+            reapprovisionnement(stockage);
+            reservations(stockage);
+            requetesIdempotentes(stockage);
+        } catch (SQLException | RuntimeException e) {
+            nbEchecs++;
+            System.out.println("  ECHEC erreur inattendue: " + e);
+        }
+        return bilan();
+    }
+
+    private boolean bilan() {
+        System.out.printf("  %d verification(s), %d echec(s)%n", nbVerifications, nbEchecs);
+        return nbEchecs == 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean mysql = !List.of(args).contains("--sans-mysql");
+        boolean conforme;
+
+        try (StockageMemoire stockage = new StockageMemoire()) {
+            conforme = new ConformiteStockage("StockageMemoire (sans fichier)").executer(stockage);
+        }
+
+        Path repertoire = Files.createTempDirectory("bricomerlin-conformite");
+        ConformiteStockage fichiers = new ConformiteStockage("StockageMemoire (repertoire " + repertoire + ")");
+        try (StockageMemoire stockage = new StockageMemoire(repertoire, 0, true, 0, 1024 * 1024)) {
+            conforme &= fichiers.executer(stockage);
+        }
+        try (StockageMemoire stockage = new StockageMemoire(repertoire, 0, true, 0, 1024 * 1024)) {
+            System.out.println("  apres rechargement :");
+            fichiers.rechargement(stockage);
+            conforme &= fichiers.bilan();
+        }
+
+        if (mysql) {
+            StockageMySQL stockage = null;
+            try {
+                stockage = new StockageMySQL();
+            } catch (SQLException | ClassNotFoundException e) {
+                System.out.println("StockageMySQL : ignore, base injoignable (" + e.getMessage() + ")");
+            }
+            if (stockage != null) {
+                try {
+                    conforme &= new ConformiteStockage("StockageMySQL").executer(stockage);
+                } finally {
+                    stockage.close();
+                }
+            }
+        }
+
+        System.out.println(conforme ? "Stockages conformes" : "Stockages NON conformes");
+        System.exit(conforme ? 0 : 1);
+    }
+}
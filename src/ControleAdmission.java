@@ -0,0 +1,117 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controle d'admission du service : borne le nombre d'operations executees en meme temps
+ * (de l'ordre de la taille du pool de connexions) et le nombre d'appels en attente
+ *
+ * Au-dela, l'appel est refuse aussitot avec une ServiceSatureException au lieu de s'ajouter a la file
+ * d'attente du pool : la latence des appels admis reste bornee et le client sait qu'il peut reessayer.
+ * Un appel qui attend plus que attenteMaxMs une place est aussi refuse.
+ */
+public class ControleAdmission {
+
+    // Operations servies en memoire (index, journal des modifications) : jamais limitees
+    private static final Set<String> SANS_CONTROLE = Set.of("rechercherCatalogue", "consulterModifications");
+
+    private final Semaphore places;
+    private final int concurrence;
+    private final int fileMax;
+    private final long attenteMaxMs;
+    private final AtomicInteger enAttente = new AtomicInteger();
+
+    // Statistiques
+    private final AtomicLong admis = new AtomicLong();
+    private final AtomicLong refusFile = new AtomicLong();
+    private final AtomicLong refusAttente = new AtomicLong();
+    private final AtomicLong attenteTotaleNs = new AtomicLong();
+
+    /**
+     * @param concurrence Operations executees en meme temps au plus
+     * @param fileMax Appels en attente d'une place au plus (au-dela : refus immediat)
+     * @param attenteMaxMs Attente maximale d'une place
+     */
+    public ControleAdmission(int concurrence, int fileMax, long attenteMaxMs) {
+        this.places = new Semaphore(concurrence, true);
+        this.concurrence = concurrence;
+        this.fileMax = fileMax;
+        this.attenteMaxMs = attenteMaxMs;
+    }
+
+    /**
+     * @return Le service dont chaque appel passe par le controle d'admission
+     */
+    public BricoMerlinService proteger(BricoMerlinService cible) {
+        return proteger(cible, BricoMerlinService.class);
+    }
+
+    /**
+     * @return La cible vue seulement a travers l'interface type, chaque appel passant par le controle d'admission
+     */
+    public <T> T proteger(T cible, Class<T> type) {
+        InvocationHandler admission = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class || SANS_CONTROLE.contains(method.getName())) {
+                return invoquer(cible, method, args);
+            }
+            admettre(method.getName());
+            try {
+                return invoquer(cible, method, args);
+            } finally {
+                places.release();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, admission));
+    }
+
+    private static Object invoquer(Object cible, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(cible, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void admettre(String operation) throws ServiceSatureException {
+        if (places.tryAcquire()) {
+            admis.incrementAndGet();
+            return;
+        }
+        if (enAttente.incrementAndGet() > fileMax) {
+            enAttente.decrementAndGet();
+            refusFile.incrementAndGet();
+            throw new ServiceSatureException("Serveur sature (" + operation + " refuse, file d'attente pleine)", attenteMaxMs);
+        }
+        long debut = System.nanoTime();
+        try {
+            if (!places.tryAcquire(attenteMaxMs, TimeUnit.MILLISECONDS)) {
+                refusAttente.incrementAndGet();
+                throw new ServiceSatureException("Serveur sature (" + operation + " refuse apres " + attenteMaxMs + " ms d'attente)", attenteMaxMs);
+            }
+            admis.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceSatureException("Attente d'admission interrompue", attenteMaxMs);
+        } finally {
+            attenteTotaleNs.addAndGet(System.nanoTime() - debut);
+            enAttente.decrementAndGet();
+        }
+    }
+
+    // Statistiques
+
+    public long getNbAdmis() { return admis.get(); }
+    public long getNbRefus() { return refusFile.get() + refusAttente.get(); }
+
+    public String statistiques() {
+        return String.format("Admission{concurrence=%d, en cours=%d, en attente=%d, admis=%d, refus file pleine=%d, refus attente=%d, attente totale=%d ms}",
+                concurrence, concurrence - places.availablePermits(), enAttente.get(), admis.get(), refusFile.get(), refusAttente.get(),
+                attenteTotaleNs.get() / 1_000_000);
+    }
+}
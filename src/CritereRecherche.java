@@ -0,0 +1,40 @@
+/**
+ * Criteres d'une recherche dans le catalogue (rechercherCatalogue)
+ * Le texte est une suite de debuts de mots, sans tenir compte de la casse ni des accents :
+ * chaque mot doit commencer la reference, la famille ou un mot de la famille.
+ */
+public class CritereRecherche implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String texte;
+    private final Double prixMin;
+    private final Double prixMax;
+    private final boolean enStockSeulement;
+    private final int limite;
+
+    /**
+     * @param texte Mots recherches (vide : tout le catalogue)
+     * @param prixMin Prix unitaire minimal, null si aucun
+     * @param prixMax Prix unitaire maximal, null si aucun
+     * @param enStockSeulement true pour exclure les articles en rupture
+     * @param limite Nombre maximal d'articles rendus (borne par le serveur)
+     */
+    public CritereRecherche(String texte, Double prixMin, Double prixMax, boolean enStockSeulement, int limite) {
+        this.texte = texte;
+        this.prixMin = prixMin;
+        this.prixMax = prixMax;
+        this.enStockSeulement = enStockSeulement;
+        this.limite = limite;
+    }
+
+    // Getters
+    public String getTexte() { return texte; }
+    public Double getPrixMin() { return prixMin; }
+    public Double getPrixMax() { return prixMax; }
+    public boolean isEnStockSeulement() { return enStockSeulement; }
+    public int getLimite() { return limite; }
+
+    @Override
+    public String toString() {
+        return String.format("CritereRecherche{texte='%s', prix=[%s, %s], enStock=%s, limite=%d}", texte, prixMin, prixMax, enStockSeulement, limite);
+    }
+}
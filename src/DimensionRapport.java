@@ -0,0 +1,13 @@
+/**
+ * Regroupement des ventes d'un rapport (consulterRapportVentes)
+ */
+public enum DimensionRapport {
+    // Famille des articles vendus
+    FAMILLE,
+    // Reference des articles vendus
+    REFERENCE,
+    // Mode de paiement des factures
+    MODE_PAIEMENT,
+    // Heure de facturation dans la journee (0 a 23, fuseau du serveur)
+    HEURE
+}
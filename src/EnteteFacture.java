@@ -0,0 +1,88 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Date;
+
+/**
+ * En-tete de la facture ouverte d'un client, sans les lignes (a lire par pages avec consulterLignesFacture)
+ */
+public class EnteteFacture implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final byte FORMAT = 1;
+
+    private String clientId;
+    private long numero;
+    private double montantTotal;
+    private int nbLignes;
+    private Date dateFacturation;
+
+    /**
+     * Reserve a la deserialisation
+     */
+    public EnteteFacture() {
+    }
+
+    public EnteteFacture(String clientId, long numero, double montantTotal, int nbLignes, Date dateFacturation) {
+        this.clientId = clientId;
+        this.numero = numero;
+        this.montantTotal = montantTotal;
+        this.nbLignes = nbLignes;
+        this.dateFacturation = dateFacturation;
+    }
+
+    // Getters
+    public String getClientId() { return clientId; }
+    public long getNumero() { return numero; }
+    public double getMontantTotal() { return montantTotal; }
+    public int getNbLignes() { return nbLignes; }
+    public Date getDateFacturation() { return dateFacturation; }
+
+    // Encodage
+
+    @Override
+    public void writeExternal(ObjectOutput sortie) throws IOException {
+        ecrire(sortie);
+    }
+
+    @Override
+    public void readExternal(ObjectInput entree) throws IOException {
+        lireChamps(entree);
+    }
+
+    void ecrire(DataOutput sortie) throws IOException {
+        sortie.writeByte(FORMAT);
+        sortie.writeUTF(clientId);
+        sortie.writeLong(numero);
+        sortie.writeDouble(montantTotal);
+        CodecBinaire.ecrireVarInt(sortie, nbLignes);
+        sortie.writeLong(dateFacturation == null ? Long.MIN_VALUE : dateFacturation.getTime());
+    }
+
+    static EnteteFacture lire(DataInput entree) throws IOException {
+        EnteteFacture entete = new EnteteFacture();
+        entete.lireChamps(entree);
+        return entete;
+    }
+
+    private void lireChamps(DataInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format < 1 || format > FORMAT) {
+            throw new InvalidClassException(EnteteFacture.class.getName(), "format inconnu " + format);
+        }
+        clientId = entree.readUTF();
+        numero = entree.readLong();
+        montantTotal = entree.readDouble();
+        nbLignes = CodecBinaire.lireVarInt(entree);
+        long date = entree.readLong();
+        dateFacturation = date == Long.MIN_VALUE ? null : new Date(date);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EnteteFacture{client='%s', numero=%d, total=%.2fe, lignes=%d, date=%s}", clientId, numero, montantTotal, nbLignes, dateFacturation);
+    }
+}
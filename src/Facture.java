@@ -1,14 +1,42 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-public class Facture implements java.io.Serializable {
-    private final String clientId;
-    private final double montantTotal;
-    private final List<LigneFacture> lignesFacture;
-    private final String modePaiement;
-    private final Date dateFacturation;
-    private final Date datePaiement;
-    private final boolean payee;
+/**
+ * Facture ; encodage binaire explicite : les lignes sont ecrites a plat (sans descripteur de classe par ligne),
+ * les references repetees par leur numero dans un dictionnaire propre au message et les dates en millisecondes
+ */
+public class Facture implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    // Version de l'encodage : une version plus recente ajoute ses champs a la fin, les anciennes restent lisibles
+    private static final byte FORMAT = 1;
+
+    // Champs optionnels presents dans le message
+    private static final int AVEC_MODE_PAIEMENT = 1;
+    private static final int AVEC_DATE_FACTURATION = 2;
+    private static final int AVEC_DATE_PAIEMENT = 4;
+    private static final int PAYEE = 8;
+
+    private String clientId;
+    private double montantTotal;
+    private List<LigneFacture> lignesFacture;
+    private String modePaiement;
+    private Date dateFacturation;
+    private Date datePaiement;
+    private boolean payee;
+
+    /**
+     * Reserve a la deserialisation
+     */
+    public Facture() {
+    }
 
     public Facture(String clientId, double montantTotal, List<LigneFacture> lignesFacture, Date dateFacturation, Date datePaiement, boolean payee, String modePaiement) {
         this.clientId = clientId;
@@ -39,6 +67,73 @@ public class Facture implements java.io.Serializable {
     public Date getDatePaiement() { return datePaiement; }
     public boolean isPayee() { return payee; }
 
+    // Encodage
+
+    @Override
+    public void writeExternal(ObjectOutput sortie) throws IOException {
+        ecrire(sortie);
+    }
+
+    @Override
+    public void readExternal(ObjectInput entree) throws IOException {
+        lireChamps(entree);
+    }
+
+    void ecrire(DataOutput sortie) throws IOException {
+        int presents = (modePaiement != null ? AVEC_MODE_PAIEMENT : 0)
+                | (dateFacturation != null ? AVEC_DATE_FACTURATION : 0)
+                | (datePaiement != null ? AVEC_DATE_PAIEMENT : 0)
+                | (payee ? PAYEE : 0);
+        sortie.writeByte(FORMAT);
+        sortie.writeByte(presents);
+        sortie.writeUTF(clientId);
+        sortie.writeDouble(montantTotal);
+        if (modePaiement != null) {
+            sortie.writeUTF(modePaiement);
+        }
+        if (dateFacturation != null) {
+            sortie.writeLong(dateFacturation.getTime());
+        }
+        if (datePaiement != null) {
+            sortie.writeLong(datePaiement.getTime());
+        }
+
+        List<LigneFacture> lignes = lignesFacture == null ? List.of() : lignesFacture;
+        CodecBinaire.ecrireVarInt(sortie, lignes.size());
+        CodecBinaire.DictionnaireEcriture references = new CodecBinaire.DictionnaireEcriture();
+        for (LigneFacture ligne : lignes) {
+            references.ecrire(sortie, ligne.getReferenceArticle());
+            ligne.ecrireValeurs(sortie);
+        }
+    }
+
+    static Facture lire(DataInput entree) throws IOException {
+        Facture facture = new Facture();
+        facture.lireChamps(entree);
+        return facture;
+    }
+
+    private void lireChamps(DataInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format < 1 || format > FORMAT) {
+            throw new InvalidClassException(Facture.class.getName(), "format inconnu " + format);
+        }
+        int presents = entree.readByte();
+        clientId = entree.readUTF();
+        montantTotal = entree.readDouble();
+        modePaiement = (presents & AVEC_MODE_PAIEMENT) != 0 ? entree.readUTF() : null;
+        dateFacturation = (presents & AVEC_DATE_FACTURATION) != 0 ? new Date(entree.readLong()) : null;
+        datePaiement = (presents & AVEC_DATE_PAIEMENT) != 0 ? new Date(entree.readLong()) : null;
+        payee = (presents & PAYEE) != 0;
+
+        int nbLignes = CodecBinaire.lireVarInt(entree);
+        lignesFacture = new ArrayList<>(nbLignes);
+        CodecBinaire.DictionnaireLecture references = new CodecBinaire.DictionnaireLecture();
+        for (int i = 0; i < nbLignes; i++) {
+            lignesFacture.add(LigneFacture.lire(entree, references.lire(entree)));
+        }
+    }
+
     @Override
     public String toString() {
         return String.format("Facture{client='%s', total=%.2fe, payée=%s, date=%s}", clientId, montantTotal, payee ? "Oui" : "Non", dateFacturation);
@@ -0,0 +1,348 @@
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generateur de charge en boucle fermee : remplace le menu interactif de BricoMerlinClient pour les essais de capacite
+ * Chaque client simule enchaine des sessions (consultation, recherche, achat, paiement) avec des temps de reflexion,
+ * sur le meme stub RMI que le client interactif.
+ *
+ * Usage : java GenerateurCharge [--url //localhost/BricoMerlinService] [--clients N] [--duree s] [--montee s]
+ *                               [--debit req/s] [--reflexion ms] [--mix consultation:40,recherche:20,achat:30,paiement:10]
+ *                               [--familles Visserie,Outillage,Peinture]
+ */
+public class GenerateurCharge {
+
+    private static final String[] SESSIONS = {"consultation", "recherche", "achat", "paiement"};
+
+    private final BricoMerlinService service;
+    private final List<String> references;
+    private final List<String> familles;
+    private final int[] mixCumule;
+    private final long reflexionMoyenneMs;
+    private final long intervalleDebitNs;
+    private final AtomicLong prochainCreneauNs = new AtomicLong(System.nanoTime());
+
+    private final Map<String, StatistiquesOperation> statistiques = new LinkedHashMap<>();
+    private volatile boolean enCours = true;
+
+    public GenerateurCharge(BricoMerlinService service, List<String> references, List<String> familles,
+                            int[] mix, long reflexionMoyenneMs, double debitCible) {
+        this.service = service;
+        this.references = references;
+        this.familles = familles;
+        this.reflexionMoyenneMs = reflexionMoyenneMs;
+        this.intervalleDebitNs = debitCible > 0 ? (long) (1_000_000_000L / debitCible) : 0;
+        this.mixCumule = new int[mix.length];
+        int cumul = 0;
+        for (int i = 0; i < mix.length; i++) {
+            cumul += mix[i];
+            mixCumule[i] = cumul;
+        }
+        for (String operation : new String[]{"consulterStock", "rechercherArticles", "acheterArticle", "consulterFacture", "payerFacture"}) {
+            statistiques.put(operation, new StatistiquesOperation());
+        }
+    }
+
+    // Sessions
+
+    private void simulerClient(String clientId) {
+        while (enCours) {
+            try {
+                switch (choisirSession()) {
+                    case "consultation":
+                        for (int i = 0; i < 3 && enCours; i++) {
+                            consulterStock(referenceAleatoire());
+                            reflechir();
+                        }
+                        break;
+                    case "recherche":
+                        List<String> trouvees = rechercherArticles(familles.get(ThreadLocalRandom.current().nextInt(familles.size())));
+                        reflechir();
+                        for (int i = 0; i < Math.min(2, trouvees.size()) && enCours; i++) {
+                            consulterStock(trouvees.get(i));
+                            reflechir();
+                        }
+                        break;
+                    case "achat":
+                        String reference = referenceAleatoire();
+                        Article article = consulterStock(reference);
+                        reflechir();
+                        if (article != null && enCours) {
+                            acheterArticle(reference, 1 + ThreadLocalRandom.current().nextInt(3), clientId);
+                            reflechir();
+                        }
+                        break;
+                    default:
+                        Facture facture = consulterFacture(clientId);
+                        reflechir();
+                        if (facture != null && enCours) {
+                            payerFacture(clientId);
+                            reflechir();
+                        }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Article consulterStock(String reference) {
+        return appeler("consulterStock", () -> service.consulterStock(reference), a -> false);
+    }
+
+    private List<String> rechercherArticles(String famille) {
+        List<String> trouvees = appeler("rechercherArticles", () -> service.rechercherArticles(famille), r -> false);
+        return trouvees == null ? List.of() : trouvees;
+    }
+
+    private void acheterArticle(String reference, int quantite, String clientId) {
+        appeler("acheterArticle", () -> service.acheterArticle(reference, quantite, clientId), succes -> !succes);
+    }
+
+    private Facture consulterFacture(String clientId) {
+        return appeler("consulterFacture", () -> service.consulterFacture(clientId), f -> false);
+    }
+
+    private void payerFacture(String clientId) {
+        appeler("payerFacture", () -> service.payerFacture(clientId, "Carte bancaire"), succes -> !succes);
+    }
+
+    @FunctionalInterface
+    private interface Appel<T> {
+        T executer() throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface Refus<T> {
+        boolean estRefus(T resultat);
+    }
+
+    /**
+     * Appel mesure : latence dans l'histogramme de l'operation, resultat negatif compte comme refus
+     * Une exception, distante ou non (stub, deserialisation), compte comme erreur sans arreter le client simule.
+     */
+    private <T> T appeler(String operation, Appel<T> appel, Refus<T> refus) {
+        StatistiquesOperation stats = statistiques.get(operation);
+        attendreCreneau();
+        long debut = System.nanoTime();
+        try {
+            T resultat = appel.executer();
+            stats.histogramme.enregistrer(System.nanoTime() - debut);
+            if (refus.estRefus(resultat)) {
+                stats.refus.incrementAndGet();
+            }
+            return resultat;
+        } catch (RemoteException | RuntimeException e) {
+            stats.histogramme.enregistrer(System.nanoTime() - debut);
+            stats.erreurs.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Utilitaire
+
+    /**
+     * Limiteur de debit global : un creneau toutes les intervalleDebitNs, partage par tous les clients
+     */
+    private void attendreCreneau() {
+        if (intervalleDebitNs == 0) {
+            return;
+        }
+        long creneau = prochainCreneauNs.getAndAdd(intervalleDebitNs);
+        long attente = creneau - System.nanoTime();
+        if (attente > 0) {
+            LockSupport.parkNanos(attente);
+        } else if (attente < -1_000_000_000L) {
+            // Retard de plus d'une seconde (serveur sature) : ne pas rattraper en rafale
+            prochainCreneauNs.accumulateAndGet(System.nanoTime(), Math::max);
+        }
+    }
+
+    private void reflechir() throws InterruptedException {
+        if (reflexionMoyenneMs > 0) {
+            // Temps de reflexion exponentiel (arrivees de Poisson)
+            double tirage = -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            Thread.sleep((long) (tirage * reflexionMoyenneMs));
+        }
+    }
+
+    private String choisirSession() {
+        int tirage = ThreadLocalRandom.current().nextInt(mixCumule[mixCumule.length - 1]);
+        for (int i = 0; i < mixCumule.length; i++) {
+            if (tirage < mixCumule[i]) {
+                return SESSIONS[i];
+            }
+        }
+        return SESSIONS[SESSIONS.length - 1];
+    }
+
+    private String referenceAleatoire() {
+        return references.get(ThreadLocalRandom.current().nextInt(references.size()));
+    }
+
+    /**
+     * Un thread virtuel par client si la JVM le permet (Java 21+), sinon un thread plateforme par client
+     */
+    static ExecutorService executeurParTache() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private static final class StatistiquesOperation {
+        private final HistogrammeLatence histogramme = new HistogrammeLatence();
+        private final AtomicLong erreurs = new AtomicLong();
+        private final AtomicLong refus = new AtomicLong();
+    }
+
+    // Execution
+
+    public void executer(int nbClients, long dureeMs, long monteeMs) throws InterruptedException {
+        ExecutorService executeur = executeurParTache();
+        long debut = System.nanoTime();
+        for (int i = 0; i < nbClients; i++) {
+            // Montee en charge lineaire : le client i demarre a i/nbClients de la duree de montee
+            long delaiNs = nbClients > 1 ? monteeMs * 1_000_000L * i / nbClients : 0;
+            String clientId = "charge-" + i;
+            executeur.submit(() -> {
+                LockSupport.parkNanos(delaiNs - (System.nanoTime() - debut));
+                simulerClient(clientId);
+            });
+        }
+
+        long fin = debut + dureeMs * 1_000_000L;
+        long dernierTotal = 0;
+        long dernierInstant = debut;
+        while (System.nanoTime() < fin) {
+            Thread.sleep(Math.min(5000, Math.max(1, (fin - System.nanoTime()) / 1_000_000)));
+            long total = 0;
+            for (StatistiquesOperation stats : statistiques.values()) {
+                total += stats.histogramme.getNombre();
+            }
+            long instant = System.nanoTime();
+            System.out.printf("[%5.0fs] %d requetes (%.0f req/s sur la periode)%n",
+                    (instant - debut) / 1e9, total, (total - dernierTotal) * 1e9 / (instant - dernierInstant));
+            dernierTotal = total;
+            dernierInstant = instant;
+        }
+
+        enCours = false;
+        executeur.shutdown();
+        executeur.awaitTermination(30, TimeUnit.SECONDS);
+        afficherRapport((System.nanoTime() - debut) / 1_000_000);
+    }
+
+    private void afficherRapport(long dureeMs) {
+        System.out.println("\n=== RAPPORT DE CHARGE ===");
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s %8s %8s%n",
+                "Operation", "requetes", "req/s", "p50 (ms)", "p99 (ms)", "p999 (ms)", "max (ms)", "erreurs", "refus");
+        for (Map.Entry<String, StatistiquesOperation> entree : statistiques.entrySet()) {
+            HistogrammeLatence h = entree.getValue().histogramme;
+            System.out.printf("%-20s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %8d %8d%n",
+                    entree.getKey(), h.getNombre(), h.getNombre() * 1000.0 / dureeMs,
+                    h.percentileNs(50) / 1e6, h.percentileNs(99) / 1e6, h.percentileNs(99.9) / 1e6, h.getMaxNs() / 1e6,
+                    entree.getValue().erreurs.get(), entree.getValue().refus.get());
+        }
+    }
+
+    // Main
+
+    /**
+     * @param texte session:poids separes par des virgules (sessions absentes : poids 0)
+     * @return Le poids de chaque session dans l'ordre de SESSIONS, null si le mix est invalide (message sur la sortie d'erreur)
+     */
+    private static int[] lireMix(String texte) {
+        int[] mix = new int[SESSIONS.length];
+        int total = 0;
+        for (String part : texte.split(",")) {
+            String[] cleValeur = part.split(":");
+            int session = List.of(SESSIONS).indexOf(cleValeur[0].trim());
+            if (cleValeur.length != 2 || session < 0) {
+                System.err.println("Mix invalide: '" + part + "' (session:poids, sessions " + String.join(", ", SESSIONS) + ")");
+                return null;
+            }
+            try {
+                mix[session] = Integer.parseInt(cleValeur[1].trim());
+            } catch (NumberFormatException e) {
+                mix[session] = -1;
+            }
+            if (mix[session] < 0) {
+                System.err.println("Mix invalide: poids '" + cleValeur[1] + "' pour " + cleValeur[0] + " (entier positif ou nul)");
+                return null;
+            }
+            total += mix[session];
+        }
+        if (total == 0) {
+            System.err.println("Mix invalide: au moins une session doit avoir un poids non nul");
+            return null;
+        }
+        return mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "//localhost/BricoMerlinService";
+        int nbClients = 100;
+        long duree = 60;
+        long montee = 10;
+        double debit = 0;
+        long reflexion = 500;
+        int[] mix = {40, 20, 30, 10};
+        List<String> familles = List.of("Visserie", "Outillage", "Peinture");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--clients": nbClients = Integer.parseInt(args[++i]); break;
+                case "--duree": duree = Long.parseLong(args[++i]); break;
+                case "--montee": montee = Long.parseLong(args[++i]); break;
+                case "--debit": debit = Double.parseDouble(args[++i]); break;
+                case "--reflexion": reflexion = Long.parseLong(args[++i]); break;
+                case "--familles": familles = List.of(args[++i].split(",")); break;
+                case "--mix":
+                    mix = lireMix(args[++i]);
+                    if (mix == null) {
+                        System.exit(1);
+                    }
+                    break;
+                default:
+                    System.err.println("Option inconnue: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        BricoMerlinService service = (BricoMerlinService) Naming.lookup(url);
+
+        // Catalogue decouvert par famille (references en stock au demarrage)
+        List<String> references = new ArrayList<>();
+        for (String famille : familles) {
+            references.addAll(service.rechercherArticles(famille));
+        }
+        if (references.isEmpty()) {
+            System.err.println("Aucun article en stock dans les familles " + familles);
+            System.exit(1);
+        }
+
+        System.out.printf("%d clients sur %s, %d references, montee %ds, duree %ds, debit cible %s, reflexion %dms%n",
+                nbClients, url, references.size(), montee, duree, debit > 0 ? debit + " req/s" : "libre", reflexion);
+        new GenerateurCharge(service, references, familles, mix, reflexion, debit)
+                .executer(nbClients, duree * 1000, montee * 1000);
+        System.exit(0);
+    }
+}
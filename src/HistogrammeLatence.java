@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de latences sans verrou (nanosecondes), a seaux log-lineaires
+ * Chaque puissance de 2 est decoupee en 32 seaux : erreur relative sur les percentiles inferieure a 3 %
+ */
+public class HistogrammeLatence {
+
+    private static final int BITS_SOUS_SEAUX = 5;
+    private static final int SOUS_SEAUX = 1 << BITS_SOUS_SEAUX;
+    private static final int NB_SEAUX = 64 * SOUS_SEAUX;
+
+    private final AtomicLongArray seaux = new AtomicLongArray(NB_SEAUX);
+    private final AtomicLong nombre = new AtomicLong();
+    private final AtomicLong somme = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void enregistrer(long valeurNs) {
+        long valeur = Math.max(0, valeurNs);
+        seaux.incrementAndGet(indice(valeur));
+        nombre.incrementAndGet();
+        somme.addAndGet(valeur);
+        if (valeur > max.get()) {
+            max.accumulateAndGet(valeur, Math::max);
+        }
+    }
+
+    /**
+     * Ajoute le contenu d'un autre histogramme a celui-ci
+     */
+    public void ajouter(HistogrammeLatence autre) {
+        for (int i = 0; i < NB_SEAUX; i++) {
+            long n = autre.seaux.get(i);
+            if (n != 0) {
+                seaux.addAndGet(i, n);
+            }
+        }
+        nombre.addAndGet(autre.nombre.get());
+        somme.addAndGet(autre.somme.get());
+        max.accumulateAndGet(autre.max.get(), Math::max);
+    }
+
+    public void reinitialiser() {
+        for (int i = 0; i < NB_SEAUX; i++) {
+            seaux.set(i, 0);
+        }
+        nombre.set(0);
+        somme.set(0);
+        max.set(0);
+    }
+
+    // Lecture
+
+    public long getNombre() { return nombre.get(); }
+    public long getMaxNs() { return max.get(); }
+
+    public double getMoyenneNs() {
+        long n = nombre.get();
+        return n == 0 ? 0.0 : (double) somme.get() / n;
+    }
+
+    /**
+     * @param percentile Entre 0 et 100 (ex : 99.9)
+     * @return La borne haute du seau contenant ce percentile, en nanosecondes
+     */
+    public long percentileNs(double percentile) {
+        long total = 0;
+        for (int i = 0; i < NB_SEAUX; i++) {
+            total += seaux.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rang = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long cumul = 0;
+        for (int i = 0; i < NB_SEAUX; i++) {
+            cumul += seaux.get(i);
+            if (cumul >= rang) {
+                return Math.min(borneHaute(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Resume sur une ligne : nombre, moyenne et percentiles en microsecondes
+     */
+    public String resume() {
+        return String.format("n=%d moy=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                getNombre(), getMoyenneNs() / 1000.0, percentileNs(50) / 1000.0,
+                percentileNs(99) / 1000.0, percentileNs(99.9) / 1000.0, getMaxNs() / 1000.0);
+    }
+
+    // Utilitaire
+
+    private static int indice(long valeur) {
+        if (valeur < SOUS_SEAUX) {
+            return (int) valeur;
+        }
+        int exposant = 63 - Long.numberOfLeadingZeros(valeur);
+        int sousSeau = (int) (valeur >>> (exposant - BITS_SOUS_SEAUX)) & (SOUS_SEAUX - 1);
+        return (exposant - BITS_SOUS_SEAUX + 1) * SOUS_SEAUX + sousSeau;
+    }
+
+    private static long borneHaute(int indice) {
+        if (indice < SOUS_SEAUX) {
+            return indice;
+        }
+        int exposant = indice / SOUS_SEAUX + BITS_SOUS_SEAUX - 1;
+        long sousSeau = indice % SOUS_SEAUX;
+        long base = (1L << exposant) | (sousSeau << (exposant - BITS_SOUS_SEAUX));
+        return base + (1L << (exposant - BITS_SOUS_SEAUX)) - 1;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lecture en flux d'un bon de livraison CSV, applique par lots
+ * Une ligne par reference recue : reference;quantite[;famille;prix] (separateur ';', prix avec '.' ou ',').
+ * Une premiere ligne commencant par "reference" est un en-tete. Famille et prix ne servent qu'aux creations.
+ *
+ * Seul un lot est en memoire a la fois. Les lignes illisibles sont rejetees sans interrompre l'import ;
+ * les positions des rejets sont les numeros de ligne du fichier.
+ */
+public class ImportLivraison {
+
+    /**
+     * Applique un lot de lignes en une transaction (StockageBricoMerlin.reapprovisionner)
+     */
+    @FunctionalInterface
+    public interface AppliquerLot {
+        RapportImport appliquer(List<LigneLivraison> lot) throws SQLException;
+    }
+
+    private final int tailleLot;
+    private final AppliquerLot appliquer;
+
+    public ImportLivraison(int tailleLot, AppliquerLot appliquer) {
+        if (tailleLot <= 0) {
+            throw new IllegalArgumentException("Taille de lot invalide: " + tailleLot);
+        }
+        this.tailleLot = tailleLot;
+        this.appliquer = appliquer;
+    }
+
+    public RapportImport importer(BufferedReader lecteur) throws IOException, SQLException {
+        RapportImport rapport = new RapportImport();
+        List<LigneLivraison> lot = new ArrayList<>(tailleLot);
+        int[] numeros = new int[tailleLot];
+        int numero = 0;
+        String texte;
+        while ((texte = lecteur.readLine()) != null) {
+            numero++;
+            texte = texte.trim();
+            if (texte.isEmpty() || (numero == 1 && texte.toLowerCase(java.util.Locale.ROOT).startsWith("reference"))) {
+                continue;
+            }
+
+            LigneLivraison ligne;
+            try {
+                ligne = analyser(texte);
+            } catch (IllegalArgumentException e) {
+                rapport.rejeter(numero, texte.split(";", 2)[0], e.getMessage());
+                continue;
+            }
+            numeros[lot.size()] = numero;
+            lot.add(ligne);
+            if (lot.size() == tailleLot) {
+                appliquer(lot, numeros, rapport);
+            }
+        }
+        if (!lot.isEmpty()) {
+            appliquer(lot, numeros, rapport);
+        }
+        return rapport;
+    }
+
+    private void appliquer(List<LigneLivraison> lot, int[] numeros, RapportImport rapport) throws SQLException {
+        rapport.fusionner(appliquer.appliquer(lot), position -> numeros[position]);
+        lot.clear();
+    }
+
+    /**
+     * @throws IllegalArgumentException Ligne illisible (le message est le motif du rejet)
+     */
+    static LigneLivraison analyser(String texte) {
+        String[] champs = texte.split(";", -1);
+        if (champs.length != 2 && champs.length != 4) {
+            throw new IllegalArgumentException("nombre de champs invalide (" + champs.length + ")");
+        }
+        int quantite;
+        try {
+            quantite = Integer.parseInt(champs[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("quantite illisible: " + champs[1].trim());
+        }
+        if (champs.length == 2) {
+            return new LigneLivraison(champs[0].trim(), quantite);
+        }
+
+        String famille = champs[2].trim();
+        String prix = champs[3].trim().replace(',', '.');
+        try {
+            return new LigneLivraison(champs[0].trim(), quantite, famille.isEmpty() ? null : famille,
+                    prix.isEmpty() ? null : Double.valueOf(prix));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("prix illisible: " + champs[3].trim());
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Index de recherche du catalogue en memoire : recherche par debut de mot sur la reference et la famille,
+ * sans tenir compte de la casse ni des accents, avec filtres de prix et de stock
+ *
+ * Chaque article est indexe sous ses mots normalises (reference, famille, et mots de la famille), dans une
+ * liste triee de mots : les mots commencant par un prefixe sont un sous-intervalle de cette liste.
+ * Le mot le plus long de la recherche parcourt l'index ; les autres mots et les filtres sont verifies sur
+ * chaque candidat, jusqu'a la limite. Les resultats sont donc dans l'ordre de leur plus petit mot commencant
+ * par ce mot recherche, puis des references (sans mot recherche : tous les mots de l'index). Cet ordre (ordre())
+ * permet a ServiceRoute de fusionner les resultats des noeuds.
+ *
+ * Mis a jour au fil de l'eau : ajusterStock() apres chaque variation de stock, indexer() pour un article
+ * nouveau ou modifie. Les lectures ne prennent aucun verrou.
+ */
+public class IndexRecherche {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATEURS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Reference -> article indexe
+    private final ConcurrentHashMap<String, Entree> articles = new ConcurrentHashMap<>();
+    // Mot normalise -> references
+    private final ConcurrentSkipListMap<String, NavigableSet<String>> mots = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong nbRecherches = new AtomicLong();
+    private final AtomicLong nbCandidats = new AtomicLong();
+    private final AtomicLong nbMisesAJour = new AtomicLong();
+
+    private static final class Entree {
+        private final Article article;
+        private final String[] mots;
+
+        private Entree(Article article, String[] mots) {
+            this.article = article;
+            this.mots = mots;
+        }
+    }
+
+    // Mise a jour
+
+    /**
+     * Ajoute ou remplace un article (famille ou prix modifies : ses mots sont recalcules)
+     */
+    public void indexer(Article article) {
+        String[] motsArticle = motsArticle(article);
+        Entree ancienne = articles.put(article.getReference(), new Entree(article, motsArticle));
+        if (ancienne != null) {
+            for (String mot : ancienne.mots) {
+                NavigableSet<String> references = mots.get(mot);
+                if (references != null) {
+                    references.remove(article.getReference());
+                }
+            }
+        }
+        for (String mot : motsArticle) {
+            mots.computeIfAbsent(mot, m -> new ConcurrentSkipListSet<>()).add(article.getReference());
+        }
+        nbMisesAJour.incrementAndGet();
+    }
+
+    /**
+     * Reporte une variation de stock (sans effet si la reference n'est pas indexee)
+     */
+    public void ajusterStock(String reference, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        articles.computeIfPresent(reference, (r, entree) -> {
+            Article article = entree.article;
+            return new Entree(new Article(r, article.getFamille(), article.getPrixUnitaire(), article.getStockDisponible() + delta), entree.mots);
+        });
+        nbMisesAJour.incrementAndGet();
+    }
+
+    // Recherche
+
+    /**
+     * @param limite Nombre maximal d'articles rendus
+     * @return Les articles correspondant aux criteres, au plus limite
+     */
+    public List<Article> rechercher(CritereRecherche critere, int limite) {
+        nbRecherches.incrementAndGet();
+        List<String> termes = decouper(critere.getTexte());
+        List<Article> resultats = new ArrayList<>(Math.min(limite, 64));
+        if (limite <= 0) {
+            return resultats;
+        }
+
+        String principal = principal(termes);
+        Set<String> vus = new HashSet<>();
+        for (NavigableSet<String> references : prefixe(principal).values()) {
+            for (String reference : references) {
+                if (!vus.add(reference)) {
+                    continue;
+                }
+                Entree entree = articles.get(reference);
+                if (entree != null && retenir(entree, termes, critere)) {
+                    resultats.add(entree.article);
+                    if (resultats.size() == limite) {
+                        return resultats;
+                    }
+                }
+            }
+        }
+        return resultats;
+    }
+
+    /**
+     * Le terme le plus long a en general le moins de mots candidats (sans terme : tous les mots)
+     */
+    private static String principal(List<String> termes) {
+        return termes.isEmpty() ? "" : Collections.max(termes, (a, b) -> Integer.compare(a.length(), b.length()));
+    }
+
+    /**
+     * Ordre des resultats de rechercher() pour ces criteres : plus petit mot de l'article commencant par
+     * le terme principal, puis reference
+     */
+    static Comparator<Article> ordre(CritereRecherche critere) {
+        String principal = principal(decouper(critere.getTexte()));
+        Comparator<Article> parMot = Comparator.comparing(article -> {
+            String premier = null;
+            for (String mot : motsArticle(article)) {
+                if (mot.startsWith(principal) && (premier == null || mot.compareTo(premier) < 0)) {
+                    premier = mot;
+                }
+            }
+            return premier == null ? "" : premier;
+        });
+        return parMot.thenComparing(Article::getReference);
+    }
+
+    private NavigableMap<String, NavigableSet<String>> prefixe(String debut) {
+        return debut.isEmpty() ? mots : mots.subMap(debut, true, debut + Character.MAX_VALUE, false);
+    }
+
+    private boolean retenir(Entree entree, List<String> termes, CritereRecherche critere) {
+        nbCandidats.incrementAndGet();
+        Article article = entree.article;
+        if (critere.isEnStockSeulement() && article.getStockDisponible() <= 0) {
+            return false;
+        }
+        if (critere.getPrixMin() != null && article.getPrixUnitaire() < critere.getPrixMin()) {
+            return false;
+        }
+        if (critere.getPrixMax() != null && article.getPrixUnitaire() > critere.getPrixMax()) {
+            return false;
+        }
+        for (String terme : termes) {
+            boolean trouve = false;
+            for (String mot : entree.mots) {
+                if (mot.startsWith(terme)) {
+                    trouve = true;
+                    break;
+                }
+            }
+            if (!trouve) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Normalisation
+
+    /**
+     * Minuscules sans accents ("Électricité" -> "electricite")
+     */
+    static String normaliser(String texte) {
+        // Cas courant (references) : ASCII, sans decomposition a faire
+        boolean ascii = true;
+        for (int i = 0; i < texte.length() && ascii; i++) {
+            ascii = texte.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return texte.toLowerCase(Locale.ROOT);
+        }
+        return ACCENTS.matcher(Normalizer.normalize(texte, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> decouper(String texte) {
+        List<String> termes = new ArrayList<>();
+        if (texte == null) {
+            return termes;
+        }
+        for (String terme : SEPARATEURS.split(normaliser(texte))) {
+            if (!terme.isEmpty()) {
+                termes.add(terme);
+            }
+        }
+        return termes;
+    }
+
+    private static String[] motsArticle(Article article) {
+        Set<String> motsArticle = new LinkedHashSet<>();
+        motsArticle.add(normaliser(article.getReference()));
+        if (article.getFamille() != null) {
+            motsArticle.add(normaliser(article.getFamille()));
+            motsArticle.addAll(decouper(article.getFamille()));
+        }
+        return motsArticle.toArray(new String[0]);
+    }
+
+    // Statistiques
+
+    public int taille() {
+        return articles.size();
+    }
+
+    public String statistiques() {
+        long recherches = nbRecherches.get();
+        return String.format("IndexRecherche{articles=%d, mots=%d, recherches=%d, candidats/recherche=%.1f, mises a jour=%d}",
+                articles.size(), mots.size(), recherches, recherches == 0 ? 0.0 : (double) nbCandidats.get() / recherches, nbMisesAJour.get());
+    }
+}
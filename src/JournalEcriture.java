@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Journal d'ecriture anticipee (write-ahead log) en segments, avec validation groupee (group commit)
+ *
+ * Chaque enregistrement : longueur (int), CRC32 du contenu (int), numero de sequence (long), contenu.
+ * ajouter() ecrit l'enregistrement dans le segment courant et rend son numero ; attendreDurable() ne revient
+ * qu'une fois ce numero force sur disque. Un seul appelant a la fois fait le force() (le meneur), apres avoir
+ * attendu la fenetre de regroupement : tous les enregistrements ecrits entre-temps partagent le meme fsync.
+ *
+ * Segments : journal-<premiere sequence>.wal, changes au-dela de la taille maximale, supprimes par purger()
+ * une fois couverts par un instantane. A l'ouverture, le journal repart dans un nouveau segment ; un segment
+ * deja au nom de la prochaine sequence (premier enregistrement tronque par un arret brutal) est vide d'abord.
+ */
+public class JournalEcriture implements AutoCloseable {
+
+    private static final String PREFIXE_SEGMENT = "journal-";
+    private static final String SUFFIXE_SEGMENT = ".wal";
+    private static final int ENTETE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int TAILLE_MAX_ENREGISTREMENT = 16 * 1024 * 1024;
+
+    private final Path repertoire;
+    private final long tailleSegment;
+    private final boolean sync;
+    private final long fenetreNs;
+
+    // Ecriture, protegee par verrouEcriture
+    private final Object verrouEcriture = new Object();
+    private final CRC32 crc = new CRC32();
+    private FileChannel segment;
+    private long tailleCourante;
+    private long derniereSequence;
+    private boolean ferme = false;
+
+    // Validation groupee, protegee par verrouSync
+    private final Object verrouSync = new Object();
+    private long sequenceDurable;
+    private boolean syncEnCours = false;
+
+    // Statistiques
+    private final AtomicLong nbEnregistrements = new AtomicLong();
+    private final AtomicLong nbSyncs = new AtomicLong();
+    private final AtomicLong nbSegments = new AtomicLong();
+
+    /**
+     * Traite un enregistrement rejoue
+     */
+    @FunctionalInterface
+    public interface Lecteur {
+        void lire(long sequence, ByteBuffer contenu) throws IOException;
+    }
+
+    /**
+     * @param tailleSegment Taille au-dela de laquelle un nouveau segment est commence
+     * @param sync false pour ne jamais forcer sur disque (le systeme ecrit quand il veut)
+     * @param fenetreMicros Attente du meneur avant le force(), pour regrouper plus d'appelants (0 : aucune)
+     */
+    public JournalEcriture(Path repertoire, long tailleSegment, boolean sync, long fenetreMicros) throws IOException {
+        this.repertoire = repertoire;
+        this.tailleSegment = tailleSegment;
+        this.sync = sync;
+        this.fenetreNs = fenetreMicros * 1000;
+
+        Files.createDirectories(repertoire);
+        derniereSequence = rejouer(0, null);
+        sequenceDurable = derniereSequence;
+        segment = ouvrirSegment(derniereSequence + 1);
+        if (tailleCourante > 0) {
+            // Aucun enregistrement valide dans ce segment (sinon la sequence serait plus loin) : ajouter apres
+            // les octets tronques rendrait les nouveaux enregistrements illisibles au prochain rejeu
+            Log.erreur("Journal : segment ", derniereSequence + 1, " tronque des son premier enregistrement, ", tailleCourante, " octets ignores");
+            segment.truncate(0);
+            tailleCourante = 0;
+        }
+    }
+
+    // Ecriture
+
+    /**
+     * Ecrit un enregistrement dans le segment courant (sans attendre le disque)
+     * @return Son numero de sequence, a passer a attendreDurable()
+     */
+    public long ajouter(byte[] contenu) throws IOException {
+        ByteBuffer enregistrement = ByteBuffer.allocate(ENTETE + contenu.length);
+        synchronized (verrouEcriture) {
+            if (ferme) {
+                throw new IOException("Journal ferme");
+            }
+            if (tailleCourante >= tailleSegment) {
+                changerSegment();
+            }
+
+            long sequence = derniereSequence + 1;
+            crc.reset();
+            crc.update(contenu);
+            enregistrement.putInt(contenu.length).putInt((int) crc.getValue()).putLong(sequence).put(contenu).flip();
+            while (enregistrement.hasRemaining()) {
+                segment.write(enregistrement);
+            }
+            derniereSequence = sequence;
+            tailleCourante += ENTETE + contenu.length;
+            nbEnregistrements.incrementAndGet();
+            return sequence;
+        }
+    }
+
+    /**
+     * Attend que l'enregistrement soit sur disque, en partageant le fsync avec les appelants concurrents
+     */
+    public void attendreDurable(long sequence) throws IOException {
+        if (!sync) {
+            return;
+        }
+        synchronized (verrouSync) {
+            while (sequenceDurable < sequence) {
+                if (!syncEnCours) {
+                    syncEnCours = true;
+                    break;
+                }
+                try {
+                    verrouSync.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Attente du journal interrompue");
+                }
+            }
+            if (sequenceDurable >= sequence) {
+                return;
+            }
+        }
+
+        // Meneur : regrouper puis forcer tout ce qui est ecrit
+        long atteinte = 0;
+        try {
+            if (fenetreNs > 0) {
+                LockSupport.parkNanos(fenetreNs);
+            }
+            FileChannel canal;
+            synchronized (verrouEcriture) {
+                canal = segment;
+                atteinte = derniereSequence;
+            }
+            try {
+                canal.force(false);
+            } catch (ClosedChannelException e) {
+                // Segment ferme par un changement de segment, qui l'a force sur disque avant
+            }
+            nbSyncs.incrementAndGet();
+        } finally {
+            synchronized (verrouSync) {
+                sequenceDurable = Math.max(sequenceDurable, atteinte);
+                syncEnCours = false;
+                verrouSync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Fait repartir la numerotation apres une sequence deja couverte par un instantane
+     * (segments supprimes a la main) : un nouvel enregistrement ne doit pas etre ignore au prochain rejeu.
+     */
+    public void reprendreApres(long sequence) throws IOException {
+        synchronized (verrouEcriture) {
+            if (derniereSequence >= sequence) {
+                return;
+            }
+            derniereSequence = sequence;
+            changerSegment();
+        }
+        synchronized (verrouSync) {
+            sequenceDurable = Math.max(sequenceDurable, sequence);
+        }
+    }
+
+    public long getDerniereSequence() {
+        synchronized (verrouEcriture) {
+            return derniereSequence;
+        }
+    }
+
+    // Segments
+
+    private FileChannel ouvrirSegment(long premiereSequence) throws IOException {
+        Path fichier = repertoire.resolve(String.format("%s%020d%s", PREFIXE_SEGMENT, premiereSequence, SUFFIXE_SEGMENT));
+        FileChannel canal = FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        tailleCourante = canal.size();
+        nbSegments.incrementAndGet();
+        return canal;
+    }
+
+    private void changerSegment() throws IOException {
+        segment.force(false);
+        segment.close();
+        segment = ouvrirSegment(derniereSequence + 1);
+    }
+
+    private List<Path> listerSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> fichiers = Files.newDirectoryStream(repertoire, PREFIXE_SEGMENT + "*" + SUFFIXE_SEGMENT)) {
+            for (Path fichier : fichiers) {
+                segments.add(fichier);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long premiereSequence(Path segment) {
+        String nom = segment.getFileName().toString();
+        return Long.parseLong(nom.substring(PREFIXE_SEGMENT.length(), nom.length() - SUFFIXE_SEGMENT.length()));
+    }
+
+    /**
+     * Point de reprise : supprime les segments dont tous les enregistrements sont couverts par un instantane
+     * Le segment courant est d'abord change pour que l'ancien puisse etre supprime.
+     */
+    public void purger(long sequenceCouverte) throws IOException {
+        synchronized (verrouEcriture) {
+            if (tailleCourante > 0 && derniereSequence <= sequenceCouverte) {
+                changerSegment();
+            }
+        }
+        List<Path> segments = listerSegments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (premiereSequence(segments.get(i + 1)) - 1 <= sequenceCouverte) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    // Rejeu
+
+    /**
+     * Relit les enregistrements valides de numero superieur a apres, dans l'ordre
+     * La lecture d'un segment s'arrete au premier enregistrement tronque ou dont le CRC est faux
+     * (ecriture interrompue par un arret brutal) ; le segment suivant est lu normalement.
+     * @param lecteur null pour seulement trouver la derniere sequence
+     * @return La derniere sequence valide rencontree
+     */
+    public long rejouer(long apres, Lecteur lecteur) throws IOException {
+        long derniere = 0;
+        CRC32 controle = new CRC32();
+        ByteBuffer entete = ByteBuffer.allocate(ENTETE);
+        for (Path fichier : listerSegments()) {
+            derniere = Math.max(derniere, premiereSequence(fichier) - 1);
+            try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+                while (true) {
+                    entete.clear();
+                    if (!lireComplet(canal, entete)) {
+                        break;
+                    }
+                    entete.flip();
+                    int longueur = entete.getInt();
+                    int crcAttendu = entete.getInt();
+                    long sequence = entete.getLong();
+                    if (longueur < 0 || longueur > TAILLE_MAX_ENREGISTREMENT) {
+                        Log.erreur("Journal ", fichier.getFileName(), ": enregistrement invalide apres la sequence ", derniere);
+                        break;
+                    }
+
+                    ByteBuffer contenu = ByteBuffer.allocate(longueur);
+                    if (!lireComplet(canal, contenu)) {
+                        break;
+                    }
+                    controle.reset();
+                    controle.update(contenu.array());
+                    if ((int) controle.getValue() != crcAttendu) {
+                        Log.erreur("Journal ", fichier.getFileName(), ": CRC invalide pour la sequence ", sequence);
+                        break;
+                    }
+
+                    derniere = Math.max(derniere, sequence);
+                    if (lecteur != null && sequence > apres) {
+                        contenu.flip();
+                        lecteur.lire(sequence, contenu);
+                    }
+                }
+            }
+        }
+        return derniere;
+    }
+
+    private static boolean lireComplet(FileChannel canal, ByteBuffer tampon) throws IOException {
+        while (tampon.hasRemaining()) {
+            if (canal.read(tampon) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Statistiques
+
+    public long getNbEnregistrements() { return nbEnregistrements.get(); }
+    public long getNbSyncs() { return nbSyncs.get(); }
+
+    public String statistiques() {
+        long enregistrements = getNbEnregistrements();
+        long syncs = getNbSyncs();
+        return String.format("JournalEcriture{enregistrements=%d, fsync=%d, enregistrements/fsync=%.1f, segments ouverts=%d, sequence=%d}",
+                enregistrements, syncs, syncs == 0 ? 0.0 : (double) enregistrements / syncs, nbSegments.get(), getDerniereSequence());
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (verrouEcriture) {
+            if (ferme) {
+                return;
+            }
+            ferme = true;
+            segment.force(false);
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Dernieres modifications de stock du serveur, pour la verification des caches clients
+ * Chaque modification incremente la version ; les capacite dernieres references modifiees sont conservees
+ * dans un tampon circulaire. Un client plus en retard que le tampon doit vider tout son cache.
+ */
+public class JournalModifications {
+
+    private final String[] references;
+    private long version = 0;
+
+    public JournalModifications(int capacite) {
+        this.references = new String[capacite];
+    }
+
+    public synchronized void enregistrer(String reference) {
+        version++;
+        references[(int) (version % references.length)] = reference;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Les references modifiees apres depuisVersion (sans doublon), et la version courante
+     */
+    public synchronized ModificationsStock depuis(long depuisVersion) {
+        if (depuisVersion < 0 || depuisVersion > version || version - depuisVersion > references.length) {
+            return new ModificationsStock(version, new ArrayList<>(), false);
+        }
+        Set<String> modifiees = new LinkedHashSet<>();
+        for (long v = depuisVersion + 1; v <= version; v++) {
+            modifiees.add(references[(int) (v % references.length)]);
+        }
+        return new ModificationsStock(version, new ArrayList<>(modifiees), true);
+    }
+}
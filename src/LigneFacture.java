@@ -1,7 +1,27 @@
-public class LigneFacture implements java.io.Serializable {
-    private final String referenceArticle;
-    private final int quantite;
-    private final double prixUnitaire;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Ligne de facture ; encodage binaire explicite (voir Facture pour l'encodage des lignes d'une facture)
+ */
+public class LigneFacture implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final byte FORMAT = 1;
+
+    private String referenceArticle;
+    private int quantite;
+    private double prixUnitaire;
+
+    /**
+     * Reserve a la deserialisation
+     */
+    public LigneFacture() {
+    }
 
     public LigneFacture(String referenceArticle, int quantite, double prixUnitaire) {
         this.referenceArticle = referenceArticle;
@@ -17,6 +37,45 @@ public class LigneFacture implements java.io.Serializable {
         return quantite * prixUnitaire;
     }
 
+    // Encodage
+
+    @Override
+    public void writeExternal(ObjectOutput sortie) throws IOException {
+        sortie.writeByte(FORMAT);
+        sortie.writeUTF(referenceArticle);
+        ecrireValeurs(sortie);
+    }
+
+    @Override
+    public void readExternal(ObjectInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format < 1 || format > FORMAT) {
+            throw new InvalidClassException(LigneFacture.class.getName(), "format inconnu " + format);
+        }
+        referenceArticle = entree.readUTF();
+        lireValeurs(entree);
+    }
+
+    /**
+     * Quantite et prix, la reference etant encodee par l'appelant (dictionnaire de Facture)
+     */
+    void ecrireValeurs(DataOutput sortie) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, quantite);
+        sortie.writeDouble(prixUnitaire);
+    }
+
+    private void lireValeurs(DataInput entree) throws IOException {
+        quantite = CodecBinaire.lireVarInt(entree);
+        prixUnitaire = entree.readDouble();
+    }
+
+    static LigneFacture lire(DataInput entree, String referenceArticle) throws IOException {
+        LigneFacture ligne = new LigneFacture();
+        ligne.referenceArticle = referenceArticle;
+        ligne.lireValeurs(entree);
+        return ligne;
+    }
+
     @Override
     public String toString() {
         return String.format("LigneFacture{ref='%s', qte=%d, prix=%.2fe, sous-total=%.2fe}", referenceArticle, quantite, prixUnitaire, getSousTotal());
@@ -0,0 +1,57 @@
+/**
+ * Ligne d'un bon de livraison : quantite recue pour une reference
+ * Famille et prix ne servent qu'a creer l'article s'il n'est pas encore au catalogue.
+ */
+public class LigneLivraison implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String reference;
+    private final int quantite;
+    private final String famille;
+    private final Double prixUnitaire;
+
+    public LigneLivraison(String reference, int quantite) {
+        this(reference, quantite, null, null);
+    }
+
+    public LigneLivraison(String reference, int quantite, String famille, Double prixUnitaire) {
+        this.reference = reference;
+        this.quantite = quantite;
+        this.famille = famille;
+        this.prixUnitaire = prixUnitaire;
+    }
+
+    // Getters
+    public String getReference() { return reference; }
+    public int getQuantite() { return quantite; }
+    public String getFamille() { return famille; }
+    public Double getPrixUnitaire() { return prixUnitaire; }
+
+    /**
+     * @param existe true si la reference est deja au catalogue
+     * @param creerArticles true si une reference inconnue peut etre creee
+     * @return Le motif de rejet de la ligne, null si elle est acceptable
+     */
+    public String motifRejet(boolean existe, boolean creerArticles) {
+        if (reference == null || reference.isBlank()) {
+            return "reference vide";
+        }
+        if (quantite <= 0) {
+            return "quantite invalide";
+        }
+        if (existe) {
+            return null;
+        }
+        if (!creerArticles) {
+            return "reference inconnue";
+        }
+        if (famille == null || famille.isBlank() || prixUnitaire == null || prixUnitaire <= 0) {
+            return "famille ou prix manquant pour un nouvel article";
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LigneLivraison{ref='%s', qte=%d}", reference, quantite);
+    }
+}
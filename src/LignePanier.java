@@ -0,0 +1,19 @@
+public class LignePanier implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String reference;
+    private final int quantite;
+
+    public LignePanier(String reference, int quantite) {
+        this.reference = reference;
+        this.quantite = quantite;
+    }
+
+    // Getters
+    public String getReference() { return reference; }
+    public int getQuantite() { return quantite; }
+
+    @Override
+    public String toString() {
+        return String.format("LignePanier{ref='%s', qte=%d}", reference, quantite);
+    }
+}
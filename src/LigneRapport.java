@@ -0,0 +1,44 @@
+/**
+ * Ventes payees d'un groupe d'un rapport (une famille, une reference, un mode de paiement ou une heure)
+ * nbFactures compte les factures qui contiennent le groupe : le panier moyen d'une famille ou d'une reference
+ * est ce qu'une facture qui en contient y depense.
+ */
+public class LigneRapport implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String cle;
+    private final double montant;
+    private final long quantite;
+    private final long nbFactures;
+
+    public LigneRapport(String cle, double montant, long quantite, long nbFactures) {
+        this.cle = cle;
+        this.montant = montant;
+        this.quantite = quantite;
+        this.nbFactures = nbFactures;
+    }
+
+    // Getters
+    public String getCle() { return cle; }
+    public double getMontant() { return montant; }
+    public long getQuantite() { return quantite; }
+    public long getNbFactures() { return nbFactures; }
+
+    /**
+     * @return Montant moyen par facture, 0 sans facture
+     */
+    public double getPanierMoyen() {
+        return nbFactures == 0 ? 0 : montant / nbFactures;
+    }
+
+    /**
+     * @return Unites vendues en moyenne par facture, 0 sans facture
+     */
+    public double getArticlesParFacture() {
+        return nbFactures == 0 ? 0 : (double) quantite / nbFactures;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LigneRapport{cle='%s', montant=%.2fe, quantite=%d, factures=%d}", cle, montant, quantite, nbFactures);
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.UncheckedIOException;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Parcours des lignes d'une facture ouverte page par page (consulterLignesFacture)
+ * Une seule page est en memoire a la fois, de part et d'autre : la page suivante n'est demandee qu'une fois
+ * la precedente entierement parcourue.
+ *
+ * Les erreurs d'appel remontent en UncheckedIOException (cause : la RemoteException), et en IllegalStateException
+ * si la facture est payee pendant le parcours.
+ */
+public class LignesFactureDistantes implements Iterable<LigneFacture> {
+
+    private final BricoMerlinService service;
+    private final EnteteFacture entete;
+    private final int taillePage;
+
+    public LignesFactureDistantes(BricoMerlinService service, EnteteFacture entete, int taillePage) {
+        if (taillePage <= 0) {
+            throw new IllegalArgumentException("Taille de page invalide: " + taillePage);
+        }
+        this.service = service;
+        this.entete = entete;
+        this.taillePage = taillePage;
+    }
+
+    @Override
+    public Iterator<LigneFacture> iterator() {
+        return new Iterator<>() {
+            private List<LigneFacture> page = List.of();
+            private int position = 0;
+            private long curseur = 0;
+            private boolean derniere = false;
+
+            @Override
+            public boolean hasNext() {
+                while (position == page.size()) {
+                    if (derniere) {
+                        return false;
+                    }
+                    pageSuivante();
+                }
+                return true;
+            }
+
+            @Override
+            public LigneFacture next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(position++);
+            }
+
+            private void pageSuivante() {
+                PageLignesFacture suivante;
+                try {
+                    suivante = service.consulterLignesFacture(entete.getClientId(), entete.getNumero(), curseur, taillePage);
+                } catch (RemoteException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (suivante == null) {
+                    throw new IllegalStateException("La facture " + entete.getNumero() + " a ete payee pendant la lecture");
+                }
+                page = suivante.getLignes();
+                position = 0;
+                curseur = suivante.getCurseur();
+                derniere = suivante.isDerniere();
+            }
+        };
+    }
+}
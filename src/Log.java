@@ -0,0 +1,120 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Journalisation console asynchrone du serveur
+ * Les appelants ne font que deposer les morceaux du message dans une file bornee : la concatenation
+ * et l'ecriture (synchronisee) sur la console se font dans un thread dedie. Si la file est pleine,
+ * le message est abandonne et compte, pour ne jamais bloquer un appel du service.
+ *
+ * Niveau minimal : -Dbricomerlin.log.niveau=DEBUG|INFO|ERREUR|AUCUN (INFO par defaut)
+ */
+public final class Log {
+
+    public enum Niveau { DEBUG, INFO, ERREUR, AUCUN }
+
+    private static volatile Niveau niveau = Niveau.valueOf(System.getProperty("bricomerlin.log.niveau", "INFO"));
+    private static final BlockingQueue<Message> file = new ArrayBlockingQueue<>(Integer.getInteger("bricomerlin.log.capacite", 8192));
+    private static final AtomicLong perdus = new AtomicLong();
+
+    static {
+        Thread ecrivain = new Thread(Log::ecrire, "log-ecrivain");
+        ecrivain.setDaemon(true);
+        ecrivain.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::vider, "log-vidage"));
+    }
+
+    private Log() {
+    }
+
+    public static void setNiveau(Niveau nouveau) { niveau = nouveau; }
+    public static Niveau getNiveau() { return niveau; }
+    public static long getNbPerdus() { return perdus.get(); }
+
+    public static boolean estActif(Niveau n) {
+        return n.compareTo(niveau) >= 0 && n != Niveau.AUCUN;
+    }
+
+    // Ecriture
+
+    public static void debug(Object... morceaux) {
+        deposer(Niveau.DEBUG, morceaux);
+    }
+
+    public static void info(Object... morceaux) {
+        deposer(Niveau.INFO, morceaux);
+    }
+
+    /**
+     * Un Throwable en dernier morceau est affiche avec sa pile d'appels
+     */
+    public static void erreur(Object... morceaux) {
+        deposer(Niveau.ERREUR, morceaux);
+    }
+
+    private static void deposer(Niveau n, Object[] morceaux) {
+        if (estActif(n) && !file.offer(new Message(n, morceaux))) {
+            perdus.incrementAndGet();
+        }
+    }
+
+    // Thread d'ecriture
+
+    private static void ecrire() {
+        StringBuilder tampon = new StringBuilder(256);
+        while (true) {
+            try {
+                afficher(file.take(), tampon);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ecrit immediatement les messages en attente (arret du serveur)
+     */
+    public static void vider() {
+        List<Message> restants = new ArrayList<>();
+        file.drainTo(restants);
+        StringBuilder tampon = new StringBuilder(256);
+        for (Message message : restants) {
+            afficher(message, tampon);
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    private static void afficher(Message message, StringBuilder tampon) {
+        tampon.setLength(0);
+        Throwable exception = null;
+        Object[] morceaux = message.morceaux;
+        for (int i = 0; i < morceaux.length; i++) {
+            if (i == morceaux.length - 1 && morceaux[i] instanceof Throwable) {
+                exception = (Throwable) morceaux[i];
+            } else {
+                tampon.append(morceaux[i]);
+            }
+        }
+
+        PrintStream sortie = message.niveau == Niveau.ERREUR ? System.err : System.out;
+        sortie.println(tampon);
+        if (exception != null) {
+            exception.printStackTrace(sortie);
+        }
+    }
+
+    private static final class Message {
+        private final Niveau niveau;
+        private final Object[] morceaux;
+
+        private Message(Niveau niveau, Object[] morceaux) {
+            this.niveau = niveau;
+            this.morceaux = morceaux;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outils de maintenance hors ligne de la base Brico-Merlin
+ * A lancer de preference serveur arrete : java MaintenanceBDD <commande> [options]
+ */
+public class MaintenanceBDD {
+
+    // Agregat du chiffre d'affaires journalier recalcule depuis les factures payees (partage avec MigrationsSchema)
+    static final String INSERT_AGREGAT_CHIFFRE_AFFAIRES = """
+        INSERT INTO chiffre_affaires_journalier (jour, mode_paiement, montant, nb_factures)
+        SELECT DATE(date_facturation), COALESCE(mode_paiement, ''), SUM(montant_total), COUNT(*)
+        FROM factures
+        WHERE payee = true
+        GROUP BY DATE(date_facturation), COALESCE(mode_paiement, '')
+    """;
+
+    private static final int REJETS_AFFICHES = 50;
+
+    private final Connection connection;
+
+    public MaintenanceBDD(Connection connection) {
+        this.connection = connection;
+    }
+
+    // Commandes
+
+    /**
+     * Compare le montant_total de chaque facture a la somme de ses lignes
+     * @param reparer true pour recalculer les montants en ecart
+     * @return Le nombre de factures en ecart
+     */
+    public int verifierFactures(boolean reparer) throws SQLException {
+        String query = """
+            SELECT f.id, f.client_id, f.montant_total,
+                   COALESCE(SUM(l.quantite * l.prix_unitaire), 0) AS montant_lignes
+            FROM factures f
+            LEFT JOIN lignes_facture l ON l.facture_id = f.id
+            GROUP BY f.id, f.client_id, f.montant_total
+            HAVING f.montant_total <> montant_lignes
+        """;
+
+        List<Integer> enEcart = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery(query);
+            while (rs.next()) {
+                enEcart.add(rs.getInt("id"));
+                System.out.printf("Facture %d (client %s): montant_total=%s, somme des lignes=%s%n",
+                        rs.getInt("id"), rs.getString("client_id"),
+                        rs.getBigDecimal("montant_total"), rs.getBigDecimal("montant_lignes"));
+            }
+        }
+        System.out.println(enEcart.size() + " facture(s) en ecart");
+
+        if (reparer && !enEcart.isEmpty()) {
+            String repare = "UPDATE factures SET montant_total = (SELECT COALESCE(SUM(quantite * prix_unitaire), 0) FROM lignes_facture WHERE facture_id = ?) WHERE id = ?";
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(repare)) {
+                for (int id : enEcart) {
+                    stmt.setInt(1, id);
+                    stmt.setInt(2, id);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                connection.commit();
+                System.out.println(enEcart.size() + " facture(s) reparee(s)");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        return enEcart.size();
+    }
+
+    /**
+     * Reconstruit l'agregat chiffre_affaires_journalier a partir des factures payees
+     * @return Le nombre de lignes (jour, mode de paiement) de l'agregat
+     */
+    public int reconstruireChiffreAffaires() throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM chiffre_affaires_journalier");
+            int lignes = stmt.executeUpdate(INSERT_AGREGAT_CHIFFRE_AFFAIRES);
+            connection.commit();
+            System.out.println("Chiffre d'affaires journalier reconstruit: " + lignes + " ligne(s)");
+            return lignes;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Importe un bon de livraison CSV (voir ImportLivraison) : stock ajoute, articles crees si creerArticles
+     * @param tailleLot Lignes par transaction
+     * @return Le bilan de l'import
+     */
+    public RapportImport importerLivraison(Path fichier, int tailleLot, boolean creerArticles) throws IOException, SQLException {
+        ImportLivraison importLivraison = new ImportLivraison(tailleLot,
+                lot -> StockageMySQL.reapprovisionner(connection, lot, creerArticles, null));
+        long debut = System.nanoTime();
+        RapportImport rapport;
+        try (BufferedReader lecteur = Files.newBufferedReader(fichier, StandardCharsets.UTF_8)) {
+            rapport = importLivraison.importer(lecteur);
+        }
+        double secondes = (System.nanoTime() - debut) / 1e9;
+
+        List<RapportImport.Rejet> rejets = rapport.getRejets();
+        for (RapportImport.Rejet rejet : rejets.subList(0, Math.min(rejets.size(), REJETS_AFFICHES))) {
+            System.out.println("Rejet " + rejet);
+        }
+        if (rejets.size() > REJETS_AFFICHES) {
+            System.out.println("... et " + (rejets.size() - REJETS_AFFICHES) + " autre(s) rejet(s)");
+        }
+        System.out.printf("%d ligne(s) lue(s), %d appliquee(s), %d article(s) cree(s), %d rejet(s) en %.2f s (%.0f lignes/s)%n",
+                rapport.getNbLignes(), rapport.getNbAppliquees(), rapport.getNbCreations(), rejets.size(), secondes,
+                rapport.getNbLignes() / Math.max(secondes, 1e-9));
+        return rapport;
+    }
+
+    // Main
+
+    private static void afficherUsage() {
+        System.out.println("Usage: java MaintenanceBDD <commande> [options]");
+        System.out.println("  verifier-factures [--reparer]   Controle montant_total = somme des lignes de chaque facture");
+        System.out.println("  reconstruire-ca                 Reconstruit le chiffre d'affaires journalier depuis les factures payees");
+        System.out.println("  migrer                          Applique les migrations de schema en attente");
+        System.out.println("  importer <fichier.csv> [--taille-lot N] [--creer]");
+        System.out.println("                                  Ajoute le stock d'un bon de livraison (reference;quantite[;famille;prix]),");
+        System.out.println("                                  --creer : cree les references inconnues (famille et prix requis)");
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            afficherUsage();
+            System.exit(1);
+        }
+
+        List<String> options = List.of(args).subList(1, args.length);
+        int code = 0;
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+            try (Connection connection = DriverManager.getConnection(
+                    StockageMySQL.urlBase(),
+                    StockageMySQL.DB_USER, StockageMySQL.DB_PASSWORD)) {
+                MaintenanceBDD maintenance = new MaintenanceBDD(connection);
+                switch (args[0]) {
+                    case "verifier-factures":
+                        boolean reparer = options.contains("--reparer");
+                        int enEcart = maintenance.verifierFactures(reparer);
+                        code = enEcart > 0 && !reparer ? 2 : 0;
+                        break;
+                    case "reconstruire-ca":
+                        maintenance.reconstruireChiffreAffaires();
+                        break;
+                    case "migrer":
+                        new MigrationsSchema().appliquer(connection);
+                        break;
+                    case "importer":
+                        if (options.isEmpty()) {
+                            afficherUsage();
+                            code = 1;
+                            break;
+                        }
+                        int index = options.indexOf("--taille-lot");
+                        int tailleLot = index >= 0 ? Integer.parseInt(options.get(index + 1)) : 1000;
+                        RapportImport rapport = maintenance.importerLivraison(Paths.get(options.get(0)), tailleLot, options.contains("--creer"));
+                        code = rapport.getRejets().isEmpty() ? 0 : 2;
+                        break;
+                    default:
+                        afficherUsage();
+                        code = 1;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Erreur lors de la maintenance: " + e.getMessage());
+            e.printStackTrace();
+            code = 1;
+        }
+        System.exit(code);
+    }
+}
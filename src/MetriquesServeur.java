@@ -0,0 +1,213 @@
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+
+/**
+ * Metriques du serveur : nombre d'appels, d'erreurs et histogramme de latence par operation du service,
+ * et temps d'execution de chaque requete SQL (alimente par PoolConnexions)
+ * Exposees par JMX et par un instantane texte periodique dans le Log.
+ */
+public class MetriquesServeur implements MetriquesServeurMBean, PoolConnexions.ObservateurSql {
+
+    // Liste de parametres d'un IN : sans normalisation, chaque taille de liste serait une requete differente
+    private static final Pattern LISTE_PARAMETRES = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern ESPACES = Pattern.compile("\\s+");
+
+    private final Map<String, Metrique> operations = new ConcurrentHashMap<>();
+    private final Map<String, Metrique> requetesSql = new ConcurrentHashMap<>();
+    private final List<Supplier<String>> sources = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService instantanes;
+
+    /**
+     * Compteurs d'une operation ou d'une requete
+     */
+    public static final class Metrique {
+        private final AtomicLong appels = new AtomicLong();
+        private final AtomicLong erreurs = new AtomicLong();
+        private final HistogrammeLatence latences = new HistogrammeLatence();
+
+        public void enregistrer(long dureeNs, boolean erreur) {
+            appels.incrementAndGet();
+            if (erreur) {
+                erreurs.incrementAndGet();
+            }
+            latences.enregistrer(dureeNs);
+        }
+
+        public long getNbAppels() { return appels.get(); }
+        public long getNbErreurs() { return erreurs.get(); }
+        public HistogrammeLatence getLatences() { return latences; }
+    }
+
+    public Metrique operation(String nom) {
+        return operations.computeIfAbsent(nom, n -> new Metrique());
+    }
+
+    @Override
+    public void requeteExecutee(String sql, long dureeNs, boolean erreur) {
+        requetesSql.computeIfAbsent(normaliser(sql), s -> new Metrique()).enregistrer(dureeNs, erreur);
+    }
+
+    /**
+     * Cle d'une requete SQL : espaces reduits et listes IN (?, ?, ...) ramenees a IN (?...), quelle que soit leur taille
+     */
+    static String normaliser(String sql) {
+        String texte = ESPACES.matcher(sql).replaceAll(" ").trim();
+        return LISTE_PARAMETRES.matcher(texte).replaceAll("IN (?...)");
+    }
+
+    /**
+     * Ajoute une ligne a l'instantane (statistiques du pool, du cache...)
+     */
+    public void ajouterSource(Supplier<String> source) {
+        sources.add(source);
+    }
+
+    // Instrumentation
+
+    /**
+     * Enveloppe le service : chaque appel d'une methode de l'interface est compte et chronometre
+     * Une exception levee par la methode est comptee comme erreur puis propagee telle quelle.
+     */
+    public BricoMerlinService instrumenter(BricoMerlinService cible) {
+        return instrumenter(cible, BricoMerlinService.class);
+    }
+
+    /**
+     * Enveloppe une autre interface distante du serveur (NoeudBricoMerlin) : le proxy n'expose que cette interface
+     */
+    public <T> T instrumenter(T cible, Class<T> type) {
+        InvocationHandler mesure = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(cible, args);
+            }
+            Metrique metrique = operation(method.getName());
+            long debut = System.nanoTime();
+            boolean erreur = true;
+            try {
+                Object resultat = method.invoke(cible, args);
+                erreur = false;
+                return resultat;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                metrique.enregistrer(System.nanoTime() - debut, erreur);
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, mesure));
+    }
+
+    // Exposition
+
+    public void enregistrerJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("bricomerlin:type=MetriquesServeur"));
+        } catch (Exception e) {
+            Log.erreur("Impossible d'enregistrer les metriques JMX: ", e.getMessage());
+        }
+    }
+
+    /**
+     * Ecrit l'instantane dans le Log toutes les intervalleSecondes secondes
+     */
+    public synchronized void demarrerInstantanes(long intervalleSecondes) {
+        if (intervalleSecondes <= 0 || instantanes != null) {
+            return;
+        }
+        instantanes = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metriques-instantanes");
+            t.setDaemon(true);
+            return t;
+        });
+        instantanes.scheduleAtFixedRate(() -> Log.info(getInstantane()), intervalleSecondes, intervalleSecondes, TimeUnit.SECONDS);
+    }
+
+    public synchronized void arreter() {
+        if (instantanes != null) {
+            instantanes.shutdownNow();
+        }
+    }
+
+    // MBean
+
+    @Override
+    public String getInstantane() {
+        StringBuilder texte = new StringBuilder("=== METRIQUES DU SERVEUR ===\n");
+        texte.append(String.format("%-32s %10s %8s %s%n", "Operation", "appels", "erreurs", "latence"));
+        for (Map.Entry<String, Metrique> entree : new TreeMap<>(operations).entrySet()) {
+            Metrique m = entree.getValue();
+            texte.append(String.format("%-32s %10d %8d %s%n", entree.getKey(), m.getNbAppels(), m.getNbErreurs(), m.latences.resume()));
+        }
+        texte.append("--- Requetes SQL ---\n");
+        for (Map.Entry<String, Metrique> entree : new TreeMap<>(requetesSql).entrySet()) {
+            Metrique m = entree.getValue();
+            texte.append(String.format("%10d %8d %s | %s%n", m.getNbAppels(), m.getNbErreurs(), m.latences.resume(), entree.getKey()));
+        }
+        for (Supplier<String> source : sources) {
+            texte.append(source.get()).append('\n');
+        }
+        texte.append("Log{messages perdus=").append(Log.getNbPerdus()).append('}');
+        return texte.toString();
+    }
+
+    @Override
+    public String[] getOperations() {
+        List<String> noms = new ArrayList<>(new TreeMap<>(operations).keySet());
+        return noms.toArray(new String[0]);
+    }
+
+    @Override
+    public long getNbAppelsTotal() {
+        return operations.values().stream().mapToLong(Metrique::getNbAppels).sum();
+    }
+
+    @Override
+    public long getNbErreursTotal() {
+        return operations.values().stream().mapToLong(Metrique::getNbErreurs).sum();
+    }
+
+    @Override
+    public long nbAppels(String operation) {
+        Metrique m = operations.get(operation);
+        return m == null ? 0 : m.getNbAppels();
+    }
+
+    @Override
+    public long nbErreurs(String operation) {
+        Metrique m = operations.get(operation);
+        return m == null ? 0 : m.getNbErreurs();
+    }
+
+    @Override
+    public double latenceMoyenneMs(String operation) {
+        Metrique m = operations.get(operation);
+        return m == null ? 0.0 : m.latences.getMoyenneNs() / 1e6;
+    }
+
+    @Override
+    public double latencePercentileMs(String operation, double percentile) {
+        Metrique m = operations.get(operation);
+        return m == null ? 0.0 : m.latences.percentileNs(percentile) / 1e6;
+    }
+
+    @Override
+    public void reinitialiser() {
+        operations.clear();
+        requetesSql.clear();
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Vue JMX des metriques du serveur (bricomerlin:type=MetriquesServeur)
+ */
+public interface MetriquesServeurMBean {
+
+    /**
+     * @return L'instantane texte complet (operations, requetes SQL, pool, cache...)
+     */
+    String getInstantane();
+
+    String[] getOperations();
+
+    long getNbAppelsTotal();
+
+    long getNbErreursTotal();
+
+    long nbAppels(String operation);
+
+    long nbErreurs(String operation);
+
+    double latenceMoyenneMs(String operation);
+
+    double latencePercentileMs(String operation, double percentile);
+
+    void reinitialiser();
+}
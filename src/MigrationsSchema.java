@@ -0,0 +1,254 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Migrations versionnees du schema de la base
+ * La version appliquee est enregistree dans schema_version ; seules les migrations plus recentes sont executees.
+ * Une migration deja publiee ne doit plus etre modifiee : ajouter une nouvelle version a la fin de la liste.
+ */
+public class MigrationsSchema {
+
+    private static final String VERROU = "bricomerlin_migrations";
+    private static final int DELAI_VERROU_SECONDES = 60;
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Tables articles, factures et lignes_facture",
+                    """
+                    CREATE TABLE IF NOT EXISTS articles (
+                        reference VARCHAR(50) PRIMARY KEY,
+                        famille VARCHAR(100) NOT NULL,
+                        prix_unitaire DECIMAL(10,2) NOT NULL,
+                        stock_disponible INT NOT NULL DEFAULT 0
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS factures (
+                        id INT AUTO_INCREMENT PRIMARY KEY,
+                        client_id VARCHAR(100) NOT NULL,
+                        montant_total DECIMAL(10,2) NOT NULL,
+                        mode_paiement VARCHAR(50),
+                        date_facturation DATETIME NOT NULL,
+                        date_paiement DATETIME DEFAULT NULL,
+                        payee BOOLEAN DEFAULT FALSE
+                    )
+                    """,
+                    """
+                    CREATE TABLE IF NOT EXISTS lignes_facture (
+                        id INT AUTO_INCREMENT PRIMARY KEY,
+                        facture_id INT,
+                        reference_article VARCHAR(50),
+                        quantite INT NOT NULL,
+                        prix_unitaire DECIMAL(10,2) NOT NULL,
+                        FOREIGN KEY (facture_id) REFERENCES factures(id),
+                        FOREIGN KEY (reference_article) REFERENCES articles(reference)
+                    )
+                    """),
+            new Migration(2, "Sequence du journal du moteur de stock",
+                    """
+                    CREATE TABLE IF NOT EXISTS moteur_stock_sequence (
+                        id TINYINT PRIMARY KEY,
+                        sequence BIGINT NOT NULL
+                    )
+                    """),
+            new Migration(3, "Agregat chiffre_affaires_journalier",
+                    """
+                    CREATE TABLE IF NOT EXISTS chiffre_affaires_journalier (
+                        jour DATE NOT NULL,
+                        mode_paiement VARCHAR(50) NOT NULL,
+                        montant DECIMAL(14,2) NOT NULL DEFAULT 0,
+                        nb_factures INT NOT NULL DEFAULT 0,
+                        PRIMARY KEY (jour, mode_paiement)
+                    )
+                    """,
+                    // Reconstruit depuis les factures deja payees (idempotent)
+                    "DELETE FROM chiffre_affaires_journalier",
+                    MaintenanceBDD.INSERT_AGREGAT_CHIFFRE_AFFAIRES),
+            new Migration(4, "Index couvrants des requetes frequentes",
+                    // rechercherArticles : famille = ? AND stock_disponible > 0 (la cle primaire reference est incluse)
+                    "CREATE INDEX idx_articles_famille_stock ON articles (famille, stock_disponible)",
+                    // consulterFacture, obtenirOuCreerFacture, payerFacture : client_id = ? AND payee = false
+                    "CREATE INDEX idx_factures_client_payee ON factures (client_id, payee)",
+                    // Reconstruction du chiffre d'affaires et requetes par periode
+                    "CREATE INDEX idx_factures_date_payee ON factures (date_facturation, payee, montant_total)",
+                    // Lignes d'une facture, dans l'ordre d'insertion, sans lecture de la table
+                    "CREATE INDEX idx_lignes_facture_facture ON lignes_facture (facture_id, id, reference_article, quantite, prix_unitaire)"),
+            new Migration(5, "Lignes de facture d'articles d'un autre noeud",
+                    // Avec plusieurs noeuds, la facture d'un client peut porter des articles que sa base ne contient pas
+                    // (cle etrangere reference_article -> articles ; son index reste en place).
+                    // Le nom de la contrainte est genere par InnoDB : il est lu dans information_schema.
+                    """
+                    SET @contrainte = (SELECT CONSTRAINT_NAME FROM information_schema.KEY_COLUMN_USAGE
+                        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'lignes_facture'
+                        AND COLUMN_NAME = 'reference_article' AND REFERENCED_TABLE_NAME = 'articles' LIMIT 1)
+                    """,
+                    "SET @suppression = IF(@contrainte IS NULL, 'DO 0', CONCAT('ALTER TABLE lignes_facture DROP FOREIGN KEY `', @contrainte, '`'))",
+                    "PREPARE suppression FROM @suppression",
+                    "EXECUTE suppression",
+                    "DEALLOCATE PREPARE suppression"),
+            new Migration(6, "Battement de replication (retard des repliques de lecture)",
+                    """
+                    CREATE TABLE IF NOT EXISTS replication_battement (
+                        id TINYINT PRIMARY KEY,
+                        horodatage BIGINT NOT NULL
+                    )
+                    """),
+            new Migration(7, "Requetes idempotentes deja traitees",
+                    // Ecrite dans la transaction de l'achat ou du paiement : une requete rejouee n'est jamais appliquee deux fois
+                    """
+                    CREATE TABLE IF NOT EXISTS requetes_traitees (
+                        cle VARCHAR(160) PRIMARY KEY,
+                        resultat VARBINARY(4096) NOT NULL,
+                        horodatage BIGINT NOT NULL,
+                        INDEX idx_requetes_traitees_horodatage (horodatage)
+                    )
+                    """),
+            new Migration(8, "Reservations en cours",
+                    // Ecrite dans la transaction qui retire le stock : les reservations et leur echeance survivent a un redemarrage
+                    """
+                    CREATE TABLE IF NOT EXISTS reservations (
+                        id BIGINT PRIMARY KEY,
+                        reference VARCHAR(50) NOT NULL,
+                        quantite INT NOT NULL,
+                        client_id VARCHAR(100) NOT NULL,
+                        prix_unitaire DECIMAL(10,2) NOT NULL,
+                        expiration BIGINT NOT NULL
+                    )
+                    """),
+            new Migration(9, "Resultats des requetes idempotentes sans limite de 4 Ko",
+                    // Le bilan d'un lot de reapprovisionnement (avec ses rejets) est enregistre dans la transaction du lot
+                    "ALTER TABLE requetes_traitees MODIFY resultat MEDIUMBLOB NOT NULL"),
+            new Migration(10, "Une seule facture ouverte par client",
+                    // Factures ouvertes en double (achats simultanes d'un meme client) : les lignes passent sur la plus ancienne
+                    """
+                    UPDATE lignes_facture l
+                    JOIN factures f ON f.id = l.facture_id AND f.payee = false
+                    JOIN (SELECT client_id, MIN(id) AS gardee FROM factures WHERE payee = false
+                          GROUP BY client_id HAVING COUNT(*) > 1) d ON d.client_id = f.client_id
+                    SET l.facture_id = d.gardee
+                    """,
+                    """
+                    UPDATE factures f
+                    JOIN (SELECT facture_id, SUM(quantite * prix_unitaire) AS total FROM lignes_facture GROUP BY facture_id) t
+                        ON t.facture_id = f.id
+                    SET f.montant_total = t.total
+                    WHERE f.payee = false
+                    """,
+                    """
+                    DELETE f FROM factures f
+                    JOIN (SELECT client_id, MIN(id) AS gardee FROM factures WHERE payee = false GROUP BY client_id) d
+                        ON d.client_id = f.client_id
+                    WHERE f.payee = false AND f.id <> d.gardee
+                    """,
+                    // obtenirOuCreerFacture : une deuxieme facture ouverte creee en meme temps est refusee par la cle unique
+                    """
+                    ALTER TABLE factures
+                        ADD COLUMN client_ouvert VARCHAR(100) AS (IF(payee = false, client_id, NULL)) STORED,
+                        ADD UNIQUE INDEX uq_factures_client_ouvert (client_ouvert)
+                    """)
+    );
+
+    /**
+     * @return La version la plus recente connue de cette version du serveur
+     */
+    public static int versionCible() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    /**
+     * Applique les migrations en attente, sous un verrou nomme (plusieurs serveurs peuvent demarrer en meme temps)
+     * @return Le nombre de migrations appliquees
+     */
+    public int appliquer(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("""
+                CREATE TABLE IF NOT EXISTS schema_version (
+                    version INT PRIMARY KEY,
+                    description VARCHAR(200) NOT NULL,
+                    date_application DATETIME NOT NULL
+                )
+            """);
+        }
+
+        prendreVerrou(connection);
+        try {
+            int versionCourante = versionCourante(connection);
+            int appliquees = 0;
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version > versionCourante) {
+                    appliquer(connection, migration);
+                    appliquees++;
+                }
+            }
+            Log.info("Schema de la base en version ", Math.max(versionCourante, versionCible()), " (", appliquees, " migration(s) appliquee(s))");
+            return appliquees;
+        } finally {
+            libererVerrou(connection);
+        }
+    }
+
+    public int versionCourante(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // Utilitaire
+
+    /**
+     * Les DDL MySQL sont validees implicitement : une migration interrompue doit etre corrigee a la main
+     * avant de relancer le serveur (elle n'est enregistree qu'une fois toutes ses requetes executees)
+     */
+    private void appliquer(Connection connection, Migration migration) throws SQLException {
+        Log.info("Migration ", migration.version, ": ", migration.description, "...");
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : migration.requetes) {
+                stmt.execute(sql);
+            }
+        }
+
+        String insertVersion = "INSERT INTO schema_version (version, description, date_application) VALUES (?, ?, NOW())";
+        try (PreparedStatement stmt = connection.prepareStatement(insertVersion)) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void prendreVerrou(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, VERROU);
+            stmt.setInt(2, DELAI_VERROU_SECONDES);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next() || rs.getInt(1) != 1) {
+                throw new SQLException("Impossible d'obtenir le verrou des migrations apres " + DELAI_VERROU_SECONDES + " s");
+            }
+        }
+    }
+
+    private void libererVerrou(Connection connection) {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, VERROU);
+            stmt.executeQuery();
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la liberation du verrou des migrations: ", e.getMessage());
+        }
+    }
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final String[] requetes;
+
+        private Migration(int version, String description, String... requetes) {
+            this.version = version;
+            this.description = description;
+            this.requetes = requetes;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.List;
+
+/**
+ * References dont le stock a change depuis une version (consulterModifications)
+ */
+public class ModificationsStock implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final long version;
+    private final List<String> references;
+    private final boolean complet;
+
+    /**
+     * @param version Version courante, a repasser a la prochaine verification
+     * @param complet false si la version demandee est trop ancienne : tout ce qui est en cache est a oublier
+     */
+    public ModificationsStock(long version, List<String> references, boolean complet) {
+        this.version = version;
+        this.references = references;
+        this.complet = complet;
+    }
+
+    // Getters
+    public long getVersion() { return version; }
+    public List<String> getReferences() { return references; }
+    public boolean isComplet() { return complet; }
+
+    @Override
+    public String toString() {
+        return String.format("ModificationsStock{version=%d, references=%d, complet=%s}", version, references.size(), complet);
+    }
+}
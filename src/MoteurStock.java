@@ -0,0 +1,372 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Moteur de stock en memoire : un compteur sans verrou (CAS) par reference
+ * Les variations sont journalisees sur disque puis ecrites par lots en base par un thread d'ecriture differee.
+ * Enregistrement du journal : sequence (long), longueur de la reference (short), reference, variation (int),
+ * CRC32 de ce qui precede (int).
+ *
+ * Au demarrage, les stocks sont charges depuis la persistance puis le journal est rejoue
+ * a partir de la derniere sequence que la persistance a confirmee. Le journal repart dans le segment de la
+ * sequence suivante, vide d'abord s'il existe (premiere variation tronquee par un arret brutal).
+ */
+public class MoteurStock implements AutoCloseable {
+
+    private static final String PREFIXE_SEGMENT = "stock-";
+    private static final String SUFFIXE_SEGMENT = ".journal";
+
+    private final ConcurrentHashMap<String, AtomicInteger> stocks = new ConcurrentHashMap<>();
+    private final PersistanceStock persistance;
+    private final Path repertoireJournal;
+    private final boolean syncJournal;
+    private final int capaciteFile;
+    private final ScheduledExecutorService ecrivain;
+
+    // Journal et variations en attente d'ecriture, proteges par verrou
+    private final Object verrou = new Object();
+    private final CRC32 crc = new CRC32();
+    private FileChannel segment;
+    private long sequence;
+    private Map<String, Integer> enAttente = new HashMap<>();
+    private int nbEnAttente = 0;
+    private boolean ferme = false;
+
+    // Statistiques
+    private final AtomicLong nbReservations = new AtomicLong();
+    private final AtomicLong nbRefus = new AtomicLong();
+    private final AtomicLong nbLots = new AtomicLong();
+    private final AtomicLong nbEchecsEcriture = new AtomicLong();
+
+    public MoteurStock(PersistanceStock persistance, Path repertoireJournal, long intervalleFlushMs,
+                       int capaciteFile, boolean syncJournal) throws SQLException, IOException {
+        this.persistance = persistance;
+        this.repertoireJournal = repertoireJournal;
+        this.syncJournal = syncJournal;
+        this.capaciteFile = capaciteFile;
+
+        Files.createDirectories(repertoireJournal);
+        Map<String, Integer> initial = persistance.chargerStocks();
+        long sequenceBase = persistance.chargerSequence();
+        initial.forEach((reference, stock) -> stocks.put(reference, new AtomicInteger(stock)));
+        sequence = sequenceBase;
+        int rejoues = rejouerJournal(sequenceBase);
+        segment = ouvrirSegment(sequence + 1);
+        if (segment.size() > 0) {
+            // Aucune variation valide dans ce segment (sinon la sequence serait plus loin) : ecrire apres
+            // les octets tronques rendrait les nouvelles variations illisibles au prochain rejeu
+            Log.erreur("Journal de stock : segment ", sequence + 1, " tronque des sa premiere variation, ", segment.size(), " octets ignores");
+            segment.truncate(0);
+        }
+
+        Log.info("Moteur de stock charge: ", stocks.size(), " references, ", rejoues, " variations rejouees depuis le journal");
+
+        this.ecrivain = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "moteur-stock-ecrivain");
+            t.setDaemon(true);
+            return t;
+        });
+        ecrivain.scheduleWithFixedDelay(this::vider, intervalleFlushMs, intervalleFlushMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Operations
+
+    /**
+     * Reserve (decremente) une quantite si le stock le permet
+     * @return false si la reference est inconnue ou le stock insuffisant
+     */
+    public boolean reserver(String reference, int quantite) throws IOException {
+        AtomicInteger stock = stocks.get(reference);
+        if (stock == null || quantite <= 0) {
+            nbRefus.incrementAndGet();
+            return false;
+        }
+
+        int courant;
+        do {
+            courant = stock.get();
+            if (courant < quantite) {
+                nbRefus.incrementAndGet();
+                return false;
+            }
+        } while (!stock.compareAndSet(courant, courant - quantite));
+
+        try {
+            journaliser(reference, -quantite);
+        } catch (IOException e) {
+            stock.addAndGet(quantite);
+            throw e;
+        }
+        nbReservations.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Ajoute du stock (reapprovisionnement, ou annulation d'une reservation)
+     * @return false si la reference est inconnue
+     */
+    public boolean ajouter(String reference, int quantite) throws IOException {
+        AtomicInteger stock = stocks.get(reference);
+        if (stock == null) {
+            return false;
+        }
+
+        stock.addAndGet(quantite);
+        try {
+            journaliser(reference, quantite);
+        } catch (IOException e) {
+            stock.addAndGet(-quantite);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * @return Le stock courant, -1 si la reference est inconnue
+     */
+    public int stock(String reference) {
+        AtomicInteger stock = stocks.get(reference);
+        return stock == null ? -1 : stock.get();
+    }
+
+    /**
+     * Prend en charge un article cree dans la persistance apres le demarrage (son stock y est deja ecrit :
+     * rien n'est journalise)
+     * @return false si la reference etait deja connue
+     */
+    public boolean declarer(String reference, int stock) {
+        return stocks.putIfAbsent(reference, new AtomicInteger(stock)) == null;
+    }
+
+    // Journal
+
+    private void journaliser(String reference, int delta) throws IOException {
+        byte[] ref = reference.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer enregistrement = ByteBuffer.allocate(Long.BYTES + Short.BYTES + ref.length + 2 * Integer.BYTES);
+
+        FileChannel canal;
+        synchronized (verrou) {
+            // File bornee : les appelants attendent le prochain lot si l'ecriture en base prend du retard
+            while (nbEnAttente >= capaciteFile && !ferme) {
+                try {
+                    verrou.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Attente du moteur de stock interrompue");
+                }
+            }
+            if (ferme) {
+                throw new IOException("Moteur de stock ferme");
+            }
+
+            enregistrement.putLong(sequence + 1).putShort((short) ref.length).put(ref).putInt(delta);
+            crc.reset();
+            crc.update(enregistrement.array(), 0, enregistrement.position());
+            enregistrement.putInt((int) crc.getValue()).flip();
+            while (enregistrement.hasRemaining()) {
+                segment.write(enregistrement);
+            }
+            sequence++;
+            enAttente.merge(reference, delta, Integer::sum);
+            nbEnAttente++;
+            canal = segment;
+        }
+
+        if (syncJournal) {
+            try {
+                canal.force(false);
+            } catch (ClosedChannelException e) {
+                // Segment ferme par une rotation, qui l'a force sur disque avant
+            }
+        }
+    }
+
+    private FileChannel ouvrirSegment(long premiereSequence) throws IOException {
+        Path fichier = repertoireJournal.resolve(String.format("%s%020d%s", PREFIXE_SEGMENT, premiereSequence, SUFFIXE_SEGMENT));
+        return FileChannel.open(fichier, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> listerSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> fichiers = Files.newDirectoryStream(repertoireJournal, PREFIXE_SEGMENT + "*" + SUFFIXE_SEGMENT)) {
+            for (Path fichier : fichiers) {
+                segments.add(fichier);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long premiereSequence(Path segment) {
+        String nom = segment.getFileName().toString();
+        return Long.parseLong(nom.substring(PREFIXE_SEGMENT.length(), nom.length() - SUFFIXE_SEGMENT.length()));
+    }
+
+    /**
+     * La lecture d'un segment s'arrete au premier enregistrement tronque ou dont le CRC est faux
+     * (ecriture interrompue par un arret brutal) ; le segment suivant est lu normalement.
+     */
+    private int rejouerJournal(long sequenceBase) throws IOException {
+        int rejoues = 0;
+        CRC32 controle = new CRC32();
+        for (Path fichier : listerSegments()) {
+            try (InputStream flux = Files.newInputStream(fichier);
+                 DataInputStream entree = new DataInputStream(new BufferedInputStream(flux))) {
+                while (true) {
+                    long seq = entree.readLong();
+                    byte[] ref = new byte[entree.readUnsignedShort()];
+                    entree.readFully(ref);
+                    int delta = entree.readInt();
+                    controle.reset();
+                    controle.update(ByteBuffer.allocate(Long.BYTES + Short.BYTES + ref.length + Integer.BYTES)
+                            .putLong(seq).putShort((short) ref.length).put(ref).putInt(delta).array());
+                    if ((int) controle.getValue() != entree.readInt()) {
+                        Log.erreur("Journal de stock ", fichier.getFileName(), ": CRC invalide pour la sequence ", seq);
+                        break;
+                    }
+
+                    if (seq > sequenceBase) {
+                        String reference = new String(ref, StandardCharsets.UTF_8);
+                        AtomicInteger stock = stocks.get(reference);
+                        if (stock != null) {
+                            stock.addAndGet(delta);
+                            enAttente.merge(reference, delta, Integer::sum);
+                            nbEnAttente++;
+                            rejoues++;
+                        }
+                        sequence = Math.max(sequence, seq);
+                    }
+                }
+            } catch (EOFException e) {
+                // Fin du segment (ou dernier enregistrement incomplet apres un arret brutal)
+            }
+        }
+        return rejoues;
+    }
+
+    /**
+     * Supprime les segments dont toutes les variations sont deja en base
+     */
+    private void purgerSegments(long sequenceAppliquee) throws IOException {
+        List<Path> segments = listerSegments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (premiereSequence(segments.get(i + 1)) - 1 <= sequenceAppliquee) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    // Ecriture differee
+
+    /**
+     * Ecrit en base, en un seul lot, les variations accumulees depuis le lot precedent
+     */
+    public void vider() {
+        Map<String, Integer> lot;
+        long sequenceLot;
+        int nbLot;
+        synchronized (verrou) {
+            if (nbEnAttente == 0 && enAttente.isEmpty()) {
+                return;
+            }
+            lot = enAttente;
+            enAttente = new HashMap<>();
+            sequenceLot = sequence;
+            nbLot = nbEnAttente;
+
+            // Nouveau segment : l'ancien ne contient que des variations de ce lot (ou de lots precedents)
+            try {
+                segment.force(false);
+                segment.close();
+                segment = ouvrirSegment(sequence + 1);
+            } catch (IOException e) {
+                Log.erreur("Erreur lors de la rotation du journal de stock: ", e.getMessage());
+            }
+        }
+
+        try {
+            persistance.appliquerDeltas(lot, sequenceLot);
+            nbLots.incrementAndGet();
+            synchronized (verrou) {
+                nbEnAttente -= nbLot;
+                verrou.notifyAll();
+            }
+        } catch (SQLException e) {
+            nbEchecsEcriture.incrementAndGet();
+            Log.erreur("Erreur lors de l'ecriture differee du stock (nouvel essai au prochain lot): ", e.getMessage());
+            synchronized (verrou) {
+                lot.forEach((reference, delta) -> enAttente.merge(reference, delta, Integer::sum));
+            }
+            return;
+        }
+
+        // Le lot est en base : un echec de purge laisse seulement des segments a supprimer au lot suivant
+        try {
+            purgerSegments(sequenceLot);
+        } catch (IOException e) {
+            Log.erreur("Erreur lors de la purge du journal de stock: ", e.getMessage());
+        }
+    }
+
+    // Statistiques
+
+    public long getNbReservations() { return nbReservations.get(); }
+    public long getNbRefus() { return nbRefus.get(); }
+    public long getNbLots() { return nbLots.get(); }
+
+    public int getNbEnAttente() {
+        synchronized (verrou) {
+            return nbEnAttente;
+        }
+    }
+
+    public String statistiques() {
+        return String.format("MoteurStock{references=%d, reservations=%d, refus=%d, lots ecrits=%d, echecs ecriture=%d, en attente=%d}",
+                stocks.size(), getNbReservations(), getNbRefus(), getNbLots(), nbEchecsEcriture.get(), getNbEnAttente());
+    }
+
+    @Override
+    public void close() {
+        ecrivain.shutdown();
+        try {
+            ecrivain.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        vider();
+        synchronized (verrou) {
+            ferme = true;
+            verrou.notifyAll();
+            try {
+                segment.close();
+            } catch (IOException e) {
+                Log.erreur("Erreur lors de la fermeture du journal de stock: ", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operations internes d'un noeud, pour les achats dont l'article et la facture sont sur deux noeuds differents
+ * Publiee a cote de BricoMerlinService sous le nom du service suivi de "Noeud" ; utilisee par ServiceRoute.
+ * L'article est retire du stock de son noeud, puis la ligne est ajoutee a la facture sur le noeud du client.
+ * Chaque operation prend l'identifiant de requete de l'achat d'origine (null : sans deduplication) : un achat
+ * renvoye par le client n'est ni retire ni facture deux fois.
+ */
+public interface NoeudBricoMerlin extends Remote {
+
+    /**
+     * Decremente le stock de l'article si suffisant, sans facture
+     * @return L'article (pour son prix), null si la reference est inconnue ou le stock insuffisant
+     */
+    Article retirerStock(String reference, int quantite, String idRequete) throws RemoteException;
+
+    /**
+     * Ajoute a la facture ouverte du client des lignes dont le stock est deja retire sur leur noeud
+     */
+    void facturer(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference, String idRequete) throws RemoteException;
+
+    /**
+     * Termine une reservation du client sans la facturer (elle est facturee par le noeud du client)
+     * @return La reservation, null si elle est inconnue ou a expire
+     */
+    Reservation retirerReservation(long idReservation, String clientId, String idRequete) throws RemoteException;
+}
@@ -0,0 +1,93 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page de lignes d'une facture, dans l'ordre d'ajout
+ * La page suivante se demande avec getCurseur() (pagination par cle : aucun decalage a parcourir cote base).
+ */
+public class PageLignesFacture implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final byte FORMAT = 1;
+
+    private List<LigneFacture> lignes;
+    private long curseur;
+    private boolean derniere;
+
+    /**
+     * Reserve a la deserialisation
+     */
+    public PageLignesFacture() {
+    }
+
+    /**
+     * @param curseur Identifiant de la derniere ligne de la page (a repasser pour la page suivante)
+     * @param derniere true s'il n'y a plus de lignes apres cette page
+     */
+    public PageLignesFacture(List<LigneFacture> lignes, long curseur, boolean derniere) {
+        this.lignes = lignes;
+        this.curseur = curseur;
+        this.derniere = derniere;
+    }
+
+    // Getters
+    public List<LigneFacture> getLignes() { return lignes; }
+    public long getCurseur() { return curseur; }
+    public boolean isDerniere() { return derniere; }
+
+    // Encodage
+
+    @Override
+    public void writeExternal(ObjectOutput sortie) throws IOException {
+        ecrire(sortie);
+    }
+
+    @Override
+    public void readExternal(ObjectInput entree) throws IOException {
+        lireChamps(entree);
+    }
+
+    void ecrire(DataOutput sortie) throws IOException {
+        sortie.writeByte(FORMAT);
+        sortie.writeLong(curseur);
+        sortie.writeBoolean(derniere);
+        CodecBinaire.ecrireVarInt(sortie, lignes.size());
+        CodecBinaire.DictionnaireEcriture references = new CodecBinaire.DictionnaireEcriture();
+        for (LigneFacture ligne : lignes) {
+            references.ecrire(sortie, ligne.getReferenceArticle());
+            ligne.ecrireValeurs(sortie);
+        }
+    }
+
+    static PageLignesFacture lire(DataInput entree) throws IOException {
+        PageLignesFacture page = new PageLignesFacture();
+        page.lireChamps(entree);
+        return page;
+    }
+
+    private void lireChamps(DataInput entree) throws IOException {
+        byte format = entree.readByte();
+        if (format < 1 || format > FORMAT) {
+            throw new InvalidClassException(PageLignesFacture.class.getName(), "format inconnu " + format);
+        }
+        curseur = entree.readLong();
+        derniere = entree.readBoolean();
+        int nbLignes = CodecBinaire.lireVarInt(entree);
+        lignes = new ArrayList<>(nbLignes);
+        CodecBinaire.DictionnaireLecture references = new CodecBinaire.DictionnaireLecture();
+        for (int i = 0; i < nbLignes; i++) {
+            lignes.add(LigneFacture.lire(entree, references.lire(entree)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PageLignesFacture{lignes=%d, curseur=%d, derniere=%s}", lignes.size(), curseur, derniere);
+    }
+}
@@ -0,0 +1,25 @@
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Stockage durable des niveaux de stock derriere le MoteurStock
+ */
+public interface PersistanceStock {
+
+    /**
+     * @return Le stock de chaque reference du catalogue
+     */
+    Map<String, Integer> chargerStocks() throws SQLException;
+
+    /**
+     * @return La derniere sequence du journal deja appliquee (0 si aucune)
+     */
+    long chargerSequence() throws SQLException;
+
+    /**
+     * Applique atomiquement un lot de variations de stock et enregistre la sequence du journal atteinte
+     * @param deltas Variation nette par reference
+     * @param sequence Derniere sequence du journal couverte par ce lot
+     */
+    void appliquerDeltas(Map<String, Integer> deltas, long sequence) throws SQLException;
+}
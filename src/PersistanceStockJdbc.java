@@ -0,0 +1,77 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistance du MoteurStock dans la table articles (MySQL)
+ * La sequence du journal est ecrite dans la meme transaction que les stocks
+ */
+public class PersistanceStockJdbc implements PersistanceStock {
+
+    private final PoolConnexions pool;
+
+    public PersistanceStockJdbc(PoolConnexions pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Map<String, Integer> chargerStocks() throws SQLException {
+        Map<String, Integer> stocks = new HashMap<>();
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT reference, stock_disponible FROM articles");
+            while (rs.next()) {
+                stocks.put(rs.getString("reference"), rs.getInt("stock_disponible"));
+            }
+        }
+        return stocks;
+    }
+
+    @Override
+    public long chargerSequence() throws SQLException {
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT sequence FROM moteur_stock_sequence WHERE id = 1");
+            return rs.next() ? rs.getLong("sequence") : 0;
+        }
+    }
+
+    @Override
+    public void appliquerDeltas(Map<String, Integer> deltas, long sequence) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                // References triees : meme ordre de verrouillage que acheterPanier
+                String updateStock = "UPDATE articles SET stock_disponible = stock_disponible + ? WHERE reference = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                    for (Map.Entry<String, Integer> entree : new TreeMap<>(deltas).entrySet()) {
+                        if (entree.getValue() != 0) {
+                            stmt.setInt(1, entree.getValue());
+                            stmt.setString(2, entree.getKey());
+                            stmt.addBatch();
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+
+                String updateSequence = "INSERT INTO moteur_stock_sequence (id, sequence) VALUES (1, ?) ON DUPLICATE KEY UPDATE sequence = VALUES(sequence)";
+                try (PreparedStatement stmt = connection.prepareStatement(updateSequence)) {
+                    stmt.setLong(1, sequence);
+                    stmt.executeUpdate();
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+}
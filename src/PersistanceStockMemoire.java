@@ -0,0 +1,37 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Substitut local de la base pour faire tourner le MoteurStock sans MySQL (essais, mesures)
+ */
+public class PersistanceStockMemoire implements PersistanceStock {
+
+    private final Map<String, Integer> stocks = new HashMap<>();
+    private long sequence = 0;
+    private long nbLots = 0;
+
+    public PersistanceStockMemoire(Map<String, Integer> stocksInitiaux) {
+        stocks.putAll(stocksInitiaux);
+    }
+
+    @Override
+    public synchronized Map<String, Integer> chargerStocks() {
+        return new HashMap<>(stocks);
+    }
+
+    @Override
+    public synchronized long chargerSequence() {
+        return sequence;
+    }
+
+    @Override
+    public synchronized void appliquerDeltas(Map<String, Integer> deltas, long sequence) {
+        for (Map.Entry<String, Integer> entree : deltas.entrySet()) {
+            stocks.computeIfPresent(entree.getKey(), (ref, stock) -> stock + entree.getValue());
+        }
+        this.sequence = sequence;
+        nbLots++;
+    }
+
+    public synchronized long getNbLots() { return nbLots; }
+}
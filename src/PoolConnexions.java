@@ -0,0 +1,357 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool borne de connexions JDBC
+ * Chaque appel du service emprunte sa propre connexion et la rend au pool via close()
+ */
+public class PoolConnexions implements AutoCloseable {
+
+    /**
+     * Recoit la duree de chaque execution de requete faite sur une connexion du pool
+     */
+    public interface ObservateurSql {
+        void requeteExecutee(String sql, long dureeNs, boolean erreur);
+    }
+
+    private final String url;
+    private final String utilisateur;
+    private final String motDePasse;
+    private final int tailleMin;
+    private final int tailleMax;
+    private final long delaiAttenteMs;
+    private final long seuilFuiteMs;
+    private final boolean validationEmprunt;
+
+    // Connexions physiques disponibles (LIFO pour garder les plus recentes chaudes)
+    private final BlockingDeque<Connection> libres = new LinkedBlockingDeque<>();
+    // Un permis par connexion pouvant etre empruntee : borne la taille du pool
+    private final Semaphore permis;
+    private final Map<Connection, Emprunt> empruntees = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService surveillance;
+    private volatile boolean ferme = false;
+    private volatile ObservateurSql observateurSql;
+
+    // Statistiques
+    private final AtomicLong nbEmprunts = new AtomicLong();
+    private final AtomicLong tempsAttenteTotalNs = new AtomicLong();
+    private final AtomicLong tempsAttenteMaxNs = new AtomicLong();
+    private final AtomicLong nbDelaisDepasses = new AtomicLong();
+    private final AtomicLong nbConnexionsInvalides = new AtomicLong();
+    private final AtomicLong nbFuites = new AtomicLong();
+
+    public PoolConnexions(String url, String utilisateur, String motDePasse,
+                          int tailleMin, int tailleMax, long delaiAttenteMs,
+                          long seuilFuiteMs, boolean validationEmprunt) throws SQLException {
+        if (tailleMin < 0 || tailleMax <= 0 || tailleMin > tailleMax) {
+            throw new IllegalArgumentException("Tailles de pool invalides: min=" + tailleMin + ", max=" + tailleMax);
+        }
+        this.url = url;
+        this.utilisateur = utilisateur;
+        this.motDePasse = motDePasse;
+        this.tailleMin = tailleMin;
+        this.tailleMax = tailleMax;
+        this.delaiAttenteMs = delaiAttenteMs;
+        this.seuilFuiteMs = seuilFuiteMs;
+        this.validationEmprunt = validationEmprunt;
+        this.permis = new Semaphore(tailleMax, true);
+
+        for (int i = 0; i < tailleMin; i++) {
+            libres.offerFirst(creerConnexion());
+        }
+
+        this.surveillance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-connexions-surveillance");
+            t.setDaemon(true);
+            return t;
+        });
+        if (seuilFuiteMs > 0) {
+            long periode = Math.max(1, seuilFuiteMs / 2);
+            surveillance.scheduleAtFixedRate(this::detecterFuites, periode, periode, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Emprunter une connexion du pool
+     * La connexion retournee doit etre fermee (try-with-resources) pour etre rendue au pool
+     * @throws SQLException si aucune connexion n'est disponible avant le delai d'attente
+     */
+    public Connection obtenir() throws SQLException {
+        if (ferme) {
+            throw new SQLException("Pool de connexions ferme");
+        }
+
+        long debut = System.nanoTime();
+        try {
+            if (!permis.tryAcquire(delaiAttenteMs, TimeUnit.MILLISECONDS)) {
+                nbDelaisDepasses.incrementAndGet();
+                throw new SQLException("Aucune connexion disponible apres " + delaiAttenteMs + " ms (actives: "
+                        + getNbActives() + ", max: " + tailleMax + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'une connexion interrompue", e);
+        }
+
+        Connection physique;
+        try {
+            physique = prendreConnexionValide();
+        } catch (SQLException | RuntimeException e) {
+            permis.release();
+            throw e;
+        }
+
+        long attente = System.nanoTime() - debut;
+        nbEmprunts.incrementAndGet();
+        tempsAttenteTotalNs.addAndGet(attente);
+        tempsAttenteMaxNs.accumulateAndGet(attente, Math::max);
+
+        empruntees.put(physique, new Emprunt(seuilFuiteMs > 0 ? new Throwable("Connexion empruntee ici") : null));
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConnexionEmpruntee(physique));
+    }
+
+    private Connection prendreConnexionValide() throws SQLException {
+        Connection c;
+        while ((c = libres.pollFirst()) != null) {
+            if (!validationEmprunt || estValide(c)) {
+                return c;
+            }
+            nbConnexionsInvalides.incrementAndGet();
+            detruire(c);
+        }
+        return creerConnexion();
+    }
+
+    private boolean estValide(Connection c) {
+        try {
+            return c.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection creerConnexion() throws SQLException {
+        Connection c = DriverManager.getConnection(url, utilisateur, motDePasse);
+        total.incrementAndGet();
+        return c;
+    }
+
+    private void detruire(Connection c) {
+        total.decrementAndGet();
+        try {
+            c.close();
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la fermeture d'une connexion: ", e.getMessage());
+        }
+    }
+
+    private void rendre(Connection physique) {
+        empruntees.remove(physique);
+        try {
+            if (ferme || physique.isClosed()) {
+                detruire(physique);
+                return;
+            }
+            // Ne jamais rendre une transaction en cours a l'emprunteur suivant
+            if (!physique.getAutoCommit()) {
+                physique.rollback();
+                physique.setAutoCommit(true);
+            }
+            libres.offerFirst(physique);
+        } catch (SQLException e) {
+            detruire(physique);
+        } finally {
+            permis.release();
+        }
+    }
+
+    private void detecterFuites() {
+        long maintenant = System.currentTimeMillis();
+        for (Emprunt emprunt : empruntees.values()) {
+            if (!emprunt.signale && maintenant - emprunt.debut > seuilFuiteMs) {
+                emprunt.signale = true;
+                nbFuites.incrementAndGet();
+                if (emprunt.origine != null) {
+                    Log.erreur("Fuite de connexion probable: empruntee par ", emprunt.thread,
+                            " depuis ", maintenant - emprunt.debut, " ms", emprunt.origine);
+                } else {
+                    Log.erreur("Fuite de connexion probable: empruntee par ", emprunt.thread,
+                            " depuis ", maintenant - emprunt.debut, " ms");
+                }
+            }
+        }
+    }
+
+    // Statistiques
+
+    public int getNbActives() { return empruntees.size(); }
+    public int getNbInactives() { return libres.size(); }
+    public int getNbTotal() { return total.get(); }
+    public int getTailleMin() { return tailleMin; }
+    public int getTailleMax() { return tailleMax; }
+    public long getNbEmprunts() { return nbEmprunts.get(); }
+    public long getNbDelaisDepasses() { return nbDelaisDepasses.get(); }
+    public long getNbConnexionsInvalides() { return nbConnexionsInvalides.get(); }
+    public long getNbFuites() { return nbFuites.get(); }
+    public double getTempsAttenteMoyenMs() {
+        long n = nbEmprunts.get();
+        return n == 0 ? 0.0 : tempsAttenteTotalNs.get() / 1_000_000.0 / n;
+    }
+    public double getTempsAttenteMaxMs() { return tempsAttenteMaxNs.get() / 1_000_000.0; }
+
+    /**
+     * Chronometrer les requetes executees sur les connexions empruntees a partir de maintenant
+     */
+    public void setObservateurSql(ObservateurSql observateurSql) {
+        this.observateurSql = observateurSql;
+    }
+
+    public String statistiques() {
+        return String.format("Pool{actives=%d, inactives=%d, total=%d/%d, emprunts=%d, attente moy=%.3fms, attente max=%.3fms, delais depasses=%d, invalides=%d, fuites=%d}",
+                getNbActives(), getNbInactives(), getNbTotal(), tailleMax, getNbEmprunts(),
+                getTempsAttenteMoyenMs(), getTempsAttenteMaxMs(), getNbDelaisDepasses(),
+                getNbConnexionsInvalides(), getNbFuites());
+    }
+
+    @Override
+    public void close() {
+        ferme = true;
+        surveillance.shutdownNow();
+        Connection c;
+        while ((c = libres.pollFirst()) != null) {
+            detruire(c);
+        }
+    }
+
+    // Utilitaire
+
+    private static final class Emprunt {
+        private final long debut = System.currentTimeMillis();
+        private final String thread = Thread.currentThread().getName();
+        private final Throwable origine;
+        private volatile boolean signale = false;
+
+        private Emprunt(Throwable origine) {
+            this.origine = origine;
+        }
+    }
+
+    /**
+     * Connexion rendue a l'appelant : close() la remet dans le pool au lieu de la fermer
+     */
+    private final class ConnexionEmpruntee implements InvocationHandler {
+        private final Connection physique;
+        private boolean rendue = false;
+
+        private ConnexionEmpruntee(Connection physique) {
+            this.physique = physique;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!rendue) {
+                        rendue = true;
+                        rendre(physique);
+                    }
+                    return null;
+                case "isClosed":
+                    return rendue || physique.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConnexionEmpruntee[" + physique + "]";
+                default:
+                    if (rendue) {
+                        throw new SQLException("Connexion deja rendue au pool");
+                    }
+                    Object resultat;
+                    try {
+                        resultat = method.invoke(physique, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    ObservateurSql observateur = observateurSql;
+                    if (observateur != null && resultat instanceof Statement) {
+                        return mesurerRequetes((Statement) resultat, method, args, observateur);
+                    }
+                    return resultat;
+            }
+        }
+    }
+
+    private static Object mesurerRequetes(Statement statement, Method creation, Object[] args, ObservateurSql observateur) {
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        String sqlPrepare = creation.getName().startsWith("prepare") ? (String) args[0] : null;
+        return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                new RequeteMesuree(statement, sqlPrepare, observateur));
+    }
+
+    /**
+     * Chronometre les execute*() d'un Statement ; la cle est le texte SQL (prepare, ou passe a execute)
+     */
+    private static final class RequeteMesuree implements InvocationHandler {
+        private final Statement statement;
+        private final String sqlPrepare;
+        private final ObservateurSql observateur;
+
+        private RequeteMesuree(Statement statement, String sqlPrepare, ObservateurSql observateur) {
+            this.statement = statement;
+            this.sqlPrepare = sqlPrepare;
+            this.observateur = observateur;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().startsWith("execute")) {
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            String sql = sqlPrepare != null ? sqlPrepare
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+                    : method.getName();
+            long debut = System.nanoTime();
+            boolean erreur = true;
+            try {
+                Object resultat = method.invoke(statement, args);
+                erreur = false;
+                return resultat;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                observateur.requeteExecutee(sql, System.nanoTime() - debut, erreur);
+            }
+        }
+    }
+}
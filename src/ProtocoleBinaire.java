@@ -0,0 +1,341 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Protocole du transport binaire (ServeurBinaire, ClientBinaire) et encodage des parametres et resultats
+ *
+ * A la connexion, le client envoie MAGIQUE (int) puis VERSION (octet).
+ * Trame : longueur du reste (int), identifiant de requete (long), puis
+ *  - requete : code d'operation (octet), parametres ;
+ *  - reponse : statut (octet), resultat si OK, sinon type d'erreur (octet), message (UTF), delai conseille (long).
+ * Les operations d'ecriture se terminent par l'identifiant de requete idempotente (chaine, absente : null).
+ * Les reponses portent l'identifiant de leur requete et peuvent arriver dans n'importe quel ordre :
+ * un client peut envoyer plusieurs requetes sans attendre les reponses.
+ */
+final class ProtocoleBinaire {
+
+    static final int MAGIQUE = 0x42524D4E; // "BRMN"
+    static final byte VERSION = 2;
+    static final int ENTETE_TRAME = Long.BYTES;
+    static final int TAILLE_MAX_TRAME = 16 * 1024 * 1024;
+
+    // Operations
+    static final byte CONSULTER_STOCK = 1;
+    static final byte RECHERCHER_ARTICLES = 2;
+    static final byte RECHERCHER_CATALOGUE = 3;
+    static final byte ACHETER_ARTICLE = 4;
+    static final byte ACHETER_PANIER = 5;
+    static final byte AJOUTER_STOCK = 6;
+    static final byte AJOUTER_STOCK_MASSE = 7;
+    static final byte CONSULTER_MODIFICATIONS = 8;
+    static final byte CONSULTER_FACTURE = 9;
+    static final byte CONSULTER_ENTETE_FACTURE = 10;
+    static final byte CONSULTER_LIGNES_FACTURE = 11;
+    static final byte PAYER_FACTURE = 12;
+    static final byte CHIFFRE_AFFAIRES = 13;
+    static final byte CHIFFRE_AFFAIRES_PERIODE = 14;
+    static final byte RESERVER_ARTICLE = 15;
+    static final byte CONFIRMER_RESERVATION = 16;
+    static final byte LIBERER_RESERVATION = 17;
+    static final byte RAPPORT_VENTES = 18;
+
+    // Statut d'une reponse
+    static final byte OK = 0;
+    static final byte ERREUR = 1;
+
+    // Type d'erreur
+    static final byte ERREUR_SERVICE = 0;
+    static final byte ERREUR_SATURE = 1;
+    static final byte ERREUR_REQUETE = 2;
+
+    private ProtocoleBinaire() {
+    }
+
+    // Valeurs simples
+
+    static void ecrireDate(DataOutput sortie, Date date) throws IOException {
+        sortie.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+    }
+
+    static Date lireDate(DataInput entree) throws IOException {
+        long temps = entree.readLong();
+        return temps == Long.MIN_VALUE ? null : new Date(temps);
+    }
+
+    static void ecrireDouble(DataOutput sortie, Double valeur) throws IOException {
+        sortie.writeBoolean(valeur != null);
+        if (valeur != null) {
+            sortie.writeDouble(valeur);
+        }
+    }
+
+    static Double lireDouble(DataInput entree) throws IOException {
+        return entree.readBoolean() ? entree.readDouble() : null;
+    }
+
+    static void ecrireChaines(DataOutput sortie, List<String> chaines) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, chaines.size());
+        for (String chaine : chaines) {
+            CodecBinaire.ecrireChaine(sortie, chaine);
+        }
+    }
+
+    static List<String> lireChaines(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<String> chaines = new ArrayList<>(nb);
+        for (int i = 0; i < nb; i++) {
+            chaines.add(CodecBinaire.lireChaine(entree));
+        }
+        return chaines;
+    }
+
+    // Articles
+
+    static void ecrireArticle(DataOutput sortie, Article article) throws IOException {
+        sortie.writeBoolean(article != null);
+        if (article != null) {
+            article.ecrire(sortie);
+        }
+    }
+
+    static Article lireArticle(DataInput entree) throws IOException {
+        return entree.readBoolean() ? Article.lire(entree) : null;
+    }
+
+    static void ecrireArticles(DataOutput sortie, List<Article> articles) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, articles.size());
+        for (Article article : articles) {
+            ecrireArticle(sortie, article);
+        }
+    }
+
+    static List<Article> lireArticles(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<Article> articles = new ArrayList<>(nb);
+        for (int i = 0; i < nb; i++) {
+            articles.add(lireArticle(entree));
+        }
+        return articles;
+    }
+
+    static void ecrireCritere(DataOutput sortie, CritereRecherche critere) throws IOException {
+        CodecBinaire.ecrireChaine(sortie, critere.getTexte());
+        ecrireDouble(sortie, critere.getPrixMin());
+        ecrireDouble(sortie, critere.getPrixMax());
+        sortie.writeBoolean(critere.isEnStockSeulement());
+        CodecBinaire.ecrireVarInt(sortie, critere.getLimite());
+    }
+
+    static CritereRecherche lireCritere(DataInput entree) throws IOException {
+        return new CritereRecherche(CodecBinaire.lireChaine(entree), lireDouble(entree), lireDouble(entree),
+                entree.readBoolean(), CodecBinaire.lireVarInt(entree));
+    }
+
+    static void ecrireModifications(DataOutput sortie, ModificationsStock modifications) throws IOException {
+        sortie.writeLong(modifications.getVersion());
+        sortie.writeBoolean(modifications.isComplet());
+        ecrireChaines(sortie, modifications.getReferences());
+    }
+
+    static ModificationsStock lireModifications(DataInput entree) throws IOException {
+        long version = entree.readLong();
+        boolean complet = entree.readBoolean();
+        return new ModificationsStock(version, lireChaines(entree), complet);
+    }
+
+    // Achats et reapprovisionnements
+
+    static void ecrireLignesPanier(DataOutput sortie, List<LignePanier> lignes) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, lignes.size());
+        for (LignePanier ligne : lignes) {
+            CodecBinaire.ecrireChaine(sortie, ligne.getReference());
+            sortie.writeInt(ligne.getQuantite());
+        }
+    }
+
+    static List<LignePanier> lireLignesPanier(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<LignePanier> lignes = new ArrayList<>(nb);
+        for (int i = 0; i < nb; i++) {
+            lignes.add(new LignePanier(CodecBinaire.lireChaine(entree), entree.readInt()));
+        }
+        return lignes;
+    }
+
+    static void ecrireResultatPanier(DataOutput sortie, ResultatPanier resultat) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, resultat.getStatuts().size());
+        for (ResultatPanier.Statut statut : resultat.getStatuts()) {
+            sortie.writeByte(statut.ordinal());
+        }
+        sortie.writeDouble(resultat.getMontantAjoute());
+    }
+
+    static ResultatPanier lireResultatPanier(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<ResultatPanier.Statut> statuts = new ArrayList<>(nb);
+        ResultatPanier.Statut[] valeurs = ResultatPanier.Statut.values();
+        for (int i = 0; i < nb; i++) {
+            statuts.add(valeurs[entree.readUnsignedByte()]);
+        }
+        return new ResultatPanier(statuts, entree.readDouble());
+    }
+
+    static void ecrireReservation(DataOutput sortie, Reservation reservation) throws IOException {
+        sortie.writeBoolean(reservation != null);
+        if (reservation != null) {
+            sortie.writeLong(reservation.getId());
+            CodecBinaire.ecrireChaine(sortie, reservation.getReference());
+            sortie.writeInt(reservation.getQuantite());
+            CodecBinaire.ecrireChaine(sortie, reservation.getClientId());
+            sortie.writeDouble(reservation.getPrixUnitaire());
+            ecrireDate(sortie, reservation.getExpiration());
+        }
+    }
+
+    static Reservation lireReservation(DataInput entree) throws IOException {
+        if (!entree.readBoolean()) {
+            return null;
+        }
+        return new Reservation(entree.readLong(), CodecBinaire.lireChaine(entree), entree.readInt(),
+                CodecBinaire.lireChaine(entree), entree.readDouble(), lireDate(entree));
+    }
+
+    static void ecrireLignesLivraison(DataOutput sortie, List<LigneLivraison> lignes) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, lignes.size());
+        CodecBinaire.DictionnaireEcriture familles = new CodecBinaire.DictionnaireEcriture();
+        for (LigneLivraison ligne : lignes) {
+            CodecBinaire.ecrireChaine(sortie, ligne.getReference());
+            sortie.writeInt(ligne.getQuantite());
+            sortie.writeBoolean(ligne.getFamille() != null);
+            if (ligne.getFamille() != null) {
+                familles.ecrire(sortie, ligne.getFamille());
+            }
+            ecrireDouble(sortie, ligne.getPrixUnitaire());
+        }
+    }
+
+    static List<LigneLivraison> lireLignesLivraison(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<LigneLivraison> lignes = new ArrayList<>(nb);
+        CodecBinaire.DictionnaireLecture familles = new CodecBinaire.DictionnaireLecture();
+        for (int i = 0; i < nb; i++) {
+            String reference = CodecBinaire.lireChaine(entree);
+            int quantite = entree.readInt();
+            String famille = entree.readBoolean() ? familles.lire(entree) : null;
+            lignes.add(new LigneLivraison(reference, quantite, famille, lireDouble(entree)));
+        }
+        return lignes;
+    }
+
+    static void ecrireRapport(DataOutput sortie, RapportImport rapport) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, rapport.getNbAppliquees());
+        ecrireChaines(sortie, rapport.getReferencesCreees());
+        CodecBinaire.ecrireVarInt(sortie, rapport.getRejets().size());
+        for (RapportImport.Rejet rejet : rapport.getRejets()) {
+            CodecBinaire.ecrireVarInt(sortie, rejet.getPosition());
+            CodecBinaire.ecrireChaine(sortie, rejet.getReference());
+            sortie.writeUTF(rejet.getMotif());
+        }
+    }
+
+    static RapportImport lireRapport(DataInput entree) throws IOException {
+        int nbAppliquees = CodecBinaire.lireVarInt(entree);
+        List<String> creees = lireChaines(entree);
+        int nbRejets = CodecBinaire.lireVarInt(entree);
+        List<RapportImport.Rejet> rejets = new ArrayList<>(nbRejets);
+        for (int i = 0; i < nbRejets; i++) {
+            rejets.add(new RapportImport.Rejet(CodecBinaire.lireVarInt(entree), CodecBinaire.lireChaine(entree), entree.readUTF()));
+        }
+        return new RapportImport(nbAppliquees, creees, rejets);
+    }
+
+    // Factures
+
+    static void ecrireFacture(DataOutput sortie, Facture facture) throws IOException {
+        sortie.writeBoolean(facture != null);
+        if (facture != null) {
+            facture.ecrire(sortie);
+        }
+    }
+
+    static Facture lireFacture(DataInput entree) throws IOException {
+        return entree.readBoolean() ? Facture.lire(entree) : null;
+    }
+
+    static void ecrireEntete(DataOutput sortie, EnteteFacture entete) throws IOException {
+        sortie.writeBoolean(entete != null);
+        if (entete != null) {
+            entete.ecrire(sortie);
+        }
+    }
+
+    static EnteteFacture lireEntete(DataInput entree) throws IOException {
+        return entree.readBoolean() ? EnteteFacture.lire(entree) : null;
+    }
+
+    static void ecrirePage(DataOutput sortie, PageLignesFacture page) throws IOException {
+        sortie.writeBoolean(page != null);
+        if (page != null) {
+            page.ecrire(sortie);
+        }
+    }
+
+    static PageLignesFacture lirePage(DataInput entree) throws IOException {
+        return entree.readBoolean() ? PageLignesFacture.lire(entree) : null;
+    }
+
+    // Chiffre d'affaires
+
+    static void ecrireChiffreAffairesParJour(DataOutput sortie, SortedMap<Date, Double> parJour) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, parJour.size());
+        for (Map.Entry<Date, Double> jour : parJour.entrySet()) {
+            sortie.writeLong(jour.getKey().getTime());
+            sortie.writeDouble(jour.getValue());
+        }
+    }
+
+    static SortedMap<Date, Double> lireChiffreAffairesParJour(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        SortedMap<Date, Double> parJour = new TreeMap<>();
+        for (int i = 0; i < nb; i++) {
+            parJour.put(new Date(entree.readLong()), entree.readDouble());
+        }
+        return parJour;
+    }
+
+    // Rapports
+
+    static DimensionRapport lireDimension(DataInput entree) throws IOException {
+        int code = entree.readByte();
+        if (code < 0 || code >= DimensionRapport.values().length) {
+            throw new IOException("dimension de rapport inconnue " + code);
+        }
+        return DimensionRapport.values()[code];
+    }
+
+    static void ecrireLignesRapport(DataOutput sortie, List<LigneRapport> lignes) throws IOException {
+        CodecBinaire.ecrireVarInt(sortie, lignes.size());
+        for (LigneRapport ligne : lignes) {
+            CodecBinaire.ecrireChaine(sortie, ligne.getCle());
+            sortie.writeDouble(ligne.getMontant());
+            sortie.writeLong(ligne.getQuantite());
+            sortie.writeLong(ligne.getNbFactures());
+        }
+    }
+
+    static List<LigneRapport> lireLignesRapport(DataInput entree) throws IOException {
+        int nb = CodecBinaire.lireVarInt(entree);
+        List<LigneRapport> lignes = new ArrayList<>(nb);
+        for (int i = 0; i < nb; i++) {
+            lignes.add(new LigneRapport(CodecBinaire.lireChaine(entree), entree.readDouble(), entree.readLong(), entree.readLong()));
+        }
+        return lignes;
+    }
+}
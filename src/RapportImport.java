@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Bilan d'un reapprovisionnement en masse : lignes appliquees, articles crees et lignes rejetees
+ * Les positions des rejets sont celles des lignes dans la liste envoyee (ou du fichier importe).
+ */
+public class RapportImport implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static class Rejet implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int position;
+        private final String reference;
+        private final String motif;
+
+        public Rejet(int position, String reference, String motif) {
+            this.position = position;
+            this.reference = reference;
+            this.motif = motif;
+        }
+
+        // Getters
+        public int getPosition() { return position; }
+        public String getReference() { return reference; }
+        public String getMotif() { return motif; }
+
+        @Override
+        public String toString() {
+            return String.format("ligne %d (%s): %s", position, reference, motif);
+        }
+    }
+
+    private int nbLignes;
+    private int nbAppliquees;
+    private final List<String> referencesCreees = new ArrayList<>();
+    private final List<Rejet> rejets = new ArrayList<>();
+
+    RapportImport() {
+    }
+
+    /**
+     * Bilan deja etabli (decodage du transport binaire)
+     */
+    RapportImport(int nbAppliquees, List<String> referencesCreees, List<Rejet> rejets) {
+        this.nbLignes = nbAppliquees + rejets.size();
+        this.nbAppliquees = nbAppliquees;
+        this.referencesCreees.addAll(referencesCreees);
+        this.rejets.addAll(rejets);
+    }
+
+    // Construction
+
+    void ligneAppliquee() {
+        nbLignes++;
+        nbAppliquees++;
+    }
+
+    void articleCree(String reference) {
+        referencesCreees.add(reference);
+    }
+
+    void rejeter(int position, String reference, String motif) {
+        nbLignes++;
+        rejets.add(new Rejet(position, reference, motif));
+    }
+
+    /**
+     * Ajoute le bilan d'un lot, en ramenant ses positions a celles de l'ensemble
+     */
+    void fusionner(RapportImport lot, IntUnaryOperator position) {
+        nbLignes += lot.nbLignes;
+        nbAppliquees += lot.nbAppliquees;
+        referencesCreees.addAll(lot.referencesCreees);
+        for (Rejet rejet : lot.rejets) {
+            rejets.add(new Rejet(position.applyAsInt(rejet.position), rejet.reference, rejet.motif));
+        }
+    }
+
+    // Getters
+    public int getNbLignes() { return nbLignes; }
+    public int getNbAppliquees() { return nbAppliquees; }
+    public int getNbCreations() { return referencesCreees.size(); }
+    public List<String> getReferencesCreees() { return referencesCreees; }
+    public List<Rejet> getRejets() { return rejets; }
+
+    @Override
+    public String toString() {
+        return String.format("RapportImport{lignes=%d, appliquees=%d, articles crees=%d, rejets=%d}", nbLignes, nbAppliquees, referencesCreees.size(), rejets.size());
+    }
+}
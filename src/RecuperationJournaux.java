@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifie la reprise des journaux (JournalEcriture, journal du MoteurStock) apres un arret brutal simule
+ * Chaque cas ecrit des enregistrements, tronque le journal, redemarre, ecrit de nouveaux enregistrements,
+ * redemarre encore et verifie que tous les enregistrements valides sont rejoues dans l'ordre.
+ *
+ * Usage : java RecuperationJournaux
+ */
+public class RecuperationJournaux {
+
+    private int nbVerifications;
+    private int nbEchecs;
+
+    // Verifications
+
+    private void verifier(boolean condition, String description) {
+        nbVerifications++;
+        if (!condition) {
+            nbEchecs++;
+            System.out.println("  ECHEC " + description);
+        }
+    }
+
+    private static JournalEcriture ouvrir(Path repertoire) throws IOException {
+        return new JournalEcriture(repertoire, 1024 * 1024, true, 0);
+    }
+
+    private static void ajouter(JournalEcriture journal, String... contenus) throws IOException {
+        for (String contenu : contenus) {
+            journal.attendreDurable(journal.ajouter(contenu.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static List<String> relire(Path repertoire) throws IOException {
+        List<String> contenus = new ArrayList<>();
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            journal.rejouer(0, (sequence, contenu) -> contenus.add(StandardCharsets.UTF_8.decode(contenu).toString()));
+        }
+        return contenus;
+    }
+
+    /**
+     * Ecrit un enregistrement dont l'entete annonce plus d'octets que le fichier n'en contient
+     */
+    private static void ecrireTronque(Path fichier) throws IOException {
+        ByteBuffer tronque = ByteBuffer.allocate(20);
+        tronque.putInt(100).putInt(0).putLong(0).putInt(0).flip();
+        Files.write(fichier, tronque.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static Path segment(Path repertoire, long premiereSequence) {
+        return repertoire.resolve(String.format("journal-%020d.wal", premiereSequence));
+    }
+
+    // Cas
+
+    /**
+     * Premier enregistrement du segment le plus recent tronque : le segment est rouvert sous le meme nom
+     */
+    private void premierEnregistrementTronque() throws IOException {
+        Path repertoire = Files.createTempDirectory("bricomerlin-journal");
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            ajouter(journal, "a1", "a2", "a3");
+        }
+        ecrireTronque(segment(repertoire, 4));
+
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            verifier(journal.getDerniereSequence() == 3, "premier tronque : derniere sequence valide 3");
+            ajouter(journal, "b1", "b2");
+        }
+        verifier(relire(repertoire).equals(List.of("a1", "a2", "a3", "b1", "b2")),
+                "premier tronque : enregistrements ecrits apres la reprise rejoues");
+
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            ajouter(journal, "c1");
+        }
+        verifier(relire(repertoire).equals(List.of("a1", "a2", "a3", "b1", "b2", "c1")),
+                "premier tronque : deuxieme reprise");
+    }
+
+    /**
+     * Fin de segment tronquee apres des enregistrements valides : la reprise part dans un nouveau segment
+     */
+    private void finTronquee() throws IOException {
+        Path repertoire = Files.createTempDirectory("bricomerlin-journal");
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            ajouter(journal, "a1", "a2");
+        }
+        ecrireTronque(segment(repertoire, 1));
+
+        try (JournalEcriture journal = ouvrir(repertoire)) {
+            ajouter(journal, "b1");
+        }
+        verifier(relire(repertoire).equals(List.of("a1", "a2", "b1")), "fin tronquee : enregistrements rejoues");
+    }
+
+    /**
+     * Premiere variation du segment courant du moteur de stock tronquee
+     * Un moteur abandonne sans close() simule l'arret brutal : ses variations ne sont pas ecrites en base.
+     */
+    private void moteurStock() throws Exception {
+        Path repertoire = Files.createTempDirectory("bricomerlin-moteur");
+        PersistanceStock persistance = new PersistanceStock() {
+            @Override
+            public Map<String, Integer> chargerStocks() {
+                Map<String, Integer> stocks = new HashMap<>();
+                stocks.put("R", 100);
+                return stocks;
+            }
+
+            @Override
+            public long chargerSequence() {
+                return 0;
+            }
+
+            @Override
+            public void appliquerDeltas(Map<String, Integer> deltas, long sequence) {
+                throw new IllegalStateException("Aucun lot ne doit etre ecrit");
+            }
+        };
+
+        MoteurStock moteur = new MoteurStock(persistance, repertoire, 3_600_000, 1000, true);
+        moteur.reserver("R", 5);
+        moteur.reserver("R", 5);
+        ecrireTronque(repertoire.resolve(String.format("stock-%020d.journal", 3)));
+
+        moteur = new MoteurStock(persistance, repertoire, 3_600_000, 1000, true);
+        verifier(moteur.stock("R") == 90, "moteur : variations valides rejouees");
+        moteur.reserver("R", 3);
+
+        moteur = new MoteurStock(persistance, repertoire, 3_600_000, 1000, true);
+        verifier(moteur.stock("R") == 87, "moteur : variation ecrite apres la reprise rejouee");
+        moteur.ajouter("R", 10);
+
+        moteur = new MoteurStock(persistance, repertoire, 3_600_000, 1000, true);
+        verifier(moteur.stock("R") == 97, "moteur : deuxieme reprise");
+    }
+
+    private boolean executer() throws Exception {
+        System.out.println("JournalEcriture :");
+        premierEnregistrementTronque();
+        finTronquee();
+        System.out.println("MoteurStock :");
+        moteurStock();
+        System.out.printf("  %d verification(s), %d echec(s)%n", nbVerifications, nbEchecs);
+        return nbEchecs == 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean conforme = new RecuperationJournaux().executer();
+        System.out.println(conforme ? "Reprises conformes" : "Reprises NON conformes");
+        System.exit(conforme ? 0 : 1);
+    }
+}
@@ -0,0 +1,164 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Choix de la source des lectures seules : une replique assez a jour, sinon la base principale
+ *
+ * Battement : toutes les battementMs, le serveur ecrit son horloge dans replication_battement sur la base principale,
+ * puis relit cette valeur sur chaque replique. Le retard d'une replique est l'age du dernier battement qu'elle a recu ;
+ * au-dela de retardMaxMs (ou si elle ne repond pas) elle n'est plus utilisee.
+ * Lecture de ses propres ecritures : apres une ecriture pour un client, ses lectures restent sur la base principale
+ * jusqu'a ce qu'une replique ait recu un battement ecrit apres cette ecriture (la replication est dans l'ordre).
+ *
+ * Toute source JDBC ou la table replication_battement suit la base principale peut servir de replique
+ * (en local, une deuxieme URL vers la meme base).
+ */
+public class RepliquesLecture implements AutoCloseable {
+
+    private static final String ECRIRE_BATTEMENT = "INSERT INTO replication_battement (id, horodatage) VALUES (1, ?) "
+            + "ON DUPLICATE KEY UPDATE horodatage = VALUES(horodatage)";
+    private static final String LIRE_BATTEMENT = "SELECT horodatage FROM replication_battement WHERE id = 1";
+
+    private final PoolConnexions primaire;
+    private final List<Replique> repliques = new ArrayList<>();
+    private final long retardMaxMs;
+    private final ScheduledExecutorService battements;
+    private final AtomicInteger suivante = new AtomicInteger();
+
+    // Horloge de la derniere ecriture de chaque client (oubliee au-dela de retardMaxMs)
+    private final Map<String, Long> dernieresEcritures = new ConcurrentHashMap<>();
+
+    // Statistiques
+    private final AtomicLong nbLecturesPrimaire = new AtomicLong();
+    private final AtomicLong nbLecturesPropresEcritures = new AtomicLong();
+
+    private static final class Replique {
+        final String url;
+        final PoolConnexions pool;
+        // Dernier battement relu sur la replique (-1 : inconnu ou replique injoignable)
+        volatile long battement = -1;
+        final AtomicLong nbLectures = new AtomicLong();
+
+        Replique(String url, PoolConnexions pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+    }
+
+    public RepliquesLecture(PoolConnexions primaire, List<String> urls, List<PoolConnexions> pools, long retardMaxMs, long battementMs) {
+        this.primaire = primaire;
+        this.retardMaxMs = retardMaxMs;
+        for (int i = 0; i < urls.size(); i++) {
+            repliques.add(new Replique(urls.get(i), pools.get(i)));
+        }
+        battements = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "repliques-battement");
+            t.setDaemon(true);
+            return t;
+        });
+        battements.scheduleWithFixedDelay(this::battre, 0, battementMs, TimeUnit.MILLISECONDS);
+    }
+
+    public int getNbRepliques() { return repliques.size(); }
+
+    // Choix
+
+    /**
+     * @param clientId Client dont les ecritures doivent etre visibles (null : aucun)
+     * @return L'index de la replique a lire, -1 pour la base principale
+     */
+    public int choisir(String clientId) {
+        long maintenant = System.currentTimeMillis();
+        Long ecriture = clientId == null ? null : dernieresEcritures.get(clientId);
+        boolean retenueParEcriture = false;
+        int depart = Math.floorMod(suivante.getAndIncrement(), repliques.size());
+        for (int i = 0; i < repliques.size(); i++) {
+            int index = (depart + i) % repliques.size();
+            Replique replique = repliques.get(index);
+            long battement = replique.battement;
+            if (battement < 0 || maintenant - battement > retardMaxMs) {
+                continue;
+            }
+            if (ecriture != null && battement <= ecriture) {
+                retenueParEcriture = true;
+                continue;
+            }
+            replique.nbLectures.incrementAndGet();
+            return index;
+        }
+        nbLecturesPrimaire.incrementAndGet();
+        if (retenueParEcriture) {
+            nbLecturesPropresEcritures.incrementAndGet();
+        }
+        return -1;
+    }
+
+    /**
+     * A appeler apres la validation d'une ecriture pour le client
+     */
+    public void ecriture(String clientId) {
+        dernieresEcritures.put(clientId, System.currentTimeMillis());
+    }
+
+    // Battement
+
+    private void battre() {
+        long maintenant = System.currentTimeMillis();
+        try (Connection connection = primaire.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(ECRIRE_BATTEMENT)) {
+            stmt.setLong(1, maintenant);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            Log.erreur("Battement de replication impossible sur la base principale: ", e.getMessage());
+        }
+
+        for (Replique replique : repliques) {
+            try (Connection connection = replique.pool.obtenir();
+                 PreparedStatement stmt = connection.prepareStatement(LIRE_BATTEMENT)) {
+                ResultSet rs = stmt.executeQuery();
+                replique.battement = rs.next() ? rs.getLong(1) : -1;
+            } catch (SQLException e) {
+                if (replique.battement >= 0) {
+                    Log.erreur("Replique ", replique.url, " injoignable: ", e.getMessage());
+                }
+                replique.battement = -1;
+            }
+        }
+
+        // Une ecriture plus ancienne que le retard maximal est visible sur toute replique utilisable
+        dernieresEcritures.values().removeIf(ecriture -> maintenant - ecriture > retardMaxMs);
+    }
+
+    // Statistiques
+
+    public String statistiques() {
+        long maintenant = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder("RepliquesLecture{principale=").append(nbLecturesPrimaire.get())
+                .append(" (dont propres ecritures=").append(nbLecturesPropresEcritures.get()).append(')');
+        for (Replique replique : repliques) {
+            long battement = replique.battement;
+            sb.append(", ").append(replique.url).append('=').append(replique.nbLectures.get())
+                    .append(" (retard=").append(battement < 0 ? "inconnu" : (maintenant - battement) + "ms").append(')');
+        }
+        return sb.append(", clients suivis=").append(dernieresEcritures.size()).append('}').toString();
+    }
+
+    @Override
+    public void close() {
+        battements.shutdownNow();
+        for (Replique replique : repliques) {
+            replique.pool.close();
+        }
+    }
+}
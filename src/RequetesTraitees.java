@@ -0,0 +1,310 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.rmi.RemoteException;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Table de deduplication des requetes idempotentes (identifiant de requete choisi par le client)
+ *
+ * La premiere execution d'un identifiant est memorisee avec son resultat ; une requete rejouee avec le meme
+ * identifiant recoit ce resultat sans etre executee a nouveau (ou attend la fin de l'execution en cours).
+ * Une execution en erreur n'est pas memorisee : l'ecriture a ete annulee, la requete peut etre retentee.
+ *
+ * La table est bornee en taille (les plus anciennes terminees sont oubliees) et en duree (fenetreMs) : un identifiant
+ * rejoue au-dela de la fenetre est execute comme une nouvelle requete.
+ * Les ecritures de facture (achat, panier, confirmation, paiement) enregistrent aussi leur resultat dans la meme
+ * transaction que l'ecriture (StockageBricoMerlin) : la table est rechargee au redemarrage. Un identifiant absent
+ * de la table (oublie, ou hors du rechargement) est cherche dans le stockage avant d'etre execute, et une ecriture
+ * refusee parce que sa cle est deja enregistree (SQLState 23000) rend le resultat enregistre.
+ */
+public class RequetesTraitees implements AutoCloseable {
+
+    // Longueur maximale d'un identifiant de requete (cle persistee : operation + identifiant)
+    static final int ID_TAILLE_MAX = 128;
+
+    // Etat SQL d'une cle deja enregistree (cle primaire de requetes_traitees, ou StockageMemoire)
+    private static final String ETAT_CLE_EXISTANTE = "23000";
+    private static final Object ABSENT = new Object();
+
+    // Premier octet d'un resultat encode : booleen sur un octet (achat, paiement), sinon serialisation Java
+    private static final byte RESULTAT_FAUX = 0;
+    private static final byte RESULTAT_VRAI = 1;
+    private static final byte RESULTAT_OBJET = 2;
+
+    private final int tailleMax;
+    private final long fenetreMs;
+    private final Relecture relecture;
+    private final ConcurrentHashMap<String, Entree> entrees = new ConcurrentHashMap<>();
+    // Ordre d'arrivee, pour oublier les plus anciennes (taille et fenetre)
+    private final ConcurrentLinkedQueue<Entree> ordre = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nbOrdre = new AtomicInteger();
+    private final ScheduledExecutorService purges;
+
+    // Statistiques
+    private final AtomicLong nbExecutees = new AtomicLong();
+    private final AtomicLong nbRejouees = new AtomicLong();
+    private final AtomicLong nbRelues = new AtomicLong();
+    private final AtomicLong nbEchecs = new AtomicLong();
+    private final AtomicLong nbOubliees = new AtomicLong();
+
+    /**
+     * Execution d'une requete
+     */
+    @FunctionalInterface
+    public interface Execution<T> {
+        /**
+         * @param cle Cle de la requete a enregistrer avec l'ecriture, null si la requete n'a pas d'identifiant
+         */
+        T executer(String cle) throws RemoteException;
+    }
+
+    /**
+     * Consommateur des requetes enregistrees par le stockage (rechargement au demarrage)
+     */
+    @FunctionalInterface
+    public interface Chargement {
+        void requete(String cle, byte[] resultat, long horodatage);
+    }
+
+    /**
+     * Lecture d'une requete enregistree par le stockage (voir StockageBricoMerlin.lireRequete)
+     */
+    @FunctionalInterface
+    public interface Relecture {
+        void lire(String cle, Chargement consommateur) throws SQLException;
+    }
+
+    private static final class Entree {
+        final String cle;
+        final long horodatage;
+        final CompletableFuture<Object> resultat;
+
+        Entree(String cle, long horodatage, CompletableFuture<Object> resultat) {
+            this.cle = cle;
+            this.horodatage = horodatage;
+            this.resultat = resultat;
+        }
+    }
+
+    /**
+     * @param relecture Lecture d'une requete persistee, pour un identifiant absent de la table
+     * @param purgeStockage Appele a chaque purge avec la date limite, pour supprimer les requetes persistees plus anciennes
+     */
+    public RequetesTraitees(int tailleMax, long fenetreMs, Relecture relecture, LongConsumer purgeStockage) {
+        this.tailleMax = tailleMax;
+        this.fenetreMs = fenetreMs;
+        this.relecture = relecture;
+        purges = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "requetes-purge");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodeMs = Math.max(1, Math.min(fenetreMs / 10, 60000));
+        purges.scheduleWithFixedDelay(() -> {
+            long limite = System.currentTimeMillis() - fenetreMs;
+            oublier(limite);
+            purgeStockage.accept(limite);
+        }, periodeMs, periodeMs, TimeUnit.MILLISECONDS);
+    }
+
+    public long getFenetreMs() { return fenetreMs; }
+
+    // Execution
+
+    /**
+     * Execute la requete une seule fois par identifiant
+     * @param idRequete null pour executer sans deduplication
+     * @return Le resultat de cette execution ou de la premiere execution du meme identifiant
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T executer(String operation, String idRequete, Execution<T> execution) throws RemoteException {
+        if (idRequete == null) {
+            return execution.executer(null);
+        }
+        if (idRequete.isEmpty() || idRequete.length() > ID_TAILLE_MAX) {
+            throw new RemoteException("Identifiant de requete invalide (1 a " + ID_TAILLE_MAX + " caracteres)");
+        }
+
+        String cle = operation + ':' + idRequete;
+        Entree entree = new Entree(cle, System.currentTimeMillis(), new CompletableFuture<>());
+        Entree existante = entrees.putIfAbsent(cle, entree);
+        if (existante != null) {
+            nbRejouees.incrementAndGet();
+            return (T) attendre(existante);
+        }
+        suivre(entree);
+
+        try {
+            Object enregistre = relire(cle);
+            if (enregistre == ABSENT) {
+                T resultat = execution.executer(cle);
+                entree.resultat.complete(resultat);
+                nbExecutees.incrementAndGet();
+                return resultat;
+            }
+            entree.resultat.complete(enregistre);
+            nbRelues.incrementAndGet();
+            return (T) enregistre;
+        } catch (RemoteException | RuntimeException e) {
+            // Cle enregistree entre-temps (autre serveur sur la meme base) : l'ecriture est annulee, rendre son resultat
+            Object enregistre = cleExistante(e) ? relireApresErreur(cle) : ABSENT;
+            if (enregistre != ABSENT) {
+                entree.resultat.complete(enregistre);
+                nbRelues.incrementAndGet();
+                return (T) enregistre;
+            }
+            entrees.remove(cle, entree);
+            entree.resultat.completeExceptionally(e);
+            nbEchecs.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Le resultat enregistre par le stockage dans la fenetre, ABSENT s'il n'y en a pas
+     */
+    private Object relire(String cle) throws RemoteException {
+        long limite = System.currentTimeMillis() - fenetreMs;
+        Object[] resultat = {ABSENT};
+        try {
+            relecture.lire(cle, (c, contenu, horodatage) -> {
+                if (horodatage >= limite) {
+                    resultat[0] = decoder(contenu);
+                }
+            });
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la lecture de la requete ", cle, ": ", e.getMessage());
+            throw new RemoteException("Erreur de base de donnees", e);
+        }
+        return resultat[0];
+    }
+
+    private Object relireApresErreur(String cle) {
+        try {
+            return relire(cle);
+        } catch (RemoteException | RuntimeException e) {
+            return ABSENT;
+        }
+    }
+
+    private static boolean cleExistante(Throwable erreur) {
+        for (Throwable cause = erreur; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ETAT_CLE_EXISTANTE.equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object attendre(Entree entree) throws RemoteException {
+        try {
+            return entree.resultat.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Attente de la requete interrompue", e);
+        } catch (ExecutionException e) {
+            // La requete rejouee recoit l'erreur de l'execution qu'elle a attendue
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    // Rechargement
+
+    /**
+     * Ajoute une requete enregistree par le stockage (au demarrage, avant les premiers appels)
+     */
+    public void charger(String cle, byte[] resultat, long horodatage) {
+        if (horodatage < System.currentTimeMillis() - fenetreMs) {
+            return;
+        }
+        Entree entree = new Entree(cle, horodatage, CompletableFuture.completedFuture(decoder(resultat)));
+        if (entrees.putIfAbsent(cle, entree) == null) {
+            suivre(entree);
+        }
+    }
+
+    /**
+     * Encodage du resultat d'une requete pour le stockage (resultats du service : serialisables)
+     */
+    static byte[] encoder(Object resultat) {
+        if (resultat instanceof Boolean) {
+            return new byte[]{(Boolean) resultat ? RESULTAT_VRAI : RESULTAT_FAUX};
+        }
+        ByteArrayOutputStream contenu = new ByteArrayOutputStream(256);
+        contenu.write(RESULTAT_OBJET);
+        try (ObjectOutputStream sortie = new ObjectOutputStream(contenu)) {
+            sortie.writeObject(resultat);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return contenu.toByteArray();
+    }
+
+    static Object decoder(byte[] resultat) {
+        if (resultat[0] != RESULTAT_OBJET) {
+            return resultat[0] == RESULTAT_VRAI;
+        }
+        try (ObjectInputStream entree = new ObjectInputStream(new ByteArrayInputStream(resultat, 1, resultat.length - 1))) {
+            return entree.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Resultat de requete illisible", e);
+        }
+    }
+
+    // Bornes
+
+    private void suivre(Entree entree) {
+        ordre.add(entree);
+        if (nbOrdre.incrementAndGet() > tailleMax) {
+            oublier(Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Oublie les requetes anterieures a la limite, puis les plus anciennes tant que la table depasse sa taille
+     * S'arrete a la plus ancienne requete encore en cours : l'oublier laisserait un rejeu l'executer une seconde fois.
+     */
+    private void oublier(long limite) {
+        Entree plusAncienne;
+        while ((plusAncienne = ordre.peek()) != null && plusAncienne.resultat.isDone()
+                && (plusAncienne.horodatage < limite || nbOrdre.get() > tailleMax)) {
+            if (ordre.remove(plusAncienne)) {
+                nbOrdre.decrementAndGet();
+                if (entrees.remove(plusAncienne.cle, plusAncienne)) {
+                    nbOubliees.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Statistiques
+
+    public String statistiques() {
+        return String.format("RequetesTraitees{suivies=%d, executees=%d, rejouees=%d, relues=%d, echecs=%d, oubliees=%d, fenetre=%dms}",
+                entrees.size(), nbExecutees.get(), nbRejouees.get(), nbRelues.get(), nbEchecs.get(), nbOubliees.get(), fenetreMs);
+    }
+
+    @Override
+    public void close() {
+        purges.shutdownNow();
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Date;
+
+/**
+ * Quantite d'un article tenue pour un client jusqu'a son expiration (reserverArticle)
+ * Le stock est deja retire : confirmerReservation ajoute la ligne a la facture, au prix de la reservation.
+ */
+public class Reservation implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final long id;
+    private final String reference;
+    private final int quantite;
+    private final String clientId;
+    private final double prixUnitaire;
+    private final Date expiration;
+
+    public Reservation(long id, String reference, int quantite, String clientId, double prixUnitaire, Date expiration) {
+        this.id = id;
+        this.reference = reference;
+        this.quantite = quantite;
+        this.clientId = clientId;
+        this.prixUnitaire = prixUnitaire;
+        this.expiration = expiration;
+    }
+
+    // Getters
+    public long getId() { return id; }
+    public String getReference() { return reference; }
+    public int getQuantite() { return quantite; }
+    public String getClientId() { return clientId; }
+    public double getPrixUnitaire() { return prixUnitaire; }
+    public Date getExpiration() { return expiration; }
+
+    @Override
+    public String toString() {
+        return String.format("Reservation{id=%d, ref='%s', quantite=%d, client='%s', expiration=%tT}", id, reference, quantite, clientId, expiration);
+    }
+}
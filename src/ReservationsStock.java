@@ -0,0 +1,198 @@
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reservations en cours du serveur, avec expiration
+ *
+ * Chaque reservation entre dans une DelayQueue a son echeance : le thread d'expiration dort jusqu'a la plus proche
+ * et ne traite que les reservations echues, sans parcourir les autres. Une reservation confirmee ou liberee avant
+ * est retiree de la table ; son echeance, restee dans la file, est ignoree quand elle arrive.
+ * Le stock d'une reservation echue est rendu par le consommateur donne au constructeur ; s'il n'y parvient pas,
+ * il la confie a reessayer() et elle repasse dans la file, hors des reservations en cours.
+ *
+ * Les reservations sont enregistrees par le stockage avec le retrait de leur stock : au demarrage, le serveur
+ * les rend a ajouter() avec leur echeance d'origine, et close() ne fait qu'arreter l'expiration.
+ */
+public class ReservationsStock implements AutoCloseable {
+
+    private final long dureeMs;
+    private final int noeudIndex;
+    private final int nbNoeuds;
+    private final Consumer<Reservation> rendreStock;
+    private final Map<Long, Reservation> enCours = new ConcurrentHashMap<>();
+    // Reservations terminees dont le stock reste a rendre (nouvel essai a leur echeance)
+    private final Map<Long, Reservation> aRendre = new ConcurrentHashMap<>();
+    private final DelayQueue<Echeance> echeances = new DelayQueue<>();
+    private final Thread expiration;
+    // Depart a l'horloge : les identifiants d'un redemarrage ne reprennent pas ceux d'avant
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    // Statistiques
+    private final AtomicLong nbCreees = new AtomicLong();
+    private final AtomicLong nbConfirmees = new AtomicLong();
+    private final AtomicLong nbLiberees = new AtomicLong();
+    private final AtomicLong nbExpirees = new AtomicLong();
+    private final AtomicLong nbReessais = new AtomicLong();
+
+    private static final class Echeance implements Delayed {
+        final long id;
+        final long echeanceNs;
+
+        Echeance(long id, long echeanceNs) {
+            this.id = id;
+            this.echeanceNs = echeanceNs;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unite) {
+            return unite.convert(echeanceNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed autre) {
+            return Long.compare(echeanceNs, ((Echeance) autre).echeanceNs);
+        }
+    }
+
+    /**
+     * @param noeudIndex Position du serveur parmi nbNoeuds : l'identifiant d'une reservation designe son noeud
+     * @param rendreStock Appele pour chaque reservation echue (thread d'expiration)
+     */
+    public ReservationsStock(long dureeMs, int noeudIndex, int nbNoeuds, Consumer<Reservation> rendreStock) {
+        this.dureeMs = dureeMs;
+        this.noeudIndex = noeudIndex;
+        this.nbNoeuds = nbNoeuds;
+        this.rendreStock = rendreStock;
+        this.expiration = new Thread(this::expirer, "reservations-expiration");
+        expiration.setDaemon(true);
+        expiration.start();
+    }
+
+    /**
+     * Noeud qui tient une reservation (voir ServiceRoute)
+     */
+    static int noeud(long idReservation, int nbNoeuds) {
+        return (int) Math.floorMod(idReservation, (long) nbNoeuds);
+    }
+
+    /**
+     * Nouvelle reservation (identifiant et echeance), a enregistrer par le stockage puis a ajouter()
+     */
+    public Reservation preparer(String reference, int quantite, String clientId, double prixUnitaire) {
+        long id = sequence.incrementAndGet() * nbNoeuds + noeudIndex;
+        return new Reservation(id, reference, quantite, clientId, prixUnitaire, new Date(System.currentTimeMillis() + dureeMs));
+    }
+
+    /**
+     * Suit une reservation enregistree (nouvelle ou rechargee au demarrage) jusqu'a son echeance
+     */
+    public void ajouter(Reservation reservation) {
+        enCours.put(reservation.getId(), reservation);
+        planifier(reservation.getId(), reservation.getExpiration().getTime() - System.currentTimeMillis());
+        nbCreees.incrementAndGet();
+    }
+
+    /**
+     * Remet en cours une reservation retiree dont la confirmation a echoue (echeance d'origine)
+     */
+    public void remettre(Reservation reservation) {
+        enCours.put(reservation.getId(), reservation);
+        // L'echeance d'origine a pu passer pendant la confirmation : elle n'aurait alors rien trouve
+        planifier(reservation.getId(), reservation.getExpiration().getTime() - System.currentTimeMillis());
+    }
+
+    /**
+     * Replanifie le retour du stock d'une reservation terminee (le consommateur n'a pas pu le rendre)
+     * Elle n'est plus en cours : elle ne peut plus etre confirmee ni liberee.
+     */
+    public void reessayer(Reservation reservation, long delaiMs) {
+        aRendre.put(reservation.getId(), reservation);
+        planifier(reservation.getId(), delaiMs);
+        nbReessais.incrementAndGet();
+    }
+
+    private void planifier(long id, long delaiMs) {
+        echeances.add(new Echeance(id, System.nanoTime() + Math.max(0, delaiMs) * 1_000_000));
+    }
+
+    /**
+     * Retire une reservation en cours du client, pour la confirmer
+     * @return null si elle est inconnue, deja echue ou a un autre client
+     */
+    public Reservation confirmer(long id, String clientId) {
+        Reservation reservation = retirer(id, clientId);
+        if (reservation != null) {
+            nbConfirmees.incrementAndGet();
+        }
+        return reservation;
+    }
+
+    /**
+     * Retire une reservation en cours du client, pour rendre son stock
+     * @return null si elle est inconnue, deja echue ou a un autre client
+     */
+    public Reservation liberer(long id, String clientId) {
+        Reservation reservation = retirer(id, clientId);
+        if (reservation != null) {
+            nbLiberees.incrementAndGet();
+        }
+        return reservation;
+    }
+
+    private Reservation retirer(long id, String clientId) {
+        Reservation reservation = enCours.get(id);
+        if (reservation == null || !reservation.getClientId().equals(clientId) || !enCours.remove(id, reservation)) {
+            return null;
+        }
+        return reservation;
+    }
+
+    public int getNbEnCours() { return enCours.size(); }
+
+    // Expiration
+
+    private void expirer() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Echeance echeance = echeances.take();
+                Reservation reservation = enCours.remove(echeance.id);
+                if (reservation != null) {
+                    nbExpirees.incrementAndGet();
+                } else {
+                    reservation = aRendre.remove(echeance.id);
+                }
+                if (reservation != null) {
+                    rendreStock.accept(reservation);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                Log.erreur("Erreur lors de l'expiration d'une reservation: ", e.getMessage());
+            }
+        }
+    }
+
+    // Statistiques
+
+    public String statistiques() {
+        return String.format("ReservationsStock{en cours=%d, creees=%d, confirmees=%d, liberees=%d, expirees=%d, a rendre=%d, "
+                        + "nouveaux essais=%d, echeances en file=%d}",
+                enCours.size(), nbCreees.get(), nbConfirmees.get(), nbLiberees.get(), nbExpirees.get(), aRendre.size(),
+                nbReessais.get(), echeances.size());
+    }
+
+    /**
+     * Arrete l'expiration ; les reservations en cours restent enregistrees par le stockage
+     * Celles dont le stock reste a rendre le sont aussi : rechargees au prochain demarrage, elles sont rendues a leur echeance.
+     */
+    @Override
+    public void close() {
+        expiration.interrupt();
+    }
+}
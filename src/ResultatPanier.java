@@ -0,0 +1,49 @@
+import java.util.List;
+
+/**
+ * Resultat d'un achat groupe : statut de chaque ligne, dans l'ordre du panier
+ */
+public class ResultatPanier implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Statut {
+        ACCEPTEE,
+        STOCK_INSUFFISANT,
+        ARTICLE_INCONNU,
+        QUANTITE_INVALIDE,
+        // Ligne servable mais annulee car une autre ligne d'un panier "tout ou rien" a echoue
+        ANNULEE
+    }
+
+    private final List<Statut> statuts;
+    private final double montantAjoute;
+
+    public ResultatPanier(List<Statut> statuts, double montantAjoute) {
+        this.statuts = statuts;
+        this.montantAjoute = montantAjoute;
+    }
+
+    // Getters
+    public List<Statut> getStatuts() { return statuts; }
+    public Statut getStatut(int ligne) { return statuts.get(ligne); }
+    public double getMontantAjoute() { return montantAjoute; }
+
+    public int getNbLignesAcceptees() {
+        int n = 0;
+        for (Statut statut : statuts) {
+            if (statut == Statut.ACCEPTEE) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public boolean isComplet() {
+        return getNbLignesAcceptees() == statuts.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResultatPanier{acceptees=%d/%d, montant=%.2fe}", getNbLignesAcceptees(), statuts.size(), montantAjoute);
+    }
+}
@@ -0,0 +1,413 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport binaire du service, a cote de RMI (protocole : voir ProtocoleBinaire)
+ *
+ * Un seul thread (selecteur) lit et ecrit toutes les connexions en mode non bloquant, avec un tampon direct
+ * de lecture et un d'ecriture par connexion ; les reponses pretes d'une connexion partent ensemble dans le meme write().
+ * Les requetes decodees s'executent sur un executeur borne (nbThreads appels en cours, fileMax en attente) :
+ * au-dela, la requete recoit aussitot une erreur ERREUR_SATURE, comme le controle d'admission.
+ * Une connexion peut avoir plusieurs requetes en cours ; leurs reponses repartent dans l'ordre ou elles se terminent.
+ */
+public class ServeurBinaire implements AutoCloseable {
+
+    private static final int TAILLE_TAMPON = 64 * 1024;
+    private static final int TAILLE_POIGNEE = Integer.BYTES + 1;
+
+    private final BricoMerlinService service;
+    private final ServerSocketChannel ecoute;
+    private final Selector selecteur;
+    private final ThreadPoolExecutor executeur;
+    private final Thread thread;
+    private volatile boolean ferme = false;
+
+    // Connexions ayant des reponses a envoyer, signalees par les threads de l'executeur
+    private final Queue<Connexion> aEcrire = new ConcurrentLinkedQueue<>();
+
+    // Statistiques
+    private final AtomicLong nbConnexions = new AtomicLong();
+    private final AtomicLong nbRequetes = new AtomicLong();
+    private final AtomicLong nbSaturees = new AtomicLong();
+    private final AtomicLong nbEcritures = new AtomicLong();
+    private final AtomicLong nbReponses = new AtomicLong();
+
+    private final class Connexion {
+        final SocketChannel canal;
+        final SelectionKey cle;
+        ByteBuffer lecture = ByteBuffer.allocateDirect(TAILLE_TAMPON);
+        ByteBuffer ecriture = ByteBuffer.allocateDirect(TAILLE_TAMPON).flip();
+        final Queue<byte[]> reponses = new ConcurrentLinkedQueue<>();
+        boolean poigneeFaite = false;
+        volatile boolean ouverte = true;
+
+        Connexion(SocketChannel canal) throws IOException {
+            this.canal = canal;
+            this.cle = canal.register(selecteur, SelectionKey.OP_READ, this);
+        }
+
+        void repondre(byte[] reponse) {
+            if (!ouverte) {
+                return;
+            }
+            reponses.add(reponse);
+            aEcrire.add(this);
+            selecteur.wakeup();
+        }
+    }
+
+    public ServeurBinaire(BricoMerlinService service, int port, int nbThreads, int fileMax) throws IOException {
+        this.service = service;
+        this.selecteur = Selector.open();
+        this.ecoute = ServerSocketChannel.open();
+        ecoute.bind(new InetSocketAddress(port));
+        ecoute.configureBlocking(false);
+        ecoute.register(selecteur, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger numero = new AtomicInteger();
+        this.executeur = new ThreadPoolExecutor(nbThreads, nbThreads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(fileMax), r -> {
+            Thread t = new Thread(r, "serveur-binaire-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.thread = new Thread(this::boucler, "serveur-binaire-selecteur");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return ecoute.socket().getLocalPort();
+    }
+
+    // Selecteur
+
+    private void boucler() {
+        while (!ferme) {
+            try {
+                selecteur.select();
+                Connexion prete;
+                while ((prete = aEcrire.poll()) != null) {
+                    ecrire(prete);
+                }
+                Iterator<SelectionKey> cles = selecteur.selectedKeys().iterator();
+                while (cles.hasNext()) {
+                    SelectionKey cle = cles.next();
+                    cles.remove();
+                    if (!cle.isValid()) {
+                        continue;
+                    }
+                    if (cle.isAcceptable()) {
+                        accepter();
+                    } else {
+                        Connexion connexion = (Connexion) cle.attachment();
+                        if (cle.isReadable()) {
+                            lire(connexion);
+                        }
+                        if (cle.isValid() && cle.isWritable()) {
+                            ecrire(connexion);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (!ferme) {
+                    Log.erreur("Serveur binaire: ", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accepter() throws IOException {
+        SocketChannel canal = ecoute.accept();
+        if (canal == null) {
+            return;
+        }
+        canal.configureBlocking(false);
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        new Connexion(canal);
+        nbConnexions.incrementAndGet();
+    }
+
+    private void lire(Connexion connexion) {
+        try {
+            if (connexion.canal.read(connexion.lecture) < 0) {
+                fermer(connexion);
+                return;
+            }
+            ByteBuffer tampon = connexion.lecture.flip();
+            if (!connexion.poigneeFaite) {
+                if (tampon.remaining() < TAILLE_POIGNEE) {
+                    tampon.compact();
+                    return;
+                }
+                if (tampon.getInt() != ProtocoleBinaire.MAGIQUE || tampon.get() != ProtocoleBinaire.VERSION) {
+                    Log.erreur("Serveur binaire: protocole inconnu depuis ", connexion.canal.getRemoteAddress());
+                    fermer(connexion);
+                    return;
+                }
+                connexion.poigneeFaite = true;
+            }
+
+            while (tampon.remaining() >= Integer.BYTES) {
+                int longueur = tampon.getInt(tampon.position());
+                if (longueur <= ProtocoleBinaire.ENTETE_TRAME || longueur > ProtocoleBinaire.TAILLE_MAX_TRAME) {
+                    Log.erreur("Serveur binaire: trame invalide (", longueur, " octets) depuis ", connexion.canal.getRemoteAddress());
+                    fermer(connexion);
+                    return;
+                }
+                if (tampon.remaining() < Integer.BYTES + longueur) {
+                    if (tampon.capacity() < Integer.BYTES + longueur) {
+                        // Trame plus grande que le tampon : l'agrandir pour la recevoir en entier
+                        ByteBuffer agrandi = ByteBuffer.allocateDirect(Integer.BYTES + longueur);
+                        agrandi.put(tampon);
+                        connexion.lecture = agrandi;
+                        return;
+                    }
+                    break;
+                }
+                tampon.getInt();
+                byte[] trame = new byte[longueur];
+                tampon.get(trame);
+                soumettre(connexion, trame);
+            }
+            tampon.compact();
+        } catch (IOException e) {
+            fermer(connexion);
+        }
+    }
+
+    private void soumettre(Connexion connexion, byte[] trame) {
+        nbRequetes.incrementAndGet();
+        try {
+            executeur.execute(() -> connexion.repondre(traiter(trame)));
+        } catch (RejectedExecutionException e) {
+            nbSaturees.incrementAndGet();
+            long idRequete = ByteBuffer.wrap(trame).getLong();
+            connexion.repondre(erreur(idRequete, ProtocoleBinaire.ERREUR_SATURE,
+                    "Serveur binaire sature (" + executeur.getQueue().size() + " requetes en attente)", 50));
+        }
+    }
+
+    /**
+     * Envoie les reponses en attente, regroupees dans le tampon direct de la connexion
+     * Si le canal n'accepte pas tout, OP_WRITE reste demande jusqu'a ce que tout soit parti.
+     */
+    private void ecrire(Connexion connexion) {
+        if (!connexion.ouverte) {
+            return;
+        }
+        try {
+            while (true) {
+                if (!connexion.ecriture.hasRemaining()) {
+                    ByteBuffer tampon = connexion.ecriture.clear();
+                    byte[] reponse;
+                    while ((reponse = connexion.reponses.peek()) != null) {
+                        if (reponse.length > tampon.capacity() && tampon.position() == 0) {
+                            tampon = ByteBuffer.allocateDirect(reponse.length);
+                            connexion.ecriture = tampon;
+                        }
+                        if (reponse.length > tampon.remaining()) {
+                            break;
+                        }
+                        tampon.put(reponse);
+                        connexion.reponses.poll();
+                        nbReponses.incrementAndGet();
+                    }
+                    tampon.flip();
+                    if (!tampon.hasRemaining()) {
+                        connexion.cle.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+                connexion.canal.write(connexion.ecriture);
+                nbEcritures.incrementAndGet();
+                if (connexion.ecriture.hasRemaining()) {
+                    connexion.cle.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fermer(connexion);
+        }
+    }
+
+    private void fermer(Connexion connexion) {
+        connexion.ouverte = false;
+        connexion.cle.cancel();
+        try {
+            connexion.canal.close();
+        } catch (IOException e) {
+            // Deja fermee
+        }
+    }
+
+    // Traitement
+
+    /**
+     * Decode la requete, appelle le service et encode la reponse (thread de l'executeur)
+     * @param trame Identifiant de requete, operation et parametres
+     * @return La reponse complete, longueur comprise
+     */
+    private byte[] traiter(byte[] trame) {
+        DataInputStream entree = new DataInputStream(new ByteArrayInputStream(trame));
+        long idRequete = 0;
+        try {
+            idRequete = entree.readLong();
+            byte operation = entree.readByte();
+            ByteArrayOutputStream tampon = new ByteArrayOutputStream(256);
+            DataOutputStream sortie = new DataOutputStream(tampon);
+            sortie.writeInt(0);
+            sortie.writeLong(idRequete);
+            sortie.writeByte(ProtocoleBinaire.OK);
+            executer(operation, entree, sortie);
+            return avecLongueur(tampon.toByteArray());
+        } catch (ServiceSatureException e) {
+            return erreur(idRequete, ProtocoleBinaire.ERREUR_SATURE, e.getMessage(), e.getDelaiConseilleMs());
+        } catch (RemoteException e) {
+            return erreur(idRequete, ProtocoleBinaire.ERREUR_SERVICE, e.getMessage(), 0);
+        } catch (IOException e) {
+            return erreur(idRequete, ProtocoleBinaire.ERREUR_REQUETE, "Requete illisible: " + e.getMessage(), 0);
+        } catch (RuntimeException e) {
+            Log.erreur("Serveur binaire: erreur inattendue ", e);
+            return erreur(idRequete, ProtocoleBinaire.ERREUR_SERVICE, e.toString(), 0);
+        }
+    }
+
+    private void executer(byte operation, DataInputStream entree, DataOutputStream sortie) throws IOException {
+        switch (operation) {
+            case ProtocoleBinaire.CONSULTER_STOCK:
+                ProtocoleBinaire.ecrireArticle(sortie, service.consulterStock(CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.RECHERCHER_ARTICLES:
+                ProtocoleBinaire.ecrireChaines(sortie, service.rechercherArticles(CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.RECHERCHER_CATALOGUE:
+                ProtocoleBinaire.ecrireArticles(sortie, service.rechercherCatalogue(ProtocoleBinaire.lireCritere(entree)));
+                break;
+            case ProtocoleBinaire.ACHETER_ARTICLE:
+                sortie.writeBoolean(service.acheterArticle(CodecBinaire.lireChaine(entree), entree.readInt(), CodecBinaire.lireChaine(entree),
+                        CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.ACHETER_PANIER:
+                ProtocoleBinaire.ecrireResultatPanier(sortie, service.acheterPanier(ProtocoleBinaire.lireLignesPanier(entree),
+                        CodecBinaire.lireChaine(entree), entree.readBoolean(), CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.RESERVER_ARTICLE:
+                ProtocoleBinaire.ecrireReservation(sortie, service.reserverArticle(CodecBinaire.lireChaine(entree),
+                        entree.readInt(), CodecBinaire.lireChaine(entree), CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.CONFIRMER_RESERVATION:
+                sortie.writeBoolean(service.confirmerReservation(entree.readLong(), CodecBinaire.lireChaine(entree),
+                        CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.LIBERER_RESERVATION:
+                sortie.writeBoolean(service.libererReservation(entree.readLong(), CodecBinaire.lireChaine(entree),
+                        CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.AJOUTER_STOCK:
+                sortie.writeBoolean(service.ajouterStock(CodecBinaire.lireChaine(entree), entree.readInt(), CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.AJOUTER_STOCK_MASSE:
+                ProtocoleBinaire.ecrireRapport(sortie, service.ajouterStockMasse(ProtocoleBinaire.lireLignesLivraison(entree), entree.readBoolean(),
+                        CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.CONSULTER_MODIFICATIONS:
+                ProtocoleBinaire.ecrireModifications(sortie, service.consulterModifications(entree.readLong()));
+                break;
+            case ProtocoleBinaire.CONSULTER_FACTURE:
+                ProtocoleBinaire.ecrireFacture(sortie, service.consulterFacture(CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.CONSULTER_ENTETE_FACTURE:
+                ProtocoleBinaire.ecrireEntete(sortie, service.consulterEnteteFacture(CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.CONSULTER_LIGNES_FACTURE:
+                ProtocoleBinaire.ecrirePage(sortie, service.consulterLignesFacture(CodecBinaire.lireChaine(entree),
+                        entree.readLong(), entree.readLong(), entree.readInt()));
+                break;
+            case ProtocoleBinaire.PAYER_FACTURE:
+                sortie.writeBoolean(service.payerFacture(CodecBinaire.lireChaine(entree), CodecBinaire.lireChaine(entree), CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.CHIFFRE_AFFAIRES:
+                sortie.writeDouble(service.calculerChiffreAffaires(ProtocoleBinaire.lireDate(entree)));
+                break;
+            case ProtocoleBinaire.CHIFFRE_AFFAIRES_PERIODE:
+                ProtocoleBinaire.ecrireChiffreAffairesParJour(sortie, service.calculerChiffreAffairesPeriode(
+                        ProtocoleBinaire.lireDate(entree), ProtocoleBinaire.lireDate(entree), CodecBinaire.lireChaine(entree)));
+                break;
+            case ProtocoleBinaire.RAPPORT_VENTES:
+                ProtocoleBinaire.ecrireLignesRapport(sortie, service.consulterRapportVentes(
+                        ProtocoleBinaire.lireDate(entree), ProtocoleBinaire.lireDate(entree), ProtocoleBinaire.lireDimension(entree)));
+                break;
+            default:
+                throw new IOException("operation inconnue " + operation);
+        }
+    }
+
+    private static byte[] erreur(long idRequete, byte type, String message, long delaiConseilleMs) {
+        try {
+            ByteArrayOutputStream tampon = new ByteArrayOutputStream(64);
+            DataOutputStream sortie = new DataOutputStream(tampon);
+            sortie.writeInt(0);
+            sortie.writeLong(idRequete);
+            sortie.writeByte(ProtocoleBinaire.ERREUR);
+            sortie.writeByte(type);
+            sortie.writeUTF(message == null ? "" : message);
+            sortie.writeLong(delaiConseilleMs);
+            return avecLongueur(tampon.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] avecLongueur(byte[] reponse) {
+        ByteBuffer.wrap(reponse).putInt(reponse.length - Integer.BYTES);
+        return reponse;
+    }
+
+    // Statistiques
+
+    public String statistiques() {
+        long ecritures = nbEcritures.get();
+        return String.format("ServeurBinaire{port=%d, connexions=%d, requetes=%d, saturees=%d, en cours=%d, en attente=%d, reponses/ecriture=%.1f}",
+                getPort(), nbConnexions.get(), nbRequetes.get(), nbSaturees.get(), executeur.getActiveCount(),
+                executeur.getQueue().size(), ecritures == 0 ? 0.0 : (double) nbReponses.get() / ecritures);
+    }
+
+    @Override
+    public void close() {
+        ferme = true;
+        selecteur.wakeup();
+        try {
+            thread.join(1000);
+            for (SelectionKey cle : selecteur.keys()) {
+                cle.channel().close();
+            }
+            selecteur.close();
+            ecoute.close();
+        } catch (IOException e) {
+            Log.erreur("Serveur binaire: fermeture ", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executeur.shutdown();
+    }
+}
@@ -0,0 +1,170 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BricoMerlinServiceAsync au-dessus d'un BricoMerlinService (stub RMI cote client, service local cote serveur)
+ * Les appels s'executent sur un executeur borne : au plus nbThreads appels en cours et fileMax en attente.
+ * Au-dela, le futur est aussitot termine par une ServiceSatureException (contre-pression vers l'appelant)
+ * au lieu d'accumuler les appels en memoire.
+ *
+ * Le stub RMI accepte les appels concurrents (une connexion par appel en cours) : N appels asynchrones
+ * coutent environ un aller-retour au lieu de N.
+ */
+public class ServiceAsynchrone implements BricoMerlinServiceAsync, AutoCloseable {
+
+    private final BricoMerlinService service;
+    private final ThreadPoolExecutor executeur;
+
+    public ServiceAsynchrone(BricoMerlinService service, int nbThreads, int fileMax) {
+        this.service = service;
+        AtomicInteger numero = new AtomicInteger();
+        this.executeur = new ThreadPoolExecutor(nbThreads, nbThreads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(fileMax), r -> {
+            Thread t = new Thread(r, "service-async-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executeur.allowCoreThreadTimeOut(true);
+    }
+
+    @FunctionalInterface
+    private interface AppelDistant<T> {
+        T appeler() throws RemoteException;
+    }
+
+    private <T> CompletableFuture<T> executer(AppelDistant<T> appel) {
+        CompletableFuture<T> futur = new CompletableFuture<>();
+        try {
+            executeur.execute(() -> {
+                try {
+                    futur.complete(appel.appeler());
+                } catch (Throwable e) {
+                    futur.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            futur.completeExceptionally(new ServiceSatureException("Trop d'appels asynchrones en attente (" + executeur.getQueue().size() + ")", 50));
+        }
+        return futur;
+    }
+
+    // Service
+
+    @Override
+    public CompletableFuture<Article> consulterStock(String reference) {
+        return executer(() -> service.consulterStock(reference));
+    }
+
+    @Override
+    public CompletableFuture<List<Article>> consulterStocks(List<String> references) {
+        List<CompletableFuture<Article>> futurs = new ArrayList<>(references.size());
+        for (String reference : references) {
+            futurs.add(consulterStock(reference));
+        }
+        return CompletableFuture.allOf(futurs.toArray(new CompletableFuture<?>[0])).thenApply(fini -> {
+            List<Article> articles = new ArrayList<>(futurs.size());
+            for (CompletableFuture<Article> futur : futurs) {
+                articles.add(futur.join());
+            }
+            return articles;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<String>> rechercherArticles(String famille) {
+        return executer(() -> service.rechercherArticles(famille));
+    }
+
+    @Override
+    public CompletableFuture<List<Article>> rechercherCatalogue(CritereRecherche critere) {
+        return executer(() -> service.rechercherCatalogue(critere));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> acheterArticle(String reference, int quantite, String clientId, String idRequete) {
+        return executer(() -> service.acheterArticle(reference, quantite, clientId, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<ResultatPanier> acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) {
+        return executer(() -> service.acheterPanier(lignes, clientId, toutOuRien, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Reservation> reserverArticle(String reference, int quantite, String clientId, String idRequete) {
+        return executer(() -> service.reserverArticle(reference, quantite, clientId, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> confirmerReservation(long idReservation, String clientId, String idRequete) {
+        return executer(() -> service.confirmerReservation(idReservation, clientId, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> libererReservation(long idReservation, String clientId, String idRequete) {
+        return executer(() -> service.libererReservation(idReservation, clientId, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> ajouterStock(String reference, int quantite, String idRequete) {
+        return executer(() -> service.ajouterStock(reference, quantite, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<RapportImport> ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) {
+        return executer(() -> service.ajouterStockMasse(lignes, creerArticles, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Facture> consulterFacture(String clientId) {
+        return executer(() -> service.consulterFacture(clientId));
+    }
+
+    @Override
+    public CompletableFuture<EnteteFacture> consulterEnteteFacture(String clientId) {
+        return executer(() -> service.consulterEnteteFacture(clientId));
+    }
+
+    @Override
+    public CompletableFuture<PageLignesFacture> consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) {
+        return executer(() -> service.consulterLignesFacture(clientId, numeroFacture, apresLigne, taille));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> payerFacture(String clientId, String modePaiement, String idRequete) {
+        return executer(() -> service.payerFacture(clientId, modePaiement, idRequete));
+    }
+
+    @Override
+    public CompletableFuture<Double> calculerChiffreAffaires(Date date) {
+        return executer(() -> service.calculerChiffreAffaires(date));
+    }
+
+    @Override
+    public CompletableFuture<SortedMap<Date, Double>> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) {
+        return executer(() -> service.calculerChiffreAffairesPeriode(debut, fin, modePaiement));
+    }
+
+    @Override
+    public CompletableFuture<List<LigneRapport>> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) {
+        return executer(() -> service.consulterRapportVentes(debut, fin, dimension));
+    }
+
+    public String statistiques() {
+        return String.format("ServiceAsynchrone{threads=%d, actifs=%d, en attente=%d, termines=%d}",
+                executeur.getPoolSize(), executeur.getActiveCount(), executeur.getQueue().size(), executeur.getCompletedTaskCount());
+    }
+
+    @Override
+    public void close() {
+        executeur.shutdown();
+    }
+}
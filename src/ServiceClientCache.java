@@ -0,0 +1,377 @@
+import java.rmi.RemoteException;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enveloppe du stub BricoMerlinService cote client : cache court des articles et des en-tetes de facture,
+ * et regroupement des appels identiques en cours
+ *
+ * Un article reste en cache ttlMs au plus. Les ecritures passees par cette enveloppe (achat, reapprovisionnement,
+ * paiement) oublient aussitot les entrees concernees. Pour les ecritures des autres postes, la verification
+ * (optionnelle, toutes les verificationMs) demande au serveur les references modifiees depuis la derniere
+ * verification : un seul appel pour tout le cache, au lieu d'un appel par article consulte.
+ *
+ * Deux appels simultanes pour la meme cle ne font qu'un seul appel distant (le second attend le resultat du premier).
+ * Une invalidation ne vaut que pour sa cle : un resultat charge pendant l'invalidation de sa cle n'est pas mis en cache,
+ * et un appel lance apres elle n'attend pas l'appel en cours, parti avant l'ecriture.
+ */
+public class ServiceClientCache implements BricoMerlinService {
+
+    private static final String PREFIXE_ARTICLE = "article:";
+    private static final String PREFIXE_ENTETE = "entete:";
+    private static final String PREFIXE_FACTURE = "facture:";
+
+    private final BricoMerlinService service;
+    private final long ttlNs;
+    private final long verificationNs;
+    private final int capacite;
+
+    private static final class Entree<V> {
+        private final V valeur;
+        private final long expiration;
+
+        private Entree(V valeur, long expiration) {
+            this.valeur = valeur;
+            this.expiration = expiration;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entree<Article>> articles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entree<EnteteFacture>> entetes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> enCours = new ConcurrentHashMap<>();
+    // Horloge des invalidations : derniere invalidation par cle (avec son prefixe), et plancher commun
+    // Un chargement dont le jeton est anterieur a l'un ou a l'autre n'est pas mis en cache
+    private final AtomicLong horloge = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    private volatile long plancher = 0;
+
+    // Verification aupres du serveur, protegee par verrouVerification
+    private final Object verrouVerification = new Object();
+    private long versionServeur = 0;
+    private long derniereVerification;
+
+    // Statistiques
+    private final AtomicLong succes = new AtomicLong();
+    private final AtomicLong echecs = new AtomicLong();
+    private final AtomicLong regroupes = new AtomicLong();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param ttlMs Duree de vie d'une entree du cache (0 : pas de cache, seulement le regroupement)
+     * @param verificationMs Intervalle de verification des modifications aupres du serveur (0 : desactivee)
+     * @param capacite Nombre maximal d'articles en cache
+     */
+    public ServiceClientCache(BricoMerlinService service, long ttlMs, long verificationMs, int capacite) {
+        this.service = service;
+        this.ttlNs = ttlMs * 1_000_000;
+        this.verificationNs = verificationMs * 1_000_000;
+        this.capacite = capacite;
+        this.derniereVerification = System.nanoTime();
+    }
+
+    // Lectures en cache
+
+    @Override
+    public Article consulterStock(String reference) throws RemoteException {
+        verifier();
+        return lire(articles, PREFIXE_ARTICLE, reference, () -> service.consulterStock(reference));
+    }
+
+    @Override
+    public EnteteFacture consulterEnteteFacture(String clientId) throws RemoteException {
+        return lire(entetes, PREFIXE_ENTETE, clientId, () -> service.consulterEnteteFacture(clientId));
+    }
+
+    @Override
+    public Facture consulterFacture(String clientId) throws RemoteException {
+        // Pas de cache (message volumineux), seulement le regroupement
+        return regrouper(PREFIXE_FACTURE + clientId, () -> service.consulterFacture(clientId));
+    }
+
+    // Ecritures : les entrees concernees sont oubliees
+
+    @Override
+    public boolean acheterArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        try {
+            return service.acheterArticle(reference, quantite, clientId, idRequete);
+        } finally {
+            invaliderArticle(reference);
+            invaliderFacture(clientId);
+        }
+    }
+
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) throws RemoteException {
+        try {
+            return service.acheterPanier(lignes, clientId, toutOuRien, idRequete);
+        } finally {
+            for (LignePanier ligne : lignes) {
+                invaliderArticle(ligne.getReference());
+            }
+            invaliderFacture(clientId);
+        }
+    }
+
+    @Override
+    public Reservation reserverArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        try {
+            return service.reserverArticle(reference, quantite, clientId, idRequete);
+        } finally {
+            invaliderArticle(reference);
+        }
+    }
+
+    @Override
+    public boolean confirmerReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        try {
+            return service.confirmerReservation(idReservation, clientId, idRequete);
+        } finally {
+            invaliderFacture(clientId);
+        }
+    }
+
+    /**
+     * Le stock rendu n'est vu qu'apres le TTL ou la verification des modifications (reference inconnue ici)
+     */
+    @Override
+    public boolean libererReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return service.libererReservation(idReservation, clientId, idRequete);
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String idRequete) throws RemoteException {
+        try {
+            return service.ajouterStock(reference, quantite, idRequete);
+        } finally {
+            invaliderArticle(reference);
+        }
+    }
+
+    @Override
+    public RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) throws RemoteException {
+        try {
+            return service.ajouterStockMasse(lignes, creerArticles, idRequete);
+        } finally {
+            for (LigneLivraison ligne : lignes) {
+                invaliderArticle(ligne.getReference());
+            }
+        }
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String idRequete) throws RemoteException {
+        try {
+            return service.payerFacture(clientId, modePaiement, idRequete);
+        } finally {
+            invaliderFacture(clientId);
+        }
+    }
+
+    // Appels transmis tels quels
+
+    @Override
+    public List<String> rechercherArticles(String famille) throws RemoteException {
+        return service.rechercherArticles(famille);
+    }
+
+    @Override
+    public List<Article> rechercherCatalogue(CritereRecherche critere) throws RemoteException {
+        return service.rechercherCatalogue(critere);
+    }
+
+    @Override
+    public ModificationsStock consulterModifications(long depuisVersion) throws RemoteException {
+        return service.consulterModifications(depuisVersion);
+    }
+
+    @Override
+    public PageLignesFacture consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws RemoteException {
+        return service.consulterLignesFacture(clientId, numeroFacture, apresLigne, taille);
+    }
+
+    @Override
+    public double calculerChiffreAffaires(Date date) throws RemoteException {
+        return service.calculerChiffreAffaires(date);
+    }
+
+    @Override
+    public SortedMap<Date, Double> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) throws RemoteException {
+        return service.calculerChiffreAffairesPeriode(debut, fin, modePaiement);
+    }
+
+    @Override
+    public List<LigneRapport> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) throws RemoteException {
+        return service.consulterRapportVentes(debut, fin, dimension);
+    }
+
+    // Cache
+
+    @FunctionalInterface
+    private interface AppelDistant<V> {
+        V appeler() throws RemoteException;
+    }
+
+    private <V> V lire(ConcurrentHashMap<String, Entree<V>> cache, String prefixe, String cle, AppelDistant<V> appel) throws RemoteException {
+        if (cle == null || ttlNs == 0) {
+            return appel.appeler();
+        }
+        Entree<V> entree = cache.get(cle);
+        if (entree != null && entree.expiration - System.nanoTime() > 0) {
+            succes.incrementAndGet();
+            return entree.valeur;
+        }
+        echecs.incrementAndGet();
+
+        long jeton = horloge.get();
+        V valeur = regrouper(prefixe + cle, appel);
+        // Une reference inconnue n'est pas mise en cache (elle peut etre creee a tout moment)
+        if (valeur != null && !invalideDepuis(prefixe + cle, jeton)) {
+            if (cache.size() >= capacite) {
+                purger(cache);
+            }
+            Entree<V> nouvelle = new Entree<>(valeur, System.nanoTime() + ttlNs);
+            cache.put(cle, nouvelle);
+            // Invalidation entre la verification et l'ajout : l'entree est retiree ici (ou par l'invalidation)
+            if (invalideDepuis(prefixe + cle, jeton)) {
+                cache.remove(cle, nouvelle);
+            }
+        }
+        return valeur;
+    }
+
+    private boolean invalideDepuis(String cle, long jeton) {
+        return plancher > jeton || versions.getOrDefault(cle, 0L) > jeton;
+    }
+
+    /**
+     * Un seul appel distant par cle a la fois : les appelants concurrents attendent son resultat
+     */
+    @SuppressWarnings("unchecked")
+    private <V> V regrouper(String cle, AppelDistant<V> appel) throws RemoteException {
+        CompletableFuture<Object> nouveau = new CompletableFuture<>();
+        CompletableFuture<Object> existant = enCours.putIfAbsent(cle, nouveau);
+        if (existant != null) {
+            regroupes.incrementAndGet();
+            try {
+                return (V) existant.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Attente d'un appel regroupe interrompue", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RemoteException) {
+                    throw (RemoteException) e.getCause();
+                }
+                throw new RemoteException("Erreur de l'appel regroupe", e.getCause());
+            }
+        }
+
+        try {
+            V valeur = appel.appeler();
+            nouveau.complete(valeur);
+            return valeur;
+        } catch (RemoteException | RuntimeException e) {
+            nouveau.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCours.remove(cle, nouveau);
+        }
+    }
+
+    private void invaliderArticle(String reference) {
+        invalider(articles, PREFIXE_ARTICLE, reference);
+    }
+
+    /**
+     * Oublie l'en-tete de facture du client et detache l'appel consulterFacture en cours
+     */
+    private void invaliderFacture(String clientId) {
+        invalider(entetes, PREFIXE_ENTETE, clientId);
+        if (clientId != null) {
+            enCours.remove(PREFIXE_FACTURE + clientId);
+        }
+    }
+
+    private <V> void invalider(ConcurrentHashMap<String, Entree<V>> cache, String prefixe, String cle) {
+        if (cle == null) {
+            return;
+        }
+        if (versions.size() >= 2 * capacite) {
+            releverPlancher();
+        }
+        versions.put(prefixe + cle, horloge.incrementAndGet());
+        // Les appels suivants ne rejoignent pas l'appel en cours (parti avant l'ecriture) ; ses appelants gardent son resultat
+        enCours.remove(prefixe + cle);
+        if (cache.remove(cle) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Invalide tous les chargements en cours : les versions par cle anterieures au plancher deviennent inutiles
+     */
+    private void releverPlancher() {
+        long nouveauPlancher = horloge.incrementAndGet();
+        plancher = nouveauPlancher;
+        versions.values().removeIf(version -> version <= nouveauPlancher);
+    }
+
+    private <V> void purger(ConcurrentHashMap<String, Entree<V>> cache) {
+        long maintenant = System.nanoTime();
+        cache.values().removeIf(entree -> entree.expiration - maintenant <= 0);
+        if (cache.size() >= capacite) {
+            // Pas assez d'entrees expirees : repartir d'un cache vide
+            cache.clear();
+        }
+    }
+
+    /**
+     * Oublie les articles modifies par les autres postes depuis la derniere verification
+     * (au plus un appel par intervalle, quel que soit le nombre de lectures)
+     */
+    private void verifier() throws RemoteException {
+        if (verificationNs == 0) {
+            return;
+        }
+        synchronized (verrouVerification) {
+            if (System.nanoTime() - derniereVerification < verificationNs) {
+                return;
+            }
+            ModificationsStock modifications = service.consulterModifications(versionServeur);
+            verifications.incrementAndGet();
+            if (!modifications.isComplet()) {
+                releverPlancher();
+                invalidations.addAndGet(articles.size());
+                articles.clear();
+            } else {
+                for (String reference : modifications.getReferences()) {
+                    invaliderArticle(reference);
+                }
+            }
+            versionServeur = modifications.getVersion();
+            derniereVerification = System.nanoTime();
+        }
+    }
+
+    // Statistiques
+
+    public long getNbSucces() { return succes.get(); }
+    public long getNbEchecs() { return echecs.get(); }
+    public long getNbRegroupes() { return regroupes.get(); }
+
+    public double getTauxSucces() {
+        long total = succes.get() + echecs.get();
+        return total == 0 ? 0.0 : (double) succes.get() / total;
+    }
+
+    public String statistiques() {
+        return String.format("CacheClient{articles=%d, entetes=%d, succes=%d, echecs=%d, taux=%.1f%%, appels regroupes=%d, verifications=%d, invalidations=%d}",
+                articles.size(), entetes.size(), getNbSucces(), getNbEchecs(), getTauxSucces() * 100, getNbRegroupes(),
+                verifications.get(), invalidations.get());
+    }
+}
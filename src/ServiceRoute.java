@@ -0,0 +1,420 @@
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BricoMerlinService reparti sur plusieurs noeuds (un BricoMerlinServer et sa base chacun)
+ *
+ * Les articles sont repartis par hachage de la reference, les factures par hachage de l'identifiant client
+ * (noeud()) : chaque operation sur un article ou une facture va au noeud proprietaire. Un achat dont l'article
+ * et le client ne sont pas sur le meme noeud retire le stock sur le noeud de l'article puis ajoute la ligne
+ * a la facture sur le noeud du client (NoeudBricoMerlin) ; si la facturation echoue, le stock est rendu.
+ * Avec un identifiant de requete, chaque etape passe l'identifiant de l'achat (suffixe par ligne) et le stock
+ * n'est pas rendu apres une erreur : le client renvoie la requete, qui rejoue les etapes deja faites et termine l'achat.
+ * Les recherches et le chiffre d'affaires interrogent tous les noeuds en parallele et fusionnent les reponses.
+ *
+ * La repartition depend du nombre de noeuds : en ajouter un demande de redistribuer les donnees.
+ */
+public class ServiceRoute implements BricoMerlinService, AutoCloseable {
+
+    private final List<BricoMerlinService> services;
+    private final List<NoeudBricoMerlin> noeuds;
+    private final ExecutorService executeur;
+
+    // Verification des caches : derniere version vue de chaque noeud et version composee rendue
+    private final long[] versionsNoeuds;
+    private long version = 0;
+
+    public ServiceRoute(List<BricoMerlinService> services, List<NoeudBricoMerlin> noeuds) {
+        this.services = services;
+        this.noeuds = noeuds;
+        this.versionsNoeuds = new long[services.size()];
+        AtomicInteger numero = new AtomicInteger();
+        this.executeur = Executors.newFixedThreadPool(2 * services.size(), r -> {
+            Thread t = new Thread(r, "service-route-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param urls URL RMI du service de chaque noeud, dans l'ordre de leur -Dbricomerlin.noeud.index
+     */
+    public static ServiceRoute connecter(List<String> urls) throws Exception {
+        List<BricoMerlinService> services = new ArrayList<>();
+        List<NoeudBricoMerlin> noeuds = new ArrayList<>();
+        for (String url : urls) {
+            services.add((BricoMerlinService) Naming.lookup(url));
+            noeuds.add((NoeudBricoMerlin) Naming.lookup(url + "Noeud"));
+        }
+        return new ServiceRoute(services, noeuds);
+    }
+
+    /**
+     * Noeud proprietaire d'une reference ou d'un client (String.hashCode est le meme dans toutes les JVM)
+     */
+    static int noeud(String cle, int nbNoeuds) {
+        int hachage = cle.hashCode();
+        return Math.floorMod(hachage ^ (hachage >>> 16), nbNoeuds);
+    }
+
+    private int noeud(String cle) {
+        return noeud(cle, services.size());
+    }
+
+    // Diffusion
+
+    @FunctionalInterface
+    private interface AppelNoeud<T> {
+        T appeler(BricoMerlinService service) throws RemoteException;
+    }
+
+    /**
+     * Appelle tous les noeuds en parallele
+     * @return La reponse de chaque noeud, dans l'ordre des noeuds
+     */
+    private <T> List<T> diffuser(AppelNoeud<T> appel) throws RemoteException {
+        List<Future<T>> futurs = new ArrayList<>(services.size());
+        for (BricoMerlinService service : services) {
+            futurs.add(executeur.submit(() -> appel.appeler(service)));
+        }
+        List<T> reponses = new ArrayList<>(services.size());
+        try {
+            for (Future<T> futur : futurs) {
+                reponses.add(futur.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("Erreur lors de l'appel des noeuds", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Appel des noeuds interrompu");
+        }
+        return reponses;
+    }
+
+    // Articles
+
+    @Override
+    public Article consulterStock(String reference) throws RemoteException {
+        return services.get(noeud(reference)).consulterStock(reference);
+    }
+
+    @Override
+    public List<String> rechercherArticles(String famille) throws RemoteException {
+        TreeSet<String> references = new TreeSet<>();
+        for (List<String> reponse : diffuser(service -> service.rechercherArticles(famille))) {
+            references.addAll(reponse);
+        }
+        return new ArrayList<>(references);
+    }
+
+    @Override
+    public List<Article> rechercherCatalogue(CritereRecherche critere) throws RemoteException {
+        if (critere == null) {
+            throw new RemoteException("Critere de recherche obligatoire");
+        }
+        // Chaque noeud rend ses premiers articles dans l'ordre de son index (IndexRecherche.ordre) : fusion jusqu'a la limite
+        List<List<Article>> reponses = diffuser(service -> service.rechercherCatalogue(critere));
+        Comparator<Article> ordre = IndexRecherche.ordre(critere);
+        int[] positions = new int[reponses.size()];
+        List<Article> articles = new ArrayList<>();
+        while (articles.size() < critere.getLimite()) {
+            Article suivant = null;
+            int noeudSuivant = -1;
+            for (int n = 0; n < reponses.size(); n++) {
+                if (positions[n] < reponses.get(n).size()) {
+                    Article article = reponses.get(n).get(positions[n]);
+                    if (suivant == null || ordre.compare(article, suivant) < 0) {
+                        suivant = article;
+                        noeudSuivant = n;
+                    }
+                }
+            }
+            if (suivant == null) {
+                break;
+            }
+            positions[noeudSuivant]++;
+            articles.add(suivant);
+        }
+        return articles;
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String idRequete) throws RemoteException {
+        return services.get(noeud(reference)).ajouterStock(reference, quantite, idRequete);
+    }
+
+    @Override
+    public RapportImport ajouterStockMasse(List<LigneLivraison> lignes, boolean creerArticles, String idRequete) throws RemoteException {
+        // Lignes de chaque noeud, avec leur position dans la livraison pour le rapport
+        Map<Integer, List<LigneLivraison>> parNoeud = new LinkedHashMap<>();
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        RapportImport rapport = new RapportImport();
+        for (int i = 0; i < lignes.size(); i++) {
+            LigneLivraison ligne = lignes.get(i);
+            if (ligne.getReference() == null) {
+                rapport.rejeter(i, null, "reference vide");
+                continue;
+            }
+            int noeud = noeud(ligne.getReference());
+            parNoeud.computeIfAbsent(noeud, n -> new ArrayList<>()).add(ligne);
+            positions.computeIfAbsent(noeud, n -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<Integer, List<LigneLivraison>> lot : parNoeud.entrySet()) {
+            List<Integer> positionsLot = positions.get(lot.getKey());
+            rapport.fusionner(services.get(lot.getKey()).ajouterStockMasse(lot.getValue(), creerArticles, etape(idRequete, "n" + lot.getKey())),
+                    positionsLot::get);
+        }
+        return rapport;
+    }
+
+    /**
+     * Modifications de tous les noeuds depuis le dernier appel, sous une version propre a ce ServiceRoute
+     * Si depuisVersion n'est pas la derniere version rendue, la liste est marquee incomplete.
+     */
+    @Override
+    public synchronized ModificationsStock consulterModifications(long depuisVersion) throws RemoteException {
+        TreeSet<String> references = new TreeSet<>();
+        boolean complet = depuisVersion == version;
+        for (int i = 0; i < services.size(); i++) {
+            ModificationsStock modifications = services.get(i).consulterModifications(versionsNoeuds[i]);
+            references.addAll(modifications.getReferences());
+            complet &= modifications.isComplet();
+            versionsNoeuds[i] = modifications.getVersion();
+        }
+        version++;
+        return new ModificationsStock(version, new ArrayList<>(references), complet);
+    }
+
+    // Achats
+
+    @Override
+    public boolean acheterArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        int noeudArticle = noeud(reference);
+        int noeudClient = noeud(clientId);
+        if (noeudArticle == noeudClient) {
+            return services.get(noeudArticle).acheterArticle(reference, quantite, clientId, idRequete);
+        }
+
+        Article article = noeuds.get(noeudArticle).retirerStock(reference, quantite, idRequete);
+        if (article == null) {
+            return false;
+        }
+        facturerOuRendre(clientId, noeudClient, List.of(new LignePanier(reference, quantite)),
+                Map.of(reference, article.getPrixUnitaire()), idRequete);
+        return true;
+    }
+
+    /**
+     * Sur plusieurs noeuds, un panier "tout ou rien" n'est pas atomique : les lignes servies avant un refus
+     * sont rendues, mais un autre client a pu voir le stock diminue entre-temps.
+     */
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String idRequete) throws RemoteException {
+        int noeudClient = noeud(clientId);
+        boolean local = true;
+        for (LignePanier ligne : lignes) {
+            local &= ligne.getReference() == null || noeud(ligne.getReference()) == noeudClient;
+        }
+        if (local) {
+            return services.get(noeudClient).acheterPanier(lignes, clientId, toutOuRien, idRequete);
+        }
+
+        List<ResultatPanier.Statut> statuts = new ArrayList<>(lignes.size());
+        List<LignePanier> acceptees = new ArrayList<>();
+        Map<String, Double> prix = new HashMap<>();
+        try {
+            for (int i = 0; i < lignes.size(); i++) {
+                LignePanier ligne = lignes.get(i);
+                if (ligne.getQuantite() <= 0) {
+                    statuts.add(ResultatPanier.Statut.QUANTITE_INVALIDE);
+                    continue;
+                }
+                if (ligne.getReference() == null) {
+                    statuts.add(ResultatPanier.Statut.ARTICLE_INCONNU);
+                    continue;
+                }
+                int noeudArticle = noeud(ligne.getReference());
+                Article article = noeuds.get(noeudArticle).retirerStock(ligne.getReference(), ligne.getQuantite(), etape(idRequete, "l" + i));
+                if (article != null) {
+                    statuts.add(ResultatPanier.Statut.ACCEPTEE);
+                    acceptees.add(ligne);
+                    prix.put(ligne.getReference(), article.getPrixUnitaire());
+                } else if (services.get(noeudArticle).consulterStock(ligne.getReference()) == null) {
+                    statuts.add(ResultatPanier.Statut.ARTICLE_INCONNU);
+                } else {
+                    statuts.add(ResultatPanier.Statut.STOCK_INSUFFISANT);
+                }
+            }
+        } catch (RemoteException e) {
+            if (idRequete == null) {
+                rendre(acceptees, null);
+            }
+            throw e;
+        }
+
+        if (acceptees.isEmpty() || (toutOuRien && acceptees.size() < lignes.size())) {
+            rendre(acceptees, idRequete);
+            statuts.replaceAll(statut -> statut == ResultatPanier.Statut.ACCEPTEE ? ResultatPanier.Statut.ANNULEE : statut);
+            return new ResultatPanier(statuts, 0);
+        }
+
+        facturerOuRendre(clientId, noeudClient, acceptees, prix, idRequete);
+        double montant = 0;
+        for (LignePanier ligne : acceptees) {
+            montant += ligne.getQuantite() * prix.get(ligne.getReference());
+        }
+        return new ResultatPanier(statuts, montant);
+    }
+
+    // Reservations
+
+    @Override
+    public Reservation reserverArticle(String reference, int quantite, String clientId, String idRequete) throws RemoteException {
+        return services.get(noeud(reference)).reserverArticle(reference, quantite, clientId, idRequete);
+    }
+
+    /**
+     * La reservation est tenue par le noeud de l'article (designe par son identifiant) ; s'il n'est pas celui
+     * du client, elle y est terminee puis facturee sur le noeud du client.
+     */
+    @Override
+    public boolean confirmerReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        int noeudReservation = ReservationsStock.noeud(idReservation, services.size());
+        int noeudClient = noeud(clientId);
+        if (noeudReservation == noeudClient) {
+            return services.get(noeudClient).confirmerReservation(idReservation, clientId, idRequete);
+        }
+
+        Reservation reservation = noeuds.get(noeudReservation).retirerReservation(idReservation, clientId, idRequete);
+        if (reservation == null) {
+            return false;
+        }
+        facturerOuRendre(clientId, noeudClient, List.of(new LignePanier(reservation.getReference(), reservation.getQuantite())),
+                Map.of(reservation.getReference(), reservation.getPrixUnitaire()), idRequete);
+        return true;
+    }
+
+    @Override
+    public boolean libererReservation(long idReservation, String clientId, String idRequete) throws RemoteException {
+        return services.get(ReservationsStock.noeud(idReservation, services.size())).libererReservation(idReservation, clientId, idRequete);
+    }
+
+    private void facturerOuRendre(String clientId, int noeudClient, List<LignePanier> lignes, Map<String, Double> prix,
+                                  String idRequete) throws RemoteException {
+        try {
+            noeuds.get(noeudClient).facturer(clientId, lignes, prix, idRequete);
+        } catch (RemoteException e) {
+            // Avec un identifiant, la facturation a pu aboutir : le stock reste retire jusqu'au renvoi de la requete
+            if (idRequete == null) {
+                rendre(lignes, null);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Identifiant d'une etape d'une requete repartie sur plusieurs noeuds (null si la requete n'en a pas)
+     */
+    private static String etape(String idRequete, String etape) {
+        return idRequete == null ? null : idRequete + '#' + etape;
+    }
+
+    /**
+     * Rend le stock de lignes retirees mais non facturees
+     * @param idRequete Requete d'origine : chaque ligne n'est rendue qu'une fois, meme si la requete est renvoyee
+     */
+    private void rendre(List<LignePanier> lignes, String idRequete) {
+        for (int i = 0; i < lignes.size(); i++) {
+            LignePanier ligne = lignes.get(i);
+            try {
+                services.get(noeud(ligne.getReference())).ajouterStock(ligne.getReference(), ligne.getQuantite(), etape(idRequete, "r" + i));
+            } catch (RemoteException e) {
+                Log.erreur("Impossible de rendre ", ligne.getQuantite(), " x ", ligne.getReference(), ": ", e.getMessage());
+            }
+        }
+    }
+
+    // Factures
+
+    @Override
+    public Facture consulterFacture(String clientId) throws RemoteException {
+        return services.get(noeud(clientId)).consulterFacture(clientId);
+    }
+
+    @Override
+    public EnteteFacture consulterEnteteFacture(String clientId) throws RemoteException {
+        return services.get(noeud(clientId)).consulterEnteteFacture(clientId);
+    }
+
+    @Override
+    public PageLignesFacture consulterLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws RemoteException {
+        return services.get(noeud(clientId)).consulterLignesFacture(clientId, numeroFacture, apresLigne, taille);
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String idRequete) throws RemoteException {
+        return services.get(noeud(clientId)).payerFacture(clientId, modePaiement, idRequete);
+    }
+
+    // Chiffre d'affaires
+
+    @Override
+    public double calculerChiffreAffaires(Date date) throws RemoteException {
+        double total = 0;
+        for (double chiffreAffaires : diffuser(service -> service.calculerChiffreAffaires(date))) {
+            total += chiffreAffaires;
+        }
+        return total;
+    }
+
+    @Override
+    public SortedMap<Date, Double> calculerChiffreAffairesPeriode(Date debut, Date fin, String modePaiement) throws RemoteException {
+        SortedMap<Date, Double> total = new TreeMap<>();
+        for (SortedMap<Date, Double> parJour : diffuser(service -> service.calculerChiffreAffairesPeriode(debut, fin, modePaiement))) {
+            parJour.forEach((jour, montant) -> total.merge(jour, montant, Double::sum));
+        }
+        return total;
+    }
+
+    // Rapports
+
+    @Override
+    public List<LigneRapport> consulterRapportVentes(Date debut, Date fin, DimensionRapport dimension) throws RemoteException {
+        // Une facture est entiere sur le noeud de son client : les groupes des noeuds s'additionnent
+        Map<String, LigneRapport> total = new LinkedHashMap<>();
+        for (List<LigneRapport> lignes : diffuser(service -> service.consulterRapportVentes(debut, fin, dimension))) {
+            for (LigneRapport ligne : lignes) {
+                total.merge(ligne.getCle(), ligne, (a, b) -> new LigneRapport(a.getCle(), a.getMontant() + b.getMontant(),
+                        a.getQuantite() + b.getQuantite(), a.getNbFactures() + b.getNbFactures()));
+            }
+        }
+        List<LigneRapport> resultat = new ArrayList<>(total.values());
+        if (dimension != DimensionRapport.HEURE) {
+            resultat.sort(Comparator.comparingDouble(LigneRapport::getMontant).reversed());
+        }
+        return resultat;
+    }
+
+    @Override
+    public void close() {
+        executeur.shutdown();
+    }
+}
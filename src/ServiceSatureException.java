@@ -0,0 +1,18 @@
+import java.rmi.RemoteException;
+
+/**
+ * Appel refuse par le controle d'admission : le serveur (ou sa base) est sature
+ * Rien n'a ete execute, l'appel peut etre renvoye apres le delai conseille.
+ */
+public class ServiceSatureException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    private final long delaiConseilleMs;
+
+    public ServiceSatureException(String message, long delaiConseilleMs) {
+        super(message);
+        this.delaiConseilleMs = delaiConseilleMs;
+    }
+
+    public long getDelaiConseilleMs() { return delaiConseilleMs; }
+}
@@ -0,0 +1,213 @@
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Persistance des articles, factures, lignes de facture et du chiffre d'affaires
+ * BricoMerlinServer ne fait que la logique du service (cache, moteur de stock) au-dessus de cette interface.
+ *
+ * Implementations : StockageMySQL (la base fait foi) et StockageMemoire (sans base, fichiers locaux optionnels).
+ * Les erreurs du support (base, disque) remontent en SQLException, comme PersistanceStock.
+ */
+public interface StockageBricoMerlin extends AutoCloseable {
+
+    // Articles
+
+    /**
+     * @return L'article, null si la reference est inconnue
+     */
+    Article lireArticle(String reference) throws SQLException;
+
+    /**
+     * @return Tous les articles de la famille, y compris ceux en rupture
+     */
+    List<Article> lireFamille(String famille) throws SQLException;
+
+    /**
+     * @return Les references de la famille ayant du stock
+     */
+    List<String> rechercherArticles(String famille) throws SQLException;
+
+    /**
+     * Cree les articles absents et remet le stock des articles existants a la valeur donnee
+     */
+    void enregistrerArticles(List<Article> articles) throws SQLException;
+
+    int nbArticles() throws SQLException;
+
+    /**
+     * Passe chaque article du catalogue au consommateur, sans charger tout le catalogue en memoire
+     */
+    void parcourirArticles(Consumer<Article> consommateur) throws SQLException;
+
+    /**
+     * @param cleRequete Requete idempotente enregistree (resultat true) avec l'ajout, null si aucune
+     * @return false si la reference est inconnue
+     */
+    boolean ajouterStock(String reference, int quantite, String cleRequete) throws SQLException;
+
+    /**
+     * Decremente le stock si suffisant, sans facture (l'article est facture par le noeud du client)
+     * @param cleRequete Requete idempotente enregistree avec le retrait, null si aucune
+     * @param resultat Resultat de la requete a enregistrer
+     * @return false si la reference est inconnue ou le stock insuffisant
+     */
+    boolean retirerStock(String reference, int quantite, String cleRequete, Object resultat) throws SQLException;
+
+    /**
+     * Applique un lot de reapprovisionnement en une seule transaction
+     * Les lignes d'une meme reference sont cumulees. Une reference inconnue est creee (stock : la quantite livree)
+     * si creerArticles et si la ligne donne sa famille et son prix ; sinon la ligne est rejetee.
+     * @param cleRequete Requete idempotente enregistree (resultat : le bilan) avec le lot, null si aucune
+     * @return Le bilan du lot (positions des rejets : index dans lignes)
+     */
+    RapportImport reapprovisionner(List<LigneLivraison> lignes, boolean creerArticles, String cleRequete) throws SQLException;
+
+    /**
+     * Decremente le stock si suffisant et ajoute la ligne a la facture ouverte du client, de facon atomique
+     * @param cleRequete Requete idempotente enregistree (resultat true) avec l'achat, null si aucune
+     * @return false si la reference est inconnue ou le stock insuffisant (rien n'est modifie)
+     */
+    boolean acheterArticle(String reference, int quantite, String clientId, double prixUnitaire, String cleRequete) throws SQLException;
+
+    /**
+     * Achete un panier de facon atomique : statut par ligne, dans l'ordre du panier
+     * Si toutOuRien et une ligne est refusee, rien n'est modifie et les lignes acceptables sont ANNULEE.
+     * @param cleRequete Requete idempotente enregistree (resultat du panier) avec l'achat, null si aucune
+     */
+    ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String cleRequete) throws SQLException;
+
+    // Factures
+
+    /**
+     * Ajoute des lignes dont le stock est deja reserve (moteur de stock) a la facture ouverte du client
+     * @param cleRequete Requete idempotente enregistree avec les lignes, null si aucune
+     * @param resultat Resultat de la requete a enregistrer
+     */
+    void ajouterLignesFacture(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference,
+                              String cleRequete, Object resultat) throws SQLException;
+
+    /**
+     * @return La facture ouverte du client, null s'il n'en a pas
+     */
+    Facture consulterFacture(String clientId) throws SQLException;
+
+    /**
+     * @return L'en-tete (numero, total, nombre de lignes) de la facture ouverte du client, null s'il n'en a pas
+     */
+    EnteteFacture lireEnteteFacture(String clientId) throws SQLException;
+
+    /**
+     * Lit au plus taille lignes de la facture, d'identifiant strictement superieur a apresLigne, dans l'ordre d'ajout
+     * @return null si la facture n'est plus la facture ouverte du client (payee entre-temps)
+     */
+    PageLignesFacture lireLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws SQLException;
+
+    /**
+     * Paie les factures ouvertes du client et les ajoute au chiffre d'affaires de leur jour de facturation
+     * @param cleRequete Requete idempotente enregistree (resultat true) avec le paiement, null si aucune
+     * @return false si le client n'a pas de facture ouverte
+     */
+    boolean payerFacture(String clientId, String modePaiement, String cleRequete) throws SQLException;
+
+    // Reservations
+
+    /**
+     * Enregistre une reservation, rechargee au demarrage avec son echeance (voir ReservationsStock)
+     * @param retirerStock true pour decrementer le stock dans la meme transaction (false : stock tenu par le moteur de stock)
+     * @param cleRequete Requete idempotente enregistree (resultat : la reservation) avec elle, null si aucune
+     * @return false si la reference est inconnue ou le stock insuffisant (rien n'est enregistre)
+     */
+    boolean enregistrerReservation(Reservation reservation, boolean retirerStock, String cleRequete) throws SQLException;
+
+    /**
+     * Supprime une reservation liberee, echue ou retiree par le noeud du client
+     * @param rendreStock true pour rendre sa quantite au stock dans la meme transaction
+     * @param cleRequete Requete idempotente enregistree avec la suppression, null si aucune
+     * @param resultat Resultat de la requete a enregistrer
+     * @return false si la reservation n'est plus enregistree (rien n'est modifie)
+     */
+    boolean terminerReservation(Reservation reservation, boolean rendreStock, String cleRequete, Object resultat) throws SQLException;
+
+    /**
+     * Supprime la reservation et ajoute sa ligne a la facture ouverte du client, de facon atomique
+     * @param cleRequete Requete idempotente enregistree (resultat true) avec la ligne, null si aucune
+     * @return false si la reservation n'est plus enregistree (rien n'est modifie)
+     */
+    boolean confirmerReservation(Reservation reservation, String cleRequete) throws SQLException;
+
+    /**
+     * Passe au consommateur les reservations enregistrees (rechargement au demarrage)
+     */
+    void chargerReservations(Consumer<Reservation> consommateur) throws SQLException;
+
+    // Chiffre d'affaires
+
+    /**
+     * @return Le chiffre d'affaires (factures payees) du jour de la date
+     */
+    double chiffreAffaires(Date jour) throws SQLException;
+
+    /**
+     * @param modePaiement null pour tous les modes
+     * @return Le chiffre d'affaires des jours de la periode qui en ont un (minuit de chaque jour en cle)
+     */
+    Map<Date, Double> chiffreAffairesParJour(Date debut, Date fin, String modePaiement) throws SQLException;
+
+    // Rapports
+
+    /**
+     * Agregat des ventes payees, tenu a jour par payerFacture et reconstruit a l'ouverture (voir AgregatVentes)
+     * Lu en memoire : les rapports ne touchent ni les tables de factures ni les repliques.
+     */
+    AgregatVentes ventes();
+
+    // Requetes idempotentes
+
+    /**
+     * Passe au consommateur les requetes enregistrees avec une ecriture depuis la date donnee (voir RequetesTraitees)
+     */
+    void chargerRequetes(long depuis, RequetesTraitees.Chargement consommateur) throws SQLException;
+
+    /**
+     * Passe au consommateur la requete enregistree sous cette cle, s'il y en a une
+     * (requete rejouee apres avoir ete oubliee par RequetesTraitees ou absente de son rechargement)
+     */
+    void lireRequete(String cle, RequetesTraitees.Chargement consommateur) throws SQLException;
+
+    /**
+     * Enregistre seule une requete dont l'ecriture est tenue hors du stockage (journal du moteur de stock)
+     * @throws SQLException SQLState 23000 si la cle est deja enregistree
+     */
+    void enregistrerRequete(String cle, Object resultat) throws SQLException;
+
+    /**
+     * Supprime les requetes enregistrees avant la date donnee
+     */
+    void purgerRequetes(long avant) throws SQLException;
+
+    // Lecture
+
+    /**
+     * Stockage a utiliser pour une lecture seule qui tolere un retard borne (replique de lecture)
+     * @param clientId Client dont les propres ecritures doivent etre visibles (null : aucun)
+     * @return Ce stockage s'il n'a pas de replique assez a jour
+     */
+    default StockageBricoMerlin lecture(String clientId) {
+        return this;
+    }
+
+    // Moteur de stock
+
+    /**
+     * @return La persistance sur laquelle le MoteurStock ecrit ses variations
+     */
+    PersistanceStock persistanceStock();
+
+    String statistiques();
+
+    @Override
+    void close();
+}
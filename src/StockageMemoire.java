@@ -0,0 +1,1329 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Stockage entierement en memoire, pour faire tourner un magasin (ou les essais) sans serveur MySQL
+ * Lectures sans verrou : le stock de chaque article est un champ volatile, lu directement dans la table des articles.
+ * Ecritures : verrou par article (pris dans l'ordre des references pour un panier) puis verrou par client.
+ *
+ * Avec un repertoire, chaque ecriture est ajoutee au JournalEcriture avant d'etre appliquee, et l'appelant attend
+ * (verrous relaches) qu'elle soit sur disque : les appels concurrents partagent le meme fsync. Un instantane complet
+ * est ecrit periodiquement (et a la fermeture), puis les segments du journal qu'il couvre sont supprimes.
+ * Au demarrage : instantane puis rejeu du journal au-dela de la sequence de l'instantane.
+ * Les factures payees ne sont conservees que dans le chiffre d'affaires journalier et l'agregat des ventes.
+ * Les reservations en cours sont journalisees avec le retrait de leur stock et conservees dans l'instantane.
+ */
+public class StockageMemoire implements StockageBricoMerlin {
+
+    private static final String FICHIER_INSTANTANE = "instantane.bin";
+    private static final String REPERTOIRE_JOURNAL = "journal";
+    private static final int FORMAT_INSTANTANE = 6;
+
+    // Types d'ecriture dans un enregistrement du journal (un enregistrement peut en contenir plusieurs)
+    private static final byte ARTICLE = 1;
+    private static final byte STOCK = 2;
+    private static final byte ACHAT = 3;
+    private static final byte LIGNES = 4;
+    private static final byte PAIEMENT = 5;
+    private static final byte DELTAS_MOTEUR = 6;
+    private static final byte REQUETE = 7;
+    private static final byte RESERVATION = 8;
+    private static final byte FIN_RESERVATION = 9;
+    // Article cree par un reapprovisionnement : rejoue en ajout si la reference existe deja
+    private static final byte CREATION = 10;
+
+    private final ConcurrentHashMap<String, ArticleMemoire> articles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> familles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompteClient> clients = new ConcurrentHashMap<>();
+    // Chiffre d'affaires par jour (cle : numero du jour depuis 1970, fuseau du serveur) puis par mode de paiement
+    private final ConcurrentSkipListMap<Long, Map<String, BigDecimal>> chiffreAffaires = new ConcurrentSkipListMap<>();
+    // Ventes payees par heure, reference, famille et mode de paiement (rapports)
+    private final AgregatVentes ventes = new AgregatVentes();
+    private volatile long sequenceMoteur = 0;
+    // Requetes idempotentes enregistrees avec leur ecriture (voir RequetesTraitees)
+    private final ConcurrentHashMap<String, RequeteEnregistree> requetes = new ConcurrentHashMap<>();
+    // Reservations en cours, par identifiant (voir ReservationsStock)
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+    // Persistance locale (optionnelle)
+    private final Path repertoire;
+    private final ReentrantReadWriteLock verrouInstantane = new ReentrantReadWriteLock();
+    // Serialise les creations d'articles : une reference absente n'a pas encore de verrou propre
+    // Ordre : verrouInstantane, verrouCreations, puis les articles
+    private final ReentrantLock verrouCreations = new ReentrantLock();
+    private final JournalEcriture journal;
+    private final ScheduledExecutorService sauvegardes;
+
+    private static final class ArticleMemoire {
+        private final String reference;
+        private final String famille;
+        private final double prixUnitaire;
+        private final ReentrantLock verrou = new ReentrantLock();
+        private volatile int stock;
+
+        private ArticleMemoire(String reference, String famille, double prixUnitaire, int stock) {
+            this.reference = reference;
+            this.famille = famille;
+            this.prixUnitaire = prixUnitaire;
+            this.stock = stock;
+        }
+
+        private Article article() {
+            return new Article(reference, famille, prixUnitaire, stock);
+        }
+    }
+
+    /**
+     * Facture ouverte d'un client (protegee par le verrou du compte)
+     */
+    private static final class CompteClient {
+        // Numero de la facture ouverte (ou de la derniere payee) : compteur propre au client
+        private long numeroFacture;
+        private long dateFacturation;
+        private List<LigneFacture> lignes;
+        private BigDecimal montant;
+    }
+
+    private static final class RequeteEnregistree {
+        private final byte[] resultat;
+        private final long horodatage;
+
+        private RequeteEnregistree(byte[] resultat, long horodatage) {
+            this.resultat = resultat;
+            this.horodatage = horodatage;
+        }
+    }
+
+    /**
+     * Stockage sans aucun fichier : tout est perdu a l'arret
+     */
+    public StockageMemoire() {
+        this.repertoire = null;
+        this.journal = null;
+        this.sauvegardes = null;
+    }
+
+    /**
+     * @param repertoire Repertoire de l'instantane et du journal
+     * @param intervalleInstantaneSec Periode des instantanes (0 : seulement a la fermeture)
+     * @param syncJournal false pour ne pas attendre le disque (une panne du systeme peut perdre les dernieres ecritures)
+     * @param fenetreMicros Fenetre de regroupement des fsync du journal
+     * @param tailleSegment Taille maximale d'un segment du journal, en octets
+     */
+    public StockageMemoire(Path repertoire, long intervalleInstantaneSec, boolean syncJournal, long fenetreMicros,
+                           long tailleSegment) throws SQLException {
+        this.repertoire = repertoire;
+        try {
+            Files.createDirectories(repertoire);
+            journal = new JournalEcriture(repertoire.resolve(REPERTOIRE_JOURNAL), tailleSegment, syncJournal, fenetreMicros);
+            int rejoues = charger();
+            Log.info("Stockage memoire charge depuis ", repertoire, ": ", articles.size(), " articles, ",
+                    rejoues, " enregistrement(s) rejoue(s) depuis le journal");
+        } catch (IOException e) {
+            throw new SQLException("Impossible de charger le stockage memoire depuis " + repertoire, e);
+        }
+        // L'etat recharge est ecrit dans un nouvel instantane : le journal rejoue peut etre supprime
+        sauvegarder();
+
+        if (intervalleInstantaneSec > 0) {
+            sauvegardes = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "stockage-memoire-instantane");
+                t.setDaemon(true);
+                return t;
+            });
+            sauvegardes.scheduleWithFixedDelay(() -> {
+                try {
+                    sauvegarder();
+                } catch (SQLException e) {
+                    Log.erreur("Erreur lors de l'instantane du stockage memoire: ", e.getMessage());
+                }
+            }, intervalleInstantaneSec, intervalleInstantaneSec, TimeUnit.SECONDS);
+        } else {
+            sauvegardes = null;
+        }
+    }
+
+    // Articles
+
+    @Override
+    public Article lireArticle(String reference) {
+        ArticleMemoire article = articles.get(reference);
+        return article == null ? null : article.article();
+    }
+
+    @Override
+    public List<Article> lireFamille(String famille) {
+        List<Article> resultat = new ArrayList<>();
+        for (String reference : familles.getOrDefault(famille, Set.of())) {
+            ArticleMemoire article = articles.get(reference);
+            if (article != null) {
+                resultat.add(article.article());
+            }
+        }
+        return resultat;
+    }
+
+    @Override
+    public List<String> rechercherArticles(String famille) {
+        List<String> references = new ArrayList<>();
+        for (String reference : familles.getOrDefault(famille, Set.of())) {
+            ArticleMemoire article = articles.get(reference);
+            if (article != null && article.stock > 0) {
+                references.add(reference);
+            }
+        }
+        return references;
+    }
+
+    @Override
+    public void enregistrerArticles(List<Article> nouveaux) throws SQLException {
+        // Un seul enregistrement (et un seul fsync) pour tout le lot
+        SortedSet<String> references = new TreeSet<>();
+        for (Article article : nouveaux) {
+            references.add(article.getReference());
+        }
+
+        long sequence;
+        verrouInstantane.readLock().lock();
+        verrouCreations.lock();
+        List<ArticleMemoire> verrouilles = verrouiller(references);
+        try {
+            sequence = journaliser(sortie -> {
+                for (Article article : nouveaux) {
+                    sortie.writeByte(ARTICLE);
+                    sortie.writeUTF(article.getReference());
+                    sortie.writeUTF(article.getFamille());
+                    sortie.writeDouble(article.getPrixUnitaire());
+                    sortie.writeInt(article.getStockDisponible());
+                }
+            });
+            for (Article article : nouveaux) {
+                appliquerArticle(article.getReference(), article.getFamille(), article.getPrixUnitaire(), article.getStockDisponible());
+            }
+        } finally {
+            deverrouiller(verrouilles);
+            verrouCreations.unlock();
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+    }
+
+    @Override
+    public int nbArticles() {
+        return articles.size();
+    }
+
+    @Override
+    public void parcourirArticles(Consumer<Article> consommateur) {
+        for (ArticleMemoire article : articles.values()) {
+            consommateur.accept(article.article());
+        }
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String cleRequete) throws SQLException {
+        ArticleMemoire article = articles.get(reference);
+        if (article == null) {
+            return false;
+        }
+
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(true);
+        long sequence;
+        verrouInstantane.readLock().lock();
+        article.verrou.lock();
+        try {
+            verifierRequete(cleRequete);
+            sequence = journaliser(sortie -> {
+                sortie.writeByte(STOCK);
+                sortie.writeUTF(reference);
+                sortie.writeInt(quantite);
+                ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+            });
+            article.stock += quantite;
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+        } finally {
+            article.verrou.unlock();
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public RapportImport reapprovisionner(List<LigneLivraison> lignes, boolean creerArticles, String cleRequete) throws SQLException {
+        RapportImport rapport = new RapportImport();
+        SortedMap<String, Integer> ajouts = new TreeMap<>();
+        Map<String, LigneLivraison> creations = new HashMap<>();
+        Map<String, Integer> quantitesCreees = new HashMap<>();
+        for (int i = 0; i < lignes.size(); i++) {
+            LigneLivraison ligne = lignes.get(i);
+            boolean existe = ligne.getReference() != null && articles.containsKey(ligne.getReference());
+            String motif = ligne.motifRejet(existe, creerArticles);
+            if (motif != null) {
+                rapport.rejeter(i, ligne.getReference(), motif);
+            } else if (existe) {
+                ajouts.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                rapport.ligneAppliquee();
+            } else {
+                creations.putIfAbsent(ligne.getReference(), ligne);
+                quantitesCreees.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                rapport.ligneAppliquee();
+            }
+        }
+        if (ajouts.isEmpty() && creations.isEmpty()) {
+            return rapport;
+        }
+
+        // Tout le lot dans un seul enregistrement du journal (un seul fsync)
+        long maintenant = System.currentTimeMillis();
+        long sequence;
+        boolean creer = !creations.isEmpty();
+        verrouInstantane.readLock().lock();
+        if (creer) {
+            verrouCreations.lock();
+        }
+        List<ArticleMemoire> verrouilles = null;
+        try {
+            // Reference creee entre-temps par une autre requete : sa quantite s'ajoute au stock
+            for (Iterator<String> references = creations.keySet().iterator(); references.hasNext(); ) {
+                String reference = references.next();
+                if (articles.containsKey(reference)) {
+                    ajouts.merge(reference, quantitesCreees.get(reference), Integer::sum);
+                    references.remove();
+                }
+            }
+            verrouilles = verrouiller(new TreeSet<>(ajouts.keySet()));
+            verifierRequete(cleRequete);
+
+            // Bilan complet avant l'enregistrement : il est le resultat de la requete idempotente
+            creations.keySet().forEach(rapport::articleCree);
+            byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(rapport);
+            sequence = journaliser(sortie -> {
+                for (Map.Entry<String, Integer> ajout : ajouts.entrySet()) {
+                    sortie.writeByte(STOCK);
+                    sortie.writeUTF(ajout.getKey());
+                    sortie.writeInt(ajout.getValue());
+                }
+                for (LigneLivraison creation : creations.values()) {
+                    sortie.writeByte(CREATION);
+                    sortie.writeUTF(creation.getReference());
+                    sortie.writeUTF(creation.getFamille());
+                    sortie.writeDouble(creation.getPrixUnitaire());
+                    sortie.writeInt(quantitesCreees.get(creation.getReference()));
+                }
+                ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+            });
+            for (Map.Entry<String, Integer> ajout : ajouts.entrySet()) {
+                articles.get(ajout.getKey()).stock += ajout.getValue();
+            }
+            for (LigneLivraison creation : creations.values()) {
+                appliquerCreation(creation.getReference(), creation.getFamille(), creation.getPrixUnitaire(),
+                        quantitesCreees.get(creation.getReference()));
+            }
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+        } finally {
+            if (verrouilles != null) {
+                deverrouiller(verrouilles);
+            }
+            if (creer) {
+                verrouCreations.unlock();
+            }
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return rapport;
+    }
+
+    @Override
+    public boolean retirerStock(String reference, int quantite, String cleRequete, Object resultat) throws SQLException {
+        ArticleMemoire article = articles.get(reference);
+        if (article == null || quantite <= 0) {
+            return false;
+        }
+
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(resultat);
+        long sequence;
+        verrouInstantane.readLock().lock();
+        article.verrou.lock();
+        try {
+            if (article.stock < quantite) {
+                return false;
+            }
+            verifierRequete(cleRequete);
+            sequence = journaliser(sortie -> {
+                sortie.writeByte(STOCK);
+                sortie.writeUTF(reference);
+                sortie.writeInt(-quantite);
+                ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+            });
+            article.stock -= quantite;
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+        } finally {
+            article.verrou.unlock();
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean acheterArticle(String reference, int quantite, String clientId, double prixUnitaire, String cleRequete) throws SQLException {
+        ArticleMemoire article = articles.get(reference);
+        if (article == null || quantite <= 0) {
+            return false;
+        }
+
+        long sequence;
+        verrouInstantane.readLock().lock();
+        article.verrou.lock();
+        try {
+            if (article.stock < quantite) {
+                return false;
+            }
+            sequence = acheter(clientId, List.of(new LignePanier(reference, quantite)), Map.of(reference, prixUnitaire), true,
+                    cleRequete, true, null);
+        } finally {
+            article.verrou.unlock();
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String cleRequete) throws SQLException {
+        List<ResultatPanier.Statut> statuts = new ArrayList<>(lignes.size());
+
+        // Meme ordre de verrouillage que StockageMySQL (references triees)
+        SortedSet<String> references = new TreeSet<>();
+        for (LignePanier ligne : lignes) {
+            if (ligne.getReference() != null && ligne.getQuantite() > 0 && articles.containsKey(ligne.getReference())) {
+                references.add(ligne.getReference());
+            }
+        }
+
+        long sequence;
+        ResultatPanier resultat;
+        double montant = 0;
+        verrouInstantane.readLock().lock();
+        List<ArticleMemoire> verrouilles = verrouiller(references);
+        try {
+            Map<String, Integer> stockRestant = new HashMap<>();
+            Map<String, Double> prix = new HashMap<>();
+            for (ArticleMemoire article : verrouilles) {
+                stockRestant.put(article.reference, article.stock);
+                prix.put(article.reference, article.prixUnitaire);
+            }
+            List<LignePanier> acceptees = new ArrayList<>();
+            for (LignePanier ligne : lignes) {
+                if (ligne.getQuantite() <= 0) {
+                    statuts.add(ResultatPanier.Statut.QUANTITE_INVALIDE);
+                } else if (ligne.getReference() == null || !stockRestant.containsKey(ligne.getReference())) {
+                    statuts.add(ResultatPanier.Statut.ARTICLE_INCONNU);
+                } else if (stockRestant.get(ligne.getReference()) < ligne.getQuantite()) {
+                    statuts.add(ResultatPanier.Statut.STOCK_INSUFFISANT);
+                } else {
+                    statuts.add(ResultatPanier.Statut.ACCEPTEE);
+                    stockRestant.merge(ligne.getReference(), -ligne.getQuantite(), Integer::sum);
+                    acceptees.add(ligne);
+                    montant += ligne.getQuantite() * prix.get(ligne.getReference());
+                }
+            }
+
+            if (acceptees.isEmpty() || (toutOuRien && acceptees.size() < lignes.size())) {
+                statuts.replaceAll(statut -> statut == ResultatPanier.Statut.ACCEPTEE ? ResultatPanier.Statut.ANNULEE : statut);
+                return new ResultatPanier(statuts, 0);
+            }
+
+            resultat = new ResultatPanier(statuts, montant);
+            sequence = acheter(clientId, acceptees, prix, true, cleRequete, resultat, null);
+        } finally {
+            deverrouiller(verrouilles);
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return resultat;
+    }
+
+    /**
+     * Verrouille les articles existants parmi les references, dans l'ordre des references
+     */
+    private List<ArticleMemoire> verrouiller(SortedSet<String> references) {
+        List<ArticleMemoire> verrouilles = new ArrayList<>(references.size());
+        for (String reference : references) {
+            ArticleMemoire article = articles.get(reference);
+            if (article != null) {
+                article.verrou.lock();
+                verrouilles.add(article);
+            }
+        }
+        return verrouilles;
+    }
+
+    private static void deverrouiller(List<ArticleMemoire> verrouilles) {
+        for (ArticleMemoire article : verrouilles) {
+            article.verrou.unlock();
+        }
+    }
+
+    // Factures
+
+    @Override
+    public void ajouterLignesFacture(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference,
+                                     String cleRequete, Object resultat) throws SQLException {
+        long sequence;
+        verrouInstantane.readLock().lock();
+        try {
+            sequence = acheter(clientId, lignes, prixParReference, false, cleRequete, resultat, null);
+        } finally {
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+    }
+
+    /**
+     * Journalise puis applique un achat ; les articles concernes sont deja verrouilles si le stock est decremente
+     * La requete idempotente eventuelle est dans le meme enregistrement du journal que l'achat.
+     * @param confirmee Reservation deja retiree de la table dont la fin est journalisee avec les lignes, null si aucune
+     * @return La sequence du journal a rendre durable
+     */
+    private long acheter(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference, boolean decrementerStock,
+                         String cleRequete, Object resultat, Reservation confirmee) throws SQLException {
+        CompteClient compte = clients.computeIfAbsent(clientId, c -> new CompteClient());
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(resultat);
+        synchronized (compte) {
+            verifierRequete(cleRequete);
+            long sequence = journaliser(sortie -> {
+                sortie.writeByte(decrementerStock ? ACHAT : LIGNES);
+                sortie.writeUTF(clientId);
+                sortie.writeLong(maintenant);
+                sortie.writeInt(lignes.size());
+                for (LignePanier ligne : lignes) {
+                    sortie.writeUTF(ligne.getReference());
+                    sortie.writeInt(ligne.getQuantite());
+                    sortie.writeDouble(prixParReference.get(ligne.getReference()));
+                }
+                ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+                if (confirmee != null) {
+                    sortie.writeByte(FIN_RESERVATION);
+                    sortie.writeLong(confirmee.getId());
+                }
+            });
+            appliquerAchat(compte, maintenant, lignes, prixParReference, decrementerStock);
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+            return sequence;
+        }
+    }
+
+    @Override
+    public Facture consulterFacture(String clientId) {
+        CompteClient compte = clients.get(clientId);
+        if (compte == null) {
+            return null;
+        }
+        synchronized (compte) {
+            if (compte.lignes == null) {
+                return null;
+            }
+            return new Facture(clientId, compte.montant.doubleValue(), new ArrayList<>(compte.lignes), new Date(compte.dateFacturation));
+        }
+    }
+
+    @Override
+    public EnteteFacture lireEnteteFacture(String clientId) {
+        CompteClient compte = clients.get(clientId);
+        if (compte == null) {
+            return null;
+        }
+        synchronized (compte) {
+            if (compte.lignes == null) {
+                return null;
+            }
+            return new EnteteFacture(clientId, compte.numeroFacture, compte.montant.doubleValue(), compte.lignes.size(),
+                    new Date(compte.dateFacturation));
+        }
+    }
+
+    @Override
+    public PageLignesFacture lireLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) {
+        CompteClient compte = clients.get(clientId);
+        if (compte == null) {
+            return null;
+        }
+        synchronized (compte) {
+            if (compte.lignes == null || compte.numeroFacture != numeroFacture) {
+                return null;
+            }
+            // Identifiant d'une ligne : sa position dans la facture a partir de 1 (les lignes ne sont jamais retirees)
+            int debut = (int) Math.min(Math.max(apresLigne, 0), compte.lignes.size());
+            int fin = Math.min(debut + taille, compte.lignes.size());
+            return new PageLignesFacture(new ArrayList<>(compte.lignes.subList(debut, fin)), fin, fin == compte.lignes.size());
+        }
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String cleRequete) throws SQLException {
+        CompteClient compte = clients.get(clientId);
+        if (compte == null) {
+            return false;
+        }
+
+        long sequence;
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(true);
+        verrouInstantane.readLock().lock();
+        try {
+            synchronized (compte) {
+                if (compte.lignes == null) {
+                    return false;
+                }
+                verifierRequete(cleRequete);
+                sequence = journaliser(sortie -> {
+                    sortie.writeByte(PAIEMENT);
+                    sortie.writeUTF(clientId);
+                    sortie.writeUTF(modePaiement == null ? "" : modePaiement);
+                    ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+                });
+                appliquerPaiement(compte, modePaiement == null ? "" : modePaiement);
+                appliquerRequete(cleRequete, resultatEncode, maintenant);
+            }
+        } finally {
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    // Reservations
+
+    @Override
+    public boolean enregistrerReservation(Reservation reservation, boolean retirerStock, String cleRequete) throws SQLException {
+        ArticleMemoire article = articles.get(reservation.getReference());
+        if (article == null) {
+            return false;
+        }
+
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(reservation);
+        long sequence;
+        verrouInstantane.readLock().lock();
+        article.verrou.lock();
+        try {
+            if (retirerStock && article.stock < reservation.getQuantite()) {
+                return false;
+            }
+            verifierRequete(cleRequete);
+            sequence = journaliser(sortie -> {
+                if (retirerStock) {
+                    sortie.writeByte(STOCK);
+                    sortie.writeUTF(reservation.getReference());
+                    sortie.writeInt(-reservation.getQuantite());
+                }
+                sortie.writeByte(RESERVATION);
+                ecrireReservation(sortie, reservation);
+                ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+            });
+            if (retirerStock) {
+                article.stock -= reservation.getQuantite();
+            }
+            reservations.put(reservation.getId(), reservation);
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+        } finally {
+            article.verrou.unlock();
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean terminerReservation(Reservation reservation, boolean rendreStock, String cleRequete, Object resultat) throws SQLException {
+        ArticleMemoire article = rendreStock ? articles.get(reservation.getReference()) : null;
+
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = cleRequete == null ? null : RequetesTraitees.encoder(resultat);
+        long sequence;
+        verrouInstantane.readLock().lock();
+        if (article != null) {
+            article.verrou.lock();
+        }
+        try {
+            verifierRequete(cleRequete);
+            // Retrait de la table d'abord : une seule terminaison par reservation
+            if (reservations.remove(reservation.getId()) == null) {
+                return false;
+            }
+            try {
+                sequence = journaliser(sortie -> {
+                    sortie.writeByte(FIN_RESERVATION);
+                    sortie.writeLong(reservation.getId());
+                    if (article != null) {
+                        sortie.writeByte(STOCK);
+                        sortie.writeUTF(reservation.getReference());
+                        sortie.writeInt(reservation.getQuantite());
+                    }
+                    ecrireRequete(sortie, cleRequete, resultatEncode, maintenant);
+                });
+            } catch (SQLException e) {
+                reservations.put(reservation.getId(), reservation);
+                throw e;
+            }
+            if (article != null) {
+                article.stock += reservation.getQuantite();
+            }
+            appliquerRequete(cleRequete, resultatEncode, maintenant);
+        } finally {
+            if (article != null) {
+                article.verrou.unlock();
+            }
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean confirmerReservation(Reservation reservation, String cleRequete) throws SQLException {
+        long sequence;
+        verrouInstantane.readLock().lock();
+        try {
+            if (reservations.remove(reservation.getId()) == null) {
+                return false;
+            }
+            try {
+                sequence = acheter(reservation.getClientId(), List.of(new LignePanier(reservation.getReference(), reservation.getQuantite())),
+                        Map.of(reservation.getReference(), reservation.getPrixUnitaire()), false, cleRequete, true, reservation);
+            } catch (SQLException e) {
+                reservations.put(reservation.getId(), reservation);
+                throw e;
+            }
+        } finally {
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+        return true;
+    }
+
+    @Override
+    public void chargerReservations(Consumer<Reservation> consommateur) {
+        reservations.values().forEach(consommateur);
+    }
+
+    // Chiffre d'affaires
+
+    @Override
+    public double chiffreAffaires(Date jour) {
+        Map<String, BigDecimal> parMode = chiffreAffaires.get(numeroJour(jour.getTime()));
+        if (parMode == null) {
+            return 0.0;
+        }
+        synchronized (parMode) {
+            return parMode.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add).doubleValue();
+        }
+    }
+
+    @Override
+    public Map<Date, Double> chiffreAffairesParJour(Date debut, Date fin, String modePaiement) {
+        Map<Date, Double> resultat = new HashMap<>();
+        for (Map.Entry<Long, Map<String, BigDecimal>> entree
+                : chiffreAffaires.subMap(numeroJour(debut.getTime()), true, numeroJour(fin.getTime()), true).entrySet()) {
+            Map<String, BigDecimal> parMode = entree.getValue();
+            BigDecimal montant;
+            synchronized (parMode) {
+                montant = modePaiement == null
+                        ? parMode.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add)
+                        : parMode.get(modePaiement);
+            }
+            if (montant != null) {
+                Instant minuit = LocalDate.ofEpochDay(entree.getKey()).atStartOfDay(ZoneId.systemDefault()).toInstant();
+                resultat.put(Date.from(minuit), montant.doubleValue());
+            }
+        }
+        return resultat;
+    }
+
+    private static long numeroJour(long instant) {
+        return Instant.ofEpochMilli(instant).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    // Rapports
+
+    @Override
+    public AgregatVentes ventes() {
+        return ventes;
+    }
+
+    // Requetes idempotentes
+
+    @Override
+    public void chargerRequetes(long depuis, RequetesTraitees.Chargement consommateur) {
+        requetes.forEach((cle, requete) -> {
+            if (requete.horodatage >= depuis) {
+                consommateur.requete(cle, requete.resultat, requete.horodatage);
+            }
+        });
+    }
+
+    @Override
+    public void lireRequete(String cle, RequetesTraitees.Chargement consommateur) {
+        RequeteEnregistree requete = requetes.get(cle);
+        if (requete != null) {
+            consommateur.requete(cle, requete.resultat, requete.horodatage);
+        }
+    }
+
+    @Override
+    public void enregistrerRequete(String cle, Object resultat) throws SQLException {
+        long maintenant = System.currentTimeMillis();
+        byte[] resultatEncode = RequetesTraitees.encoder(resultat);
+        long sequence;
+        verrouInstantane.readLock().lock();
+        try {
+            verifierRequete(cle);
+            sequence = journaliser(sortie -> ecrireRequete(sortie, cle, resultatEncode, maintenant));
+            appliquerRequete(cle, resultatEncode, maintenant);
+        } finally {
+            verrouInstantane.readLock().unlock();
+        }
+        rendreDurable(sequence);
+    }
+
+    @Override
+    public void purgerRequetes(long avant) {
+        // Non journalise : le rejeu peut rendre une requete purgee, que RequetesTraitees ignore (hors fenetre)
+        requetes.values().removeIf(requete -> requete.horodatage < avant);
+    }
+
+    // Moteur de stock
+
+    @Override
+    public PersistanceStock persistanceStock() {
+        return new PersistanceStock() {
+            @Override
+            public Map<String, Integer> chargerStocks() {
+                Map<String, Integer> stocks = new HashMap<>();
+                articles.forEach((reference, article) -> stocks.put(reference, article.stock));
+                return stocks;
+            }
+
+            @Override
+            public long chargerSequence() {
+                return sequenceMoteur;
+            }
+
+            @Override
+            public void appliquerDeltas(Map<String, Integer> deltas, long sequence) throws SQLException {
+                long numero;
+                verrouInstantane.readLock().lock();
+                try {
+                    numero = journaliser(sortie -> {
+                        sortie.writeByte(DELTAS_MOTEUR);
+                        sortie.writeLong(sequence);
+                        sortie.writeInt(deltas.size());
+                        for (Map.Entry<String, Integer> entree : deltas.entrySet()) {
+                            sortie.writeUTF(entree.getKey());
+                            sortie.writeInt(entree.getValue());
+                        }
+                    });
+                    appliquerDeltasMoteur(deltas, sequence);
+                } finally {
+                    verrouInstantane.readLock().unlock();
+                }
+                rendreDurable(numero);
+            }
+        };
+    }
+
+    @Override
+    public String statistiques() {
+        long ouvertes = clients.values().stream().filter(compte -> {
+            synchronized (compte) {
+                return compte.lignes != null;
+            }
+        }).count();
+        String texte = String.format("StockageMemoire{articles=%d, familles=%d, clients=%d, factures ouvertes=%d, jours de chiffre d'affaires=%d}",
+                articles.size(), familles.size(), clients.size(), ouvertes, chiffreAffaires.size());
+        return journal == null ? texte : texte + " " + journal.statistiques();
+    }
+
+    /**
+     * @return Le journal d'ecriture, null sans repertoire
+     */
+    public JournalEcriture getJournal() { return journal; }
+
+    @Override
+    public void close() {
+        if (repertoire == null) {
+            return;
+        }
+        if (sauvegardes != null) {
+            sauvegardes.shutdown();
+        }
+        try {
+            sauvegarder();
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de l'instantane de fermeture du stockage memoire: ", e.getMessage());
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Log.erreur("Erreur lors de la fermeture du journal du stockage memoire: ", e.getMessage());
+        }
+    }
+
+    // Application des ecritures (en direct et au rejeu du journal)
+
+    /**
+     * Cree l'article ou remet son stock a la valeur donnee (enregistrerArticles)
+     */
+    private void appliquerArticle(String reference, String famille, double prixUnitaire, int stock) {
+        ArticleMemoire existant = creerArticle(reference, famille, prixUnitaire, stock);
+        if (existant != null) {
+            existant.stock = stock;
+        }
+    }
+
+    /**
+     * Cree l'article ou ajoute la quantite a son stock (reapprovisionnement)
+     */
+    private void appliquerCreation(String reference, String famille, double prixUnitaire, int quantite) {
+        ArticleMemoire existant = creerArticle(reference, famille, prixUnitaire, quantite);
+        if (existant != null) {
+            existant.stock += quantite;
+        }
+    }
+
+    /**
+     * @return L'article existant (rien n'est cree), null si l'article a ete cree
+     */
+    private ArticleMemoire creerArticle(String reference, String famille, double prixUnitaire, int stock) {
+        ArticleMemoire existant = articles.putIfAbsent(reference, new ArticleMemoire(reference, famille, prixUnitaire, stock));
+        if (existant == null) {
+            familles.computeIfAbsent(famille, f -> ConcurrentHashMap.newKeySet()).add(reference);
+        }
+        return existant;
+    }
+
+    private void appliquerAchat(CompteClient compte, long date, List<LignePanier> lignes, Map<String, Double> prixParReference,
+                                boolean decrementerStock) {
+        if (compte.lignes == null) {
+            compte.numeroFacture++;
+            compte.dateFacturation = date;
+            compte.lignes = new ArrayList<>();
+            compte.montant = BigDecimal.ZERO;
+        }
+        for (LignePanier ligne : lignes) {
+            if (decrementerStock) {
+                ArticleMemoire article = articles.get(ligne.getReference());
+                article.stock -= ligne.getQuantite();
+            }
+            BigDecimal prix = StockageMySQL.prixDecimal(prixParReference.get(ligne.getReference()));
+            compte.lignes.add(new LigneFacture(ligne.getReference(), ligne.getQuantite(), prix.doubleValue()));
+            compte.montant = compte.montant.add(prix.multiply(BigDecimal.valueOf(ligne.getQuantite())));
+        }
+    }
+
+    private void appliquerPaiement(CompteClient compte, String modePaiement) {
+        Map<String, BigDecimal> parMode = chiffreAffaires.computeIfAbsent(numeroJour(compte.dateFacturation), j -> new HashMap<>());
+        synchronized (parMode) {
+            parMode.merge(modePaiement, compte.montant, BigDecimal::add);
+        }
+        ventes.ajouterFacture(compte.dateFacturation, modePaiement, compte.lignes, reference -> {
+            ArticleMemoire article = articles.get(reference);
+            return article == null ? null : article.famille;
+        });
+        compte.lignes = null;
+        compte.montant = null;
+    }
+
+    /**
+     * Refuse une cle deja enregistree, comme la cle primaire de requetes_traitees dans StockageMySQL
+     */
+    private void verifierRequete(String cle) throws SQLException {
+        if (cle != null && requetes.containsKey(cle)) {
+            throw new SQLException("Requete deja enregistree: " + cle, "23000");
+        }
+    }
+
+    private void appliquerRequete(String cle, byte[] resultat, long horodatage) {
+        if (cle != null) {
+            requetes.put(cle, new RequeteEnregistree(resultat, horodatage));
+        }
+    }
+
+    private void appliquerReservation(Reservation reservation) {
+        reservations.put(reservation.getId(), reservation);
+    }
+
+    private static void ecrireReservation(DataOutputStream sortie, Reservation reservation) throws IOException {
+        sortie.writeLong(reservation.getId());
+        sortie.writeUTF(reservation.getReference());
+        sortie.writeInt(reservation.getQuantite());
+        sortie.writeUTF(reservation.getClientId());
+        sortie.writeDouble(reservation.getPrixUnitaire());
+        sortie.writeLong(reservation.getExpiration().getTime());
+    }
+
+    private static Reservation lireReservation(DataInputStream entree) throws IOException {
+        return new Reservation(entree.readLong(), entree.readUTF(), entree.readInt(), entree.readUTF(), entree.readDouble(),
+                new Date(entree.readLong()));
+    }
+
+    private void appliquerDeltasMoteur(Map<String, Integer> deltas, long sequence) {
+        for (Map.Entry<String, Integer> entree : deltas.entrySet()) {
+            ArticleMemoire article = articles.get(entree.getKey());
+            if (article != null) {
+                article.verrou.lock();
+                try {
+                    article.stock += entree.getValue();
+                } finally {
+                    article.verrou.unlock();
+                }
+            }
+        }
+        sequenceMoteur = sequence;
+    }
+
+    // Instantane et journal
+
+    @FunctionalInterface
+    private interface Enregistrement {
+        void ecrire(DataOutputStream sortie) throws IOException;
+    }
+
+    /**
+     * Ajoute la requete idempotente a l'enregistrement en cours (rien si cle est null)
+     */
+    private static void ecrireRequete(DataOutputStream sortie, String cle, byte[] resultat, long horodatage) throws IOException {
+        if (cle == null) {
+            return;
+        }
+        sortie.writeByte(REQUETE);
+        sortie.writeUTF(cle);
+        sortie.writeLong(horodatage);
+        sortie.writeInt(resultat.length);
+        sortie.write(resultat);
+    }
+
+    /**
+     * Ajoute un enregistrement au journal, sans attendre le disque (sans effet sans repertoire)
+     * Appele sous les verrous des objets modifies : l'ordre du journal est celui des modifications.
+     * @return La sequence de l'enregistrement, 0 sans journal
+     */
+    private long journaliser(Enregistrement enregistrement) throws SQLException {
+        if (journal == null) {
+            return 0;
+        }
+        try {
+            ByteArrayOutputStream contenu = new ByteArrayOutputStream(64);
+            DataOutputStream sortie = new DataOutputStream(contenu);
+            enregistrement.ecrire(sortie);
+            sortie.flush();
+            return journal.ajouter(contenu.toByteArray());
+        } catch (IOException e) {
+            throw new SQLException("Erreur d'ecriture du journal du stockage memoire", e);
+        }
+    }
+
+    /**
+     * Attend que l'enregistrement soit sur disque (verrous relaches, fsync partage avec les autres appelants)
+     */
+    private void rendreDurable(long sequence) throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.attendreDurable(sequence);
+        } catch (IOException e) {
+            throw new SQLException("Erreur de synchronisation du journal du stockage memoire", e);
+        }
+    }
+
+    /**
+     * Ecrit un instantane complet puis supprime les segments du journal qu'il couvre
+     * Les ecritures sont suspendues pendant l'instantane (les lectures continuent).
+     */
+    public void sauvegarder() throws SQLException {
+        if (repertoire == null) {
+            return;
+        }
+        verrouInstantane.writeLock().lock();
+        try {
+            long sequence = journal.getDerniereSequence();
+            ecrireInstantane(sequence);
+            journal.purger(sequence);
+        } catch (IOException e) {
+            throw new SQLException("Erreur lors de l'ecriture de l'instantane", e);
+        } finally {
+            verrouInstantane.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ecrit l'etat dans un fichier temporaire puis le renomme : un instantane est complet ou absent
+     */
+    private void ecrireInstantane(long sequenceJournal) throws IOException {
+        Path temporaire = repertoire.resolve(FICHIER_INSTANTANE + ".tmp");
+        try (FileOutputStream fichier = new FileOutputStream(temporaire.toFile());
+             DataOutputStream sortie = new DataOutputStream(new BufferedOutputStream(fichier))) {
+            sortie.writeInt(FORMAT_INSTANTANE);
+            sortie.writeLong(sequenceJournal);
+            sortie.writeLong(sequenceMoteur);
+
+            sortie.writeInt(articles.size());
+            for (ArticleMemoire article : articles.values()) {
+                sortie.writeUTF(article.reference);
+                sortie.writeUTF(article.famille);
+                sortie.writeDouble(article.prixUnitaire);
+                sortie.writeInt(article.stock);
+            }
+
+            // Tous les comptes, pour conserver la numerotation des factures deja payees
+            List<Map.Entry<String, CompteClient>> comptes = new ArrayList<>(clients.entrySet());
+            sortie.writeInt(comptes.size());
+            for (Map.Entry<String, CompteClient> entree : comptes) {
+                CompteClient compte = entree.getValue();
+                sortie.writeUTF(entree.getKey());
+                sortie.writeLong(compte.numeroFacture);
+                sortie.writeBoolean(compte.lignes != null);
+                if (compte.lignes == null) {
+                    continue;
+                }
+                sortie.writeLong(compte.dateFacturation);
+                sortie.writeInt(compte.lignes.size());
+                for (LigneFacture ligne : compte.lignes) {
+                    sortie.writeUTF(ligne.getReferenceArticle());
+                    sortie.writeInt(ligne.getQuantite());
+                    sortie.writeDouble(ligne.getPrixUnitaire());
+                }
+            }
+
+            sortie.writeInt(chiffreAffaires.size());
+            for (Map.Entry<Long, Map<String, BigDecimal>> jour : chiffreAffaires.entrySet()) {
+                sortie.writeLong(jour.getKey());
+                sortie.writeInt(jour.getValue().size());
+                for (Map.Entry<String, BigDecimal> mode : jour.getValue().entrySet()) {
+                    sortie.writeUTF(mode.getKey());
+                    sortie.writeUTF(mode.getValue().toPlainString());
+                }
+            }
+
+            // Requetes idempotentes
+            List<Map.Entry<String, RequeteEnregistree>> enregistrees = new ArrayList<>(requetes.entrySet());
+            sortie.writeInt(enregistrees.size());
+            for (Map.Entry<String, RequeteEnregistree> entree : enregistrees) {
+                sortie.writeUTF(entree.getKey());
+                sortie.writeLong(entree.getValue().horodatage);
+                sortie.writeInt(entree.getValue().resultat.length);
+                sortie.write(entree.getValue().resultat);
+            }
+
+            // Agregat des ventes
+            ventes.ecrire(sortie);
+
+            // Reservations en cours
+            List<Reservation> enCours = new ArrayList<>(reservations.values());
+            sortie.writeInt(enCours.size());
+            for (Reservation reservation : enCours) {
+                ecrireReservation(sortie, reservation);
+            }
+            sortie.flush();
+            // L'instantane doit etre sur disque avant que les segments qu'il couvre soient supprimes
+            fichier.getFD().sync();
+        }
+        Files.move(temporaire, repertoire.resolve(FICHIER_INSTANTANE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Charge l'instantane puis rejoue le journal
+     * @return Le nombre d'enregistrements rejoues
+     */
+    private int charger() throws IOException {
+        long sequenceJournal = 0;
+        Path instantane = repertoire.resolve(FICHIER_INSTANTANE);
+        if (Files.exists(instantane)) {
+            try (DataInputStream entree = new DataInputStream(new BufferedInputStream(Files.newInputStream(instantane)))) {
+                int format = entree.readInt();
+                if (format != FORMAT_INSTANTANE) {
+                    throw new IOException("Format d'instantane inconnu: " + format);
+                }
+                sequenceJournal = entree.readLong();
+                sequenceMoteur = entree.readLong();
+
+                for (int i = entree.readInt(); i > 0; i--) {
+                    appliquerArticle(entree.readUTF(), entree.readUTF(), entree.readDouble(), entree.readInt());
+                }
+
+                for (int i = entree.readInt(); i > 0; i--) {
+                    CompteClient compte = clients.computeIfAbsent(entree.readUTF(), c -> new CompteClient());
+                    compte.numeroFacture = entree.readLong();
+                    if (!entree.readBoolean()) {
+                        continue;
+                    }
+                    compte.dateFacturation = entree.readLong();
+                    compte.lignes = new ArrayList<>();
+                    compte.montant = BigDecimal.ZERO;
+                    for (int j = entree.readInt(); j > 0; j--) {
+                        LigneFacture ligne = new LigneFacture(entree.readUTF(), entree.readInt(), entree.readDouble());
+                        compte.lignes.add(ligne);
+                        compte.montant = compte.montant.add(StockageMySQL.prixDecimal(ligne.getPrixUnitaire())
+                                .multiply(BigDecimal.valueOf(ligne.getQuantite())));
+                    }
+                }
+
+                for (int i = entree.readInt(); i > 0; i--) {
+                    Map<String, BigDecimal> parMode = new HashMap<>();
+                    long jour = entree.readLong();
+                    for (int j = entree.readInt(); j > 0; j--) {
+                        parMode.put(entree.readUTF(), new BigDecimal(entree.readUTF()));
+                    }
+                    chiffreAffaires.put(jour, parMode);
+                }
+
+                for (int i = entree.readInt(); i > 0; i--) {
+                    String cle = entree.readUTF();
+                    long horodatage = entree.readLong();
+                    byte[] resultat = new byte[entree.readInt()];
+                    entree.readFully(resultat);
+                    appliquerRequete(cle, resultat, horodatage);
+                }
+
+                ventes.lire(entree);
+
+                for (int i = entree.readInt(); i > 0; i--) {
+                    appliquerReservation(lireReservation(entree));
+                }
+            }
+        }
+
+        journal.reprendreApres(sequenceJournal);
+
+        int[] nbRejoues = {0};
+        journal.rejouer(sequenceJournal, (sequence, contenu) -> {
+            rejouer(new DataInputStream(new ByteArrayInputStream(contenu.array(), contenu.position(), contenu.remaining())));
+            nbRejoues[0]++;
+        });
+        return nbRejoues[0];
+    }
+
+    /**
+     * Applique les ecritures d'un enregistrement jusqu'a la fin du flux
+     * @return Le nombre d'ecritures appliquees
+     */
+    private int rejouer(DataInputStream entree) throws IOException {
+        int nb = 0;
+        try {
+            while (true) {
+                rejouerEcriture(entree);
+                nb++;
+            }
+        } catch (EOFException e) {
+            // Fin de l'enregistrement
+        }
+        return nb;
+    }
+
+    private void rejouerEcriture(DataInputStream entree) throws IOException {
+        byte type = entree.readByte();
+        switch (type) {
+            case ARTICLE:
+                appliquerArticle(entree.readUTF(), entree.readUTF(), entree.readDouble(), entree.readInt());
+                break;
+            case CREATION:
+                appliquerCreation(entree.readUTF(), entree.readUTF(), entree.readDouble(), entree.readInt());
+                break;
+            case STOCK: {
+                ArticleMemoire article = articles.get(entree.readUTF());
+                int quantite = entree.readInt();
+                if (article != null) {
+                    article.stock += quantite;
+                }
+                break;
+            }
+            case ACHAT:
+            case LIGNES: {
+                CompteClient compte = clients.computeIfAbsent(entree.readUTF(), c -> new CompteClient());
+                long date = entree.readLong();
+                List<LignePanier> lignes = new ArrayList<>();
+                Map<String, Double> prix = new HashMap<>();
+                for (int i = entree.readInt(); i > 0; i--) {
+                    LignePanier ligne = new LignePanier(entree.readUTF(), entree.readInt());
+                    lignes.add(ligne);
+                    prix.put(ligne.getReference(), entree.readDouble());
+                }
+                appliquerAchat(compte, date, lignes, prix, type == ACHAT);
+                break;
+            }
+            case PAIEMENT: {
+                CompteClient compte = clients.computeIfAbsent(entree.readUTF(), c -> new CompteClient());
+                String modePaiement = entree.readUTF();
+                if (compte.lignes != null) {
+                    appliquerPaiement(compte, modePaiement);
+                }
+                break;
+            }
+            case DELTAS_MOTEUR: {
+                long sequence = entree.readLong();
+                Map<String, Integer> deltas = new HashMap<>();
+                for (int i = entree.readInt(); i > 0; i--) {
+                    deltas.put(entree.readUTF(), entree.readInt());
+                }
+                appliquerDeltasMoteur(deltas, sequence);
+                break;
+            }
+            case REQUETE: {
+                String cle = entree.readUTF();
+                long horodatage = entree.readLong();
+                byte[] resultat = new byte[entree.readInt()];
+                entree.readFully(resultat);
+                appliquerRequete(cle, resultat, horodatage);
+                break;
+            }
+            case RESERVATION:
+                appliquerReservation(lireReservation(entree));
+                break;
+            case FIN_RESERVATION:
+                reservations.remove(entree.readLong());
+                break;
+            default:
+                throw new IOException("Enregistrement de journal inconnu: " + type);
+        }
+    }
+}
@@ -0,0 +1,1165 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.util.*;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Stockage dans la base MySQL, a travers le pool de connexions
+ * Cree la base si besoin et met le schema a jour (MigrationsSchema) a l'ouverture.
+ * Avec des repliques (-Dbricomerlin.repliques), lecture() donne une vue servie par une replique assez a jour.
+ * L'agregat des ventes (rapports) est reconstruit depuis les factures payees a l'ouverture, puis tenu a jour par payerFacture.
+ */
+public class StockageMySQL implements StockageBricoMerlin {
+
+    // Configuration de la base de donnees
+    static final String DB_URL = "jdbc:mysql://localhost:3306/";
+    // Une base par noeud quand plusieurs serveurs partagent le meme MySQL (-Dbricomerlin.db.nom=...)
+    static final String DB_NAME = System.getProperty("bricomerlin.db.nom", "bricomerlin");
+    static final String DB_USER = "root";
+    static final String DB_PASSWORD = "";
+
+    // Configuration du pool de connexions (surchargeable par -Dbricomerlin.pool.xxx=...)
+    private static final int POOL_TAILLE_MIN = Integer.getInteger("bricomerlin.pool.min", 2);
+    private static final int POOL_TAILLE_MAX = Integer.getInteger("bricomerlin.pool.max", 10);
+    private static final long POOL_DELAI_ATTENTE_MS = Long.getLong("bricomerlin.pool.delaiAttenteMs", 5000);
+    private static final long POOL_SEUIL_FUITE_MS = Long.getLong("bricomerlin.pool.seuilFuiteMs", 30000);
+    private static final boolean POOL_VALIDATION = Boolean.parseBoolean(System.getProperty("bricomerlin.pool.validation", "true"));
+
+    // Repliques de lecture : URL JDBC separees par des virgules (vide : aucune), retard maximal accepte,
+    // intervalle du battement qui le mesure et taille maximale du pool de chaque replique
+    private static final String REPLIQUES = System.getProperty("bricomerlin.repliques", "");
+    private static final long REPLIQUES_RETARD_MAX_MS = Long.getLong("bricomerlin.repliques.retardMaxMs", 1000);
+    private static final long REPLIQUES_BATTEMENT_MS = Long.getLong("bricomerlin.repliques.battementMs", 100);
+    private static final int REPLIQUES_POOL_MAX = Integer.getInteger("bricomerlin.repliques.poolMax", POOL_TAILLE_MAX);
+
+    // Lignes de facture lues par aller-retour (indication au pilote, la page est de toute facon bornee par LIMIT)
+    private static final int TAILLE_LOT_LECTURE = Integer.getInteger("bricomerlin.facture.tailleLotLecture", 500);
+
+    private final PoolConnexions pool;
+    private final RepliquesLecture repliques;
+    private final List<StockageMySQL> vuesRepliques = new ArrayList<>();
+    private final AgregatVentes ventes;
+
+    // Lignes des factures payees avec leur date, leur mode de paiement et la famille de l'article (agregat des ventes)
+    private static final String SELECT_VENTES = "SELECT f.id, f.date_facturation, f.mode_paiement, l.reference_article, a.famille, "
+            + "l.quantite, l.prix_unitaire FROM factures f JOIN lignes_facture l ON l.facture_id = f.id "
+            + "LEFT JOIN articles a ON a.reference = l.reference_article";
+
+    /**
+     * Facture payee a ajouter a l'agregat des ventes
+     */
+    private record FacturePayee(long dateFacturation, String modePaiement, List<LigneFacture> lignes, Map<String, String> familles) {
+        void ajouter(AgregatVentes ventes) {
+            ventes.ajouterFacture(dateFacturation, modePaiement, lignes, familles::get);
+        }
+    }
+
+    public StockageMySQL() throws SQLException, ClassNotFoundException {
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        creerBaseDeDonnees();
+        // rewriteBatchedStatements : les executeBatch() partent en un seul aller-retour
+        pool = new PoolConnexions(urlBase(), DB_USER, DB_PASSWORD,
+                POOL_TAILLE_MIN, POOL_TAILLE_MAX, POOL_DELAI_ATTENTE_MS, POOL_SEUIL_FUITE_MS, POOL_VALIDATION);
+        try (Connection connection = pool.obtenir()) {
+            new MigrationsSchema().appliquer(connection);
+        }
+        Log.info("Connexion a la base de donnees etablie (pool de ", POOL_TAILLE_MIN, " a ", POOL_TAILLE_MAX, " connexions)");
+        ventes = chargerVentes();
+        repliques = ouvrirRepliques();
+    }
+
+    /**
+     * Vue en lecture seule sur une replique (ses methodes d'ecriture ne doivent pas etre appelees)
+     */
+    private StockageMySQL(PoolConnexions pool) {
+        this.pool = pool;
+        this.repliques = null;
+        this.ventes = null;
+    }
+
+    private RepliquesLecture ouvrirRepliques() throws SQLException {
+        if (REPLIQUES.isBlank()) {
+            return null;
+        }
+        List<String> urls = new ArrayList<>();
+        List<PoolConnexions> pools = new ArrayList<>();
+        for (String url : REPLIQUES.split(",")) {
+            PoolConnexions replique = new PoolConnexions(url.trim(), DB_USER, DB_PASSWORD,
+                    0, REPLIQUES_POOL_MAX, POOL_DELAI_ATTENTE_MS, POOL_SEUIL_FUITE_MS, POOL_VALIDATION);
+            urls.add(url.trim());
+            pools.add(replique);
+            vuesRepliques.add(new StockageMySQL(replique));
+        }
+        Log.info(urls.size(), " replique(s) de lecture, retard maximal ", REPLIQUES_RETARD_MAX_MS, " ms");
+        return new RepliquesLecture(pool, urls, pools, REPLIQUES_RETARD_MAX_MS, REPLIQUES_BATTEMENT_MS);
+    }
+
+    @Override
+    public StockageBricoMerlin lecture(String clientId) {
+        if (repliques == null) {
+            return this;
+        }
+        int index = repliques.choisir(clientId);
+        return index < 0 ? this : vuesRepliques.get(index);
+    }
+
+    /**
+     * Les prochaines lectures du client restent sur la base principale tant qu'aucune replique n'a cette ecriture
+     */
+    private void ecritureClient(String clientId) {
+        if (repliques != null) {
+            repliques.ecriture(clientId);
+        }
+    }
+
+    /**
+     * URL JDBC de la base Brico-Merlin (partagee avec MaintenanceBDD)
+     */
+    static String urlBase() {
+        return DB_URL + DB_NAME + "?rewriteBatchedStatements=true";
+    }
+
+    public PoolConnexions getPool() { return pool; }
+
+    // Articles
+
+    @Override
+    public Article lireArticle(String reference) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            return lireArticle(connection, reference);
+        }
+    }
+
+    @Override
+    public List<Article> lireFamille(String famille) throws SQLException {
+        List<Article> articles = new ArrayList<>();
+        String query = "SELECT * FROM articles WHERE famille = ?";
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, famille);
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                articles.add(article(rs));
+            }
+        }
+        return articles;
+    }
+
+    @Override
+    public List<String> rechercherArticles(String famille) throws SQLException {
+        List<String> references = new ArrayList<>();
+        String query = "SELECT reference FROM articles WHERE famille = ? AND stock_disponible > 0";
+
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, famille);
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                references.add(rs.getString("reference"));
+            }
+        }
+        return references;
+    }
+
+    @Override
+    public void enregistrerArticles(List<Article> articles) throws SQLException {
+        String upsert = "INSERT INTO articles (reference, famille, prix_unitaire, stock_disponible) VALUES (?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE stock_disponible = VALUES(stock_disponible)";
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(upsert)) {
+            int nbLot = 0;
+            for (Article article : articles) {
+                stmt.setString(1, article.getReference());
+                stmt.setString(2, article.getFamille());
+                stmt.setBigDecimal(3, prixDecimal(article.getPrixUnitaire()));
+                stmt.setInt(4, article.getStockDisponible());
+                stmt.addBatch();
+                if (++nbLot == 1000) {
+                    stmt.executeBatch();
+                    nbLot = 0;
+                }
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Override
+    public int nbArticles() throws SQLException {
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM articles");
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Override
+    public void parcourirArticles(Consumer<Article> consommateur) throws SQLException {
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Lecture en flux (pilote MySQL) : les lignes arrivent au fil du parcours au lieu d'etre toutes chargees
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            ResultSet rs = stmt.executeQuery("SELECT * FROM articles");
+            while (rs.next()) {
+                consommateur.accept(article(rs));
+            }
+        }
+    }
+
+    @Override
+    public boolean ajouterStock(String reference, int quantite, String cleRequete) throws SQLException {
+        String query = "UPDATE articles SET stock_disponible = stock_disponible + ? WHERE reference = ?";
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                    stmt.setInt(1, quantite);
+                    stmt.setString(2, reference);
+                    if (stmt.executeUpdate() == 0) {
+                        connection.rollback();
+                        return false;
+                    }
+                }
+                enregistrerRequete(connection, cleRequete, true);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public RapportImport reapprovisionner(List<LigneLivraison> lignes, boolean creerArticles, String cleRequete) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            return reapprovisionner(connection, lignes, creerArticles, cleRequete);
+        }
+    }
+
+    /**
+     * Reapprovisionnement d'un lot en une transaction sur la connexion donnee (partage avec MaintenanceBDD)
+     * Les UPDATE des references existantes partent en un seul lot JDBC (reecrit en une requete multi-lignes par
+     * rewriteBatchedStatements) ; les INSERT des articles crees partent un par un pour savoir lesquels l'ont ete.
+     * @param cleRequete Requete idempotente enregistree (resultat : le bilan) dans la transaction, null si aucune
+     */
+    static RapportImport reapprovisionner(Connection connection, List<LigneLivraison> lignes, boolean creerArticles,
+                                          String cleRequete) throws SQLException {
+        RapportImport rapport = new RapportImport();
+        Set<String> existantes = referencesExistantes(connection, lignes);
+
+        // Cumul par reference, dans l'ordre des references (ordre de verrouillage deterministe)
+        SortedMap<String, Integer> ajouts = new TreeMap<>();
+        SortedMap<String, LigneLivraison> creations = new TreeMap<>();
+        SortedMap<String, Integer> quantitesCreees = new TreeMap<>();
+        for (int i = 0; i < lignes.size(); i++) {
+            LigneLivraison ligne = lignes.get(i);
+            String motif = ligne.motifRejet(existantes.contains(ligne.getReference()), creerArticles);
+            if (motif != null) {
+                rapport.rejeter(i, ligne.getReference(), motif);
+            } else if (existantes.contains(ligne.getReference())) {
+                ajouts.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                rapport.ligneAppliquee();
+            } else {
+                creations.putIfAbsent(ligne.getReference(), ligne);
+                quantitesCreees.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                rapport.ligneAppliquee();
+            }
+        }
+        if (ajouts.isEmpty() && creations.isEmpty()) {
+            return rapport;
+        }
+
+        String updateStock = "UPDATE articles SET stock_disponible = stock_disponible + ? WHERE reference = ?";
+        // Cree entre-temps par un autre import : la quantite s'ajoute au lieu d'echouer sur la cle
+        String insertArticle = "INSERT INTO articles (reference, famille, prix_unitaire, stock_disponible) VALUES (?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE stock_disponible = stock_disponible + VALUES(stock_disponible)";
+        connection.setAutoCommit(false);
+        try {
+            if (!ajouts.isEmpty()) {
+                try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                    for (Map.Entry<String, Integer> ajout : ajouts.entrySet()) {
+                        stmt.setInt(1, ajout.getValue());
+                        stmt.setString(2, ajout.getKey());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            if (!creations.isEmpty()) {
+                // Une requete par creation (rares) : 1 ligne touchee si l'article est cree, 2 s'il existait deja
+                try (PreparedStatement stmt = connection.prepareStatement(insertArticle)) {
+                    for (LigneLivraison creation : creations.values()) {
+                        stmt.setString(1, creation.getReference());
+                        stmt.setString(2, creation.getFamille());
+                        stmt.setBigDecimal(3, prixDecimal(creation.getPrixUnitaire()));
+                        stmt.setInt(4, quantitesCreees.get(creation.getReference()));
+                        if (stmt.executeUpdate() == 1) {
+                            rapport.articleCree(creation.getReference());
+                        }
+                    }
+                }
+            }
+            enregistrerRequete(connection, cleRequete, rapport);
+            connection.commit();
+        } catch (SQLException e) {
+            annuler(connection);
+            throw e;
+        } finally {
+            restaurerAutoCommit(connection);
+        }
+        return rapport;
+    }
+
+    /**
+     * @return Les references du lot deja au catalogue (une seule requete IN)
+     */
+    private static Set<String> referencesExistantes(Connection connection, List<LigneLivraison> lignes) throws SQLException {
+        Set<String> references = new HashSet<>();
+        for (LigneLivraison ligne : lignes) {
+            if (ligne.getReference() != null) {
+                references.add(ligne.getReference());
+            }
+        }
+        Set<String> existantes = new HashSet<>();
+        if (references.isEmpty()) {
+            return existantes;
+        }
+
+        String query = "SELECT reference FROM articles WHERE reference IN (" + String.join(", ", Collections.nCopies(references.size(), "?")) + ")";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            int i = 1;
+            for (String reference : references) {
+                stmt.setString(i++, reference);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                existantes.add(rs.getString("reference"));
+            }
+        }
+        return existantes;
+    }
+
+    @Override
+    public boolean retirerStock(String reference, int quantite, String cleRequete, Object resultat) throws SQLException {
+        String query = "UPDATE articles SET stock_disponible = stock_disponible - ? WHERE reference = ? AND stock_disponible >= ?";
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                    stmt.setInt(1, quantite);
+                    stmt.setString(2, reference);
+                    stmt.setInt(3, quantite);
+                    if (stmt.executeUpdate() == 0) {
+                        connection.rollback();
+                        return false;
+                    }
+                }
+                enregistrerRequete(connection, cleRequete, resultat);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public boolean acheterArticle(String reference, int quantite, String clientId, double prixUnitaire, String cleRequete) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                // Verifier et decrementer le stock en une seule requete : aucune mise a jour perdue entre acheteurs concurrents
+                String updateStock = "UPDATE articles SET stock_disponible = stock_disponible - ? WHERE reference = ? AND stock_disponible >= ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                    stmt.setInt(1, quantite);
+                    stmt.setString(2, reference);
+                    stmt.setInt(3, quantite);
+                    if (stmt.executeUpdate() == 0) {
+                        // Article inexistant ou stock insuffisant
+                        connection.rollback();
+                        return false;
+                    }
+                }
+
+                // Ajouter a la facture du client
+                ajouterLigneFacture(connection, clientId, reference, quantite, prixUnitaire);
+                enregistrerRequete(connection, cleRequete, true);
+
+                connection.commit();
+                ecritureClient(clientId);
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public ResultatPanier acheterPanier(List<LignePanier> lignes, String clientId, boolean toutOuRien, String cleRequete) throws SQLException {
+        List<ResultatPanier.Statut> statuts = new ArrayList<>(lignes.size());
+
+        // Ordre de verrouillage deterministe (references triees) pour eviter les interblocages entre paniers
+        SortedSet<String> references = new TreeSet<>();
+        for (LignePanier ligne : lignes) {
+            if (ligne.getReference() != null && ligne.getQuantite() > 0) {
+                references.add(ligne.getReference());
+            }
+        }
+
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                Map<String, Article> articles = verrouillerArticles(connection, references);
+
+                // Servir les lignes dans l'ordre du panier
+                Map<String, Integer> stockRestant = new HashMap<>();
+                for (Article article : articles.values()) {
+                    stockRestant.put(article.getReference(), article.getStockDisponible());
+                }
+                List<LignePanier> acceptees = new ArrayList<>();
+                double montant = 0;
+                for (LignePanier ligne : lignes) {
+                    Article article = ligne.getReference() == null ? null : articles.get(ligne.getReference());
+                    if (ligne.getQuantite() <= 0) {
+                        statuts.add(ResultatPanier.Statut.QUANTITE_INVALIDE);
+                    } else if (article == null) {
+                        statuts.add(ResultatPanier.Statut.ARTICLE_INCONNU);
+                    } else if (stockRestant.get(article.getReference()) < ligne.getQuantite()) {
+                        statuts.add(ResultatPanier.Statut.STOCK_INSUFFISANT);
+                    } else {
+                        statuts.add(ResultatPanier.Statut.ACCEPTEE);
+                        stockRestant.merge(article.getReference(), -ligne.getQuantite(), Integer::sum);
+                        acceptees.add(ligne);
+                        montant += ligne.getQuantite() * article.getPrixUnitaire();
+                    }
+                }
+
+                if (acceptees.isEmpty() || (toutOuRien && acceptees.size() < lignes.size())) {
+                    connection.rollback();
+                    statuts.replaceAll(statut -> statut == ResultatPanier.Statut.ACCEPTEE ? ResultatPanier.Statut.ANNULEE : statut);
+                    return new ResultatPanier(statuts, 0);
+                }
+
+                // Mettre a jour le stock (une ligne par reference, dans l'ordre de verrouillage)
+                Map<String, Integer> quantites = new TreeMap<>();
+                for (LignePanier ligne : acceptees) {
+                    quantites.merge(ligne.getReference(), ligne.getQuantite(), Integer::sum);
+                }
+                String updateStock = "UPDATE articles SET stock_disponible = stock_disponible - ? WHERE reference = ?";
+                try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                    for (Map.Entry<String, Integer> entree : quantites.entrySet()) {
+                        stmt.setInt(1, entree.getValue());
+                        stmt.setString(2, entree.getKey());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+
+                // Ajouter toutes les lignes a la facture du client
+                Map<String, Double> prix = new HashMap<>();
+                articles.forEach((reference, article) -> prix.put(reference, article.getPrixUnitaire()));
+                ajouterLignesFacture(connection, clientId, acceptees, prix);
+                ResultatPanier resultat = new ResultatPanier(statuts, montant);
+                enregistrerRequete(connection, cleRequete, resultat);
+
+                connection.commit();
+                ecritureClient(clientId);
+                return resultat;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    // Factures
+
+    @Override
+    public void ajouterLignesFacture(String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference,
+                                     String cleRequete, Object resultat) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                ajouterLignesFacture(connection, clientId, lignes, prixParReference);
+                enregistrerRequete(connection, cleRequete, resultat);
+                connection.commit();
+                ecritureClient(clientId);
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public Facture consulterFacture(String clientId) throws SQLException {
+        String queryFacture = "SELECT * FROM factures WHERE client_id = ? AND payee = false";
+        String queryLignes = "SELECT * FROM lignes_facture WHERE facture_id = ?";
+
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmtFacture = connection.prepareStatement(queryFacture)) {
+            stmtFacture.setString(1, clientId);
+            ResultSet rsFacture = stmtFacture.executeQuery();
+
+            if (rsFacture.next()) {
+                int factureId = rsFacture.getInt("id");
+                double montantTotal = rsFacture.getDouble("montant_total");
+                Date dateFacturation = rsFacture.getTimestamp("date_facturation");
+
+                // Recuperer les lignes de facture
+                List<LigneFacture> lignes = new ArrayList<>();
+                try (PreparedStatement stmtLignes = connection.prepareStatement(queryLignes)) {
+                    stmtLignes.setInt(1, factureId);
+                    ResultSet rsLignes = stmtLignes.executeQuery();
+
+                    while (rsLignes.next()) {
+                        lignes.add(new LigneFacture(
+                                rsLignes.getString("reference_article"),
+                                rsLignes.getInt("quantite"),
+                                rsLignes.getDouble("prix_unitaire")
+                        ));
+                    }
+                }
+
+                return new Facture(clientId, montantTotal, lignes, dateFacturation);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public EnteteFacture lireEnteteFacture(String clientId) throws SQLException {
+        String query = "SELECT f.id, f.montant_total, f.date_facturation, "
+                + "(SELECT COUNT(*) FROM lignes_facture l WHERE l.facture_id = f.id) AS nb_lignes "
+                + "FROM factures f WHERE f.client_id = ? AND f.payee = false";
+
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, clientId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return new EnteteFacture(clientId, rs.getLong("id"), rs.getDouble("montant_total"),
+                        rs.getInt("nb_lignes"), rs.getTimestamp("date_facturation"));
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public PageLignesFacture lireLignesFacture(String clientId, long numeroFacture, long apresLigne, int taille) throws SQLException {
+        // Pagination par cle sur idx_lignes_facture_facture (facture_id, id, ...) : pas de OFFSET a parcourir
+        String queryFacture = "SELECT id FROM factures WHERE id = ? AND client_id = ? AND payee = false";
+        String queryLignes = "SELECT id, reference_article, quantite, prix_unitaire FROM lignes_facture "
+                + "WHERE facture_id = ? AND id > ? ORDER BY id LIMIT ?";
+
+        try (Connection connection = pool.obtenir()) {
+            try (PreparedStatement stmtFacture = connection.prepareStatement(queryFacture)) {
+                stmtFacture.setLong(1, numeroFacture);
+                stmtFacture.setString(2, clientId);
+                if (!stmtFacture.executeQuery().next()) {
+                    return null;
+                }
+            }
+
+            // Une ligne de plus que demande pour savoir s'il reste une page
+            List<LigneFacture> lignes = new ArrayList<>(Math.min(taille, 1024));
+            long curseur = apresLigne;
+            boolean derniere = true;
+            try (PreparedStatement stmtLignes = connection.prepareStatement(queryLignes)) {
+                stmtLignes.setFetchSize(Math.min(taille + 1, TAILLE_LOT_LECTURE));
+                stmtLignes.setLong(1, numeroFacture);
+                stmtLignes.setLong(2, apresLigne);
+                stmtLignes.setInt(3, taille + 1);
+                ResultSet rs = stmtLignes.executeQuery();
+                while (rs.next()) {
+                    if (lignes.size() == taille) {
+                        derniere = false;
+                        break;
+                    }
+                    curseur = rs.getLong("id");
+                    lignes.add(new LigneFacture(rs.getString("reference_article"), rs.getInt("quantite"), rs.getDouble("prix_unitaire")));
+                }
+            }
+            return new PageLignesFacture(lignes, curseur, derniere);
+        }
+    }
+
+    @Override
+    public boolean payerFacture(String clientId, String modePaiement, String cleRequete) throws SQLException {
+        String queryFactures = "SELECT id, montant_total, DATE(date_facturation) AS jour FROM factures WHERE client_id = ? AND payee = false FOR UPDATE";
+        String updateFacture = "UPDATE factures SET payee = true, mode_paiement = ?, date_paiement = NOW() WHERE id = ?";
+        // Agregat journalier du chiffre d'affaires, maintenu dans la meme transaction que le paiement
+        String updateChiffreAffaires = "INSERT INTO chiffre_affaires_journalier (jour, mode_paiement, montant, nb_factures) VALUES (?, ?, ?, 1) "
+                + "ON DUPLICATE KEY UPDATE montant = montant + VALUES(montant), nb_factures = nb_factures + 1";
+
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmtFactures = connection.prepareStatement(queryFactures);
+                 PreparedStatement stmtFacture = connection.prepareStatement(updateFacture);
+                 PreparedStatement stmtChiffreAffaires = connection.prepareStatement(updateChiffreAffaires)) {
+                stmtFactures.setString(1, clientId);
+                ResultSet rs = stmtFactures.executeQuery();
+
+                List<Integer> factureIds = new ArrayList<>();
+                while (rs.next()) {
+                    factureIds.add(rs.getInt("id"));
+                    stmtFacture.setString(1, modePaiement);
+                    stmtFacture.setInt(2, rs.getInt("id"));
+                    stmtFacture.addBatch();
+
+                    stmtChiffreAffaires.setDate(1, rs.getDate("jour"));
+                    stmtChiffreAffaires.setString(2, modePaiement == null ? "" : modePaiement);
+                    stmtChiffreAffaires.setBigDecimal(3, rs.getBigDecimal("montant_total"));
+                    stmtChiffreAffaires.addBatch();
+                }
+
+                if (factureIds.isEmpty()) {
+                    connection.rollback();
+                    return false;
+                }
+                stmtFacture.executeBatch();
+                stmtChiffreAffaires.executeBatch();
+                List<FacturePayee> payees = lireFacturesPayees(connection, factureIds);
+                enregistrerRequete(connection, cleRequete, true);
+                connection.commit();
+                ecritureClient(clientId);
+                // L'agregat ne voit que des paiements valides (reconstruit depuis la base au prochain demarrage)
+                payees.forEach(facture -> facture.ajouter(ventes));
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    // Rapports
+
+    @Override
+    public AgregatVentes ventes() {
+        return ventes;
+    }
+
+    /**
+     * Reconstruit l'agregat des ventes depuis toutes les factures payees (lecture en flux, une seule fois a l'ouverture)
+     */
+    private AgregatVentes chargerVentes() throws SQLException {
+        long debut = System.currentTimeMillis();
+        AgregatVentes agregat = new AgregatVentes();
+        int[] nbFactures = {0};
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            ResultSet rs = stmt.executeQuery(SELECT_VENTES + " WHERE f.payee = true ORDER BY f.id");
+            parcourirFacturesPayees(rs, facture -> {
+                facture.ajouter(agregat);
+                nbFactures[0]++;
+            });
+        }
+        Log.info("Agregat des ventes charge: ", nbFactures[0], " facture(s) payee(s) en ", System.currentTimeMillis() - debut, " ms");
+        return agregat;
+    }
+
+    /**
+     * Lit les factures (payees dans la transaction en cours) pour l'agregat des ventes
+     */
+    private static List<FacturePayee> lireFacturesPayees(Connection connection, List<Integer> factureIds) throws SQLException {
+        List<FacturePayee> payees = new ArrayList<>();
+        String query = SELECT_VENTES + " WHERE f.id IN ("
+                + String.join(", ", Collections.nCopies(factureIds.size(), "?"))
+                + ") ORDER BY f.id";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            for (int i = 0; i < factureIds.size(); i++) {
+                stmt.setInt(i + 1, factureIds.get(i));
+            }
+            parcourirFacturesPayees(stmt.executeQuery(), payees::add);
+        }
+        return payees;
+    }
+
+    /**
+     * Regroupe par facture les lignes de SELECT_VENTES (triees par facture)
+     */
+    private static void parcourirFacturesPayees(ResultSet rs, Consumer<FacturePayee> consommateur) throws SQLException {
+        int factureId = -1;
+        FacturePayee facture = null;
+        while (rs.next()) {
+            if (facture == null || rs.getInt("id") != factureId) {
+                if (facture != null) {
+                    consommateur.accept(facture);
+                }
+                factureId = rs.getInt("id");
+                facture = new FacturePayee(rs.getTimestamp("date_facturation").getTime(), rs.getString("mode_paiement"),
+                        new ArrayList<>(), new HashMap<>());
+            }
+            String reference = rs.getString("reference_article");
+            facture.lignes().add(new LigneFacture(reference, rs.getInt("quantite"), rs.getDouble("prix_unitaire")));
+            facture.familles().put(reference, rs.getString("famille"));
+        }
+        if (facture != null) {
+            consommateur.accept(facture);
+        }
+    }
+
+    // Reservations
+
+    @Override
+    public boolean enregistrerReservation(Reservation reservation, boolean retirerStock, String cleRequete) throws SQLException {
+        String updateStock = "UPDATE articles SET stock_disponible = stock_disponible - ? WHERE reference = ? AND stock_disponible >= ?";
+        String insert = "INSERT INTO reservations (id, reference, quantite, client_id, prix_unitaire, expiration) VALUES (?, ?, ?, ?, ?, ?)";
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                if (retirerStock) {
+                    try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                        stmt.setInt(1, reservation.getQuantite());
+                        stmt.setString(2, reservation.getReference());
+                        stmt.setInt(3, reservation.getQuantite());
+                        if (stmt.executeUpdate() == 0) {
+                            connection.rollback();
+                            return false;
+                        }
+                    }
+                }
+                try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+                    stmt.setLong(1, reservation.getId());
+                    stmt.setString(2, reservation.getReference());
+                    stmt.setInt(3, reservation.getQuantite());
+                    stmt.setString(4, reservation.getClientId());
+                    stmt.setBigDecimal(5, prixDecimal(reservation.getPrixUnitaire()));
+                    stmt.setLong(6, reservation.getExpiration().getTime());
+                    stmt.executeUpdate();
+                }
+                enregistrerRequete(connection, cleRequete, reservation);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public boolean terminerReservation(Reservation reservation, boolean rendreStock, String cleRequete, Object resultat) throws SQLException {
+        String updateStock = "UPDATE articles SET stock_disponible = stock_disponible + ? WHERE reference = ?";
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!supprimerReservation(connection, reservation.getId())) {
+                    connection.rollback();
+                    return false;
+                }
+                if (rendreStock) {
+                    try (PreparedStatement stmt = connection.prepareStatement(updateStock)) {
+                        stmt.setInt(1, reservation.getQuantite());
+                        stmt.setString(2, reservation.getReference());
+                        stmt.executeUpdate();
+                    }
+                }
+                enregistrerRequete(connection, cleRequete, resultat);
+                connection.commit();
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    @Override
+    public boolean confirmerReservation(Reservation reservation, String cleRequete) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            connection.setAutoCommit(false);
+            try {
+                if (!supprimerReservation(connection, reservation.getId())) {
+                    connection.rollback();
+                    return false;
+                }
+                // Le stock est deja retire : seule la ligne de facture est ajoutee
+                ajouterLigneFacture(connection, reservation.getClientId(), reservation.getReference(),
+                        reservation.getQuantite(), reservation.getPrixUnitaire());
+                enregistrerRequete(connection, cleRequete, true);
+                connection.commit();
+                ecritureClient(reservation.getClientId());
+                return true;
+
+            } catch (SQLException e) {
+                annuler(connection);
+                throw e;
+            } finally {
+                restaurerAutoCommit(connection);
+            }
+        }
+    }
+
+    /**
+     * @return false si la reservation n'est plus enregistree
+     */
+    private static boolean supprimerReservation(Connection connection, long idReservation) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM reservations WHERE id = ?")) {
+            stmt.setLong(1, idReservation);
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    @Override
+    public void chargerReservations(Consumer<Reservation> consommateur) throws SQLException {
+        String query = "SELECT id, reference, quantite, client_id, prix_unitaire, expiration FROM reservations";
+        try (Connection connection = pool.obtenir();
+             Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery(query);
+            while (rs.next()) {
+                consommateur.accept(new Reservation(rs.getLong("id"), rs.getString("reference"), rs.getInt("quantite"),
+                        rs.getString("client_id"), rs.getDouble("prix_unitaire"), new Date(rs.getLong("expiration"))));
+            }
+        }
+    }
+
+    // Requetes idempotentes
+
+    /**
+     * Enregistre le resultat de la requete dans la transaction en cours
+     * Une cle deja presente fait echouer l'insertion, donc toute la transaction : la requete n'est jamais appliquee deux fois.
+     */
+    private static void enregistrerRequete(Connection connection, String cleRequete, Object resultat) throws SQLException {
+        if (cleRequete == null) {
+            return;
+        }
+        String insert = "INSERT INTO requetes_traitees (cle, resultat, horodatage) VALUES (?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            stmt.setString(1, cleRequete);
+            stmt.setBytes(2, RequetesTraitees.encoder(resultat));
+            stmt.setLong(3, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void chargerRequetes(long depuis, RequetesTraitees.Chargement consommateur) throws SQLException {
+        String query = "SELECT cle, resultat, horodatage FROM requetes_traitees WHERE horodatage >= ?";
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setLong(1, depuis);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                consommateur.requete(rs.getString("cle"), rs.getBytes("resultat"), rs.getLong("horodatage"));
+            }
+        }
+    }
+
+    @Override
+    public void enregistrerRequete(String cle, Object resultat) throws SQLException {
+        try (Connection connection = pool.obtenir()) {
+            enregistrerRequete(connection, cle, resultat);
+        }
+    }
+
+    @Override
+    public void lireRequete(String cle, RequetesTraitees.Chargement consommateur) throws SQLException {
+        String query = "SELECT resultat, horodatage FROM requetes_traitees WHERE cle = ?";
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, cle);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                consommateur.requete(cle, rs.getBytes("resultat"), rs.getLong("horodatage"));
+            }
+        }
+    }
+
+    @Override
+    public void purgerRequetes(long avant) throws SQLException {
+        String delete = "DELETE FROM requetes_traitees WHERE horodatage < ?";
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(delete)) {
+            stmt.setLong(1, avant);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Chiffre d'affaires
+
+    @Override
+    public double chiffreAffaires(Date jour) throws SQLException {
+        String query = "SELECT SUM(montant) as chiffre_affaires FROM chiffre_affaires_journalier WHERE jour = DATE(?)";
+
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setTimestamp(1, new Timestamp(jour.getTime()));
+            ResultSet rs = stmt.executeQuery();
+
+            if (rs.next()) {
+                return rs.getDouble("chiffre_affaires");
+            }
+            return 0.0;
+        }
+    }
+
+    @Override
+    public Map<Date, Double> chiffreAffairesParJour(Date debut, Date fin, String modePaiement) throws SQLException {
+        String query = "SELECT jour, SUM(montant) as chiffre_affaires FROM chiffre_affaires_journalier "
+                + "WHERE jour BETWEEN DATE(?) AND DATE(?) AND (? IS NULL OR mode_paiement = ?) GROUP BY jour";
+
+        Map<Date, Double> chiffreAffaires = new HashMap<>();
+        try (Connection connection = pool.obtenir();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setTimestamp(1, new Timestamp(debut.getTime()));
+            stmt.setTimestamp(2, new Timestamp(fin.getTime()));
+            stmt.setString(3, modePaiement);
+            stmt.setString(4, modePaiement);
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                chiffreAffaires.put(new Date(rs.getDate("jour").getTime()), rs.getDouble("chiffre_affaires"));
+            }
+        }
+        return chiffreAffaires;
+    }
+
+    @Override
+    public PersistanceStock persistanceStock() {
+        return new PersistanceStockJdbc(pool);
+    }
+
+    @Override
+    public String statistiques() {
+        return repliques == null ? pool.statistiques() : pool.statistiques() + " " + repliques.statistiques();
+    }
+
+    @Override
+    public void close() {
+        if (repliques != null) {
+            repliques.close();
+        }
+        pool.close();
+    }
+
+    // Utilitaire
+
+    private static Article article(ResultSet rs) throws SQLException {
+        return new Article(
+                rs.getString("reference"),
+                rs.getString("famille"),
+                rs.getDouble("prix_unitaire"),
+                rs.getInt("stock_disponible")
+        );
+    }
+
+    private Article lireArticle(Connection connection, String reference) throws SQLException {
+        String query = "SELECT * FROM articles WHERE reference = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, reference);
+            ResultSet rs = stmt.executeQuery();
+
+            if (rs.next()) {
+                return article(rs);
+            }
+            return null;
+        }
+    }
+
+    private static void annuler(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            Log.erreur("Erreur lors du rollback: ", ex.getMessage());
+        }
+    }
+
+    private static void restaurerAutoCommit(Connection connection) {
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            Log.erreur("Erreur lors de la restauration de l'autocommit: ", e.getMessage());
+        }
+    }
+
+    private void ajouterLigneFacture(Connection connection, String clientId, String reference, int quantite, double prixUnitaire) throws SQLException {
+        // Recuperer ou creer la facture du client
+        int factureId = obtenirOuCreerFacture(connection, clientId);
+
+        // Ajouter la ligne de facture
+        BigDecimal prix = prixDecimal(prixUnitaire);
+        String insertLigne = "INSERT INTO lignes_facture (facture_id, reference_article, quantite, prix_unitaire) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insertLigne)) {
+            stmt.setInt(1, factureId);
+            stmt.setString(2, reference);
+            stmt.setInt(3, quantite);
+            stmt.setBigDecimal(4, prix);
+            stmt.executeUpdate();
+        }
+
+        // Mettre a jour le montant total de la facture, dans la meme transaction que la ligne
+        incrementerMontantFacture(connection, factureId, prix.multiply(BigDecimal.valueOf(quantite)));
+    }
+
+    /**
+     * Ajoute le montant des nouvelles lignes au total de la facture (sans re-sommer toutes les lignes)
+     * MaintenanceBDD verifie-factures controle et corrige une eventuelle derive
+     */
+    private void incrementerMontantFacture(Connection connection, int factureId, BigDecimal montant) throws SQLException {
+        String updateMontant = "UPDATE factures SET montant_total = montant_total + ? WHERE id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(updateMontant)) {
+            stmt.setBigDecimal(1, montant);
+            stmt.setInt(2, factureId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Prix arrondi comme la colonne DECIMAL(10,2), pour que le total incremental reste egal a la somme des lignes
+     */
+    static BigDecimal prixDecimal(double prixUnitaire) {
+        return BigDecimal.valueOf(prixUnitaire).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Verrouille (SELECT ... FOR UPDATE) les articles demandes, dans l'ordre des references
+     * @return Les articles existants indexes par reference
+     */
+    private Map<String, Article> verrouillerArticles(Connection connection, SortedSet<String> references) throws SQLException {
+        Map<String, Article> articles = new HashMap<>();
+        if (references.isEmpty()) {
+            return articles;
+        }
+
+        String query = "SELECT * FROM articles WHERE reference IN ("
+                + String.join(", ", Collections.nCopies(references.size(), "?"))
+                + ") ORDER BY reference FOR UPDATE";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            int index = 1;
+            for (String reference : references) {
+                stmt.setString(index++, reference);
+            }
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                Article article = article(rs);
+                articles.put(article.getReference(), article);
+            }
+        }
+        return articles;
+    }
+
+    /**
+     * Ajoute des lignes a la facture du client en un seul lot et incremente son montant une seule fois
+     */
+    private void ajouterLignesFacture(Connection connection, String clientId, List<LignePanier> lignes, Map<String, Double> prixParReference) throws SQLException {
+        int factureId = obtenirOuCreerFacture(connection, clientId);
+        String insertLigne = "INSERT INTO lignes_facture (facture_id, reference_article, quantite, prix_unitaire) VALUES (?, ?, ?, ?)";
+        BigDecimal montantLignes = BigDecimal.ZERO;
+        try (PreparedStatement stmt = connection.prepareStatement(insertLigne)) {
+            for (LignePanier ligne : lignes) {
+                BigDecimal prix = prixDecimal(prixParReference.get(ligne.getReference()));
+                stmt.setInt(1, factureId);
+                stmt.setString(2, ligne.getReference());
+                stmt.setInt(3, ligne.getQuantite());
+                stmt.setBigDecimal(4, prix);
+                stmt.addBatch();
+                montantLignes = montantLignes.add(prix.multiply(BigDecimal.valueOf(ligne.getQuantite())));
+            }
+            stmt.executeBatch();
+        }
+        incrementerMontantFacture(connection, factureId, montantLignes);
+    }
+
+    /**
+     * Facture ouverte du client, verrouillee jusqu'a la fin de la transaction (un paiement concurrent attend les lignes)
+     * Une facture creee en meme temps par une autre transaction est refusee par la cle unique client_ouvert
+     * (migration 10) : celle de l'autre transaction est alors reprise.
+     */
+    private int obtenirOuCreerFacture(Connection connection, String clientId) throws SQLException {
+        // Lecture simple d'abord : une lecture verrouillante sans resultat poserait un verrou d'intervalle,
+        // sur lequel deux creations simultanees s'interbloqueraient
+        String queryExistante = "SELECT id FROM factures WHERE client_id = ? AND payee = false";
+        String verrouExistante = "SELECT id FROM factures WHERE id = ? AND payee = false FOR UPDATE";
+        // Lecture verrouillante : voit la facture validee par l'autre transaction, absente de l'instantane de celle-ci
+        String verrouCreee = "SELECT id FROM factures WHERE client_ouvert = ? FOR UPDATE";
+        String insertFacture = "INSERT INTO factures (client_id, montant_total, date_facturation, payee) VALUES (?, 0, NOW(), false)";
+
+        // Un nouvel essai seulement si la facture trouvee a ete payee entre-temps
+        for (int essai = 0; essai < 3; essai++) {
+            Integer factureId = lireFacture(connection, queryExistante, clientId);
+            if (factureId != null && lireFacture(connection, verrouExistante, factureId) != null) {
+                return factureId;
+            }
+
+            try (PreparedStatement stmt = connection.prepareStatement(insertFacture, Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, clientId);
+                stmt.executeUpdate();
+
+                ResultSet rs = stmt.getGeneratedKeys();
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            } catch (SQLException e) {
+                if (!"23000".equals(e.getSQLState())) {
+                    throw e;
+                }
+                factureId = lireFacture(connection, verrouCreee, clientId);
+                if (factureId != null) {
+                    return factureId;
+                }
+            }
+        }
+
+        throw new SQLException("Impossible de creer une nouvelle facture");
+    }
+
+    /**
+     * @return L'id de la premiere facture lue, null si aucune
+     */
+    private static Integer lireFacture(Connection connection, String query, Object parametre) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setObject(1, parametre);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt("id") : null;
+        }
+    }
+
+    // BDD
+
+    private void creerBaseDeDonnees() throws SQLException {
+        try (Connection tempConnection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             Statement stmt = tempConnection.createStatement()) {
+
+            // Créer la base de données si elle n'existe pas
+            String createDatabase = "CREATE DATABASE IF NOT EXISTS " + DB_NAME +
+                    " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci";
+            stmt.execute(createDatabase);
+
+            Log.info("Base de donnees '", DB_NAME, "' verifiee/creee avec succes");
+        }
+    }
+}
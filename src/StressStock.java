@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test de charge d'une reference tres demandee : de nombreux threads achetent le meme article jusqu'a epuisement
+ * Passe deux fois : directement sur le stockage (decrement conditionnel de acheterArticle), puis a travers
+ * BricoMerlinServer avec sa configuration (cache, moteur de stock, ...). A chaque passe, le stock final doit etre
+ * positif ou nul, les unites vendues plus le stock final egales au stock initial, et les lignes facturees
+ * egales aux unites vendues.
+ *
+ * Usage : java StressStock [--threads N] [--stock N] [--tentatives N]
+ * Le stockage est celui du serveur (-Dbricomerlin.stockage=memoire ou mysql).
+ */
+public class StressStock {
+
+    private static final String PREFIXE_REFERENCE = "STRESS-";
+    private static final String PREFIXE_CLIENT = "STRESS-CLIENT-";
+
+    /**
+     * Achat d'une passe (stockage ou service)
+     */
+    @FunctionalInterface
+    private interface Achat {
+        boolean acheter(String reference, int quantite, String clientId) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface Lecture<T> {
+        T lire(String cle) throws Exception;
+    }
+
+    private final int nbThreads;
+    private final int tentatives;
+
+    public StressStock(int nbThreads, int tentatives) {
+        this.nbThreads = nbThreads;
+        this.tentatives = tentatives;
+    }
+
+    /**
+     * @return true si les invariants sont respectes
+     */
+    private boolean executer(String nom, String reference, int stockInitial, Achat achat, Lecture<Integer> stock,
+                             Lecture<Facture> facture) throws Exception {
+        String prefixeClient = PREFIXE_CLIENT + reference + "-";
+        AtomicLong vendus = new AtomicLong();
+        AtomicLong refus = new AtomicLong();
+        AtomicLong erreurs = new AtomicLong();
+        CountDownLatch depart = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nbThreads; t++) {
+            String clientId = prefixeClient + t;
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom aleatoire = ThreadLocalRandom.current();
+                try {
+                    depart.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < tentatives; i++) {
+                    int quantite = aleatoire.nextInt(1, 4);
+                    try {
+                        if (achat.acheter(reference, quantite, clientId)) {
+                            vendus.addAndGet(quantite);
+                        } else {
+                            refus.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        erreurs.incrementAndGet();
+                    }
+                }
+            }, "stress-" + t);
+            thread.start();
+            threads.add(thread);
+        }
+
+        long debut = System.nanoTime();
+        depart.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duree = System.nanoTime() - debut;
+
+        int stockFinal = stock.lire(reference);
+        long factures = 0;
+        for (int t = 0; t < nbThreads; t++) {
+            Facture ouverte = facture.lire(prefixeClient + t);
+            if (ouverte != null) {
+                for (LigneFacture ligne : ouverte.getLignesFacture()) {
+                    factures += ligne.getReferenceArticle().equals(reference) ? ligne.getQuantite() : 0;
+                }
+            }
+        }
+
+        System.out.printf("%s : %d threads x %d tentatives en %d ms, %d vendus, %d refus, %d erreurs, stock final %d%n",
+                nom, nbThreads, tentatives, duree / 1_000_000, vendus.get(), refus.get(), erreurs.get(), stockFinal);
+        boolean conforme = true;
+        if (stockFinal < 0) {
+            System.out.println("  ECHEC stock final negatif");
+            conforme = false;
+        }
+        if (vendus.get() + stockFinal != stockInitial) {
+            System.out.printf("  ECHEC vendus + stock final = %d, stock initial %d%n", vendus.get() + stockFinal, stockInitial);
+            conforme = false;
+        }
+        if (factures != vendus.get()) {
+            System.out.printf("  ECHEC %d unites facturees pour %d vendues%n", factures, vendus.get());
+            conforme = false;
+        }
+        if (erreurs.get() > 0) {
+            System.out.println("  ECHEC erreurs pendant les achats");
+            conforme = false;
+        }
+        if (refus.get() == 0) {
+            System.out.println("  ECHEC stock jamais epuise (augmenter --tentatives ou reduire --stock)");
+            conforme = false;
+        }
+        return conforme;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nbThreads = 32;
+        int stockInitial = 20000;
+        int tentatives = 1000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": nbThreads = Integer.parseInt(args[++i]); break;
+                case "--stock": stockInitial = Integer.parseInt(args[++i]); break;
+                case "--tentatives": tentatives = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Option inconnue: " + args[i]);
+            }
+        }
+
+        // References propres a l'execution, creees avant le serveur : le moteur de stock les charge au demarrage
+        String suffixe = Long.toString(System.currentTimeMillis(), 36);
+        String referenceStockage = PREFIXE_REFERENCE + "S" + suffixe;
+        String referenceService = PREFIXE_REFERENCE + "V" + suffixe;
+        StockageBricoMerlin stockage = BricoMerlinServer.creerStockage();
+        stockage.enregistrerArticles(List.of(new Article(referenceStockage, "STRESS", 1.0, stockInitial),
+                new Article(referenceService, "STRESS", 1.0, stockInitial)));
+        BricoMerlinServer serveur = new BricoMerlinServer(stockage);
+
+        StressStock stress = new StressStock(nbThreads, tentatives);
+        boolean conforme = stress.executer("Stockage " + stockage.getClass().getSimpleName(), referenceStockage, stockInitial,
+                (reference, quantite, clientId) -> stockage.acheterArticle(reference, quantite, clientId, 1.0, null),
+                reference -> stockage.lireArticle(reference).getStockDisponible(), stockage::consulterFacture);
+        conforme &= stress.executer("Service BricoMerlinServer", referenceService, stockInitial, serveur::acheterArticle,
+                reference -> serveur.consulterStock(reference).getStockDisponible(), serveur::consulterFacture);
+
+        System.out.println(conforme ? "Invariants respectes" : "Invariants NON respectes");
+        System.exit(conforme ? 0 : 1);
+    }
+}